@@ -1,6 +1,9 @@
 package info.umutdeveci;
 
 import static info.umutdeveci.util.Utils.generateRandomAccounts;
+import static io.javalin.apibuilder.ApiBuilder.after;
+import static io.javalin.apibuilder.ApiBuilder.before;
+import static io.javalin.apibuilder.ApiBuilder.delete;
 import static io.javalin.apibuilder.ApiBuilder.get;
 import static io.javalin.apibuilder.ApiBuilder.path;
 import static io.javalin.apibuilder.ApiBuilder.post;
@@ -8,68 +11,272 @@ import static io.javalin.apibuilder.ApiBuilder.post;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.config.Config;
+import info.umutdeveci.config.ServerConfig;
 import info.umutdeveci.controller.AccountController;
+import info.umutdeveci.controller.AccountImportController;
+import info.umutdeveci.controller.HoldController;
+import info.umutdeveci.controller.InterestAccrualController;
+import info.umutdeveci.controller.ScheduledTransferController;
+import info.umutdeveci.controller.StorageController;
+import info.umutdeveci.controller.TraceController;
+import info.umutdeveci.controller.TransferStreamController;
 import info.umutdeveci.plugin.ExceptionHandlerPlugin;
+import info.umutdeveci.plugin.StaticOpenApiPlugin;
+import info.umutdeveci.server.JettyServerFactory;
 import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
 import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.id.AccountNumberGenerator;
 import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.impl.JdbcAccountService;
+import info.umutdeveci.service.impl.PartitionedAccountService;
+import info.umutdeveci.service.impl.TieredAccountService;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.importer.ImportFormat;
+import info.umutdeveci.service.model.ImportResult;
+import info.umutdeveci.service.scheduler.HoldExpirer;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import info.umutdeveci.tcp.BinaryProtocolServer;
+import info.umutdeveci.trace.Tracer;
+import info.umutdeveci.websocket.BalanceBroadcaster;
 import io.javalin.Javalin;
+import io.javalin.apibuilder.EndpointGroup;
 import io.javalin.plugin.json.JavalinJackson;
-import io.javalin.plugin.openapi.OpenApiOptions;
-import io.javalin.plugin.openapi.OpenApiPlugin;
-import io.javalin.plugin.openapi.ui.SwaggerOptions;
-import io.swagger.v3.oas.models.info.Info;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.Collections;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class Application {
 
+    public static final String OPEN_API_PATH = "/swagger-docs";
+    public static final String SWAGGER_UI_PATH = "/swagger-ui";
+    public static final String SUBSCRIBE_PATH = "/account/subscribe";
+
     public static void main(String[] args) {
-        final ObjectMapper mapper = new ObjectMapper()
-            .setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
-            .setDefaultPropertyInclusion(Include.NON_NULL);
+        final ObjectMapper mapper = createObjectMapper();
 
         JavalinJackson.configure(mapper);
 
-        final AccountService accountService = initializeAccountService();
-        final AccountController accountController = new AccountController(accountService);
+        final Config config = Config.load();
+        final AccountEventBus eventBus = new AccountEventBus(config.getInt("events.ring-size", 64 * 1024),
+            config.getLong("events.max-producer-wait-micros", AccountEventBus.DEFAULT_MAX_WAIT_MICROS));
+
+        final Path importFile = parseImportFile(args);
+        final AccountService accountService = initializeAccountService(importFile != null, eventBus, config);
+        final AccountImporter accountImporter = new AccountImporter(accountService, mapper);
+        if (importFile != null) {
+            importAccounts(accountImporter, importFile);
+        }
+
+        final TransferScheduler transferScheduler = new TransferScheduler(accountService, Clock.systemUTC(),
+            config.getLong("scheduler.tick-ms", 100), config.getInt("scheduler.batch-size", 1000));
+        transferScheduler.start();
+
+        new HoldExpirer(accountService, Clock.systemUTC(), config.getLong("holds.expiry-tick-ms", 1000)).start();
+
+        final BalanceBroadcaster balanceBroadcaster = new BalanceBroadcaster(accountService, eventBus, mapper,
+            config.getLong("websocket.tick-ms", 100), config.getInt("websocket.max-in-flight", 4),
+            config.getInt("websocket.max-subscriptions", 1000));
+        balanceBroadcaster.start();
+
+        final Tracer tracer = new Tracer(config.getDouble("tracing.sample-rate", 0.01),
+            config.getInt("tracing.capacity", 1024));
 
-        final Javalin app = Javalin
+        final AccountListCache accountListCache = new AccountListCache(accountService, eventBus, mapper,
+            config.getInt("accounts.list-cache.chunks", 64));
+
+        final int batchParallelism = config.getInt("batch.parallelism", -1);
+        final InterestAccrualBatch interestAccrualBatch = new InterestAccrualBatch(accountService, Clock.systemUTC(),
+            batchParallelism > 0 ? batchParallelism : Runtime.getRuntime().availableProcessors(),
+            config.getInt("batch.chunk-size", 256));
+
+        final AccountNumberGenerator accountNumberGenerator = new AccountNumberGenerator(Clock.systemUTC(),
+            config.getInt("accounts.node-id", 0));
+
+        createApp(ServerConfig.from(config), accountService, accountImporter, transferScheduler, balanceBroadcaster,
+            tracer, accountListCache, interestAccrualBatch, accountNumberGenerator)
+            .start();
+
+        if (config.getBoolean("tcp.enabled", false)) {
+            startBinaryProtocolServer(config, accountService);
+        }
+    }
+
+    public static Javalin createApp(final ServerConfig serverConfig, final AccountService accountService,
+        final AccountImporter accountImporter, final TransferScheduler transferScheduler,
+        final BalanceBroadcaster balanceBroadcaster, final Tracer tracer, final AccountListCache accountListCache,
+        final InterestAccrualBatch interestAccrualBatch, final AccountNumberGenerator accountNumberGenerator) {
+        return Javalin
             .create(config -> {
-                config.registerPlugin(new OpenApiPlugin(createOpenApiOptions(mapper)));
+                config.server(() -> JettyServerFactory.createServer(serverConfig));
+                config.registerPlugin(new StaticOpenApiPlugin(OPEN_API_PATH, SWAGGER_UI_PATH));
                 config.registerPlugin(new ExceptionHandlerPlugin());
                 config.defaultContentType = "application/json";
-            }).routes(() -> {
-                path("account", () -> {
-                    get(accountController::listAccounts);
-                    path(":account_number", () -> {
-                        get(accountController::getAccountDetail);
-                        post("withdraw", accountController::withdraw);
-                        post("deposit", accountController::deposit);
+            }).routes(routes(accountService, accountImporter, transferScheduler, tracer, accountListCache,
+                interestAccrualBatch, accountNumberGenerator))
+            .ws(SUBSCRIBE_PATH, balanceBroadcaster::configure);
+    }
+
+    public static ObjectMapper createObjectMapper() {
+        return new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
+            .setDefaultPropertyInclusion(Include.NON_NULL);
+    }
+
+    /**
+     * Shared by the application and {@link info.umutdeveci.openapi.OpenApiGenerator}, so the generated document always
+     * describes the routes that are actually served.
+     */
+    public static EndpointGroup routes(final AccountService accountService, final AccountImporter accountImporter,
+        final TransferScheduler transferScheduler, final Tracer tracer, final AccountListCache accountListCache,
+        final InterestAccrualBatch interestAccrualBatch, final AccountNumberGenerator accountNumberGenerator) {
+        final AccountController accountController = new AccountController(accountService, accountListCache,
+            accountNumberGenerator);
+        final AccountImportController accountImportController = new AccountImportController(accountImporter);
+        final HoldController holdController = new HoldController(accountService);
+        final TransferStreamController transferStreamController = new TransferStreamController(accountService,
+            createObjectMapper());
+        final ScheduledTransferController scheduledTransferController = new ScheduledTransferController(
+            transferScheduler);
+        final TraceController traceController = new TraceController(tracer);
+        final StorageController storageController = new StorageController(accountService);
+        final InterestAccrualController interestAccrualController = new InterestAccrualController(
+            interestAccrualBatch);
+
+        return () -> {
+            before(ctx -> tracer.begin(ctx.method() + " " + ctx.path()));
+            after(ctx -> tracer.end(ctx.status()));
+            path("account", () -> {
+                get(accountController::listAccounts);
+                post(accountController::openAccount);
+                post("import", accountImportController::importAccounts);
+                get("export", accountController::exportAccounts);
+                path(":account_number", () -> {
+                    get(accountController::getAccountDetail);
+                    delete(accountController::closeAccount);
+                    post("withdraw", accountController::withdraw);
+                    post("deposit", accountController::deposit);
+                    post("hold", holdController::authorize);
+                });
+            });
+            path("hold/:id", () -> {
+                delete(holdController::release);
+                post("capture", holdController::capture);
+            });
+            path("transfer", () -> {
+                post(accountController::transfer);
+                post("multi", accountController::multiTransfer);
+                post("stream", transferStreamController::streamTransfers);
+                path("scheduled", () -> {
+                    post(scheduledTransferController::scheduleTransfer);
+                    path(":id", () -> {
+                        get(scheduledTransferController::getScheduledTransfer);
+                        delete(scheduledTransferController::cancelScheduledTransfer);
                     });
                 });
-                post("transfer", accountController::transfer);
             });
+            path("batch/interest", () -> {
+                post(interestAccrualController::startInterestAccrual);
+                get(interestAccrualController::getInterestAccrual);
+                delete(interestAccrualController::cancelInterestAccrual);
+                post("resume", interestAccrualController::resumeInterestAccrual);
+            });
+            get("debug/traces", traceController::listTraces);
+            get("debug/storage", storageController::getStorageStats);
+        };
+    }
+
+    private static void startBinaryProtocolServer(final Config config, final AccountService accountService) {
+        final BinaryProtocolServer server = new BinaryProtocolServer(accountService, config.getInt("tcp.port", 8090),
+            config.getInt("tcp.io-threads", 2), config.getInt("tcp.buffer-size", 64 * 1024));
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static AccountService initializeAccountService(final boolean importing, final AccountEventBus eventBus,
+        final Config config) {
+        final List<AccountEntity> initialAccounts = importing ? Collections.emptyList() : generateRandomAccounts(50);
+        final int segmentCount = config.getInt("accounts.segments", InMemoryAccountService.DEFAULT_SEGMENT_COUNT);
+        final String storage = config.getString("accounts.storage", "heap");
+        if ("jdbc".equals(storage)) {
+            return initializeJdbcAccountService(initialAccounts, eventBus, config);
+        }
+        if ("partitioned".equals(storage)) {
+            final int partitionCount = config.getInt("accounts.partitions", -1);
+            return new PartitionedAccountService(initialAccounts, eventBus,
+                partitionCount > 0 ? partitionCount : Runtime.getRuntime().availableProcessors());
+        }
+        if (!"tiered".equals(storage)) {
+            return new InMemoryAccountService(initialAccounts, eventBus, segmentCount);
+        }
+
+        final Path file = Paths.get(config.getString("accounts.tiered.file", "accounts.dat"));
+        try {
+            final TieredAccountService accountService = new TieredAccountService(initialAccounts, eventBus,
+                segmentCount, config.getInt("accounts.tiered.hot-capacity", 100_000),
+                config.getLong("accounts.tiered.cold-capacity", 1_000_000), file);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    accountService.close();
+                } catch (IOException e) {
+                    log.warn("Could not delete account file {}", file, e);
+                }
+            }));
+            return accountService;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        app.start(8080);
+    private static AccountService initializeJdbcAccountService(final List<AccountEntity> initialAccounts,
+        final AccountEventBus eventBus, final Config config) {
+        final HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl(config.getString("accounts.jdbc.url", "jdbc:h2:./accounts"));
+        hikariConfig.setMaximumPoolSize(config.getInt("accounts.jdbc.pool-size", 16));
+        final HikariDataSource dataSource = new HikariDataSource(hikariConfig);
+        Runtime.getRuntime().addShutdownHook(new Thread(dataSource::close));
+        return new JdbcAccountService(dataSource, eventBus, initialAccounts);
     }
 
-    private static OpenApiOptions createOpenApiOptions(final ObjectMapper mapper) {
-        final Info applicationInfo = new Info()
-            .title("Account API")
-            .version("1.0")
-            .description(
-                "A simple API that provides account information, withdrawal/deposit operations and transfers between"
-                    + "  accounts. For simplicity sake, all accounts considered to have same currency.");
-        return new OpenApiOptions(applicationInfo)
-            .jacksonMapper(mapper)
-            .path("/swagger-docs")
-            .swagger(new SwaggerOptions("/swagger-ui"));
+    /**
+     * Accounts are seeded from a file with {@code --import <file.csv|file.ndjson>}, random accounts are generated
+     * otherwise.
+     */
+    private static Path parseImportFile(final String[] args) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if ("--import".equals(args[i])) {
+                return Paths.get(args[i + 1]);
+            }
+        }
+        return null;
     }
 
-    private static AccountService initializeAccountService() {
-        final List<AccountEntity> randomAccounts = generateRandomAccounts(50);
-        return new InMemoryAccountService(randomAccounts);
+    private static void importAccounts(final AccountImporter accountImporter, final Path importFile) {
+        final long start = System.nanoTime();
+        try (InputStream inputStream = Files.newInputStream(importFile)) {
+            final ImportResult result = accountImporter
+                .importAccounts(inputStream, ImportFormat.fromFileName(importFile.getFileName().toString()));
+            log.info("Imported {} accounts from {} in {} ms, {} duplicates, {} rejected {}", result.getImported(),
+                importFile, (System.nanoTime() - start) / 1_000_000, result.getDuplicates(), result.getRejected(),
+                result.getErrors());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
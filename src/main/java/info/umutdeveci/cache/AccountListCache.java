@@ -0,0 +1,303 @@
+package info.umutdeveci.cache;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.event.AccountEvent;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.event.AccountEventHandler;
+import info.umutdeveci.service.event.AccountEventType;
+import info.umutdeveci.service.event.EventCursor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the JSON of {@code GET /account} ready to be written. Accounts are split into chunks by account number hash and
+ * the JSON of each chunk is kept separately. Changed accounts are learned from the {@link AccountEventBus}, so when
+ * something changes only the chunks it touched are serialized again and the response is put together from the chunks
+ * by copying bytes. When nothing changed since the last call the same bytes are returned without taking any lock.
+ *
+ * <p>Changed accounts are read back one by one. The result is still a consistent snapshot like
+ * {@link AccountService#getAll()}: after reading them, the cache checks that no event was published in the meantime
+ * and reads again if one was. When the accounts keep changing faster than that, or the cursor is overrun, everything
+ * is rebuilt from {@link AccountService#getAll()}.
+ */
+@Slf4j
+public class AccountListCache {
+
+    private static final int MAX_INCREMENTAL_ATTEMPTS = 3;
+
+    private final AccountService accountService;
+    private final AccountEventBus eventBus;
+    private final ObjectMapper mapper;
+    private final ObjectWriter accountWriter;
+    private final Chunk[] chunks;
+    private final int chunkMask;
+    private final Lock lock = new ReentrantLock();
+    private final EventCursor cursor;
+    private final ChangeCollector changeCollector = new ChangeCollector();
+
+    private volatile Snapshot snapshot;
+    /**
+     * Sequence of the bus the snapshot is up to date with
+     */
+    private volatile long snapshotSequence = -1;
+    private long chunkRebuilds;
+
+    /**
+     * @param chunkCount a power of two, more chunks mean less serialization per change and more to copy per request
+     */
+    public AccountListCache(@NonNull final AccountService accountService, @NonNull final AccountEventBus eventBus,
+        @NonNull final ObjectMapper mapper, final int chunkCount) {
+        if (chunkCount < 1 || Integer.bitCount(chunkCount) != 1) {
+            throw new IllegalArgumentException("Chunk count should be a power of two, got " + chunkCount);
+        }
+        this.accountService = accountService;
+        this.eventBus = eventBus;
+        this.mapper = mapper;
+        this.accountWriter = mapper.writerFor(Account.class);
+        this.chunks = new Chunk[chunkCount];
+        this.chunkMask = chunkCount - 1;
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = new Chunk();
+        }
+        // Created before the first full build, so nothing published after that build is missed
+        // Best effort, an overrun only costs a rebuild
+        this.cursor = eventBus.newLossyCursor();
+    }
+
+    /**
+     * @return the account list as it is now
+     */
+    public Snapshot get() {
+        final Snapshot current = snapshot;
+        if (current != null && snapshotSequence == eventBus.getNextSequence()) {
+            return current;
+        }
+
+        lock.lock();
+        try {
+            return refresh();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of times a chunk was serialized again, for monitoring and tests
+     */
+    public long getChunkRebuilds() {
+        lock.lock();
+        try {
+            return chunkRebuilds;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Snapshot refresh() {
+        if (snapshot == null) {
+            return rebuildAll();
+        }
+
+        boolean readBack = false;
+        for (int attempt = 0; attempt < MAX_INCREMENTAL_ATTEMPTS; attempt++) {
+            drainEvents();
+            if (changeCollector.overrun) {
+                return rebuildAll();
+            }
+
+            for (final String accountNumber : changeCollector.changed) {
+                readBack(accountNumber);
+                readBack = true;
+            }
+            changeCollector.changed.clear();
+
+            final long sequence = cursor.getNextSequence();
+            if (sequence == eventBus.getNextSequence()) {
+                // Nothing changed since the last drain, whatever was read back belongs to the same state
+                if (!readBack) {
+                    snapshotSequence = sequence;
+                    return snapshot;
+                }
+                return publish(sequence);
+            }
+        }
+
+        return rebuildAll();
+    }
+
+    private void drainEvents() {
+        while (cursor.poll(changeCollector, eventBus.getCapacity()) > 0) {
+            // Until the cursor catches up
+        }
+    }
+
+    private void readBack(final String accountNumber) {
+        final Chunk chunk = chunkOf(accountNumber);
+        try {
+            chunk.accounts.put(accountNumber, accountService.get(accountNumber));
+        } catch (Problem problem) {
+            chunk.accounts.remove(accountNumber);
+        }
+        chunk.dirty = true;
+    }
+
+    private Snapshot rebuildAll() {
+        // Events up to here are reflected in getAll, since they are published after the changes are applied
+        drainEvents();
+        changeCollector.changed.clear();
+        changeCollector.overrun = false;
+        final long sequence = cursor.getNextSequence();
+
+        for (final Chunk chunk : chunks) {
+            chunk.accounts.clear();
+            chunk.dirty = true;
+        }
+        final List<Account> accounts = accountService.getAll();
+        for (final Account account : accounts) {
+            chunkOf(account.getAccountNumber()).accounts.put(account.getAccountNumber(), account);
+        }
+
+        // Events published during getAll may already be in it, reading them back later does no harm
+        return publish(sequence);
+    }
+
+    private Snapshot publish(final long sequence) {
+        int size = 2;
+        int nonEmptyChunks = 0;
+        for (final Chunk chunk : chunks) {
+            if (chunk.dirty) {
+                chunk.serialize();
+                chunk.dirty = false;
+                chunkRebuilds++;
+            }
+            if (chunk.json.length > 0) {
+                size += chunk.json.length;
+                nonEmptyChunks++;
+            }
+        }
+        // Separators between the chunks
+        size += Math.max(0, nonEmptyChunks - 1);
+
+        final byte[] json = new byte[size];
+        int position = 0;
+        json[position++] = '[';
+        for (final Chunk chunk : chunks) {
+            if (chunk.json.length == 0) {
+                continue;
+            }
+            if (position > 1) {
+                json[position++] = ',';
+            }
+            System.arraycopy(chunk.json, 0, json, position, chunk.json.length);
+            position += chunk.json.length;
+        }
+        json[position] = ']';
+
+        final Snapshot published = new Snapshot(json);
+        snapshot = published;
+        snapshotSequence = sequence;
+        return published;
+    }
+
+    private Chunk chunkOf(final String accountNumber) {
+        final int hash = accountNumber.hashCode();
+        return chunks[(hash ^ (hash >>> 16)) & chunkMask];
+    }
+
+    private final class Chunk {
+
+        private final Map<String, Account> accounts = new TreeMap<>();
+        private byte[] json = new byte[0];
+        private boolean dirty;
+
+        /**
+         * Writes the accounts comma separated, without the enclosing brackets
+         */
+        private void serialize() {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(accounts.size() * 64);
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                boolean first = true;
+                for (final Account account : accounts.values()) {
+                    if (!first) {
+                        generator.writeRaw(',');
+                    }
+                    accountWriter.writeValue(generator, account);
+                    first = false;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            json = out.toByteArray();
+        }
+    }
+
+    private static final class ChangeCollector implements AccountEventHandler {
+
+        private final Set<String> changed = new HashSet<>();
+        private boolean overrun;
+
+        @Override
+        public void onEvent(final AccountEvent event) {
+            changed.add(event.getAccountNumber());
+            if (event.getType() == AccountEventType.TRANSFER_APPLIED) {
+                changed.add(event.getToAccountNumber());
+            }
+        }
+
+        @Override
+        public void onOverrun(final long missedEvents) {
+            log.warn("Account list cache missed {} account events, rebuilding it", missedEvents);
+            overrun = true;
+        }
+    }
+
+    /**
+     * The serialized account list at one point in time. The gzip variant is compressed the first time it is asked for.
+     */
+    public static final class Snapshot {
+
+        private final byte[] json;
+        private volatile byte[] gzip;
+
+        private Snapshot(final byte[] json) {
+            this.json = json;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public byte[] getGzip() {
+            byte[] compressed = gzip;
+            if (compressed == null) {
+                // Two threads may both compress it the first time, which is cheaper than making the others wait
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+                try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                    gzipOut.write(json);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                compressed = out.toByteArray();
+                gzip = compressed;
+            }
+            return compressed;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package info.umutdeveci.client;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import info.umutdeveci.Application;
+import info.umutdeveci.controller.request.DepositRequest;
+import info.umutdeveci.controller.request.MultiTransferRequest;
+import info.umutdeveci.controller.request.TransferRequest;
+import info.umutdeveci.controller.request.WithdrawRequest;
+import info.umutdeveci.controller.response.MultiTransferResponse;
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.controller.response.TransferResponse;
+import info.umutdeveci.controller.response.TransferStreamResult;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.model.TransferLeg;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import lombok.NonNull;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Typed client of the account API, for services that call it over HTTP. Every call is asynchronous and completes
+ * exceptionally with an {@link AccountClientException} when the server rejects it. Connections are kept alive and
+ * reused by the underlying {@link HttpClient}, which keeps a pool per host ({@code jdk.httpclient.connectionPoolSize}
+ * bounds it); HTTP/1.1 is used, so concurrent calls use as many connections as there are calls in flight.
+ *
+ * <p>With {@link AccountClientOptions#isBatching()} transfers are combined into {@code POST /transfer/stream}
+ * requests by a {@link TransferBatcher}, which saves a request per transfer at the cost of up to one batch window of
+ * latency. A batched transfer fails or succeeds on its own, exactly as with {@code POST /transfer}.
+ *
+ * <p>One client should be shared by all threads of an application. {@link #getStats()} reports latency and
+ * throughput as seen by the client.
+ */
+public class AccountClient implements Closeable {
+
+    private static final String JSON = "application/json";
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final URI baseUri;
+    private final Duration requestTimeout;
+    private final HttpClient httpClient;
+    private final ObjectMapper mapper;
+    private final ObjectReader streamResultReader;
+    private final ClientMetrics metrics = new ClientMetrics();
+    private final TransferBatcher batcher;
+
+    public AccountClient(@NonNull final AccountClientOptions options) {
+        if (options.getBaseUri() == null) {
+            throw new IllegalArgumentException("Base URI is required");
+        }
+        this.baseUri = options.getBaseUri();
+        this.requestTimeout = options.getRequestTimeout();
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(options.getConnectTimeout())
+            .build();
+        this.mapper = Application.createObjectMapper();
+        this.streamResultReader = mapper.readerFor(TransferStreamResult.class);
+        this.batcher = options.isBatching() ? new TransferBatcher(this::sendTransferStream, metrics,
+            options.getBatchWindow().toNanos(), options.getMaxBatchSize()) : null;
+    }
+
+    public CompletableFuture<List<Account>> listAccounts() {
+        return call(get("/account"), mapper.getTypeFactory().constructCollectionType(List.class, Account.class));
+    }
+
+    public CompletableFuture<Account> getAccount(@NonNull final String accountNumber) {
+        return call(get("/account/" + encode(accountNumber)), mapper.constructType(Account.class));
+    }
+
+    public CompletableFuture<Account> withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount) {
+        return withdraw(accountNumber, amount, null);
+    }
+
+    /**
+     * @param expectedVersion the withdrawal is applied only if the account still has this version, null to apply it
+     *                        unconditionally
+     */
+    public CompletableFuture<Account> withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion) {
+        return call(post("/account/" + encode(accountNumber) + "/withdraw", new WithdrawRequest(amount,
+            expectedVersion)), mapper.constructType(Account.class));
+    }
+
+    public CompletableFuture<Account> deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount) {
+        return deposit(accountNumber, amount, null);
+    }
+
+    /**
+     * @param expectedVersion the deposit is applied only if the account still has this version, null to apply it
+     *                        unconditionally
+     */
+    public CompletableFuture<Account> deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion) {
+        return call(post("/account/" + encode(accountNumber) + "/deposit", new DepositRequest(amount,
+            expectedVersion)), mapper.constructType(Account.class));
+    }
+
+    public CompletableFuture<TransferResponse> transfer(@NonNull final String fromAccountNumber,
+        @NonNull final String toAccountNumber, @NonNull final BigDecimal amount) {
+        return transfer(new TransferRequest(fromAccountNumber, toAccountNumber, amount, null, null));
+    }
+
+    /**
+     * Batched when batching is enabled.
+     */
+    public CompletableFuture<TransferResponse> transfer(@NonNull final TransferRequest request) {
+        if (batcher == null) {
+            return call(post("/transfer", request), mapper.constructType(TransferResponse.class));
+        }
+        final long start = System.nanoTime();
+        return batcher.submit(request)
+            .whenComplete((response, error) -> metrics.call(System.nanoTime() - start, error != null));
+    }
+
+    public CompletableFuture<MultiTransferResponse> multiTransfer(@NonNull final List<TransferLeg> debits,
+        @NonNull final List<TransferLeg> credits) {
+        return call(post("/transfer/multi", new MultiTransferRequest(debits, credits)),
+            mapper.constructType(MultiTransferResponse.class));
+    }
+
+    public ClientStats getStats() {
+        return metrics.toStats();
+    }
+
+    /**
+     * Sends the transfers waiting for a batch. Calls made afterwards fail.
+     */
+    @Override
+    public void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    private <T> CompletableFuture<T> call(final HttpRequest request, final JavaType responseType) {
+        final long start = System.nanoTime();
+        return this.<T>send(request, body -> read(body, responseType))
+            .whenComplete((response, error) -> metrics.call(System.nanoTime() - start, error != null));
+    }
+
+    /**
+     * Sent by the batcher, the records are written as newline delimited JSON and their results read back the same way.
+     */
+    private CompletableFuture<List<TransferStreamResult>> sendTransferStream(final List<TransferRequest> requests) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(requests.size() * 128);
+        try {
+            for (final TransferRequest request : requests) {
+                body.write(mapper.writeValueAsBytes(request));
+                body.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/transfer/stream"))
+            .timeout(requestTimeout)
+            .header("Content-Type", NDJSON)
+            .POST(BodyPublishers.ofByteArray(body.toByteArray()))
+            .build();
+        return send(request, this::readStreamResults);
+    }
+
+    private <T> CompletableFuture<T> send(final HttpRequest request, final Function<byte[], T> bodyReader) {
+        metrics.httpRequest();
+        return httpClient.sendAsync(request, BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() >= HttpStatus.MULTIPLE_CHOICES_300) {
+                throw problem(response);
+            }
+            return bodyReader.apply(response.body());
+        });
+    }
+
+    private List<TransferStreamResult> readStreamResults(final byte[] body) {
+        final List<TransferStreamResult> results = new ArrayList<>();
+        for (final String line : new String(body, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isBlank()) {
+                try {
+                    results.add(streamResultReader.readValue(line));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return results;
+    }
+
+    private <T> T read(final byte[] body, final JavaType type) {
+        try {
+            return mapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private AccountClientException problem(final HttpResponse<byte[]> response) {
+        String message = null;
+        try {
+            message = mapper.readValue(response.body(), ProblemResponse.class).getMessage();
+        } catch (IOException e) {
+            // Not a problem response, e.g. from a proxy
+        }
+        return new AccountClientException(response.statusCode(),
+            message != null ? message : "Request failed with status " + response.statusCode());
+    }
+
+    private HttpRequest get(final String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+            .timeout(requestTimeout)
+            .header("Accept", JSON)
+            .GET()
+            .build();
+    }
+
+    private HttpRequest post(final String path, final Object body) {
+        final byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+            .timeout(requestTimeout)
+            .header("Content-Type", JSON)
+            .header("Accept", JSON)
+            .POST(BodyPublishers.ofByteArray(json))
+            .build();
+    }
+
+    private static String encode(final String accountNumber) {
+        return URLEncoder.encode(accountNumber, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
@@ -0,0 +1,18 @@
+package info.umutdeveci.client;
+
+import lombok.Getter;
+
+/**
+ * The server rejected a call, status and message are the ones of its problem response. Calls complete exceptionally
+ * with this as the cause.
+ */
+@Getter
+public class AccountClientException extends RuntimeException {
+
+    private final int status;
+
+    public AccountClientException(final int status, final String message) {
+        super(message);
+        this.status = status;
+    }
+}
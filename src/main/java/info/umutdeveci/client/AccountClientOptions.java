@@ -0,0 +1,37 @@
+package info.umutdeveci.client;
+
+import java.net.URI;
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Settings of an {@link AccountClient}, only the base URI is required.
+ */
+@Data
+@Builder
+public class AccountClientOptions {
+
+    /**
+     * Where the API is served, e.g. {@code http://localhost:8080}
+     */
+    private URI baseUri;
+    @Builder.Default
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    @Builder.Default
+    private Duration requestTimeout = Duration.ofSeconds(30);
+    /**
+     * Combines concurrent transfers into one {@code POST /transfer/stream} request
+     */
+    private boolean batching;
+    /**
+     * How long the first transfer of a batch waits for others to join it
+     */
+    @Builder.Default
+    private Duration batchWindow = Duration.ofMillis(2);
+    /**
+     * A batch is sent right away when it has this many transfers
+     */
+    @Builder.Default
+    private int maxBatchSize = 100;
+}
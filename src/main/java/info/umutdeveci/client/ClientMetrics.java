@@ -0,0 +1,91 @@
+package info.umutdeveci.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Updated by every thread completing a call, so counters are striped. Latencies are counted in power of two buckets of
+ * microseconds, which is enough for percentiles and costs one increment per call.
+ */
+class ClientMetrics {
+
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    private final long createdNanos = System.nanoTime();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder latencyMicros = new LongAdder();
+    private final LongAccumulator maxLatencyMicros = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] latencyBuckets = new LongAdder[BUCKETS];
+    private final LongAdder httpRequests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedTransfers = new LongAdder();
+
+    ClientMetrics() {
+        for (int i = 0; i < BUCKETS; i++) {
+            latencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    void call(final long nanos, final boolean failed) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        calls.increment();
+        if (failed) {
+            failures.increment();
+        }
+        latencyMicros.add(micros);
+        maxLatencyMicros.accumulate(micros);
+        // Bucket b holds latencies below 2^b
+        latencyBuckets[Long.SIZE - Long.numberOfLeadingZeros(micros)].increment();
+    }
+
+    void httpRequest() {
+        httpRequests.increment();
+    }
+
+    void batch(final int size) {
+        batches.increment();
+        batchedTransfers.add(size);
+    }
+
+    ClientStats toStats() {
+        final long callCount = calls.sum();
+        final long batchCount = batches.sum();
+        final long[] buckets = new long[BUCKETS];
+        long bucketTotal = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = latencyBuckets[i].sum();
+            bucketTotal += buckets[i];
+        }
+        final double seconds = (System.nanoTime() - createdNanos) / 1e9;
+
+        return ClientStats.builder()
+            .calls(callCount)
+            .failures(failures.sum())
+            .callsPerSecond(callCount / seconds)
+            .averageLatencyMicros(callCount == 0 ? 0 : latencyMicros.sum() / (double) callCount)
+            .p50LatencyMicros(percentile(buckets, bucketTotal, 0.5))
+            .p99LatencyMicros(percentile(buckets, bucketTotal, 0.99))
+            .maxLatencyMicros(maxLatencyMicros.get())
+            .httpRequests(httpRequests.sum())
+            .batches(batchCount)
+            .averageBatchSize(batchCount == 0 ? 0 : batchedTransfers.sum() / (double) batchCount)
+            .build();
+    }
+
+    private static long percentile(final long[] buckets, final long total, final double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
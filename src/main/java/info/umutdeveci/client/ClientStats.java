@@ -0,0 +1,25 @@
+package info.umutdeveci.client;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Counters of an {@link AccountClient} since it was created. A call is one method invocation, a batched transfer
+ * included; its latency runs until its future completes, so the time spent waiting for a batch counts. Percentiles are
+ * upper bounds at power of two resolution.
+ */
+@Data
+@Builder
+public class ClientStats {
+
+    private long calls;
+    private long failures;
+    private double callsPerSecond;
+    private double averageLatencyMicros;
+    private long p50LatencyMicros;
+    private long p99LatencyMicros;
+    private long maxLatencyMicros;
+    private long httpRequests;
+    private long batches;
+    private double averageBatchSize;
+}
@@ -0,0 +1,155 @@
+package info.umutdeveci.client;
+
+import info.umutdeveci.controller.request.TransferRequest;
+import info.umutdeveci.controller.response.TransferResponse;
+import info.umutdeveci.controller.response.TransferStreamResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Collects the transfers submitted within a window and sends them with one request. The first transfer of a batch
+ * opens the window; the batch is sent when the window ends or when it is full, whichever comes first. Every transfer
+ * completes with its own result, a rejected one does not affect the others.
+ */
+class TransferBatcher {
+
+    private final Function<List<TransferRequest>, CompletableFuture<List<TransferStreamResult>>> sender;
+    private final ClientMetrics metrics;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "account-client-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private List<Pending> pending = new ArrayList<>();
+    /**
+     * Incremented whenever a batch is taken, so the timer of a batch sent because it was full does not cut the window
+     * of the next one short
+     */
+    private long generation;
+
+    /**
+     * @param sender sends the transfers of a batch, its result has one record per transfer, in the same order
+     */
+    TransferBatcher(final Function<List<TransferRequest>, CompletableFuture<List<TransferStreamResult>>> sender,
+        final ClientMetrics metrics, final long windowNanos, final int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be positive, got " + maxBatchSize);
+        }
+        this.sender = sender;
+        this.metrics = metrics;
+        this.windowNanos = windowNanos;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    CompletableFuture<TransferResponse> submit(final TransferRequest request) {
+        final Pending transfer = new Pending(request);
+        List<Pending> full = null;
+        synchronized (this) {
+            pending.add(transfer);
+            if (pending.size() >= maxBatchSize) {
+                full = take();
+            } else if (pending.size() == 1) {
+                final long windowGeneration = generation;
+                scheduler.schedule(() -> flush(windowGeneration), windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return transfer.future;
+    }
+
+    /**
+     * Sends what is pending and stops the timer.
+     */
+    void close() {
+        final List<Pending> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void flush(final long windowGeneration) {
+        final List<Pending> batch;
+        synchronized (this) {
+            if (windowGeneration != generation) {
+                return;
+            }
+            batch = take();
+        }
+        send(batch);
+    }
+
+    /**
+     * Only called in synchronized blocks
+     */
+    private List<Pending> take() {
+        final List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        generation++;
+        return batch;
+    }
+
+    private void send(final List<Pending> batch) {
+        metrics.batch(batch.size());
+        final List<TransferRequest> requests = new ArrayList<>(batch.size());
+        batch.forEach(transfer -> requests.add(transfer.request));
+
+        final CompletableFuture<List<TransferStreamResult>> results;
+        try {
+            results = sender.apply(requests);
+        } catch (RuntimeException e) {
+            batch.forEach(transfer -> transfer.future.completeExceptionally(e));
+            return;
+        }
+        results.whenComplete((streamResults, error) -> {
+            if (error != null) {
+                batch.forEach(transfer -> transfer.future.completeExceptionally(error));
+                return;
+            }
+            for (final TransferStreamResult result : streamResults) {
+                final int index = (int) result.getLine() - 1;
+                if (index < 0 || index >= batch.size()) {
+                    continue;
+                }
+                final CompletableFuture<TransferResponse> future = batch.get(index).future;
+                if (result.getStatus() == HttpStatus.OK_200) {
+                    future.complete(TransferResponse.builder()
+                        .fromAccount(result.getFromAccount())
+                        .toAccount(result.getToAccount())
+                        .build());
+                } else {
+                    future.completeExceptionally(new AccountClientException(result.getStatus(),
+                        result.getMessage()));
+                }
+            }
+            // Does nothing to the transfers completed above
+            final AccountClientException missing = new AccountClientException(
+                HttpStatus.INTERNAL_SERVER_ERROR_500, "No result for the transfer in the batch response");
+            batch.forEach(transfer -> transfer.future.completeExceptionally(missing));
+        });
+    }
+
+    private static final class Pending {
+
+        private final TransferRequest request;
+        private final CompletableFuture<TransferResponse> future = new CompletableFuture<>();
+
+        private Pending(final TransferRequest request) {
+            this.request = request;
+        }
+    }
+}
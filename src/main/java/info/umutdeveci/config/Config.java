@@ -0,0 +1,127 @@
+package info.umutdeveci.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+import lombok.NonNull;
+
+/**
+ * Layered application configuration. A key like {@code server.thread-pool.model} is looked up in this order:
+ * <ol>
+ *     <li>system property {@code server.thread-pool.model}</li>
+ *     <li>environment variable {@code SERVER_THREAD_POOL_MODEL}</li>
+ *     <li>the file pointed by {@code config.file} system property or {@code CONFIG_FILE} environment variable</li>
+ *     <li>{@code application.properties} on the classpath, which holds the defaults</li>
+ * </ol>
+ */
+public class Config {
+
+    private static final String DEFAULTS_RESOURCE = "application.properties";
+    private static final String CONFIG_FILE_KEY = "config.file";
+
+    private final Properties properties;
+    private final Map<String, String> environment;
+    private final Properties systemProperties;
+
+    public Config(@NonNull final Properties properties, @NonNull final Map<String, String> environment,
+        @NonNull final Properties systemProperties) {
+        this.properties = properties;
+        this.environment = environment;
+        this.systemProperties = systemProperties;
+    }
+
+    public static Config load() {
+        final Properties systemProperties = System.getProperties();
+        final Map<String, String> environment = System.getenv();
+
+        final Properties properties = new Properties();
+        try (InputStream defaults = Config.class.getClassLoader().getResourceAsStream(DEFAULTS_RESOURCE)) {
+            if (defaults != null) {
+                properties.load(defaults);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final String configFile = systemProperties
+            .getProperty(CONFIG_FILE_KEY, environment.get(toEnvName(CONFIG_FILE_KEY)));
+        if (configFile != null) {
+            properties.putAll(loadFile(Paths.get(configFile)));
+        }
+
+        return new Config(properties, environment, systemProperties);
+    }
+
+    public static Properties loadFile(final Path file) {
+        final Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read configuration file " + file, e);
+        }
+        return properties;
+    }
+
+    public String getString(@NonNull final String key, final String defaultValue) {
+        final String systemProperty = systemProperties.getProperty(key);
+        if (systemProperty != null) {
+            return systemProperty.trim();
+        }
+
+        final String environmentVariable = environment.get(toEnvName(key));
+        if (environmentVariable != null) {
+            return environmentVariable.trim();
+        }
+
+        final String property = properties.getProperty(key);
+        return property == null ? defaultValue : property.trim();
+    }
+
+    public int getInt(@NonNull final String key, final int defaultValue) {
+        final String value = getString(key, null);
+        return value == null || value.isEmpty() ? defaultValue : parse(key, value, Integer::parseInt);
+    }
+
+    public long getLong(@NonNull final String key, final long defaultValue) {
+        final String value = getString(key, null);
+        return value == null || value.isEmpty() ? defaultValue : parse(key, value, Long::parseLong);
+    }
+
+    public double getDouble(@NonNull final String key, final double defaultValue) {
+        final String value = getString(key, null);
+        return value == null || value.isEmpty() ? defaultValue : parse(key, value, Double::parseDouble);
+    }
+
+    public boolean getBoolean(@NonNull final String key, final boolean defaultValue) {
+        final String value = getString(key, null);
+        return value == null || value.isEmpty() ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public <E extends Enum<E>> E getEnum(@NonNull final String key, @NonNull final E defaultValue) {
+        final String value = getString(key, null);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return parse(key, value,
+            v -> Enum.valueOf(defaultValue.getDeclaringClass(), v.toUpperCase(Locale.ROOT).replace('-', '_')));
+    }
+
+    static String toEnvName(final String key) {
+        return key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    private static <T> T parse(final String key, final String value, final Function<String, T> parser) {
+        try {
+            return parser.apply(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid value '%s' for %s", value, key), e);
+        }
+    }
+}
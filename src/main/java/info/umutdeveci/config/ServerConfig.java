@@ -0,0 +1,54 @@
+package info.umutdeveci.config;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+
+/**
+ * Settings of the embedded Jetty server. See {@code application.properties} for the meaning of each one.
+ */
+@Data
+@Builder
+public class ServerConfig {
+
+    private int port;
+
+    private ThreadPoolModel threadPoolModel;
+    private int minThreads;
+    private int maxThreads;
+    private int queueCapacity;
+    private long threadIdleTimeoutMillis;
+
+    private int acceptors;
+    private int selectors;
+    private int acceptQueueSize;
+    private long idleTimeoutMillis;
+    private int requestHeaderSize;
+    private int responseHeaderSize;
+    private int outputBufferSize;
+
+    private boolean http2Enabled;
+    private int http2MaxConcurrentStreams;
+    private int http2InitialStreamWindow;
+
+    public static ServerConfig from(@NonNull final Config config) {
+        return ServerConfig.builder()
+            .port(config.getInt("server.port", 8080))
+            .threadPoolModel(config.getEnum("server.thread-pool.model", ThreadPoolModel.QUEUED))
+            .minThreads(config.getInt("server.thread-pool.min-threads", 8))
+            .maxThreads(config.getInt("server.thread-pool.max-threads", 200))
+            .queueCapacity(config.getInt("server.thread-pool.queue-capacity", 10_000))
+            .threadIdleTimeoutMillis(config.getLong("server.thread-pool.idle-timeout-ms", 60_000))
+            .acceptors(config.getInt("server.connector.acceptors", -1))
+            .selectors(config.getInt("server.connector.selectors", -1))
+            .acceptQueueSize(config.getInt("server.connector.accept-queue-size", 0))
+            .idleTimeoutMillis(config.getLong("server.connector.idle-timeout-ms", 30_000))
+            .requestHeaderSize(config.getInt("server.connector.request-header-size", 8 * 1024))
+            .responseHeaderSize(config.getInt("server.connector.response-header-size", 8 * 1024))
+            .outputBufferSize(config.getInt("server.connector.output-buffer-size", 32 * 1024))
+            .http2Enabled(config.getBoolean("server.http2.enabled", false))
+            .http2MaxConcurrentStreams(config.getInt("server.http2.max-concurrent-streams", 128))
+            .http2InitialStreamWindow(config.getInt("server.http2.initial-stream-window", 1024 * 1024))
+            .build();
+    }
+}
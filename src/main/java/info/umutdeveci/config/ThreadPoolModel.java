@@ -0,0 +1,20 @@
+package info.umutdeveci.config;
+
+/**
+ * Thread pool used by Jetty to run selectors and request handlers.
+ */
+public enum ThreadPoolModel {
+    /**
+     * Jetty's own QueuedThreadPool with a bounded job queue. Requests are rejected once the queue is full.
+     */
+    QUEUED,
+    /**
+     * A ThreadPoolExecutor that starts new threads as load grows up to max threads and retires idle ones.
+     */
+    EXECUTOR,
+    /**
+     * One virtual thread per task. Only available on a JDK that has virtual threads, falls back to {@link #QUEUED}
+     * otherwise.
+     */
+    VIRTUAL
+}
@@ -1,13 +1,26 @@
 package info.umutdeveci.controller;
 
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.cache.AccountListCache.Snapshot;
 import info.umutdeveci.controller.request.DepositRequest;
+import info.umutdeveci.controller.request.MultiTransferRequest;
+import info.umutdeveci.controller.request.OpenAccountRequest;
 import info.umutdeveci.controller.request.TransferRequest;
 import info.umutdeveci.controller.request.WithdrawRequest;
+import info.umutdeveci.controller.response.MultiTransferResponse;
 import info.umutdeveci.controller.response.ProblemResponse;
 import info.umutdeveci.controller.response.TransferResponse;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.export.AccountExportFormat;
+import info.umutdeveci.export.AccountExportWriter;
 import info.umutdeveci.model.Account;
 import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.id.AccountNumberGenerator;
+import info.umutdeveci.service.model.MultiTransferResult;
 import info.umutdeveci.service.model.TransferResult;
+import info.umutdeveci.trace.TracePhase;
+import info.umutdeveci.trace.Tracer;
+import io.javalin.core.validation.Validator;
 import io.javalin.http.Context;
 import io.javalin.plugin.openapi.annotations.ContentType;
 import io.javalin.plugin.openapi.annotations.HttpMethod;
@@ -16,32 +29,174 @@ import io.javalin.plugin.openapi.annotations.OpenApiContent;
 import io.javalin.plugin.openapi.annotations.OpenApiParam;
 import io.javalin.plugin.openapi.annotations.OpenApiRequestBody;
 import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.function.Predicate;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
 
 @Slf4j
 public class AccountController {
 
+    private static final String IF_MATCH = "If-Match";
+    private static final String MIN_BALANCE = "min_balance";
+    private static final String MAX_BALANCE = "max_balance";
+    private static final String ORDER = "order";
+    private static final String LIMIT = "limit";
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 10_000;
+    /**
+     * Generated numbers only collide with numbers imported from elsewhere, which is unlikely to happen twice in a row
+     */
+    private static final int MAX_OPEN_ATTEMPTS = 3;
+
     private final AccountService accountService;
+    private final AccountListCache accountListCache;
+    private final AccountNumberGenerator accountNumberGenerator;
 
     public AccountController(final AccountService accountService) {
+        this(accountService, null, new AccountNumberGenerator(Clock.systemUTC(), 0));
+    }
+
+    /**
+     * @param accountListCache       serves the account list when given, otherwise it is serialized on every call
+     * @param accountNumberGenerator numbers the accounts opened through the API
+     */
+    public AccountController(final AccountService accountService, final AccountListCache accountListCache,
+        @NonNull final AccountNumberGenerator accountNumberGenerator) {
         this.accountService = accountService;
+        this.accountListCache = accountListCache;
+        this.accountNumberGenerator = accountNumberGenerator;
     }
 
     @OpenApi(
         path = "/account",
         method = HttpMethod.GET,
-        summary = "Returns a list of available accounts with their balances.",
+        summary = "Returns a list of available accounts with their balances, or the ones within a balance range.",
         operationId = "listAccounts",
+        queryParams = {
+            @OpenApiParam(name = "min_balance", type = BigDecimal.class, description = "Inclusive"),
+            @OpenApiParam(name = "max_balance", type = BigDecimal.class, description = "Inclusive"),
+            @OpenApiParam(name = "order", description = "asc (default) or desc, by balance"),
+            @OpenApiParam(name = "limit", type = int.class, description = "Defaults to 100")
+        },
         responses = {
             @OpenApiResponse(status = "200", content = @OpenApiContent(from = Account.class, type = ContentType.JSON, isArray = true)),
             @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
         }
     )
     public void listAccounts(final Context ctx) {
-        ctx.json(accountService.getAll());
+        final String minBalance = ctx.queryParam(MIN_BALANCE);
+        final String maxBalance = ctx.queryParam(MAX_BALANCE);
+        final String order = ctx.queryParam(ORDER);
+        final String limit = ctx.queryParam(LIMIT);
+        if (minBalance != null || maxBalance != null || order != null || limit != null) {
+            respond(ctx, accountService.findByBalance(balanceParam(MIN_BALANCE, minBalance),
+                balanceParam(MAX_BALANCE, maxBalance), isDescending(order), limitParam(limit)));
+            return;
+        }
+
+        if (accountListCache == null) {
+            respond(ctx, accountService.getAll());
+            return;
+        }
+
+        final long serializeStart = Tracer.phaseStart();
+        final Snapshot snapshot = accountListCache.get();
+        ctx.header(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_ENCODING.asString());
+        final String acceptEncoding = ctx.header(HttpHeader.ACCEPT_ENCODING.asString());
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            // Javalin leaves responses that already have a content encoding alone
+            ctx.header(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+            ctx.result(new ByteArrayInputStream(snapshot.getGzip()));
+        } else {
+            ctx.result(new ByteArrayInputStream(snapshot.getJson()));
+        }
+        ctx.contentType("application/json");
+        Tracer.phaseEnd(TracePhase.SERIALIZE, serializeStart);
+    }
+
+    @OpenApi(
+        path = "/account",
+        method = HttpMethod.POST,
+        summary = "Opens an account with a generated account number",
+        operationId = "openAccount",
+        requestBody = @OpenApiRequestBody(content = @OpenApiContent(from = OpenAccountRequest.class, type = ContentType.JSON)),
+        responses = {
+            @OpenApiResponse(status = "201", content = @OpenApiContent(from = Account.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void openAccount(final Context ctx) {
+        BigDecimal balance = BigDecimal.ZERO;
+        if (StringUtils.isNotBlank(ctx.body())) {
+            final OpenAccountRequest request = parseAndValidate(ctx, OpenAccountRequest.class,
+                openAccountRequest -> openAccountRequest.getBalance() == null
+                    || openAccountRequest.getBalance().signum() >= 0);
+            if (request.getBalance() != null) {
+                balance = request.getBalance();
+            }
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                final Account account = accountService.openAccount(accountNumberGenerator.nextAccountNumber(),
+                    balance);
+                ctx.status(HttpStatus.CREATED_201);
+                ctx.header(HttpHeader.LOCATION.asString(), "/account/" + account.getAccountNumber());
+                respondWithAccount(ctx, account);
+                return;
+            } catch (Problem problem) {
+                if (problem.getHttpCode() != HttpStatus.CONFLICT_409 || attempt == MAX_OPEN_ATTEMPTS) {
+                    throw problem;
+                }
+            }
+        }
+    }
+
+    @OpenApi(
+        path = "/account/:account_number",
+        method = HttpMethod.DELETE,
+        summary = "Closes an account whose balance is zero and returns its final state",
+        operationId = "closeAccount",
+        pathParams = {@OpenApiParam(required = true, name = "account_number")},
+        headers = {@OpenApiParam(name = IF_MATCH, description = "Expected account version, as returned in ETag")},
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = Account.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void closeAccount(final Context ctx) {
+        final String accountNumber = ctx.pathParam("account_number");
+        respond(ctx, accountService.closeAccount(accountNumber, expectedVersion(ctx, null)));
+    }
+
+    @OpenApi(
+        path = "/account/export",
+        method = HttpMethod.GET,
+        summary = "Streams a point-in-time snapshot of every account in the columnar export format",
+        operationId = "exportAccounts",
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(type = AccountExportFormat.CONTENT_TYPE)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void exportAccounts(final Context ctx) throws IOException {
+        final long createdAt = System.currentTimeMillis();
+        ctx.res.setContentType(AccountExportFormat.CONTENT_TYPE);
+        ctx.header("Content-Disposition",
+            String.format("attachment; filename=\"accounts-%d.accx\"", createdAt));
+
+        // Written as the segments are copied, bypassing ctx.result which would hold the whole file
+        final AccountExportWriter writer = new AccountExportWriter(ctx.res.getOutputStream(), createdAt);
+        accountService.exportSnapshot(writer::writeGroup);
+        writer.finish();
+        log.info("Exported {} accounts", writer.getTotalRows());
     }
 
     @OpenApi(
@@ -57,7 +212,7 @@ public class AccountController {
     )
     public void getAccountDetail(final Context ctx) {
         final String accountNumber = ctx.pathParam("account_number");
-        ctx.json(accountService.get(accountNumber));
+        respondWithAccount(ctx, accountService.get(accountNumber));
     }
 
     @OpenApi(
@@ -66,6 +221,7 @@ public class AccountController {
         summary = "Withdraws money from an account and returns latest state of the account",
         operationId = "withdraw",
         pathParams = {@OpenApiParam(required = true, name = "account_number")},
+        headers = {@OpenApiParam(name = IF_MATCH, description = "Expected account version, as returned in ETag")},
         requestBody = @OpenApiRequestBody(required = true, content = @OpenApiContent(from = WithdrawRequest.class, type = ContentType.JSON)),
         responses = {
             @OpenApiResponse(status = "200", content = @OpenApiContent(from = Account.class, type = ContentType.JSON)),
@@ -75,13 +231,13 @@ public class AccountController {
     public void withdraw(final Context ctx) {
         final String accountNumber = ctx.pathParam("account_number");
 
-        final WithdrawRequest request = ctx.bodyValidator(WithdrawRequest.class)
-            .check(withdrawRequest -> {
-                final BigDecimal amount = withdrawRequest.getAmount();
-                return isAmountValid(amount);
-            }).get();
+        final WithdrawRequest request = parseAndValidate(ctx, WithdrawRequest.class, withdrawRequest -> {
+            final BigDecimal amount = withdrawRequest.getAmount();
+            return isAmountValid(amount);
+        });
 
-        ctx.json(accountService.withdraw(accountNumber, request.getAmount()));
+        final Long expectedVersion = expectedVersion(ctx, request.getExpectedVersion());
+        respondWithAccount(ctx, accountService.withdraw(accountNumber, request.getAmount(), expectedVersion));
     }
 
     @OpenApi(
@@ -90,6 +246,7 @@ public class AccountController {
         summary = "Deposits money to an account and returns latest state of the account",
         operationId = "deposit",
         pathParams = {@OpenApiParam(required = true, name = "account_number")},
+        headers = {@OpenApiParam(name = IF_MATCH, description = "Expected account version, as returned in ETag")},
         requestBody = @OpenApiRequestBody(required = true, content = @OpenApiContent(from = DepositRequest.class, type = ContentType.JSON)),
         responses = {
             @OpenApiResponse(status = "200", content = @OpenApiContent(from = Account.class, type = ContentType.JSON)),
@@ -99,13 +256,13 @@ public class AccountController {
     public void deposit(final Context ctx) {
         final String accountNumber = ctx.pathParam("account_number");
 
-        final DepositRequest request = ctx.bodyValidator(DepositRequest.class)
-            .check(depositRequest -> {
-                final BigDecimal amount = depositRequest.getAmount();
-                return isAmountValid(amount);
-            }).get();
+        final DepositRequest request = parseAndValidate(ctx, DepositRequest.class, depositRequest -> {
+            final BigDecimal amount = depositRequest.getAmount();
+            return isAmountValid(amount);
+        });
 
-        ctx.json(accountService.deposit(accountNumber, request.getAmount()));
+        final Long expectedVersion = expectedVersion(ctx, request.getExpectedVersion());
+        respondWithAccount(ctx, accountService.deposit(accountNumber, request.getAmount(), expectedVersion));
     }
 
     @OpenApi(
@@ -120,19 +277,126 @@ public class AccountController {
         }
     )
     public void transfer(final Context ctx) {
-        final TransferRequest request = ctx.bodyValidator(TransferRequest.class)
-            .check(this::validateTransferRequest)
-            .get();
+        final TransferRequest request = parseAndValidate(ctx, TransferRequest.class, this::validateTransferRequest);
 
         final TransferResult transferResult = accountService
-            .transfer(request.getFromAccountNumber(), request.getToAccountNumber(), request.getAmount());
+            .transfer(request.getFromAccountNumber(), request.getToAccountNumber(), request.getAmount(),
+                request.getExpectedFromVersion(), request.getExpectedToVersion());
 
         final TransferResponse response = TransferResponse.builder()
             .fromAccount(transferResult.getFromAccount())
             .toAccount(transferResult.getToAccount())
             .build();
 
+        respond(ctx, response);
+    }
+
+    @OpenApi(
+        path = "/transfer/multi",
+        method = HttpMethod.POST,
+        summary = "Debits and credits several accounts at once, either every leg is applied or none",
+        operationId = "multiTransfer",
+        requestBody = @OpenApiRequestBody(required = true, content = @OpenApiContent(from = MultiTransferRequest.class, type = ContentType.JSON)),
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = MultiTransferResponse.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void multiTransfer(final Context ctx) {
+        final MultiTransferRequest request = parseAndValidate(ctx, MultiTransferRequest.class,
+            multiTransferRequest -> multiTransferRequest.getDebits() != null
+                && multiTransferRequest.getCredits() != null);
+
+        final MultiTransferResult result = accountService.multiTransfer(request.getDebits(), request.getCredits());
+
+        respond(ctx, MultiTransferResponse.builder().accounts(result.getAccounts()).build());
+    }
+
+    private void respondWithAccount(final Context ctx, final Account account) {
+        if (account.getVersion() != null) {
+            ctx.header(HttpHeader.ETAG.asString(), "\"" + account.getVersion() + "\"");
+        }
+        respond(ctx, account);
+    }
+
+    /**
+     * Reads the body and checks it, reporting both phases to the {@link Tracer}
+     */
+    private <T> T parseAndValidate(final Context ctx, final Class<T> requestClass, final Predicate<T> check) {
+        final long parseStart = Tracer.phaseStart();
+        final Validator<T> validator = ctx.bodyValidator(requestClass);
+        final long validateStart = Tracer.phaseEnd(TracePhase.PARSE, parseStart);
+        final T request = validator.check(check::test).get();
+        Tracer.phaseEnd(TracePhase.VALIDATE, validateStart);
+        return request;
+    }
+
+    private void respond(final Context ctx, final Object response) {
+        final long serializeStart = Tracer.phaseStart();
         ctx.json(response);
+        Tracer.phaseEnd(TracePhase.SERIALIZE, serializeStart);
+    }
+
+    /**
+     * The {@code If-Match} header wins over the version in the request body. The quoted ETag form and a bare number
+     * are accepted, {@code *} matches any version, so nothing is checked. If-Match compares strongly, so a weak ETag
+     * ({@code W/"3"}) never matches and the write fails as a mismatch.
+     */
+    private Long expectedVersion(final Context ctx, final Long requestVersion) {
+        final String ifMatch = ctx.header(IF_MATCH);
+        if (StringUtils.isEmpty(ifMatch)) {
+            return requestVersion;
+        }
+
+        final String tag = ifMatch.trim();
+        if ("*".equals(tag)) {
+            return null;
+        }
+        if (tag.startsWith("W/")) {
+            throw new Problem(HttpStatus.PRECONDITION_FAILED_412, "A weak ETag never matches in If-Match");
+        }
+        try {
+            return Long.parseLong(StringUtils.removeStart(StringUtils.removeEnd(tag, "\""), "\""));
+        } catch (NumberFormatException e) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "If-Match should be an account version");
+        }
+    }
+
+    private static BigDecimal balanceParam(final String name, final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("%s should be a number", name));
+        }
+    }
+
+    private static boolean isDescending(final String order) {
+        if (order == null || "asc".equalsIgnoreCase(order)) {
+            return false;
+        }
+        if ("desc".equalsIgnoreCase(order)) {
+            return true;
+        }
+        throw new Problem(HttpStatus.BAD_REQUEST_400, "Order should be either asc or desc");
+    }
+
+    private static int limitParam(final String limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            final int value = Integer.parseInt(limit);
+            if (value > 0 && value <= MAX_LIMIT) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new Problem(HttpStatus.BAD_REQUEST_400,
+            String.format("Limit should be a number between 1 and %d", MAX_LIMIT));
     }
 
     private boolean validateTransferRequest(@NonNull final TransferRequest transferRequest) {
@@ -0,0 +1,52 @@
+package info.umutdeveci.controller;
+
+import static info.umutdeveci.util.Utils.rawRequestBody;
+
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.importer.ImportFormat;
+import info.umutdeveci.service.model.ImportResult;
+import io.javalin.http.Context;
+import io.javalin.plugin.openapi.annotations.ContentType;
+import io.javalin.plugin.openapi.annotations.HttpMethod;
+import io.javalin.plugin.openapi.annotations.OpenApi;
+import io.javalin.plugin.openapi.annotations.OpenApiContent;
+import io.javalin.plugin.openapi.annotations.OpenApiRequestBody;
+import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import org.eclipse.jetty.http.HttpStatus;
+
+public class AccountImportController {
+
+    private final AccountImporter accountImporter;
+
+    public AccountImportController(final AccountImporter accountImporter) {
+        this.accountImporter = accountImporter;
+    }
+
+    @OpenApi(
+        path = "/account/import",
+        method = HttpMethod.POST,
+        summary = "Imports accounts from a streamed CSV (account_number,balance) or NDJSON body",
+        operationId = "importAccounts",
+        requestBody = @OpenApiRequestBody(required = true, content = {
+            @OpenApiContent(from = String.class, type = "text/csv"),
+            @OpenApiContent(from = String.class, type = "application/x-ndjson")
+        }),
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = ImportResult.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void importAccounts(final Context ctx) {
+        final ImportFormat format = ImportFormat.fromContentType(ctx.contentType());
+
+        try (InputStream inputStream = rawRequestBody(ctx.req)) {
+            ctx.json(accountImporter.importAccounts(inputStream, format));
+        } catch (IOException e) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Could not read request body", e);
+        }
+    }
+}
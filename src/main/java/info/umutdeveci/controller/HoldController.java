@@ -0,0 +1,100 @@
+package info.umutdeveci.controller;
+
+import info.umutdeveci.controller.request.AuthorizeRequest;
+import info.umutdeveci.controller.request.CaptureRequest;
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.model.Hold;
+import io.javalin.http.Context;
+import io.javalin.plugin.openapi.annotations.ContentType;
+import io.javalin.plugin.openapi.annotations.HttpMethod;
+import io.javalin.plugin.openapi.annotations.OpenApi;
+import io.javalin.plugin.openapi.annotations.OpenApiContent;
+import io.javalin.plugin.openapi.annotations.OpenApiParam;
+import io.javalin.plugin.openapi.annotations.OpenApiRequestBody;
+import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpStatus;
+
+public class HoldController {
+
+    private final AccountService accountService;
+
+    public HoldController(final AccountService accountService) {
+        this.accountService = accountService;
+    }
+
+    @OpenApi(
+        path = "/account/:account_number/hold",
+        method = HttpMethod.POST,
+        summary = "Holds funds of an account until they are captured, released or expire",
+        operationId = "authorize",
+        pathParams = {@OpenApiParam(required = true, name = "account_number")},
+        requestBody = @OpenApiRequestBody(required = true, content = @OpenApiContent(from = AuthorizeRequest.class, type = ContentType.JSON)),
+        responses = {
+            @OpenApiResponse(status = "201", content = @OpenApiContent(from = Hold.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void authorize(final Context ctx) {
+        final String accountNumber = ctx.pathParam("account_number");
+        final AuthorizeRequest request = ctx.bodyValidator(AuthorizeRequest.class)
+            .check(authorizeRequest -> authorizeRequest.getAmount() != null
+                && authorizeRequest.getAmount().signum() > 0
+                && authorizeRequest.getExpiresAt() != null)
+            .get();
+
+        ctx.status(HttpStatus.CREATED_201);
+        ctx.json(accountService.authorize(accountNumber, request.getAmount(), request.getExpiresAt()));
+    }
+
+    @OpenApi(
+        path = "/hold/:id/capture",
+        method = HttpMethod.POST,
+        summary = "Withdraws the held funds, or a part of them and releases the rest, and returns the account",
+        operationId = "capture",
+        pathParams = {@OpenApiParam(required = true, name = "id", type = long.class)},
+        requestBody = @OpenApiRequestBody(content = @OpenApiContent(from = CaptureRequest.class, type = ContentType.JSON)),
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = Account.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void capture(final Context ctx) {
+        final long holdId = holdId(ctx);
+        CaptureRequest request = new CaptureRequest();
+        if (StringUtils.isNotBlank(ctx.body())) {
+            request = ctx.bodyValidator(CaptureRequest.class)
+                .check(captureRequest -> captureRequest.getAmount() == null
+                    || captureRequest.getAmount().signum() > 0)
+                .get();
+        }
+
+        ctx.json(accountService.capture(holdId, request.getAmount()));
+    }
+
+    @OpenApi(
+        path = "/hold/:id",
+        method = HttpMethod.DELETE,
+        summary = "Releases the held funds and returns the account",
+        operationId = "release",
+        pathParams = {@OpenApiParam(required = true, name = "id", type = long.class)},
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = Account.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void release(final Context ctx) {
+        ctx.json(accountService.release(holdId(ctx)));
+    }
+
+    private static long holdId(final Context ctx) {
+        try {
+            return Long.parseLong(ctx.pathParam("id"));
+        } catch (NumberFormatException e) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Hold id should be a number");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package info.umutdeveci.controller;
+
+import info.umutdeveci.controller.request.InterestAccrualRequest;
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
+import info.umutdeveci.service.model.AccrualProgress;
+import io.javalin.http.Context;
+import io.javalin.plugin.openapi.annotations.ContentType;
+import io.javalin.plugin.openapi.annotations.HttpMethod;
+import io.javalin.plugin.openapi.annotations.OpenApi;
+import io.javalin.plugin.openapi.annotations.OpenApiContent;
+import io.javalin.plugin.openapi.annotations.OpenApiRequestBody;
+import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import org.eclipse.jetty.http.HttpStatus;
+
+public class InterestAccrualController {
+
+    private final InterestAccrualBatch interestAccrualBatch;
+
+    public InterestAccrualController(final InterestAccrualBatch interestAccrualBatch) {
+        this.interestAccrualBatch = interestAccrualBatch;
+    }
+
+    @OpenApi(
+        path = "/batch/interest",
+        method = HttpMethod.POST,
+        summary = "Starts applying interest, or a fee when the rate is negative, to every account in the background",
+        operationId = "startInterestAccrual",
+        requestBody = @OpenApiRequestBody(required = true, content = @OpenApiContent(from = InterestAccrualRequest.class, type = ContentType.JSON)),
+        responses = {
+            @OpenApiResponse(status = "202", content = @OpenApiContent(from = AccrualProgress.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void startInterestAccrual(final Context ctx) {
+        final InterestAccrualRequest request = ctx.bodyValidator(InterestAccrualRequest.class)
+            .check(accrualRequest -> accrualRequest.getRate() != null)
+            .get();
+
+        ctx.status(HttpStatus.ACCEPTED_202);
+        ctx.json(interestAccrualBatch.start(request.getRate()));
+    }
+
+    @OpenApi(
+        path = "/batch/interest",
+        method = HttpMethod.GET,
+        summary = "Returns the progress of the last interest run",
+        operationId = "getInterestAccrual",
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = AccrualProgress.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void getInterestAccrual(final Context ctx) {
+        ctx.json(interestAccrualBatch.getProgress());
+    }
+
+    @OpenApi(
+        path = "/batch/interest/resume",
+        method = HttpMethod.POST,
+        summary = "Resumes a cancelled or failed interest run from its checkpoint",
+        operationId = "resumeInterestAccrual",
+        responses = {
+            @OpenApiResponse(status = "202", content = @OpenApiContent(from = AccrualProgress.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void resumeInterestAccrual(final Context ctx) {
+        ctx.status(HttpStatus.ACCEPTED_202);
+        ctx.json(interestAccrualBatch.resume());
+    }
+
+    @OpenApi(
+        path = "/batch/interest",
+        method = HttpMethod.DELETE,
+        summary = "Stops the running interest run after its current chunks, it can be resumed later",
+        operationId = "cancelInterestAccrual",
+        responses = {
+            @OpenApiResponse(status = "202", content = @OpenApiContent(from = AccrualProgress.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void cancelInterestAccrual(final Context ctx) {
+        ctx.status(HttpStatus.ACCEPTED_202);
+        ctx.json(interestAccrualBatch.cancel());
+    }
+}
@@ -0,0 +1,88 @@
+package info.umutdeveci.controller;
+
+import info.umutdeveci.controller.request.ScheduleTransferRequest;
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.model.ScheduledTransfer;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import io.javalin.http.Context;
+import io.javalin.plugin.openapi.annotations.ContentType;
+import io.javalin.plugin.openapi.annotations.HttpMethod;
+import io.javalin.plugin.openapi.annotations.OpenApi;
+import io.javalin.plugin.openapi.annotations.OpenApiContent;
+import io.javalin.plugin.openapi.annotations.OpenApiParam;
+import io.javalin.plugin.openapi.annotations.OpenApiRequestBody;
+import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import org.eclipse.jetty.http.HttpStatus;
+
+public class ScheduledTransferController {
+
+    private final TransferScheduler transferScheduler;
+
+    public ScheduledTransferController(final TransferScheduler transferScheduler) {
+        this.transferScheduler = transferScheduler;
+    }
+
+    @OpenApi(
+        path = "/transfer/scheduled",
+        method = HttpMethod.POST,
+        summary = "Schedules a one-off transfer, or a recurring one when interval_seconds is set",
+        operationId = "scheduleTransfer",
+        requestBody = @OpenApiRequestBody(required = true, content = @OpenApiContent(from = ScheduleTransferRequest.class, type = ContentType.JSON)),
+        responses = {
+            @OpenApiResponse(status = "201", content = @OpenApiContent(from = ScheduledTransfer.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void scheduleTransfer(final Context ctx) {
+        final ScheduleTransferRequest request = ctx.bodyValidator(ScheduleTransferRequest.class)
+            .check(scheduleRequest -> scheduleRequest.getFromAccountNumber() != null
+                && scheduleRequest.getToAccountNumber() != null
+                && scheduleRequest.getAmount() != null
+                && scheduleRequest.getExecuteAt() != null)
+            .get();
+
+        ctx.status(HttpStatus.CREATED_201);
+        ctx.json(transferScheduler.schedule(request.getFromAccountNumber(), request.getToAccountNumber(),
+            request.getAmount(), request.getExecuteAt(), request.getIntervalSeconds()));
+    }
+
+    @OpenApi(
+        path = "/transfer/scheduled/:id",
+        method = HttpMethod.GET,
+        summary = "Returns a pending scheduled transfer with its execution history",
+        operationId = "getScheduledTransfer",
+        pathParams = {@OpenApiParam(required = true, name = "id", type = long.class)},
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = ScheduledTransfer.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void getScheduledTransfer(final Context ctx) {
+        ctx.json(transferScheduler.get(scheduledTransferId(ctx)));
+    }
+
+    @OpenApi(
+        path = "/transfer/scheduled/:id",
+        method = HttpMethod.DELETE,
+        summary = "Cancels a scheduled transfer",
+        operationId = "cancelScheduledTransfer",
+        pathParams = {@OpenApiParam(required = true, name = "id", type = long.class)},
+        responses = {
+            @OpenApiResponse(status = "204"),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void cancelScheduledTransfer(final Context ctx) {
+        transferScheduler.cancel(scheduledTransferId(ctx));
+        ctx.status(HttpStatus.NO_CONTENT_204);
+    }
+
+    private static long scheduledTransferId(final Context ctx) {
+        try {
+            return Long.parseLong(ctx.pathParam("id"));
+        } catch (NumberFormatException e) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Scheduled transfer id should be a number");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package info.umutdeveci.controller;
+
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.model.StorageStats;
+import io.javalin.http.Context;
+import io.javalin.plugin.openapi.annotations.ContentType;
+import io.javalin.plugin.openapi.annotations.HttpMethod;
+import io.javalin.plugin.openapi.annotations.OpenApi;
+import io.javalin.plugin.openapi.annotations.OpenApiContent;
+import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import org.eclipse.jetty.http.HttpStatus;
+
+public class StorageController {
+
+    private final AccountService accountService;
+
+    public StorageController(final AccountService accountService) {
+        this.accountService = accountService;
+    }
+
+    @OpenApi(
+        path = "/debug/storage",
+        method = HttpMethod.GET,
+        summary = "Returns hit rates and lookup latencies of the hot and cold account storage tiers",
+        operationId = "getStorageStats",
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = StorageStats.class, type = ContentType.JSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void getStorageStats(final Context ctx) {
+        final StorageStats stats = accountService.getStorageStats();
+        if (stats == null) {
+            throw new Problem(HttpStatus.NOT_FOUND_404, "Accounts are not stored in tiers");
+        }
+        ctx.json(stats);
+    }
+}
@@ -0,0 +1,84 @@
+package info.umutdeveci.controller;
+
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.controller.response.TraceResponse;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.trace.TracePhase;
+import info.umutdeveci.trace.TraceRecord;
+import info.umutdeveci.trace.Tracer;
+import io.javalin.http.Context;
+import io.javalin.plugin.openapi.annotations.ContentType;
+import io.javalin.plugin.openapi.annotations.HttpMethod;
+import io.javalin.plugin.openapi.annotations.OpenApi;
+import io.javalin.plugin.openapi.annotations.OpenApiContent;
+import io.javalin.plugin.openapi.annotations.OpenApiParam;
+import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.eclipse.jetty.http.HttpStatus;
+
+public class TraceController {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final Tracer tracer;
+
+    public TraceController(final Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @OpenApi(
+        path = "/debug/traces",
+        method = HttpMethod.GET,
+        summary = "Returns the slowest of the recently sampled requests with the time spent in each phase",
+        operationId = "listTraces",
+        queryParams = {@OpenApiParam(name = "limit", type = int.class, description = "Defaults to 20")},
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = TraceResponse.class, type = ContentType.JSON, isArray = true)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void listTraces(final Context ctx) {
+        final List<TraceResponse> traces = tracer.slowest(limit(ctx)).stream()
+            .map(TraceController::toResponse)
+            .collect(Collectors.toList());
+        ctx.json(traces);
+    }
+
+    private static int limit(final Context ctx) {
+        final String limit = ctx.queryParam("limit");
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+
+        try {
+            final int value = Integer.parseInt(limit);
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new Problem(HttpStatus.BAD_REQUEST_400, "Limit should be a positive number");
+    }
+
+    private static TraceResponse toResponse(final TraceRecord record) {
+        final Map<String, Long> phaseMicros = new LinkedHashMap<>();
+        for (final TracePhase phase : TracePhase.values()) {
+            phaseMicros.put(phase.name().toLowerCase(Locale.ROOT),
+                TimeUnit.NANOSECONDS.toMicros(record.getPhaseNanos(phase)));
+        }
+
+        return TraceResponse.builder()
+            .name(record.getName())
+            .status(record.getStatus())
+            .startedAt(record.getStartedAt())
+            .totalMicros(TimeUnit.NANOSECONDS.toMicros(record.getTotalNanos()))
+            .phaseMicros(phaseMicros)
+            .build();
+    }
+}
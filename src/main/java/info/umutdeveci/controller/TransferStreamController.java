@@ -0,0 +1,138 @@
+package info.umutdeveci.controller;
+
+import static info.umutdeveci.util.Utils.rawRequestBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import info.umutdeveci.controller.request.TransferRequest;
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.controller.response.TransferStreamResult;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.model.TransferResult;
+import io.javalin.http.Context;
+import io.javalin.plugin.openapi.annotations.ContentType;
+import io.javalin.plugin.openapi.annotations.HttpMethod;
+import io.javalin.plugin.openapi.annotations.OpenApi;
+import io.javalin.plugin.openapi.annotations.OpenApiContent;
+import io.javalin.plugin.openapi.annotations.OpenApiRequestBody;
+import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Applies an unbounded NDJSON stream of transfers, one per line, and streams back one result per non blank line in the
+ * same order. Each record is applied before the next one is read, so a client can not send faster than the service
+ * applies its transfers: once the socket buffers are full, TCP flow control holds it back. A record failing does not
+ * stop the stream, its result carries the status and message {@code POST /transfer} would have returned.
+ */
+@Slf4j
+public class TransferStreamController {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private final AccountService accountService;
+    private final ObjectMapper mapper;
+    private final ObjectReader requestReader;
+    private final ObjectWriter resultWriter;
+
+    public TransferStreamController(@NonNull final AccountService accountService,
+        @NonNull final ObjectMapper mapper) {
+        this.accountService = accountService;
+        this.mapper = mapper;
+        this.requestReader = mapper.readerFor(TransferRequest.class);
+        this.resultWriter = mapper.writerFor(TransferStreamResult.class);
+    }
+
+    @OpenApi(
+        path = "/transfer/stream",
+        method = HttpMethod.POST,
+        summary = "Applies a newline delimited stream of transfers and streams back one result per record",
+        operationId = "streamTransfers",
+        requestBody = @OpenApiRequestBody(required = true, content = @OpenApiContent(from = TransferRequest.class, type = NDJSON)),
+        responses = {
+            @OpenApiResponse(status = "200", content = @OpenApiContent(from = TransferStreamResult.class, type = NDJSON)),
+            @OpenApiResponse(status = "default", content = @OpenApiContent(from = ProblemResponse.class, type = ContentType.JSON))
+        }
+    )
+    public void streamTransfers(final Context ctx) throws IOException {
+        final BufferedReader reader = new BufferedReader(
+            new InputStreamReader(rawRequestBody(ctx.req), StandardCharsets.UTF_8), 1 << 16);
+
+        ctx.status(HttpStatus.OK_200);
+        ctx.res.setContentType(NDJSON);
+
+        // Results bypass ctx.result, which would hold the whole response until the handler returns
+        final OutputStream outputStream = ctx.res.getOutputStream();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(outputStream)
+            .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)) {
+            generator.setRootValueSeparator(null);
+
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (StringUtils.isBlank(line)) {
+                    continue;
+                }
+
+                resultWriter.writeValue(generator, apply(line, lineNumber));
+                generator.writeRaw('\n');
+                // Flushing only when no more input is buffered batches the results of bulk uploads into few chunks,
+                // while a client sending one record at a time still gets each result right away
+                if (!reader.ready()) {
+                    generator.flush();
+                    outputStream.flush();
+                }
+            }
+        }
+    }
+
+    private TransferStreamResult apply(final String line, final long lineNumber) {
+        try {
+            final TransferRequest request;
+            try {
+                request = requestReader.readValue(line);
+            } catch (IOException e) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, "Malformed transfer record");
+            }
+
+            if (StringUtils.isEmpty(request.getFromAccountNumber()) || StringUtils.isEmpty(request.getToAccountNumber())
+                || request.getAmount() == null) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, "From account, to account and amount are required");
+            }
+
+            final TransferResult result = accountService
+                .transfer(request.getFromAccountNumber(), request.getToAccountNumber(), request.getAmount(),
+                    request.getExpectedFromVersion(), request.getExpectedToVersion());
+            return TransferStreamResult.builder()
+                .line(lineNumber)
+                .status(HttpStatus.OK_200)
+                .fromAccount(result.getFromAccount())
+                .toAccount(result.getToAccount())
+                .build();
+        } catch (Problem problem) {
+            return TransferStreamResult.builder()
+                .line(lineNumber)
+                .status(problem.getHttpCode())
+                .message(problem.getMessage())
+                .build();
+        } catch (RuntimeException e) {
+            log.error("Transfer at line {} of a stream failed", lineNumber, e);
+            return TransferStreamResult.builder()
+                .line(lineNumber)
+                .status(HttpStatus.INTERNAL_SERVER_ERROR_500)
+                .message(e.toString())
+                .build();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package info.umutdeveci.controller.request;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class AuthorizeRequest {
+
+    private BigDecimal amount;
+
+    /**
+     * Epoch milliseconds after which the hold is released
+     */
+    private Long expiresAt;
+}
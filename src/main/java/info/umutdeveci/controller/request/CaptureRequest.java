@@ -0,0 +1,17 @@
+package info.umutdeveci.controller.request;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CaptureRequest {
+
+    /**
+     * Optional, the whole hold is captured without it
+     */
+    private BigDecimal amount;
+}
@@ -11,4 +11,12 @@ import lombok.NoArgsConstructor;
 public class DepositRequest {
 
     private BigDecimal amount;
+    /**
+     * Optional, same as an {@code If-Match} header
+     */
+    private Long expectedVersion;
+
+    public DepositRequest(final BigDecimal amount) {
+        this(amount, null);
+    }
 }
@@ -0,0 +1,17 @@
+package info.umutdeveci.controller.request;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class InterestAccrualRequest {
+
+    /**
+     * Fraction of the balance to add, e.g. 0.0001, negative for a fee
+     */
+    private BigDecimal rate;
+}
@@ -0,0 +1,18 @@
+package info.umutdeveci.controller.request;
+
+import info.umutdeveci.service.model.TransferLeg;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class MultiTransferRequest {
+
+    private List<TransferLeg> debits;
+    private List<TransferLeg> credits;
+}
@@ -0,0 +1,17 @@
+package info.umutdeveci.controller.request;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OpenAccountRequest {
+
+    /**
+     * Optional, accounts are opened empty by default
+     */
+    private BigDecimal balance;
+}
@@ -0,0 +1,28 @@
+package info.umutdeveci.controller.request;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ScheduleTransferRequest {
+
+    private String fromAccountNumber;
+    private String toAccountNumber;
+    private BigDecimal amount;
+
+    /**
+     * Epoch milliseconds of the first execution
+     */
+    private Long executeAt;
+
+    /**
+     * Repeats the transfer with this interval when set
+     */
+    private Long intervalSeconds;
+}
@@ -15,4 +15,9 @@ public class TransferRequest {
     private String fromAccountNumber;
     private String toAccountNumber;
     private BigDecimal amount;
+    /**
+     * Optional, the transfer is applied only if the accounts still have these versions
+     */
+    private Long expectedFromVersion;
+    private Long expectedToVersion;
 }
@@ -11,4 +11,12 @@ import lombok.NoArgsConstructor;
 public class WithdrawRequest {
 
     private BigDecimal amount;
+    /**
+     * Optional, same as an {@code If-Match} header
+     */
+    private Long expectedVersion;
+
+    public WithdrawRequest(final BigDecimal amount) {
+        this(amount, null);
+    }
 }
@@ -0,0 +1,17 @@
+package info.umutdeveci.controller.response;
+
+import info.umutdeveci.model.Account;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class MultiTransferResponse {
+
+    private List<Account> accounts;
+}
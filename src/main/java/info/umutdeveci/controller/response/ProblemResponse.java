@@ -1,13 +1,17 @@
 package info.umutdeveci.controller.response;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 /**
  * Will be sent back as a response in case of any exceptions are thrown
  */
 @Data
 @Builder
+@AllArgsConstructor
+@NoArgsConstructor
 public class ProblemResponse {
 
     private int status;
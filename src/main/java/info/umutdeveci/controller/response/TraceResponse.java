@@ -0,0 +1,25 @@
+package info.umutdeveci.controller.response;
+
+import java.util.Map;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class TraceResponse {
+
+    /**
+     * Method and path of the request
+     */
+    private String name;
+    private int status;
+    /**
+     * Epoch milliseconds
+     */
+    private long startedAt;
+    private long totalMicros;
+    /**
+     * Time spent in each phase, the rest of the total went to routing, the service outside its locks and Jetty
+     */
+    private Map<String, Long> phaseMicros;
+}
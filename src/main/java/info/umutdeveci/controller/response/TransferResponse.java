@@ -1,11 +1,15 @@
 package info.umutdeveci.controller.response;
 
 import info.umutdeveci.model.Account;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
 @Builder
+@AllArgsConstructor
+@NoArgsConstructor
 public class TransferResponse {
 
     private Account fromAccount;
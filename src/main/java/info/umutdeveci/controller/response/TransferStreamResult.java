@@ -0,0 +1,23 @@
+package info.umutdeveci.controller.response;
+
+import info.umutdeveci.model.Account;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one record of a transfer stream. Accounts are set for applied transfers, message for rejected ones.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransferStreamResult {
+
+    private long line;
+    private int status;
+    private Account fromAccount;
+    private Account toAccount;
+    private String message;
+}
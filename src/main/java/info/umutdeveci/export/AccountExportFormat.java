@@ -0,0 +1,66 @@
+package info.umutdeveci.export;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Columnar file format of account exports. Fixed width numbers are big endian, varints are unsigned LEB128.
+ *
+ * <pre>
+ * file     := magic formatVersion:int8 createdAt:int64 (1:int8 group)* 0:int8 footer
+ * group    := rowCount:varint scale:varint numbers balances versions
+ * numbers  := length:varint (sharedPrefix:varint suffixLength:varint suffix:bytes(UTF-8))*
+ * balances := length:varint (zigzag(unscaled - previousUnscaled):varint)*
+ * versions := length:varint (zigzag(version - previousVersion):varint)*
+ * footer   := groupCount:varint (offset:int64 rowCount:varint)* totalRows:int64 footerOffset:int64 magic
+ * magic    := "ACCX"
+ * </pre>
+ *
+ * Rows of a group are sorted by account number. The number column is the sorted dictionary of the group's keys, each
+ * key front coded against the previous one, and the other columns are in the same order. Balances are stored unscaled
+ * at the largest scale of the group, so a balance can have at most 18 digits there. Balances and versions are delta
+ * encoded against the previous row, which keeps similar values in one or two bytes. Every column is prefixed with its
+ * length, so readers can skip the ones they do not need, and the footer lists where each group starts. Offsets count
+ * from the start of the file.
+ */
+public final class AccountExportFormat {
+
+    public static final byte[] MAGIC = "ACCX".getBytes(StandardCharsets.US_ASCII);
+    public static final byte FORMAT_VERSION = 1;
+    public static final byte GROUP_MARKER = 1;
+    public static final byte END_MARKER = 0;
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    private AccountExportFormat() {
+    }
+
+    public static void writeVarLong(final OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static long readVarLong(final DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is longer than 10 bytes");
+    }
+
+    public static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
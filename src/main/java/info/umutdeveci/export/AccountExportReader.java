@@ -0,0 +1,118 @@
+package info.umutdeveci.export;
+
+import static info.umutdeveci.export.AccountExportFormat.readVarLong;
+import static info.umutdeveci.export.AccountExportFormat.unzigzag;
+
+import info.umutdeveci.model.Account;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads an account export written by {@link AccountExportWriter} sequentially, one group at a time.
+ */
+public class AccountExportReader {
+
+    private final DataInputStream in;
+    private final long createdAt;
+    private long totalRows = -1;
+
+    public AccountExportReader(final InputStream inputStream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(inputStream));
+        checkMagic();
+        final byte formatVersion = in.readByte();
+        if (formatVersion != AccountExportFormat.FORMAT_VERSION) {
+            throw new IOException("Unsupported export format version " + formatVersion);
+        }
+        this.createdAt = in.readLong();
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return accounts of the next group in account number order, null after the last group
+     */
+    public List<Account> readGroup() throws IOException {
+        if (totalRows >= 0) {
+            return null;
+        }
+        final byte marker = in.readByte();
+        if (marker == AccountExportFormat.END_MARKER) {
+            readFooter();
+            return null;
+        }
+        if (marker != AccountExportFormat.GROUP_MARKER) {
+            throw new IOException("Unexpected marker " + marker);
+        }
+
+        final int rowCount = (int) readVarLong(in);
+        final int scale = (int) readVarLong(in);
+
+        // Column lengths are only needed to skip columns, every column is read here
+        readVarLong(in);
+        final String[] numbers = new String[rowCount];
+        byte[] previous = new byte[0];
+        for (int i = 0; i < rowCount; i++) {
+            final int shared = (int) readVarLong(in);
+            final int suffixLength = (int) readVarLong(in);
+            final byte[] number = Arrays.copyOf(previous, shared + suffixLength);
+            in.readFully(number, shared, suffixLength);
+            numbers[i] = new String(number, StandardCharsets.UTF_8);
+            previous = number;
+        }
+
+        readVarLong(in);
+        final BigDecimal[] balances = new BigDecimal[rowCount];
+        long unscaled = 0;
+        for (int i = 0; i < rowCount; i++) {
+            unscaled += unzigzag(readVarLong(in));
+            balances[i] = BigDecimal.valueOf(unscaled, scale);
+        }
+
+        readVarLong(in);
+        final List<Account> accounts = new ArrayList<>(rowCount);
+        long version = 0;
+        for (int i = 0; i < rowCount; i++) {
+            version += unzigzag(readVarLong(in));
+            accounts.add(new Account(numbers[i], balances[i], version));
+        }
+        return accounts;
+    }
+
+    /**
+     * @return number of accounts in the export, known once every group is read
+     */
+    public long getTotalRows() {
+        if (totalRows < 0) {
+            throw new IllegalStateException("Groups are not read yet");
+        }
+        return totalRows;
+    }
+
+    private void readFooter() throws IOException {
+        final long groupCount = readVarLong(in);
+        for (long i = 0; i < groupCount; i++) {
+            in.readLong();
+            readVarLong(in);
+        }
+        totalRows = in.readLong();
+        in.readLong();
+        checkMagic();
+    }
+
+    private void checkMagic() throws IOException {
+        final byte[] magic = new byte[AccountExportFormat.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, AccountExportFormat.MAGIC)) {
+            throw new IOException("Not an account export");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package info.umutdeveci.export;
+
+import static info.umutdeveci.export.AccountExportFormat.writeVarLong;
+import static info.umutdeveci.export.AccountExportFormat.zigzag;
+
+import info.umutdeveci.service.entity.AccountEntity;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes an account export in {@link AccountExportFormat} group by group, so only the group being written is held in
+ * memory. Fits {@link info.umutdeveci.service.AccountService#exportSnapshot} as the consumer.
+ */
+public class AccountExportWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream numbers = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream balances = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream versions = new ByteArrayOutputStream();
+    private final List<Long> groupOffsets = new ArrayList<>();
+    private final List<Integer> groupRowCounts = new ArrayList<>();
+    private long totalRows;
+
+    /**
+     * @param createdAt epoch millis the export reflects
+     */
+    public AccountExportWriter(final OutputStream outputStream, final long createdAt) throws IOException {
+        this.counter = new CountingOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        this.out = new DataOutputStream(counter);
+        out.write(AccountExportFormat.MAGIC);
+        out.writeByte(AccountExportFormat.FORMAT_VERSION);
+        out.writeLong(createdAt);
+    }
+
+    /**
+     * Writes the accounts as one group, the list is sorted in place. Empty lists are skipped.
+     */
+    public void writeGroup(final List<AccountEntity> accounts) {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        accounts.sort(Comparator.comparing(AccountEntity::getAccountNumber));
+
+        int scale = 0;
+        for (final AccountEntity account : accounts) {
+            scale = Math.max(scale, account.getBalance().scale());
+        }
+
+        numbers.reset();
+        balances.reset();
+        versions.reset();
+        try {
+            byte[] previousNumber = new byte[0];
+            long previousUnscaled = 0;
+            long previousVersion = 0;
+            for (final AccountEntity account : accounts) {
+                final byte[] number = account.getAccountNumber().getBytes(StandardCharsets.UTF_8);
+                final int shared = sharedPrefix(previousNumber, number);
+                writeVarLong(numbers, shared);
+                writeVarLong(numbers, number.length - shared);
+                numbers.write(number, shared, number.length - shared);
+                previousNumber = number;
+
+                final long unscaled = unscaled(account.getBalance(), scale);
+                writeVarLong(balances, zigzag(unscaled - previousUnscaled));
+                previousUnscaled = unscaled;
+
+                writeVarLong(versions, zigzag(account.getVersion() - previousVersion));
+                previousVersion = account.getVersion();
+            }
+
+            groupOffsets.add(counter.count);
+            groupRowCounts.add(accounts.size());
+            totalRows += accounts.size();
+
+            out.writeByte(AccountExportFormat.GROUP_MARKER);
+            writeVarLong(out, accounts.size());
+            writeVarLong(out, scale);
+            writeColumn(numbers);
+            writeColumn(balances);
+            writeColumn(versions);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the footer and flushes, the underlying stream is left open.
+     */
+    public void finish() throws IOException {
+        out.writeByte(AccountExportFormat.END_MARKER);
+        final long footerOffset = counter.count;
+        writeVarLong(out, groupOffsets.size());
+        for (int i = 0; i < groupOffsets.size(); i++) {
+            out.writeLong(groupOffsets.get(i));
+            writeVarLong(out, groupRowCounts.get(i));
+        }
+        out.writeLong(totalRows);
+        out.writeLong(footerOffset);
+        out.write(AccountExportFormat.MAGIC);
+        out.flush();
+    }
+
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    private void writeColumn(final ByteArrayOutputStream column) throws IOException {
+        writeVarLong(out, column.size());
+        column.writeTo(out);
+    }
+
+    private static int sharedPrefix(final byte[] previous, final byte[] current) {
+        final int max = Math.min(previous.length, current.length);
+        int shared = 0;
+        while (shared < max && previous[shared] == current[shared]) {
+            shared++;
+        }
+        return shared;
+    }
+
+    private static long unscaled(final BigDecimal balance, final int scale) {
+        try {
+            return balance.setScale(scale).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Balance " + balance + " does not fit the export format", e);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.math.BigDecimal;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 /**
  * Represents an account. Instances of this class are expected to be used as data transfer objects.
@@ -11,8 +12,26 @@ import lombok.Data;
 @Data
 @Builder
 @AllArgsConstructor
+@NoArgsConstructor
 public class Account {
 
     private String accountNumber;
     private BigDecimal balance;
+    /**
+     * Incremented on every change of the account, sent back as {@code If-Match} or {@code expected_version} to make a
+     * write conditional. Null where the version is not known, such as WebSocket balance updates.
+     */
+    private Long version;
+    /**
+     * Balance minus the funds held for authorizations that are not captured yet, null when nothing is held
+     */
+    private BigDecimal availableBalance;
+
+    public Account(final String accountNumber, final BigDecimal balance) {
+        this(accountNumber, balance, null);
+    }
+
+    public Account(final String accountNumber, final BigDecimal balance, final Long version) {
+        this(accountNumber, balance, version, null);
+    }
 }
@@ -0,0 +1,82 @@
+package info.umutdeveci.openapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.Application;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.id.AccountNumberGenerator;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import info.umutdeveci.trace.Tracer;
+import io.javalin.Javalin;
+import io.javalin.plugin.openapi.OpenApiOptions;
+import io.javalin.plugin.openapi.OpenApiPlugin;
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.info.Info;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.Collections;
+
+/**
+ * Generates the OpenAPI document from the {@code @OpenApi} annotations of the controllers. It runs during the build
+ * (see the exec-maven-plugin execution in pom.xml) and the result is packaged as a static resource, so the application
+ * does not have to initialize swagger-core and reflect over the controllers on every start.
+ */
+public class OpenApiGenerator {
+
+    private OpenApiGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: OpenApiGenerator <output file>");
+        }
+
+        final Path output = Paths.get(args[0]);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Files.writeString(output, generate());
+    }
+
+    public static String generate() throws IOException {
+        final ObjectMapper mapper = Application.createObjectMapper();
+
+        // The handlers are only inspected for their annotations, they are never invoked
+        final AccountService accountService = new InMemoryAccountService(Collections.emptyList());
+        final AccountImporter accountImporter = new AccountImporter(accountService, mapper, 1, 1);
+        final TransferScheduler transferScheduler = new TransferScheduler(accountService, Clock.systemUTC(), 1000, 1);
+
+        final Javalin app = Javalin
+            .create(config -> {
+                config.registerPlugin(new OpenApiPlugin(createOpenApiOptions(mapper)));
+                config.showJavalinBanner = false;
+            })
+            .routes(Application.routes(accountService, accountImporter, transferScheduler, new Tracer(0, 1),
+                new AccountListCache(accountService, new AccountEventBus(2), mapper, 1),
+                new InterestAccrualBatch(accountService, Clock.systemUTC(), 1, 1),
+                new AccountNumberGenerator(Clock.systemUTC(), 0)));
+
+        final OpenAPI openApi = app.config.getPlugin(OpenApiPlugin.class).getOpenApiHandler().createOpenAPISchema();
+        return Json.pretty().writeValueAsString(openApi);
+    }
+
+    private static OpenApiOptions createOpenApiOptions(final ObjectMapper mapper) {
+        final Info applicationInfo = new Info()
+            .title("Account API")
+            .version("1.0")
+            .description(
+                "A simple API that provides account information, withdrawal/deposit operations and transfers between"
+                    + "  accounts. For simplicity sake, all accounts considered to have same currency.");
+        return new OpenApiOptions(applicationInfo)
+            .jacksonMapper(mapper)
+            .path(Application.OPEN_API_PATH);
+    }
+}
@@ -0,0 +1,134 @@
+package info.umutdeveci.plugin;
+
+import info.umutdeveci.exception.Problem;
+import io.javalin.Javalin;
+import io.javalin.core.plugin.Plugin;
+import io.javalin.core.util.OptionalDependency;
+import io.javalin.http.Context;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.Map;
+import org.eclipse.jetty.http.HttpStatus;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Serves the OpenAPI document generated at build time by {@link info.umutdeveci.openapi.OpenApiGenerator} and a
+ * Swagger UI for it. Nothing is loaded while the application starts: the document is read from the classpath on the
+ * first request, and the Swagger UI page and its webjar assets are only touched when somebody opens it.
+ */
+public class StaticOpenApiPlugin implements Plugin {
+
+    public static final String DOCUMENT_RESOURCE = "openapi/openapi.json";
+
+    private static final String SWAGGER_UI_WEBJAR_PATH = "/webjars/swagger-ui";
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+        "js", "application/javascript",
+        "css", "text/css",
+        "html", "text/html",
+        "png", "image/png",
+        "map", "application/json");
+
+    private final String documentPath;
+    private final String swaggerUiPath;
+
+    private volatile byte[] document;
+    private volatile String swaggerUiHtml;
+
+    public StaticOpenApiPlugin(final String documentPath, final String swaggerUiPath) {
+        this.documentPath = documentPath;
+        this.swaggerUiPath = swaggerUiPath;
+    }
+
+    @Override
+    public void apply(@NotNull final Javalin app) {
+        app.get(documentPath, this::serveDocument);
+        app.get(swaggerUiPath, this::serveSwaggerUi);
+        app.get(SWAGGER_UI_WEBJAR_PATH + "/*", this::serveSwaggerUiAsset);
+    }
+
+    private void serveDocument(final Context ctx) {
+        byte[] content = document;
+        if (content == null) {
+            content = readResource(DOCUMENT_RESOURCE);
+            if (content == null) {
+                throw new Problem(HttpStatus.NOT_FOUND_404, "OpenAPI document was not generated during the build");
+            }
+            document = content;
+        }
+
+        ctx.contentType("application/json");
+        ctx.result(new ByteArrayInputStream(content));
+    }
+
+    private void serveSwaggerUi(final Context ctx) {
+        String html = swaggerUiHtml;
+        if (html == null) {
+            html = createSwaggerUiHtml();
+            swaggerUiHtml = html;
+        }
+
+        ctx.html(html);
+    }
+
+    private void serveSwaggerUiAsset(final Context ctx) {
+        final String asset = ctx.path().substring(ctx.path().indexOf(SWAGGER_UI_WEBJAR_PATH)
+            + SWAGGER_UI_WEBJAR_PATH.length() + 1);
+        if (asset.isEmpty() || asset.contains("..")) {
+            throw new Problem(HttpStatus.NOT_FOUND_404, "Not found");
+        }
+
+        final InputStream content = StaticOpenApiPlugin.class.getClassLoader()
+            .getResourceAsStream(swaggerUiResourceRoot() + asset);
+        if (content == null) {
+            throw new Problem(HttpStatus.NOT_FOUND_404, "Not found");
+        }
+
+        final String extension = asset.substring(asset.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        ctx.contentType(CONTENT_TYPES.getOrDefault(extension, "application/octet-stream"));
+        ctx.header("Cache-Control", "max-age=86400");
+        ctx.result(content);
+    }
+
+    private String createSwaggerUiHtml() {
+        final String assets = SWAGGER_UI_WEBJAR_PATH;
+        return "<!DOCTYPE html>\n"
+            + "<html lang=\"en\">\n"
+            + "<head>\n"
+            + "    <meta charset=\"UTF-8\">\n"
+            + "    <title>Account API</title>\n"
+            + "    <link rel=\"stylesheet\" type=\"text/css\" href=\"" + assets + "/swagger-ui.css\">\n"
+            + "</head>\n"
+            + "<body>\n"
+            + "<div id=\"swagger-ui\"></div>\n"
+            + "<script src=\"" + assets + "/swagger-ui-bundle.js\"></script>\n"
+            + "<script src=\"" + assets + "/swagger-ui-standalone-preset.js\"></script>\n"
+            + "<script>\n"
+            + "    window.onload = function() {\n"
+            + "        window.ui = SwaggerUIBundle({\n"
+            + "            url: \"" + documentPath + "\",\n"
+            + "            dom_id: \"#swagger-ui\",\n"
+            + "            deepLinking: true,\n"
+            + "            presets: [SwaggerUIBundle.presets.apis, SwaggerUIStandalonePreset],\n"
+            + "            layout: \"StandaloneLayout\"\n"
+            + "        })\n"
+            + "    }\n"
+            + "</script>\n"
+            + "</body>\n"
+            + "</html>\n";
+    }
+
+    private static String swaggerUiResourceRoot() {
+        return "META-INF/resources/webjars/swagger-ui/" + OptionalDependency.SWAGGERUI.getVersion() + "/";
+    }
+
+    private static byte[] readResource(final String name) {
+        try (InputStream inputStream = StaticOpenApiPlugin.class.getClassLoader().getResourceAsStream(name)) {
+            return inputStream == null ? null : inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package info.umutdeveci.server;
+
+import info.umutdeveci.config.ServerConfig;
+import info.umutdeveci.config.ThreadPoolModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Creates the Jetty server Javalin runs on, according to a {@link ServerConfig}.
+ */
+@Slf4j
+public class JettyServerFactory {
+
+    private JettyServerFactory() {
+    }
+
+    public static Server createServer(@NonNull final ServerConfig config) {
+        final Server server = new Server(createThreadPool(config));
+        server.addConnector(createConnector(server, config));
+        return server;
+    }
+
+    static ThreadPool createThreadPool(final ServerConfig config) {
+        switch (config.getThreadPoolModel()) {
+            case EXECUTOR:
+                return createExecutorThreadPool(config);
+            case VIRTUAL:
+                if (VirtualThreadPool.isSupported()) {
+                    return new VirtualThreadPool();
+                }
+                log.warn("Virtual threads are not available on Java {}, falling back to {} thread pool",
+                    System.getProperty("java.version"), ThreadPoolModel.QUEUED);
+                return createQueuedThreadPool(config);
+            case QUEUED:
+            default:
+                return createQueuedThreadPool(config);
+        }
+    }
+
+    private static ThreadPool createQueuedThreadPool(final ServerConfig config) {
+        final BlockingArrayQueue<Runnable> queue = new BlockingArrayQueue<>(config.getMinThreads(),
+            config.getMinThreads(), config.getQueueCapacity());
+        final QueuedThreadPool threadPool = new QueuedThreadPool(config.getMaxThreads(), config.getMinThreads(),
+            (int) config.getThreadIdleTimeoutMillis(), queue);
+        threadPool.setName("jetty-queued");
+        return threadPool;
+    }
+
+    /**
+     * Core size equals max size with core thread timeout, so the executor creates a thread for each new task until it
+     * reaches max threads, queues after that and shrinks back once the load is gone. A plain ThreadPoolExecutor would
+     * only grow past its core size when the queue is full.
+     */
+    private static ThreadPool createExecutorThreadPool(final ServerConfig config) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(config.getMaxThreads(), config.getMaxThreads(),
+            config.getThreadIdleTimeoutMillis(), TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        final ExecutorThreadPool threadPool = new ExecutorThreadPool(executor);
+        threadPool.setName("jetty-executor");
+        return threadPool;
+    }
+
+    private static ServerConnector createConnector(final Server server, final ServerConfig config) {
+        final HttpConfiguration httpConfiguration = new HttpConfiguration();
+        httpConfiguration.setRequestHeaderSize(config.getRequestHeaderSize());
+        httpConfiguration.setResponseHeaderSize(config.getResponseHeaderSize());
+        httpConfiguration.setOutputBufferSize(config.getOutputBufferSize());
+        httpConfiguration.setSendServerVersion(false);
+
+        final List<ConnectionFactory> connectionFactories = new ArrayList<>();
+        connectionFactories.add(new HttpConnectionFactory(httpConfiguration));
+        if (config.isHttp2Enabled()) {
+            final HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(httpConfiguration);
+            http2.setMaxConcurrentStreams(config.getHttp2MaxConcurrentStreams());
+            http2.setInitialStreamRecvWindow(config.getHttp2InitialStreamWindow());
+            connectionFactories.add(http2);
+        }
+
+        final ServerConnector connector = new ServerConnector(server, config.getAcceptors(), config.getSelectors(),
+            connectionFactories.toArray(new ConnectionFactory[0]));
+        connector.setPort(config.getPort());
+        connector.setIdleTimeout(config.getIdleTimeoutMillis());
+        connector.setAcceptQueueSize(config.getAcceptQueueSize());
+        return connector;
+    }
+}
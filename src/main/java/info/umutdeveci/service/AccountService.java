@@ -1,10 +1,21 @@
 package info.umutdeveci.service;
 
+import info.umutdeveci.exception.Problem;
 import info.umutdeveci.model.Account;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.model.Hold;
+import info.umutdeveci.service.model.MultiTransferResult;
+import info.umutdeveci.service.model.StorageStats;
+import info.umutdeveci.service.model.TransferLeg;
 import info.umutdeveci.service.model.TransferResult;
 import java.math.BigDecimal;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 import lombok.NonNull;
+import org.eclipse.jetty.http.HttpStatus;
 
 public interface AccountService {
 
@@ -12,10 +23,201 @@ public interface AccountService {
 
     Account get(@NonNull final String accountNumber);
 
-    Account withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount);
+    /**
+     * Accounts whose balance is within the range, ordered by balance and then account number. This default filters
+     * {@link #getAll()}.
+     *
+     * @param minBalance inclusive, null for no lower bound
+     * @param maxBalance inclusive, null for no upper bound
+     * @param descending highest balances first when true
+     * @param limit      maximum number of accounts returned
+     */
+    default List<Account> findByBalance(final BigDecimal minBalance, final BigDecimal maxBalance,
+        final boolean descending, final int limit) {
+        Comparator<Account> order = Comparator.comparing(Account::getBalance)
+            .thenComparing(Account::getAccountNumber);
+        if (descending) {
+            order = order.reversed();
+        }
+        return getAll().stream()
+            .filter(account -> minBalance == null || account.getBalance().compareTo(minBalance) >= 0)
+            .filter(account -> maxBalance == null || account.getBalance().compareTo(maxBalance) <= 0)
+            .sorted(order)
+            .limit(limit)
+            .collect(Collectors.toList());
+    }
 
-    Account deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount);
+    default Account withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount) {
+        return withdraw(accountNumber, amount, null);
+    }
 
+    /**
+     * @param expectedVersion the change is applied only if the account still has this version, null to apply it
+     * unconditionally
+     */
+    Account withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion);
+
+    default Account deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount) {
+        return deposit(accountNumber, amount, null);
+    }
+
+    /**
+     * @param expectedVersion the change is applied only if the account still has this version, null to apply it
+     * unconditionally
+     */
+    Account deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion);
+
+    default TransferResult transfer(@NonNull final String fromAccount, @NonNull final String toAccount,
+        @NonNull final BigDecimal amount) {
+        return transfer(fromAccount, toAccount, amount, null, null);
+    }
+
+    /**
+     * Expected versions are checked independently, either one can be null.
+     */
     TransferResult transfer(@NonNull final String fromAccount, @NonNull final String toAccount,
-        @NonNull final BigDecimal amount);
+        @NonNull final BigDecimal amount, final Long expectedFromVersion, final Long expectedToVersion);
+
+    /**
+     * Debits and credits several accounts as one unit, either every leg is applied or none. Debits and credits should
+     * have the same total and an account can appear in one leg only.
+     */
+    MultiTransferResult multiTransfer(@NonNull final List<TransferLeg> debits, @NonNull final List<TransferLeg> credits);
+
+    /**
+     * Opens one account, e.g. with a number from {@link info.umutdeveci.service.id.AccountNumberGenerator}. Fails with
+     * 409 when the number is taken and with 400 when the balance is negative.
+     */
+    Account openAccount(@NonNull final String accountNumber, @NonNull final BigDecimal balance);
+
+    /**
+     * Closes an account whose balance is zero, it fails with 409 otherwise. Scheduled transfers and subscriptions of
+     * the account fail from then on like for any account that does not exist.
+     *
+     * @param expectedVersion the account is closed only if it still has this version, null to close it unconditionally
+     * @return the account as it was when it was closed
+     */
+    Account closeAccount(@NonNull final String accountNumber, final Long expectedVersion);
+
+    /**
+     * Reserves funds of the account, e.g. for a card payment that is settled later. Held funds stay in the balance but
+     * can not be withdrawn, transferred or held again until the hold is captured, released or expired by
+     * {@link #expireHolds}. Fails with 400 when the available balance, the balance minus what is held, is not enough.
+     *
+     * @param expiresAt epoch millis after which the hold is given back
+     */
+    Hold authorize(@NonNull final String accountNumber, @NonNull final BigDecimal amount, final long expiresAt);
+
+    /**
+     * Withdraws the held funds, or a part of them while the rest is given back. Fails with 404 when the hold does not
+     * exist any more, e.g. because it was released or expired.
+     *
+     * @param amount at most the held amount, null to capture all of it
+     * @return the account after the capture
+     */
+    Account capture(final long holdId, final BigDecimal amount);
+
+    /**
+     * Gives the held funds back without withdrawing anything, fails with 404 like {@link #capture}.
+     *
+     * @return the account after the release
+     */
+    Account release(final long holdId);
+
+    /**
+     * Releases the holds whose expiry time is not after {@code now}, without looking at the holds that are not due.
+     * Implementations may release a hold up to one second late, never early.
+     *
+     * @return number of released holds
+     */
+    int expireHolds(final long now);
+
+    /**
+     * Inserts a batch of new accounts. Accounts whose number already exists are skipped, not overwritten.
+     *
+     * @return number of accounts actually inserted
+     */
+    int importAccounts(@NonNull final List<AccountEntity> accountEntities);
+
+    /**
+     * Number of partitions the accounts can be walked in with {@link #getAccountNumbers(int)}, e.g. by batch jobs
+     * running in parallel.
+     */
+    default int getPartitionCount() {
+        return 1;
+    }
+
+    /**
+     * @param partition from zero to {@link #getPartitionCount()} exclusive
+     * @return numbers of the accounts in the partition, in no particular order
+     */
+    default List<String> getAccountNumbers(final int partition) {
+        return getAll().stream().map(Account::getAccountNumber).collect(Collectors.toList());
+    }
+
+    /**
+     * Changes the balance of each given account by the amount the adjustment returns for its current balance, every
+     * account as a separate change. Zero leaves the account as it is and a negative amount is capped at the available
+     * balance, so no balance goes below zero or below what is held. Accounts that do not exist are skipped.
+     *
+     * <p>This default reads each account and applies its change conditionally on the version it read, reading it again
+     * when the account changed in between.
+     *
+     * @return number of accounts changed
+     */
+    default int adjustBalances(@NonNull final List<String> accountNumbers,
+        @NonNull final UnaryOperator<BigDecimal> adjustment) {
+        int adjusted = 0;
+        for (final String accountNumber : accountNumbers) {
+            while (true) {
+                final Account account;
+                try {
+                    account = get(accountNumber);
+                } catch (Problem problem) {
+                    break;
+                }
+
+                final BigDecimal available = account.getAvailableBalance() != null ? account.getAvailableBalance()
+                    : account.getBalance();
+                final BigDecimal amount = adjustment.apply(account.getBalance()).max(available.negate());
+                try {
+                    if (amount.signum() > 0) {
+                        deposit(accountNumber, amount, account.getVersion());
+                    } else if (amount.signum() < 0) {
+                        withdraw(accountNumber, amount.negate(), account.getVersion());
+                    }
+                } catch (Problem problem) {
+                    if (problem.getHttpCode() == HttpStatus.PRECONDITION_FAILED_412) {
+                        continue;
+                    }
+                    throw problem;
+                }
+                if (amount.signum() != 0) {
+                    adjusted++;
+                }
+                break;
+            }
+        }
+        return adjusted;
+    }
+
+    /**
+     * Passes every account, as it was at one point in time, to the consumer in one or more batches. The entities are
+     * copies. This default takes the snapshot with {@link #getAll()} and passes it as one batch.
+     */
+    default void exportSnapshot(@NonNull final Consumer<List<AccountEntity>> consumer) {
+        consumer.accept(getAll().stream()
+            .map(account -> new AccountEntity(account.getAccountNumber(), account.getBalance(),
+                account.getVersion() == null ? 0 : account.getVersion()))
+            .collect(Collectors.toList()));
+    }
+
+    /**
+     * @return counters of the storage tiers, null when accounts are not tiered
+     */
+    default StorageStats getStorageStats() {
+        return null;
+    }
 }
@@ -0,0 +1,47 @@
+package info.umutdeveci.service.batch;
+
+/**
+ * Records how far a batch got in every partition. Accounts of a partition are processed in account number order, so
+ * the last processed account number is enough to continue a partition without applying anything twice.
+ */
+public class AccrualCheckpoint {
+
+    private final String[] lastAccountNumbers;
+    private final boolean[] completed;
+    private int completedCount;
+
+    public AccrualCheckpoint(final int partitions) {
+        this.lastAccountNumbers = new String[partitions];
+        this.completed = new boolean[partitions];
+    }
+
+    public int getPartitions() {
+        return completed.length;
+    }
+
+    public synchronized boolean isCompleted(final int partition) {
+        return completed[partition];
+    }
+
+    public synchronized int getCompletedPartitions() {
+        return completedCount;
+    }
+
+    /**
+     * @return the last account number processed in the partition, null if none was
+     */
+    public synchronized String getLastAccountNumber(final int partition) {
+        return lastAccountNumbers[partition];
+    }
+
+    synchronized void advance(final int partition, final String lastAccountNumber) {
+        lastAccountNumbers[partition] = lastAccountNumber;
+    }
+
+    synchronized void complete(final int partition) {
+        if (!completed[partition]) {
+            completed[partition] = true;
+            completedCount++;
+        }
+    }
+}
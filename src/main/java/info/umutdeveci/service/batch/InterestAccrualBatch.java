@@ -0,0 +1,274 @@
+package info.umutdeveci.service.batch;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.model.AccrualProgress;
+import info.umutdeveci.service.model.AccrualState;
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Applies interest, or a fee when the rate is negative, to every account while online requests keep running. Partitions
+ * of {@link AccountService#getAccountNumbers(int)} are processed in parallel on a fork/join pool, and each partition in
+ * chunks of {@code chunkSize} accounts through {@link AccountService#adjustBalances}, so a request never waits for
+ * more than one chunk of the batch.
+ *
+ * <p>One run is kept at a time. After every chunk the run's {@link AccrualCheckpoint} is advanced, so a cancelled or
+ * failed run can be resumed and continues where it stopped, without applying interest to any account twice. Accounts
+ * created in a partition while it is processed may or may not be included, depending on where their number falls.
+ *
+ * <p>Interest is rounded half even to the scale of the balance, at least two digits.
+ */
+@Slf4j
+public class InterestAccrualBatch implements Closeable {
+
+    private static final int MIN_SCALE = 2;
+
+    private final AccountService accountService;
+    private final Clock clock;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    private Run current;
+    private long lastId;
+
+    /**
+     * @param parallelism number of partitions processed at the same time
+     * @param chunkSize   accounts adjusted per call, which bounds how long a request can wait for the batch
+     */
+    public InterestAccrualBatch(@NonNull final AccountService accountService, @NonNull final Clock clock,
+        final int parallelism, final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size should be positive, got " + chunkSize);
+        }
+        this.accountService = accountService;
+        this.clock = clock;
+        this.chunkSize = chunkSize;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Starts a new run in the background, a previous run that was not completed is discarded with its checkpoint.
+     *
+     * @param rate fraction of the balance to add, negative for a fee, greater than -1
+     */
+    public synchronized AccrualProgress start(@NonNull final BigDecimal rate) {
+        if (rate.signum() == 0 || rate.compareTo(BigDecimal.ONE.negate()) <= 0) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Rate should be non zero and greater than -1");
+        }
+        checkNotRunning();
+
+        current = new Run(++lastId, rate, new AccrualCheckpoint(accountService.getPartitionCount()));
+        return submit(current);
+    }
+
+    /**
+     * Continues a cancelled or failed run from its checkpoint.
+     */
+    public synchronized AccrualProgress resume() {
+        final Run run = getCurrent();
+        checkNotRunning();
+        if (run.state == AccrualState.COMPLETED) {
+            throw new Problem(HttpStatus.CONFLICT_409, String.format("Interest run %d is already completed", run.id));
+        }
+        return submit(run);
+    }
+
+    /**
+     * Stops the current run after the chunks being processed, it can be resumed later.
+     */
+    public synchronized AccrualProgress cancel() {
+        final Run run = getCurrent();
+        run.cancelled = true;
+        return run.toProgress();
+    }
+
+    public synchronized AccrualProgress getProgress() {
+        return getCurrent().toProgress();
+    }
+
+    /**
+     * Waits until the current run stops, for tests and tools.
+     */
+    public AccrualProgress awaitCurrent(final long timeoutMillis) throws InterruptedException, TimeoutException {
+        final Run run;
+        synchronized (this) {
+            run = getCurrent();
+        }
+        try {
+            run.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // Recorded on the run
+        }
+        return run.toProgress();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (current != null) {
+                current.cancelled = true;
+            }
+        }
+        pool.shutdown();
+    }
+
+    private Run getCurrent() {
+        if (current == null) {
+            throw new Problem(HttpStatus.NOT_FOUND_404, "No interest run was started");
+        }
+        return current;
+    }
+
+    private void checkNotRunning() {
+        if (current != null && current.state == AccrualState.RUNNING) {
+            throw new Problem(HttpStatus.CONFLICT_409, String.format("Interest run %d is still running", current.id));
+        }
+    }
+
+    private AccrualProgress submit(final Run run) {
+        run.state = AccrualState.RUNNING;
+        run.cancelled = false;
+        run.error = null;
+        run.finishedAt = null;
+        run.future = CompletableFuture.runAsync(() -> execute(run), pool);
+        return run.toProgress();
+    }
+
+    private void execute(final Run run) {
+        log.info("Interest run {} with rate {} started, {} of {} partitions already completed", run.id, run.rate,
+            run.checkpoint.getCompletedPartitions(), run.checkpoint.getPartitions());
+        new PartitionRangeTask(run, 0, run.checkpoint.getPartitions()).invoke();
+
+        run.finishedAt = clock.millis();
+        if (run.error != null) {
+            run.state = AccrualState.FAILED;
+        } else if (run.checkpoint.getCompletedPartitions() == run.checkpoint.getPartitions()) {
+            run.state = AccrualState.COMPLETED;
+        } else {
+            run.state = AccrualState.CANCELLED;
+        }
+        log.info("Interest run {} {}, {} accounts processed, {} adjusted", run.id, run.state,
+            run.processedAccounts.get(), run.adjustedAccounts.get());
+    }
+
+    /**
+     * Errors are recorded on the run instead of thrown, so the other partitions stop at a chunk boundary and every
+     * task has finished when the run is reported as stopped.
+     */
+    private void processPartition(final Run run, final int partition) {
+        if (run.checkpoint.isCompleted(partition) || run.cancelled) {
+            return;
+        }
+
+        try {
+            final List<String> accountNumbers = accountService.getAccountNumbers(partition);
+            Collections.sort(accountNumbers);
+            final String lastAccountNumber = run.checkpoint.getLastAccountNumber(partition);
+            int from = 0;
+            if (lastAccountNumber != null) {
+                final int index = Collections.binarySearch(accountNumbers, lastAccountNumber);
+                from = index >= 0 ? index + 1 : -(index + 1);
+            }
+
+            for (; from < accountNumbers.size(); from += chunkSize) {
+                if (run.cancelled) {
+                    return;
+                }
+                final List<String> chunk = accountNumbers.subList(from,
+                    Math.min(from + chunkSize, accountNumbers.size()));
+                run.adjustedAccounts.addAndGet(accountService.adjustBalances(chunk, run::interest));
+                run.checkpoint.advance(partition, chunk.get(chunk.size() - 1));
+                run.processedAccounts.addAndGet(chunk.size());
+            }
+            run.checkpoint.complete(partition);
+        } catch (RuntimeException e) {
+            log.error("Interest run {} failed in partition {}", run.id, partition, e);
+            synchronized (run) {
+                if (run.error == null) {
+                    run.error = e.getMessage();
+                }
+            }
+            run.cancelled = true;
+        }
+    }
+
+    private final class PartitionRangeTask extends RecursiveAction {
+
+        private final Run run;
+        private final int from;
+        private final int to;
+
+        private PartitionRangeTask(final Run run, final int from, final int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                processPartition(run, from);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new PartitionRangeTask(run, from, middle), new PartitionRangeTask(run, middle, to));
+        }
+    }
+
+    private final class Run {
+
+        private final long id;
+        private final BigDecimal rate;
+        private final AccrualCheckpoint checkpoint;
+        private final long startedAt;
+        private final AtomicLong processedAccounts = new AtomicLong();
+        private final AtomicLong adjustedAccounts = new AtomicLong();
+
+        private volatile AccrualState state;
+        private volatile boolean cancelled;
+        private volatile String error;
+        private volatile Long finishedAt;
+        private volatile CompletableFuture<Void> future;
+
+        private Run(final long id, final BigDecimal rate, final AccrualCheckpoint checkpoint) {
+            this.id = id;
+            this.rate = rate;
+            this.checkpoint = checkpoint;
+            this.startedAt = clock.millis();
+        }
+
+        private BigDecimal interest(final BigDecimal balance) {
+            return balance.multiply(rate).setScale(Math.max(balance.scale(), MIN_SCALE), RoundingMode.HALF_EVEN);
+        }
+
+        private AccrualProgress toProgress() {
+            return AccrualProgress.builder()
+                .id(id)
+                .rate(rate)
+                .state(state)
+                .partitions(checkpoint.getPartitions())
+                .completedPartitions(checkpoint.getCompletedPartitions())
+                .processedAccounts(processedAccounts.get())
+                .adjustedAccounts(adjustedAccounts.get())
+                .startedAt(startedAt)
+                .finishedAt(finishedAt)
+                .error(error)
+                .build();
+        }
+    }
+}
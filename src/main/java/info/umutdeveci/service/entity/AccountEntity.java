@@ -14,5 +14,29 @@ import lombok.Data;
 public class AccountEntity {
 
     private String accountNumber;
+    /**
+     * Ledger balance, holds are not subtracted from it until they are captured
+     */
     private BigDecimal balance;
+    /**
+     * Incremented on every balance change, only under the lock that guards the entity
+     */
+    private long version;
+    /**
+     * Total of the outstanding holds, never more than the balance. What can be withdrawn is the balance minus this.
+     */
+    @Builder.Default
+    private BigDecimal held = BigDecimal.ZERO;
+
+    public AccountEntity(final String accountNumber, final BigDecimal balance) {
+        this(accountNumber, balance, 0);
+    }
+
+    public AccountEntity(final String accountNumber, final BigDecimal balance, final long version) {
+        this(accountNumber, balance, version, BigDecimal.ZERO);
+    }
+
+    public BigDecimal getAvailableBalance() {
+        return held.signum() == 0 ? balance : balance.subtract(held);
+    }
 }
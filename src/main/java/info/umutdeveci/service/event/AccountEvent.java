@@ -0,0 +1,52 @@
+package info.umutdeveci.service.event;
+
+import java.math.BigDecimal;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A change applied by the account service. Balances are the ones right after the change.
+ *
+ * <p>Instances are reused: the ring of the {@link AccountEventBus} is allocated once and every {@link EventCursor}
+ * copies events into an instance of its own, so a handler should copy what it needs instead of keeping the event.
+ */
+@Getter
+@Setter(AccessLevel.PACKAGE)
+@ToString
+public class AccountEvent {
+
+    private long sequence;
+    private AccountEventType type;
+    private long timestamp;
+    private String accountNumber;
+    private BigDecimal balance;
+
+    /**
+     * Not set for {@link AccountEventType#ACCOUNT_CREATED} and {@link AccountEventType#ACCOUNT_CLOSED}, the change of
+     * the held funds for {@link AccountEventType#HOLD_CHANGED}
+     */
+    private BigDecimal amount;
+
+    /**
+     * Only set for {@link AccountEventType#TRANSFER_APPLIED}
+     */
+    private String toAccountNumber;
+
+    /**
+     * Only set for {@link AccountEventType#TRANSFER_APPLIED}
+     */
+    private BigDecimal toBalance;
+
+    void copyFrom(final AccountEvent other) {
+        sequence = other.sequence;
+        type = other.type;
+        timestamp = other.timestamp;
+        accountNumber = other.accountNumber;
+        balance = other.balance;
+        amount = other.amount;
+        toAccountNumber = other.toAccountNumber;
+        toBalance = other.toBalance;
+    }
+}
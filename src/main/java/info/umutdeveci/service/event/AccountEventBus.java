@@ -0,0 +1,285 @@
+package info.umutdeveci.service.event;
+
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import lombok.NonNull;
+
+/**
+ * Change data capture for the account service: every applied mutation is written to a ring of preallocated events,
+ * which any number of consumers read at their own pace through an {@link EventCursor}.
+ *
+ * <p>Publishing claims a sequence with a single atomic increment and writes the slot in place, allocating nothing.
+ * Producers publish while holding the service's locks, so they never wait for consumers for long: a consumer that
+ * falls behind by more than the ring size is told how many events it missed instead (see
+ * {@link AccountEventHandler#onOverrun(long)}), so the ring size should cover the longest pause expected from a
+ * consumer.
+ *
+ * <p>Cursors from {@link #newLossyCursor()} never hold producers back. Cursors from {@link #newCursor()} gate them: a
+ * producer about to overwrite an event such a cursor did not read spins, yields and then parks, for at most the
+ * maximum wait. A cursor still behind by then stops gating and is overrun; it gates again from its next poll. So a
+ * gating cursor gets over a consumer's short stalls without losing events, while the delay it can add to a mutation
+ * stays bounded, and a handler that waits for the service, whose locks a producer holds, at worst costs it one wait.
+ *
+ * <p>Each slot carries the sequence it holds. Producers mark a slot as being written before touching its fields and
+ * store the sequence after, readers check the sequence before and after copying the fields, which detects a slot
+ * being overwritten under them without any locking.
+ */
+public class AccountEventBus {
+
+    public static final long DEFAULT_MAX_WAIT_MICROS = 1000;
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final Slot[] slots;
+    private final int mask;
+    private final long maxWaitNanos;
+    private final AtomicLong nextSequence = new AtomicLong();
+    /**
+     * Replaced as a whole under the bus' monitor, so producers read it without locking
+     */
+    private volatile EventCursor[] gatingCursors = new EventCursor[0];
+    /**
+     * A sequence no gating cursor is behind of, as last seen by a producer. Spares the producers from reading every
+     * cursor until they are a lap ahead of it.
+     */
+    private volatile long cachedGatingSequence;
+
+    /**
+     * @param capacity size of the ring, a power of two well above the number of threads publishing at the same time
+     */
+    public AccountEventBus(final int capacity) {
+        this(capacity, DEFAULT_MAX_WAIT_MICROS);
+    }
+
+    /**
+     * @param capacity size of the ring, a power of two well above the number of threads publishing at the same time
+     * @param maxWaitMicros longest a producer waits for a gating cursor before overrunning it
+     */
+    public AccountEventBus(final int capacity, final long maxWaitMicros) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity should be a power of two, got " + capacity);
+        }
+        if (maxWaitMicros < 0) {
+            throw new IllegalArgumentException("Maximum wait should not be negative, got " + maxWaitMicros);
+        }
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.slots = new Slot[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    public void publishBalanceChanged(@NonNull final String accountNumber, @NonNull final BigDecimal balance,
+        @NonNull final BigDecimal amount) {
+        final long sequence = nextSequence.getAndIncrement();
+        final Slot slot = claim(sequence);
+        final AccountEvent event = slot.event;
+        event.setSequence(sequence);
+        event.setType(AccountEventType.BALANCE_CHANGED);
+        event.setTimestamp(System.currentTimeMillis());
+        event.setAccountNumber(accountNumber);
+        event.setBalance(balance);
+        event.setAmount(amount);
+        event.setToAccountNumber(null);
+        event.setToBalance(null);
+        slot.sequence = sequence;
+    }
+
+    public void publishTransferApplied(@NonNull final String fromAccountNumber, @NonNull final BigDecimal fromBalance,
+        @NonNull final String toAccountNumber, @NonNull final BigDecimal toBalance, @NonNull final BigDecimal amount) {
+        final long sequence = nextSequence.getAndIncrement();
+        final Slot slot = claim(sequence);
+        final AccountEvent event = slot.event;
+        event.setSequence(sequence);
+        event.setType(AccountEventType.TRANSFER_APPLIED);
+        event.setTimestamp(System.currentTimeMillis());
+        event.setAccountNumber(fromAccountNumber);
+        event.setBalance(fromBalance);
+        event.setAmount(amount);
+        event.setToAccountNumber(toAccountNumber);
+        event.setToBalance(toBalance);
+        slot.sequence = sequence;
+    }
+
+    public void publishAccountCreated(@NonNull final String accountNumber, @NonNull final BigDecimal balance) {
+        final long sequence = nextSequence.getAndIncrement();
+        final Slot slot = claim(sequence);
+        final AccountEvent event = slot.event;
+        event.setSequence(sequence);
+        event.setType(AccountEventType.ACCOUNT_CREATED);
+        event.setTimestamp(System.currentTimeMillis());
+        event.setAccountNumber(accountNumber);
+        event.setBalance(balance);
+        event.setAmount(null);
+        event.setToAccountNumber(null);
+        event.setToBalance(null);
+        slot.sequence = sequence;
+    }
+
+    public void publishAccountClosed(@NonNull final String accountNumber, @NonNull final BigDecimal balance) {
+        final long sequence = nextSequence.getAndIncrement();
+        final Slot slot = claim(sequence);
+        final AccountEvent event = slot.event;
+        event.setSequence(sequence);
+        event.setType(AccountEventType.ACCOUNT_CLOSED);
+        event.setTimestamp(System.currentTimeMillis());
+        event.setAccountNumber(accountNumber);
+        event.setBalance(balance);
+        event.setAmount(null);
+        event.setToAccountNumber(null);
+        event.setToBalance(null);
+        slot.sequence = sequence;
+    }
+
+    public void publishHoldChanged(@NonNull final String accountNumber, @NonNull final BigDecimal balance,
+        @NonNull final BigDecimal amount) {
+        final long sequence = nextSequence.getAndIncrement();
+        final Slot slot = claim(sequence);
+        final AccountEvent event = slot.event;
+        event.setSequence(sequence);
+        event.setType(AccountEventType.HOLD_CHANGED);
+        event.setTimestamp(System.currentTimeMillis());
+        event.setAccountNumber(accountNumber);
+        event.setBalance(balance);
+        event.setAmount(amount);
+        event.setToAccountNumber(null);
+        event.setToBalance(null);
+        slot.sequence = sequence;
+    }
+
+    /**
+     * A cursor positioned after the last published event, it only sees events published from now on. Producers wait
+     * for it, up to the maximum wait, instead of overwriting events it did not read, until it is closed.
+     */
+    public synchronized EventCursor newCursor() {
+        final EventCursor cursor = new EventCursor(this, nextSequence.get(), true);
+        addGatingCursor(cursor);
+        return cursor;
+    }
+
+    /**
+     * A cursor positioned after the last published event that producers never wait for. When it falls behind by more
+     * than the ring size, it skips the overwritten events and tells its handler how many it missed.
+     */
+    public EventCursor newLossyCursor() {
+        return new EventCursor(this, nextSequence.get(), false);
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return sequence the next event will get, which is also the number of events published so far
+     */
+    public long getNextSequence() {
+        return nextSequence.get();
+    }
+
+    Slot slot(final long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    /**
+     * Lets a cursor that stopped gating gate again. A producer that read the cursors before may still overrun it once,
+     * which the cursor notices and reports like any overrun.
+     */
+    synchronized void addGatingCursor(final EventCursor cursor) {
+        final EventCursor[] cursors = Arrays.copyOf(gatingCursors, gatingCursors.length + 1);
+        cursors[cursors.length - 1] = cursor;
+        gatingCursors = cursors;
+        cachedGatingSequence = Math.min(cachedGatingSequence, cursor.getNextSequence());
+        cursor.gated = true;
+    }
+
+    synchronized void removeGatingCursor(final EventCursor cursor) {
+        cursor.gated = false;
+        final EventCursor[] cursors = gatingCursors;
+        for (int i = 0; i < cursors.length; i++) {
+            if (cursors[i] == cursor) {
+                final EventCursor[] remaining = Arrays.copyOf(cursors, cursors.length - 1);
+                System.arraycopy(cursors, i + 1, remaining, i, cursors.length - i - 1);
+                gatingCursors = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops gating with the cursors that did not read the event at the given sequence
+     */
+    private synchronized void removeGatingCursorsBehind(final long sequence) {
+        for (final EventCursor cursor : gatingCursors) {
+            if (cursor.getNextSequence() <= sequence) {
+                removeGatingCursor(cursor);
+            }
+        }
+    }
+
+    private Slot claim(final long sequence) {
+        // The slot still holds the event with this sequence, from the previous lap
+        final long wrapPoint = sequence - slots.length;
+        if (wrapPoint >= cachedGatingSequence) {
+            awaitGatingCursors(sequence, wrapPoint);
+        }
+        final Slot slot = slot(sequence);
+        slot.sequence = writing(sequence);
+        // Keeps the field writes below from becoming visible before the marker
+        VarHandle.storeStoreFence();
+        return slot;
+    }
+
+    private void awaitGatingCursors(final long sequence, final long wrapPoint) {
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        int idle = 0;
+        long minimum;
+        while (wrapPoint >= (minimum = minimumGatingSequence(sequence))) {
+            if (System.nanoTime() - deadline >= 0) {
+                removeGatingCursorsBehind(wrapPoint);
+            } else if (idle < SPIN_TRIES) {
+                idle++;
+                Thread.onSpinWait();
+            } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+                idle++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        cachedGatingSequence = minimum;
+    }
+
+    /**
+     * A cursor registered later starts at or after the sequence being claimed, so it never lowers the result.
+     *
+     * @return next sequence of the slowest gating cursor, or the given one if no cursor is behind it
+     */
+    private long minimumGatingSequence(final long sequence) {
+        long minimum = sequence;
+        for (final EventCursor cursor : gatingCursors) {
+            minimum = Math.min(minimum, cursor.getNextSequence());
+        }
+        return minimum;
+    }
+
+    /**
+     * Marker stored in a slot while the event with the given sequence is written to it, always negative.
+     * {@link Long#MIN_VALUE} marks a slot that was never written.
+     */
+    static long writing(final long sequence) {
+        return -sequence - 1;
+    }
+
+    static final class Slot {
+
+        volatile long sequence = Long.MIN_VALUE;
+        final AccountEvent event = new AccountEvent();
+    }
+}
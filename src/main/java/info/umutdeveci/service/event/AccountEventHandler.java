@@ -0,0 +1,14 @@
+package info.umutdeveci.service.event;
+
+@FunctionalInterface
+public interface AccountEventHandler {
+
+    void onEvent(final AccountEvent event);
+
+    /**
+     * Called when the consumer fell so far behind that the ring was overwritten before it read the events. Reading
+     * continues after the missed events, consumers that keep derived state should rebuild it from the service.
+     */
+    default void onOverrun(final long missedEvents) {
+    }
+}
@@ -0,0 +1,30 @@
+package info.umutdeveci.service.event;
+
+public enum AccountEventType {
+
+    /**
+     * A deposit or a withdrawal. {@code amount} is negative for withdrawals.
+     */
+    BALANCE_CHANGED,
+
+    /**
+     * A transfer, {@code accountNumber} and {@code balance} describe the account the money was taken from.
+     */
+    TRANSFER_APPLIED,
+
+    /**
+     * A new account, {@code balance} is its opening balance.
+     */
+    ACCOUNT_CREATED,
+
+    /**
+     * A closed account, {@code balance} is its balance when it was closed, always zero.
+     */
+    ACCOUNT_CLOSED,
+
+    /**
+     * Funds were held, or a hold was released or expired. {@code balance} is unchanged, {@code amount} is the change of
+     * the held funds, negative when they are given back. A captured hold is published as {@link #BALANCE_CHANGED}.
+     */
+    HOLD_CHANGED
+}
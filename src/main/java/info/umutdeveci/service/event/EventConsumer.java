@@ -0,0 +1,110 @@
+package info.umutdeveci.service.event;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs a handler on a dedicated thread over its own cursor, e.g. for auditing or replication. The cursor is lossy
+ * unless the consumer is created as gating, see {@link AccountEventBus}. Producers never signal consumers, so an idle
+ * consumer spins briefly, then yields and finally parks for growing periods of up to a millisecond before checking the
+ * ring again.
+ */
+@Slf4j
+public class EventConsumer implements Closeable {
+
+    private static final int BATCH_SIZE = 256;
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AccountEventBus bus;
+    private final AccountEventHandler handler;
+    private final boolean gating;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private EventCursor cursor;
+
+    public EventConsumer(@NonNull final String name, @NonNull final AccountEventBus bus,
+        @NonNull final AccountEventHandler handler) {
+        this(name, bus, handler, false);
+    }
+
+    /**
+     * @param gating whether producers wait, for a bounded time, for the consumer before overrunning it
+     */
+    public EventConsumer(@NonNull final String name, @NonNull final AccountEventBus bus,
+        @NonNull final AccountEventHandler handler, final boolean gating) {
+        this.bus = bus;
+        this.handler = handler;
+        this.gating = gating;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * The consumer sees the events published from now on
+     */
+    public EventConsumer start() {
+        cursor = gating ? bus.newCursor() : bus.newLossyCursor();
+        thread.start();
+        return this;
+    }
+
+    public long getLag() {
+        return cursor == null ? 0 : cursor.getLag();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The cursor is closed however the thread ends, so a consumer that died does not hold producers back.
+     */
+    private void run() {
+        try {
+            poll();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void poll() {
+        int idle = 0;
+        long parkNanos = 1_000;
+        while (running) {
+            final int handled;
+            try {
+                handled = cursor.poll(handler, BATCH_SIZE);
+            } catch (RuntimeException e) {
+                // The failed event is skipped, stopping here would leave the consumer behind for good
+                log.error("Event consumer {} failed before sequence {}", thread.getName(), cursor.getNextSequence(), e);
+                continue;
+            }
+
+            if (handled > 0) {
+                idle = 0;
+                parkNanos = 1_000;
+            } else if (idle < SPIN_TRIES) {
+                idle++;
+                Thread.onSpinWait();
+            } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+                idle++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package info.umutdeveci.service.event;
+
+import info.umutdeveci.service.event.AccountEventBus.Slot;
+import java.io.Closeable;
+import java.lang.invoke.VarHandle;
+import lombok.NonNull;
+
+/**
+ * Read position of one consumer in an {@link AccountEventBus}. Not thread safe, a cursor belongs to one consumer
+ * thread, which decides when and how much to read, e.g. an {@link EventConsumer} or a periodic task. A gating cursor
+ * holds producers back for a bounded time once they are a ring ahead of it, so it should be closed when its consumer
+ * stops reading.
+ */
+public class EventCursor implements Closeable {
+
+    private final AccountEventBus bus;
+    private final AccountEvent event = new AccountEvent();
+    private final boolean gating;
+    /**
+     * Only written by the consumer thread, read by producers of a gating cursor
+     */
+    private volatile long next;
+    /**
+     * Whether producers wait for the cursor now, written under the bus' monitor
+     */
+    volatile boolean gated;
+    private boolean closed;
+
+    EventCursor(final AccountEventBus bus, final long next, final boolean gating) {
+        this.bus = bus;
+        this.next = next;
+        this.gating = gating;
+    }
+
+    /**
+     * Hands the published events to the handler in sequence order, stopping at the first event that is not published
+     * yet. An event whose handler throws counts as read, the exception is passed on to the caller.
+     *
+     * @return number of events handled
+     */
+    public int poll(@NonNull final AccountEventHandler handler, final int maxEvents) {
+        rejoin();
+        int handled = 0;
+        while (handled < maxEvents) {
+            final Slot slot = bus.slot(next);
+            final long sequence = slot.sequence;
+            if (sequence != next) {
+                if (!isLaterLap(sequence)) {
+                    break;
+                }
+                skipOverwritten(handler);
+                continue;
+            }
+
+            event.copyFrom(slot.event);
+            // Keeps the copy above from being reordered after the second sequence check
+            VarHandle.loadLoadFence();
+            if (slot.sequence != next) {
+                skipOverwritten(handler);
+                continue;
+            }
+
+            next++;
+            handled++;
+            handler.onEvent(event);
+        }
+        return handled;
+    }
+
+    /**
+     * @return number of published (or being published) events this cursor did not read yet
+     */
+    public long getLag() {
+        return bus.getNextSequence() - next;
+    }
+
+    public long getNextSequence() {
+        return next;
+    }
+
+    /**
+     * Producers stop waiting for a gating cursor, it can still be read but may be overrun from now on.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (gating) {
+            bus.removeGatingCursor(this);
+        }
+    }
+
+    private boolean isLaterLap(final long sequence) {
+        if (sequence >= 0) {
+            return sequence > next;
+        }
+        return sequence != Long.MIN_VALUE && -(sequence + 1) > next;
+    }
+
+    /**
+     * Resumes half a ring behind the producers, so the cursor is not overrun again right away.
+     */
+    private void skipOverwritten(final AccountEventHandler handler) {
+        final long resumeAt = Math.max(next + 1, bus.getNextSequence() - bus.getCapacity() / 2);
+        final long missed = resumeAt - next;
+        next = resumeAt;
+        rejoin();
+        handler.onOverrun(missed);
+    }
+
+    /**
+     * A producer gave up waiting for the cursor, it gates again unless it was lapped already
+     */
+    private void rejoin() {
+        if (gating && !gated && !closed && getLag() < bus.getCapacity()) {
+            bus.addGatingCursor(this);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package info.umutdeveci.service.id;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.NonNull;
+
+/**
+ * Generates account numbers without coordination, in the style of Twitter's Snowflake: a 64 bit id made of the
+ * milliseconds since {@link #EPOCH_MILLIS} (41 bits, good until 2089), the node id (10 bits) and a sequence within the
+ * millisecond (12 bits). Nodes with different ids never generate the same number, so several instances can create
+ * accounts at the same time.
+ *
+ * <p>The last id is kept in one {@link AtomicLong} and the next one is claimed with a compare-and-set, there is no lock
+ * and nothing to wait for. When more than 4096 ids are asked for within a millisecond, or the clock goes back, ids are
+ * taken from the following milliseconds instead of waiting for the clock to get there; the clock catches up once the
+ * burst is over. Ids are therefore unique and increasing for as long as the node runs. A restart within the
+ * milliseconds borrowed by a burst could repeat ids, inserting an account number that exists is rejected anyway.
+ *
+ * <p>Account numbers are the id in Crockford's base 32, 13 characters, so they sort in the order they were generated.
+ */
+public class AccountNumberGenerator {
+
+    /**
+     * 2020-01-01T00:00:00Z
+     */
+    public static final long EPOCH_MILLIS = 1_577_836_800_000L;
+    public static final int NODE_BITS = 10;
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int LENGTH = 13;
+    private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private final Clock clock;
+    private final long node;
+    /**
+     * Timestamp and sequence of the last id, without the node
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * @param node between zero and {@link #MAX_NODE}, unique among the instances sharing the accounts
+     */
+    public AccountNumberGenerator(@NonNull final Clock clock, final int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node should be between 0 and " + MAX_NODE + ", got " + node);
+        }
+        this.clock = clock;
+        this.node = node;
+    }
+
+    public long nextId() {
+        while (true) {
+            final long previous = last.get();
+            final long now = (clock.millis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+            // A full sequence carries over into the timestamp
+            final long next = now > previous ? now : previous + 1;
+            if (last.compareAndSet(previous, next)) {
+                final long timestamp = next >>> SEQUENCE_BITS;
+                final long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+                return timestamp << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | sequence;
+            }
+        }
+    }
+
+    public String nextAccountNumber() {
+        return format(nextId());
+    }
+
+    public static String format(final long id) {
+        final char[] chars = new char[LENGTH];
+        long remaining = id;
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = DIGITS[(int) (remaining & 31)];
+            remaining >>>= 5;
+        }
+        return new String(chars);
+    }
+}
@@ -1,77 +1,247 @@
 package info.umutdeveci.service.impl;
 
+import static info.umutdeveci.service.util.AccountServiceUtil.accountAlreadyExists;
 import static info.umutdeveci.service.util.AccountServiceUtil.checkAmountGreaterThanZero;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkClosable;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkOpeningBalance;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkVersion;
 import static info.umutdeveci.service.util.AccountServiceUtil.convertToAccount;
+import static info.umutdeveci.service.util.AccountServiceUtil.validateTransferLegs;
 
 import info.umutdeveci.exception.Problem;
 import info.umutdeveci.model.Account;
 import info.umutdeveci.service.AccountService;
 import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.model.Hold;
+import info.umutdeveci.service.model.MultiTransferResult;
+import info.umutdeveci.service.model.TransferLeg;
 import info.umutdeveci.service.model.TransferResult;
-import info.umutdeveci.service.util.AccountServiceUtil;
+import info.umutdeveci.service.scheduler.TimingWheel;
+import info.umutdeveci.service.scheduler.TimingWheel.Timeout;
+import info.umutdeveci.service.store.AccountStore;
+import info.umutdeveci.service.store.HeapAccountStore;
+import info.umutdeveci.trace.TracePhase;
+import info.umutdeveci.trace.Tracer;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
+import java.util.function.UnaryOperator;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jetty.http.HttpStatus;
 
 /**
- * This service provides the logic for Account operations. I chose a simple HashMap for the data storage with an
- * external lock for locking. Since the map is not supposed to be accessed without acquiring the lock, no need to use a
- * ConcurrentHashMap in this case. So, in practice, this simulates a database which uses table level locking, instead of
- * row locking or bucket locking (also known as page locking). It does create a bottle neck but it is the simplest
- * solution available. I really do not want to embed a database, like H2, and start writing sql queries and deal with
+ * This service provides the logic for Account operations. Accounts are split into a fixed number of segments by account
+ * number hash, each kept in its own {@link AccountStore} and guarded by its own lock, plain HashMaps by default. Since a
+ * segment store is not supposed to be accessed without acquiring its lock, no need to use a ConcurrentHashMap in this
+ * case. So, in practice, this simulates a
+ * database which uses bucket locking (also known as page locking): operations on accounts in different segments do not
+ * wait for each other. I really do not want to embed a database, like H2, and start writing sql queries and deal with
  * jdbc for this simple project.
+ *
+ * <p>Every balance change increments the account's version. Conditional writes compare the expected version under the
+ * same segment lock that guards the write, so a compare-and-set is just one more comparison and never retries, no
+ * matter how contended the account is.
+ *
+ * <p>Operations on several accounts lock their segments in ascending segment order, so they can not deadlock. Reading
+ * all accounts locks every segment in the same order, which keeps {@link #getAll()} a consistent snapshot.
+ * {@link #exportSnapshot} gets the same consistency with copy-on-write instead, holding one segment lock at a time.
+ *
+ * <p>Accounts are opened and closed under the lock of their segment only, so they are added and removed while other
+ * segments keep serving requests. A segment's store grows on its own too: when a HashMap store resizes, only the
+ * accounts of that segment, a {@code 1 / segmentCount} share of them, are rehashed and only its requests wait.
+ *
+ * <p>Holds live in the segment of their account, in a map by id and in a {@link TimingWheel} by expiry tick, so
+ * placing, capturing and releasing a hold touches one segment and {@link #expireHolds} only visits the holds that are
+ * due, however many are outstanding. A hold id carries the index of its segment in its lowest bits. Withdrawals and
+ * deposits do not look at holds at all, only at the held total kept on the entity.
+ *
+ * <p>A secondary index keyed by balance and account number is kept in a {@link ConcurrentSkipListMap}. It is updated
+ * under the segment lock in the same step as the balance, and read without any lock by {@link #findByBalance}.
+ * Subclasses may leave it out, range queries then scan all accounts.
  */
 @Slf4j
 public class InMemoryAccountService implements AccountService {
 
-    private Map<String, AccountEntity> repository;
-    private Lock lock = new ReentrantLock(true);
+    public static final int DEFAULT_SEGMENT_COUNT = 256;
+    public static final int MAX_TRANSFER_LEGS = 100;
+    /**
+     * Resolution of hold expiry
+     */
+    public static final long HOLD_TICK_MILLIS = 1000;
+
+    private static final int DEFAULT_EVENT_BUS_CAPACITY = 1024;
+    /**
+     * Pre-image of an account opened after the export cut
+     */
+    private static final AccountEntity ABSENT = new AccountEntity("", BigDecimal.ZERO);
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int segmentBits;
+    private final AtomicLong lastHoldSequence = new AtomicLong();
+    /**
+     * The tick expiry has reached, a segment's wheel starts from it when the segment gets its first hold
+     */
+    private volatile long holdTick = Math.floorDiv(System.currentTimeMillis(), HOLD_TICK_MILLIS);
+    private final AccountEventBus eventBus;
+    private final AtomicBoolean exporting = new AtomicBoolean();
+    /**
+     * Versions by balance and account number, null when not indexed
+     */
+    private final ConcurrentSkipListMap<BalanceKey, Long> balanceIndex;
 
     public InMemoryAccountService(@NonNull final List<AccountEntity> accountEntities) {
-        this.repository = new HashMap<>(accountEntities.size());
-        accountEntities.forEach(accountEntity -> repository.put(accountEntity.getAccountNumber(), accountEntity));
+        this(accountEntities, new AccountEventBus(DEFAULT_EVENT_BUS_CAPACITY));
+    }
+
+    public InMemoryAccountService(@NonNull final List<AccountEntity> accountEntities,
+        @NonNull final AccountEventBus eventBus) {
+        this(accountEntities, eventBus, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * Every applied withdrawal, deposit and transfer is published to the given bus while the segment locks are held, so
+     * the events of an account are in the order the changes were applied.
+     *
+     * @param segmentCount number of independently locked segments, a power of two
+     */
+    public InMemoryAccountService(@NonNull final List<AccountEntity> accountEntities,
+        @NonNull final AccountEventBus eventBus, final int segmentCount) {
+        this(accountEntities, eventBus, segmentCount, segment -> new HeapAccountStore(
+            accountEntities.size() / segmentCount + 1), true);
+    }
+
+    /**
+     * @param storeFactory  creates the store of the segment with the given index
+     * @param indexBalances whether to keep the balance index, {@link #findByBalance} scans all accounts without it
+     */
+    protected InMemoryAccountService(@NonNull final List<AccountEntity> accountEntities,
+        @NonNull final AccountEventBus eventBus, final int segmentCount,
+        @NonNull final IntFunction<AccountStore> storeFactory, final boolean indexBalances) {
+        if (segmentCount < 1 || Integer.bitCount(segmentCount) != 1) {
+            throw new IllegalArgumentException("Segment count should be a power of two, got " + segmentCount);
+        }
+        this.eventBus = eventBus;
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        this.segmentBits = Integer.numberOfTrailingZeros(segmentCount);
+        this.balanceIndex = indexBalances ? new ConcurrentSkipListMap<>() : null;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(storeFactory.apply(i));
+        }
+        accountEntities.forEach(accountEntity -> {
+            final AccountStore accounts = segmentOf(accountEntity.getAccountNumber()).accounts;
+            if (!accounts.insert(accountEntity)) {
+                final AccountEntity previous = accounts.get(accountEntity.getAccountNumber());
+                if (balanceIndex != null) {
+                    balanceIndex.remove(new BalanceKey(previous.getBalance(), previous.getAccountNumber()));
+                }
+                accounts.update(previous, accountEntity.getBalance(), accountEntity.getHeld(),
+                    accountEntity.getVersion());
+            }
+            if (balanceIndex != null) {
+                balanceIndex.put(new BalanceKey(accountEntity.getBalance(), accountEntity.getAccountNumber()),
+                    accountEntity.getVersion());
+            }
+        });
     }
 
     @Override
     public List<Account> getAll() {
-        return doWithLock(() -> repository.values().stream()
-            .map(AccountServiceUtil::convertToAccount)
-            .collect(Collectors.toList()));
+        final int[] allSegments = allSegments();
+        return doWithLocks(allSegments, allSegments.length, () -> {
+            final List<Account> accounts = new ArrayList<>();
+            for (final Segment segment : segments) {
+                segment.accounts.forEach(entity -> accounts.add(convertToAccount(entity)));
+            }
+            return accounts;
+        });
     }
 
     @Override
     public Account get(@NonNull final String accountNumber) {
-        return doWithLock(() -> {
+        return doWithLock(segmentIndex(accountNumber), () -> {
             final AccountEntity entity = getInternal(accountNumber);
             return convertToAccount(entity);
         });
     }
 
+    /**
+     * Answered from the balance index in O(log n + limit) without locking. Like a range scan of a database that does
+     * not lock rows, every returned balance was the account's balance at some point during the call, and an account
+     * whose balance changes during the call may be left out. An account is never returned twice.
+     */
     @Override
-    public Account withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount) {
-        return doWithLock(() -> {
+    public List<Account> findByBalance(final BigDecimal minBalance, final BigDecimal maxBalance,
+        final boolean descending, final int limit) {
+        if (balanceIndex == null) {
+            return AccountService.super.findByBalance(minBalance, maxBalance, descending, limit);
+        }
+        NavigableMap<BalanceKey, Long> range = balanceIndex;
+        if (minBalance != null) {
+            range = range.tailMap(BalanceKey.lowest(minBalance), true);
+        }
+        if (maxBalance != null) {
+            range = range.headMap(BalanceKey.highest(maxBalance), true);
+        }
+        if (descending) {
+            range = range.descendingMap();
+        }
+
+        final List<Account> accounts = new ArrayList<>(Math.min(limit, 1024));
+        // A balance changing during the scan can be seen both before and after the change
+        final Set<String> seen = new HashSet<>();
+        for (final Map.Entry<BalanceKey, Long> entry : range.entrySet()) {
+            if (accounts.size() >= limit) {
+                break;
+            }
+            final BalanceKey key = entry.getKey();
+            if (seen.add(key.accountNumber)) {
+                accounts.add(new Account(key.accountNumber, key.balance, entry.getValue()));
+            }
+        }
+        return accounts;
+    }
+
+    @Override
+    public Account withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion) {
+        return doWithLock(segmentIndex(accountNumber), () -> {
             final AccountEntity entity = getInternal(accountNumber);
+            checkVersion(entity, expectedVersion);
 
             withdrawInternal(entity, amount);
+            eventBus.publishBalanceChanged(accountNumber, entity.getBalance(), amount.negate());
 
             return convertToAccount(entity);
         });
     }
 
     @Override
-    public Account deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount) {
-        return doWithLock(() -> {
+    public Account deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion) {
+        return doWithLock(segmentIndex(accountNumber), () -> {
             final AccountEntity entity = getInternal(accountNumber);
+            checkVersion(entity, expectedVersion);
 
             depositInternal(entity, amount);
+            eventBus.publishBalanceChanged(accountNumber, entity.getBalance(), amount);
 
             return convertToAccount(entity);
         });
@@ -79,22 +249,32 @@ public class InMemoryAccountService implements AccountService {
 
     @Override
     public TransferResult transfer(@NonNull final String fromAccountNumber, @NonNull final String toAccountNumber,
-        @NonNull final BigDecimal amount) {
-        return doWithLock(() -> {
-            if (fromAccountNumber.equalsIgnoreCase(toAccountNumber)) {
-                throw new Problem(HttpStatus.BAD_REQUEST_400, "Can not transfer between same accounts");
-            }
+        @NonNull final BigDecimal amount, final Long expectedFromVersion, final Long expectedToVersion) {
+        if (fromAccountNumber.equalsIgnoreCase(toAccountNumber)) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Can not transfer between same accounts");
+        }
 
-            if (amount.equals(BigDecimal.ZERO)) {
-                throw new Problem(HttpStatus.BAD_REQUEST_400, "Amount should not be zero");
-            }
+        if (amount.equals(BigDecimal.ZERO)) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Amount should not be zero");
+        }
 
+        final int fromSegment = segmentIndex(fromAccountNumber);
+        final int toSegment = segmentIndex(toAccountNumber);
+        final int[] lockOrder = fromSegment == toSegment ? new int[]{fromSegment}
+            : new int[]{Math.min(fromSegment, toSegment), Math.max(fromSegment, toSegment)};
+
+        return doWithLocks(lockOrder, lockOrder.length, () -> {
             final AccountEntity fromEntity = getInternal(fromAccountNumber);
             final AccountEntity toEntity = getInternal(toAccountNumber);
+            checkVersion(fromEntity, expectedFromVersion);
+            checkVersion(toEntity, expectedToVersion);
 
             withdrawInternal(fromEntity, amount);
             depositInternal(toEntity, amount);
 
+            eventBus.publishTransferApplied(fromAccountNumber, fromEntity.getBalance(), toAccountNumber,
+                toEntity.getBalance(), amount);
+
             return TransferResult.builder()
                 .fromAccount(convertToAccount(fromEntity))
                 .toAccount(convertToAccount(toEntity))
@@ -102,8 +282,374 @@ public class InMemoryAccountService implements AccountService {
         });
     }
 
+    /**
+     * Every leg is checked before anything is changed, so either all legs are applied or none. Each leg is published
+     * as a balance change.
+     */
+    @Override
+    public MultiTransferResult multiTransfer(@NonNull final List<TransferLeg> debits,
+        @NonNull final List<TransferLeg> credits) {
+        validateTransferLegs(debits, credits, MAX_TRANSFER_LEGS);
+
+        final int legCount = debits.size() + credits.size();
+        final int[] lockOrder = new int[legCount];
+        for (int i = 0; i < debits.size(); i++) {
+            lockOrder[i] = segmentIndex(debits.get(i).getAccountNumber());
+        }
+        for (int i = 0; i < credits.size(); i++) {
+            lockOrder[debits.size() + i] = segmentIndex(credits.get(i).getAccountNumber());
+        }
+        final int lockCount = sortDistinct(lockOrder);
+
+        return doWithLocks(lockOrder, lockCount, () -> {
+            final AccountEntity[] debitEntities = new AccountEntity[debits.size()];
+            for (int i = 0; i < debits.size(); i++) {
+                final TransferLeg debit = debits.get(i);
+                debitEntities[i] = getInternal(debit.getAccountNumber());
+                if (debitEntities[i].getAvailableBalance().compareTo(debit.getAmount()) < 0) {
+                    throw new Problem(HttpStatus.BAD_REQUEST_400,
+                        String.format("Account %s does not have enough balance.", debit.getAccountNumber()));
+                }
+            }
+            final AccountEntity[] creditEntities = new AccountEntity[credits.size()];
+            for (int i = 0; i < credits.size(); i++) {
+                creditEntities[i] = getInternal(credits.get(i).getAccountNumber());
+            }
+
+            final List<Account> accounts = new ArrayList<>(legCount);
+            for (int i = 0; i < debitEntities.length; i++) {
+                final BigDecimal amount = debits.get(i).getAmount();
+                withdrawInternal(debitEntities[i], amount);
+                eventBus.publishBalanceChanged(debitEntities[i].getAccountNumber(), debitEntities[i].getBalance(),
+                    amount.negate());
+                accounts.add(convertToAccount(debitEntities[i]));
+            }
+            for (int i = 0; i < creditEntities.length; i++) {
+                final BigDecimal amount = credits.get(i).getAmount();
+                depositInternal(creditEntities[i], amount);
+                eventBus.publishBalanceChanged(creditEntities[i].getAccountNumber(), creditEntities[i].getBalance(),
+                    amount);
+                accounts.add(convertToAccount(creditEntities[i]));
+            }
+
+            return MultiTransferResult.builder().accounts(accounts).build();
+        });
+    }
+
+    @Override
+    public Account openAccount(@NonNull final String accountNumber, @NonNull final BigDecimal balance) {
+        checkOpeningBalance(balance);
+        final AccountEntity entity = new AccountEntity(accountNumber, balance);
+        return doWithLock(segmentIndex(accountNumber), () -> {
+            if (!insertInternal(entity)) {
+                throw accountAlreadyExists(accountNumber);
+            }
+            return convertToAccount(entity);
+        });
+    }
+
+    /**
+     * A running export still sees the account, from the pre-image kept for it.
+     */
+    @Override
+    public Account closeAccount(@NonNull final String accountNumber, final Long expectedVersion) {
+        return doWithLock(segmentIndex(accountNumber), () -> {
+            final AccountEntity entity = getInternal(accountNumber);
+            checkVersion(entity, expectedVersion);
+            checkClosable(entity);
+
+            keepPreImage(entity);
+            segmentOf(accountNumber).accounts.remove(accountNumber);
+            if (balanceIndex != null) {
+                balanceIndex.remove(new BalanceKey(entity.getBalance(), accountNumber));
+            }
+            eventBus.publishAccountClosed(accountNumber, entity.getBalance());
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Hold authorize(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final long expiresAt) {
+        checkAmountGreaterThanZero(amount);
+        final int segmentIndex = segmentIndex(accountNumber);
+        return doWithLock(segmentIndex, () -> {
+            final AccountEntity entity = getInternal(accountNumber);
+            if (entity.getAvailableBalance().compareTo(amount) < 0) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, "Account does not have enough balance.");
+            }
+
+            final Segment segment = segments[segmentIndex];
+            if (segment.holds == null) {
+                segment.holds = new HashMap<>();
+                segment.holdExpiry = new TimingWheel<>(holdTick);
+            }
+            final HoldEntry hold = new HoldEntry(lastHoldSequence.incrementAndGet() << segmentBits | segmentIndex,
+                accountNumber, amount, expiresAt);
+            setBalance(entity, entity.getBalance(), entity.getHeld().add(amount));
+            segment.holds.put(hold.id, hold);
+            hold.timeout = segment.holdExpiry.schedule(holdDeadlineTick(expiresAt), hold);
+            eventBus.publishHoldChanged(accountNumber, entity.getBalance(), amount);
+
+            return hold.toHold();
+        });
+    }
+
+    @Override
+    public Account capture(final long holdId, final BigDecimal amount) {
+        if (amount != null) {
+            checkAmountGreaterThanZero(amount);
+        }
+        return doWithLock(holdSegmentIndex(holdId), () -> {
+            final HoldEntry hold = getHoldInternal(holdId);
+            final BigDecimal captured = amount != null ? amount : hold.amount;
+            if (captured.compareTo(hold.amount) > 0) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("Hold %d is for %s, can not capture %s.",
+                    holdId, hold.amount.toPlainString(), captured.toPlainString()));
+            }
+
+            final AccountEntity entity = getInternal(hold.accountNumber);
+            setBalance(entity, entity.getBalance().subtract(captured), entity.getHeld().subtract(hold.amount));
+            removeHold(hold);
+            eventBus.publishBalanceChanged(hold.accountNumber, entity.getBalance(), captured.negate());
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Account release(final long holdId) {
+        return doWithLock(holdSegmentIndex(holdId), () -> releaseInternal(getHoldInternal(holdId)));
+    }
+
+    /**
+     * Each segment is locked on its own while its wheel moves forward, so expiry holds up one segment at a time and
+     * only for the holds due in it.
+     */
+    @Override
+    public int expireHolds(final long now) {
+        final long nowTick = Math.floorDiv(now, HOLD_TICK_MILLIS);
+        if (nowTick > holdTick) {
+            holdTick = nowTick;
+        }
+
+        int expired = 0;
+        for (int i = 0; i < segments.length; i++) {
+            final Segment segment = segments[i];
+            expired += doWithLock(i, () -> {
+                if (segment.holdExpiry == null) {
+                    return 0;
+                }
+                return segment.holdExpiry.advance(nowTick, hold -> {
+                    hold.timeout = null;
+                    releaseInternal(hold);
+                });
+            });
+        }
+        return expired;
+    }
+
+    /**
+     * Locks are taken per account, not for the whole batch, so online requests interleave with a large load.
+     */
+    @Override
+    public int importAccounts(@NonNull final List<AccountEntity> accountEntities) {
+        int inserted = 0;
+        for (final AccountEntity accountEntity : accountEntities) {
+            if (doWithLock(segmentIndex(accountEntity.getAccountNumber()), () -> insertInternal(accountEntity))) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public int getPartitionCount() {
+        return segments.length;
+    }
+
+    /**
+     * Partitions are the segments, the account numbers are copied under the segment lock.
+     */
+    @Override
+    public List<String> getAccountNumbers(final int partition) {
+        if (partition < 0 || partition >= segments.length) {
+            throw new IllegalArgumentException("Partition should be between 0 and " + segments.length + ", got "
+                + partition);
+        }
+        return doWithLock(partition, () -> {
+            final List<String> accountNumbers = new ArrayList<>(segments[partition].accounts.size());
+            segments[partition].accounts.forEach(entity -> accountNumbers.add(entity.getAccountNumber()));
+            return accountNumbers;
+        });
+    }
+
+    /**
+     * All given accounts are adjusted while the locks of their segments are held, so callers bound how long other
+     * requests wait by how many accounts they pass at once. Each change is published as a balance change.
+     */
+    @Override
+    public int adjustBalances(@NonNull final List<String> accountNumbers,
+        @NonNull final UnaryOperator<BigDecimal> adjustment) {
+        final int[] lockOrder = new int[accountNumbers.size()];
+        for (int i = 0; i < lockOrder.length; i++) {
+            lockOrder[i] = segmentIndex(accountNumbers.get(i));
+        }
+        final int lockCount = sortDistinct(lockOrder);
+
+        return doWithLocks(lockOrder, lockCount, () -> {
+            int adjusted = 0;
+            for (final String accountNumber : accountNumbers) {
+                final AccountEntity entity = segmentOf(accountNumber).accounts.get(accountNumber);
+                if (entity == null) {
+                    continue;
+                }
+
+                final BigDecimal amount = adjustment.apply(entity.getBalance())
+                    .max(entity.getAvailableBalance().negate());
+                if (amount.signum() > 0) {
+                    depositInternal(entity, amount);
+                } else if (amount.signum() < 0) {
+                    withdrawInternal(entity, amount.negate());
+                } else {
+                    continue;
+                }
+                eventBus.publishBalanceChanged(accountNumber, entity.getBalance(), amount);
+                adjusted++;
+            }
+            return adjusted;
+        });
+    }
+
+    /**
+     * Writers are not stopped for longer than one segment is copied. At the cut, every segment starts keeping the
+     * pre-image of each account the first time it changes or is closed after that. Segments are then copied one by one,
+     * with pre-images in place of the changed accounts and in addition to the remaining ones for the closed accounts,
+     * and stop keeping them once copied. The consumer is called with one
+     * batch per segment, outside of the locks. Only one export runs at a time, others get a 409.
+     */
+    @Override
+    public void exportSnapshot(@NonNull final Consumer<List<AccountEntity>> consumer) {
+        if (!exporting.compareAndSet(false, true)) {
+            throw new Problem(HttpStatus.CONFLICT_409, "An export is already running");
+        }
+
+        int copied = 0;
+        try {
+            final int[] allSegments = allSegments();
+            doWithLocks(allSegments, allSegments.length, () -> {
+                for (final Segment segment : segments) {
+                    segment.preImages = new HashMap<>();
+                }
+                return null;
+            });
+
+            for (; copied < segments.length; copied++) {
+                final Segment segment = segments[copied];
+                consumer.accept(doWithLock(copied, () -> {
+                    final List<AccountEntity> batch = new ArrayList<>(segment.accounts.size());
+                    final Map<String, AccountEntity> closed = new HashMap<>(segment.preImages);
+                    segment.accounts.forEach(entity -> {
+                        final AccountEntity preImage = closed.remove(entity.getAccountNumber());
+                        if (preImage == null) {
+                            batch.add(new AccountEntity(entity.getAccountNumber(), entity.getBalance(),
+                                entity.getVersion()));
+                        } else if (preImage != ABSENT) {
+                            batch.add(preImage);
+                        }
+                    });
+                    closed.values().forEach(preImage -> {
+                        if (preImage != ABSENT) {
+                            batch.add(preImage);
+                        }
+                    });
+                    segment.preImages = null;
+                    return batch;
+                }));
+            }
+        } finally {
+            // When the consumer fails, the segments that were not copied yet should stop keeping pre-images
+            for (int i = copied; i < segments.length; i++) {
+                final Segment segment = segments[i];
+                doWithLock(i, () -> segment.preImages = null);
+            }
+            exporting.set(false);
+        }
+    }
+
+    /**
+     * Only called with the lock of the account's segment held, adds the account to the balance index and publishes it
+     *
+     * @return false if the account number exists
+     */
+    private boolean insertInternal(final AccountEntity entity) {
+        final String accountNumber = entity.getAccountNumber();
+        final Segment segment = segmentOf(accountNumber);
+        if (!segment.accounts.insert(entity)) {
+            return false;
+        }
+        if (segment.preImages != null) {
+            segment.preImages.putIfAbsent(accountNumber, ABSENT);
+        }
+        if (balanceIndex != null) {
+            balanceIndex.put(new BalanceKey(entity.getBalance(), accountNumber), entity.getVersion());
+        }
+        eventBus.publishAccountCreated(accountNumber, entity.getBalance());
+        return true;
+    }
+
+    /**
+     * Only called with the lock of the hold's segment held
+     */
+    private Account releaseInternal(final HoldEntry hold) {
+        final AccountEntity entity = getInternal(hold.accountNumber);
+        setBalance(entity, entity.getBalance(), entity.getHeld().subtract(hold.amount));
+        removeHold(hold);
+        eventBus.publishHoldChanged(hold.accountNumber, entity.getBalance(), hold.amount.negate());
+        return convertToAccount(entity);
+    }
+
+    /**
+     * Only called with the lock of the hold's segment held, after the account is written
+     */
+    private void removeHold(final HoldEntry hold) {
+        final Segment segment = segments[holdSegmentIndex(hold.id)];
+        segment.holds.remove(hold.id);
+        if (hold.timeout != null) {
+            segment.holdExpiry.cancel(hold.timeout);
+            hold.timeout = null;
+        }
+    }
+
+    /**
+     * Only called with the lock of the hold's segment held
+     */
+    private HoldEntry getHoldInternal(final long holdId) {
+        final Map<Long, HoldEntry> holds = segments[holdSegmentIndex(holdId)].holds;
+        final HoldEntry hold = holds == null ? null : holds.get(holdId);
+        if (hold == null) {
+            throw new Problem(HttpStatus.NOT_FOUND_404, String.format("Hold %d does not exist.", holdId));
+        }
+        return hold;
+    }
+
+    private int holdSegmentIndex(final long holdId) {
+        return (int) (holdId & segmentMask);
+    }
+
+    /**
+     * Rounds up, so a hold never expires before its time
+     */
+    private static long holdDeadlineTick(final long expiresAt) {
+        return Math.floorDiv(expiresAt, HOLD_TICK_MILLIS) + (Math.floorMod(expiresAt, HOLD_TICK_MILLIS) == 0 ? 0 : 1);
+    }
+
+    /**
+     * Only called with the lock of the account's segment held
+     */
     private AccountEntity getInternal(@NonNull final String accountNumber) {
-        final AccountEntity entity = repository.get(accountNumber);
+        final AccountEntity entity = segmentOf(accountNumber).accounts.get(accountNumber);
         if (entity == null) {
             throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("Account %s does not exist.", accountNumber));
         }
@@ -116,27 +662,191 @@ public class InMemoryAccountService implements AccountService {
 
         final BigDecimal newBalance = entity.getBalance().subtract(amount);
 
-        if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+        // Held funds are zero unless the account has holds, so this costs the same as comparing with zero
+        if (newBalance.compareTo(entity.getHeld()) < 0) {
             throw new Problem(HttpStatus.BAD_REQUEST_400, "Account does not have enough balance.");
         }
 
-        entity.setBalance(newBalance);
+        setBalance(entity, newBalance, entity.getHeld());
     }
 
     private void depositInternal(@NonNull final AccountEntity entity, @NonNull final BigDecimal amount) {
         checkAmountGreaterThanZero(amount);
         final BigDecimal newBalance = entity.getBalance().add(amount);
-        entity.setBalance(newBalance);
+        setBalance(entity, newBalance, entity.getHeld());
     }
 
+    /**
+     * Only called with the lock of the account's segment held, keeps the export pre-image and the balance index in step
+     * with the change. The store is written first, since it may reject the balance.
+     */
+    private void setBalance(final AccountEntity entity, final BigDecimal newBalance, final BigDecimal newHeld) {
+        keepPreImage(entity);
+        final BigDecimal oldBalance = entity.getBalance();
+        final long newVersion = entity.getVersion() + 1;
+        segmentOf(entity.getAccountNumber()).accounts.update(entity, newBalance, newHeld, newVersion);
+        if (balanceIndex != null) {
+            balanceIndex.remove(new BalanceKey(oldBalance, entity.getAccountNumber()));
+            balanceIndex.put(new BalanceKey(newBalance, entity.getAccountNumber()), newVersion);
+        }
+    }
 
-    private <T> T doWithLock(Supplier<T> supplier) {
+    /**
+     * Only called with the lock of the account's segment held, before the entity is changed
+     */
+    private void keepPreImage(final AccountEntity entity) {
+        final Map<String, AccountEntity> preImages = segmentOf(entity.getAccountNumber()).preImages;
+        if (preImages != null) {
+            preImages.computeIfAbsent(entity.getAccountNumber(),
+                accountNumber -> new AccountEntity(accountNumber, entity.getBalance(), entity.getVersion()));
+        }
+    }
+
+    private int[] allSegments() {
+        final int[] allSegments = new int[segments.length];
+        for (int i = 0; i < allSegments.length; i++) {
+            allSegments[i] = i;
+        }
+        return allSegments;
+    }
+
+    /**
+     * Sorts the segment indexes and moves the distinct ones to the front.
+     *
+     * @return number of distinct indexes
+     */
+    private static int sortDistinct(final int[] segmentIndexes) {
+        Arrays.sort(segmentIndexes);
+        int count = 0;
+        for (int i = 0; i < segmentIndexes.length; i++) {
+            if (i == 0 || segmentIndexes[i] != segmentIndexes[i - 1]) {
+                segmentIndexes[count++] = segmentIndexes[i];
+            }
+        }
+        return count;
+    }
+
+    private int segmentIndex(final String accountNumber) {
+        final int hash = accountNumber.hashCode();
+        // Spreads the higher bits, like HashMap does, since only the lowest bits pick the segment
+        return (hash ^ (hash >>> 16)) & segmentMask;
+    }
+
+    private Segment segmentOf(final String accountNumber) {
+        return segments[segmentIndex(accountNumber)];
+    }
+
+    private <T> T doWithLock(final int segment, final Supplier<T> supplier) {
+        final Lock lock = segments[segment].lock;
+        final long lockWaitStart = Tracer.phaseStart();
+        long mutateStart = 0;
         try {
             lock.lock();
+            mutateStart = Tracer.phaseEnd(TracePhase.LOCK_WAIT, lockWaitStart);
             return supplier.get();
         } finally {
             lock.unlock();
+            Tracer.phaseEnd(TracePhase.MUTATE, mutateStart);
+        }
+    }
+
+    /**
+     * @param lockOrder distinct segment indexes in ascending order, only the first {@code count} are used
+     */
+    private <T> T doWithLocks(final int[] lockOrder, final int count, final Supplier<T> supplier) {
+        final long lockWaitStart = Tracer.phaseStart();
+        long mutateStart = 0;
+        int locked = 0;
+        try {
+            for (; locked < count; locked++) {
+                segments[lockOrder[locked]].lock.lock();
+            }
+            mutateStart = Tracer.phaseEnd(TracePhase.LOCK_WAIT, lockWaitStart);
+            return supplier.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                segments[lockOrder[i]].lock.unlock();
+            }
+            Tracer.phaseEnd(TracePhase.MUTATE, mutateStart);
+        }
+    }
+
+    /**
+     * Orders by balance value, so balances differing only in scale are equal, then by account number. A null account
+     * number is a bound that sorts after every account with the same balance.
+     */
+    private static final class BalanceKey implements Comparable<BalanceKey> {
+
+        private final BigDecimal balance;
+        private final String accountNumber;
+
+        private BalanceKey(final BigDecimal balance, final String accountNumber) {
+            this.balance = balance;
+            this.accountNumber = accountNumber;
+        }
+
+        private static BalanceKey lowest(final BigDecimal balance) {
+            return new BalanceKey(balance, "");
+        }
+
+        private static BalanceKey highest(final BigDecimal balance) {
+            return new BalanceKey(balance, null);
+        }
+
+        @Override
+        public int compareTo(final BalanceKey other) {
+            final int byBalance = balance.compareTo(other.balance);
+            if (byBalance != 0) {
+                return byBalance;
+            }
+            if (accountNumber == null || other.accountNumber == null) {
+                return accountNumber == null ? (other.accountNumber == null ? 0 : 1) : -1;
+            }
+            return accountNumber.compareTo(other.accountNumber);
         }
     }
 
+    private static final class Segment {
+
+        private final AccountStore accounts;
+        private final Lock lock = new ReentrantLock();
+        /**
+         * Pre-images of the accounts changed since the export cut, null when the segment is not being exported
+         */
+        private Map<String, AccountEntity> preImages;
+        /**
+         * Outstanding holds of the segment's accounts by id, null until the first one is placed
+         */
+        private Map<Long, HoldEntry> holds;
+        private TimingWheel<HoldEntry> holdExpiry;
+
+        private Segment(final AccountStore accounts) {
+            this.accounts = accounts;
+        }
+    }
+
+    private static final class HoldEntry {
+
+        private final long id;
+        private final String accountNumber;
+        private final BigDecimal amount;
+        private final long expiresAt;
+        private Timeout<HoldEntry> timeout;
+
+        private HoldEntry(final long id, final String accountNumber, final BigDecimal amount, final long expiresAt) {
+            this.id = id;
+            this.accountNumber = accountNumber;
+            this.amount = amount;
+            this.expiresAt = expiresAt;
+        }
+
+        private Hold toHold() {
+            return Hold.builder()
+                .id(id)
+                .accountNumber(accountNumber)
+                .amount(amount)
+                .expiresAt(expiresAt)
+                .build();
+        }
+    }
 }
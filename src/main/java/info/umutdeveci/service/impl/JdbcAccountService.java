@@ -0,0 +1,910 @@
+package info.umutdeveci.service.impl;
+
+import static info.umutdeveci.service.util.AccountServiceUtil.accountAlreadyExists;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkAmountGreaterThanZero;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkClosable;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkOpeningBalance;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkVersion;
+import static info.umutdeveci.service.util.AccountServiceUtil.convertToAccount;
+import static info.umutdeveci.service.util.AccountServiceUtil.validateTransferLegs;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.model.Hold;
+import info.umutdeveci.service.model.MultiTransferResult;
+import info.umutdeveci.service.model.TransferLeg;
+import info.umutdeveci.service.model.TransferResult;
+import info.umutdeveci.trace.TracePhase;
+import info.umutdeveci.trace.Tracer;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import javax.sql.DataSource;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Keeps accounts in a SQL database, written for an embedded H2 behind a connection pool. Every operation is one
+ * transaction. The rows it changes are locked with {@code SELECT ... FOR UPDATE} one by one in account number order, so
+ * operations on several accounts can not deadlock, and the versions are checked and the changes written while the
+ * locks are held. Changes are collected during the transaction and published to the event bus only once the commit
+ * returned, so a consumer that reads an account back on an event sees the change, and a transaction that is rolled back
+ * publishes nothing. Commit and publishing happen under striped locks of the changed accounts, which keeps the events
+ * of an account in commit order.
+ *
+ * <p>Changed rows are written with one JDBC batch per operation, imports in batches of {@link #IMPORT_BATCH_SIZE}
+ * rows. Statements are prepared once per operation and reused for every row; the pool keeps connections, and with
+ * them the database's per-session cache of parsed statements, open between operations.
+ *
+ * <p>Balances are stored as {@code DECIMAL(38, 10)} next to their scale, so they are read back exactly as written.
+ * Balances with more decimals or integer digits than that are rejected with 400.
+ *
+ * <p>Holds are rows of their own table, the held total is a column of the account written with the rest of it. Holds
+ * are changed with the account row locked, and expired through an index on their expiry time, so expiring reads only
+ * the holds that are due.
+ */
+@Slf4j
+public class JdbcAccountService implements AccountService {
+
+    public static final int IMPORT_BATCH_SIZE = 1000;
+    public static final int MAX_ACCOUNT_NUMBER_LENGTH = 64;
+    public static final int MAX_SCALE = 10;
+
+    private static final int MAX_INTEGER_DIGITS = 28;
+    private static final int EXPORT_BATCH_SIZE = 1000;
+    private static final int EXPIRY_BATCH_SIZE = 1000;
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+    private static final String UNIQUE_VIOLATION = "23505";
+    /**
+     * Locks ordering the publication of events, a power of two
+     */
+    private static final int PUBLISH_STRIPES = 256;
+
+    private static final String INSERT_COLUMNS = "account_number, balance, balance_scale, version";
+    private static final String COLUMNS = INSERT_COLUMNS + ", held, held_scale";
+    private static final String SELECT_ONE = "SELECT " + COLUMNS + " FROM account WHERE account_number = ?";
+    private static final String SELECT_FOR_UPDATE = SELECT_ONE + " FOR UPDATE";
+    private static final String SELECT_ALL = "SELECT " + COLUMNS + " FROM account ORDER BY account_number";
+    private static final String UPDATE = "UPDATE account SET balance = ?, balance_scale = ?, version = ?, held = ?, "
+        + "held_scale = ? WHERE account_number = ?";
+    private static final String DELETE = "DELETE FROM account WHERE account_number = ?";
+    private static final String INSERT_IF_ABSENT = "INSERT INTO account (" + INSERT_COLUMNS + ") SELECT ?, ?, ?, ? "
+        + "WHERE NOT EXISTS (SELECT 1 FROM account WHERE account_number = ?)";
+    private static final String INSERT_HOLD = "INSERT INTO account_hold (account_number, amount, amount_scale, "
+        + "expires_at) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_HOLD = "SELECT account_number, amount, amount_scale FROM account_hold "
+        + "WHERE id = ?";
+    private static final String DELETE_HOLD = "DELETE FROM account_hold WHERE id = ?";
+    private static final String SELECT_DUE_HOLDS = "SELECT id FROM account_hold WHERE expires_at <= ? "
+        + "ORDER BY expires_at LIMIT " + EXPIRY_BATCH_SIZE;
+
+    private final DataSource dataSource;
+    private final AccountEventBus eventBus;
+    private final Lock[] publishLocks = new Lock[PUBLISH_STRIPES];
+
+    /**
+     * Creates the table if it does not exist.
+     *
+     * @param initialAccounts imported only when the table is empty, so restarting on an existing database keeps it
+     */
+    public JdbcAccountService(@NonNull final DataSource dataSource, @NonNull final AccountEventBus eventBus,
+        @NonNull final List<AccountEntity> initialAccounts) {
+        this.dataSource = dataSource;
+        this.eventBus = eventBus;
+        for (int i = 0; i < publishLocks.length; i++) {
+            publishLocks[i] = new ReentrantLock();
+        }
+        createSchema();
+        if (!initialAccounts.isEmpty() && isEmpty()) {
+            importAccounts(initialAccounts);
+        }
+    }
+
+    @Override
+    public List<Account> getAll() {
+        return withConnection(connection -> {
+            final List<Account> accounts = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(SELECT_ALL)) {
+                while (resultSet.next()) {
+                    accounts.add(convertToAccount(readEntity(resultSet)));
+                }
+            }
+            return accounts;
+        });
+    }
+
+    @Override
+    public Account get(@NonNull final String accountNumber) {
+        return withConnection(connection -> {
+            try (PreparedStatement select = connection.prepareStatement(SELECT_ONE)) {
+                select.setString(1, accountNumber);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    if (!resultSet.next()) {
+                        throw accountDoesNotExist(accountNumber);
+                    }
+                    return convertToAccount(readEntity(resultSet));
+                }
+            }
+        });
+    }
+
+    /**
+     * Answered by the index on balance and account number.
+     */
+    @Override
+    public List<Account> findByBalance(final BigDecimal minBalance, final BigDecimal maxBalance,
+        final boolean descending, final int limit) {
+        final String order = descending ? " DESC" : "";
+        final StringBuilder sql = new StringBuilder("SELECT ").append(COLUMNS).append(" FROM account WHERE 1 = 1");
+        if (minBalance != null) {
+            sql.append(" AND balance >= ?");
+        }
+        if (maxBalance != null) {
+            sql.append(" AND balance <= ?");
+        }
+        sql.append(" ORDER BY balance").append(order).append(", account_number").append(order).append(" LIMIT ?");
+
+        return withConnection(connection -> {
+            try (PreparedStatement select = connection.prepareStatement(sql.toString())) {
+                int parameter = 1;
+                if (minBalance != null) {
+                    select.setBigDecimal(parameter++, minBalance);
+                }
+                if (maxBalance != null) {
+                    select.setBigDecimal(parameter++, maxBalance);
+                }
+                select.setInt(parameter, limit);
+
+                final List<Account> accounts = new ArrayList<>();
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        accounts.add(convertToAccount(readEntity(resultSet)));
+                    }
+                }
+                return accounts;
+            }
+        });
+    }
+
+    @Override
+    public Account withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion) {
+        checkAmountGreaterThanZero(amount);
+        return inTransaction((connection, events) -> {
+            final AccountEntity entity = lockExisting(connection, accountNumber);
+            checkVersion(entity, expectedVersion);
+
+            withdrawInternal(entity, amount);
+            update(connection, List.of(entity));
+            events.balanceChanged(accountNumber, entity.getBalance(), amount.negate());
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Account deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion) {
+        checkAmountGreaterThanZero(amount);
+        return inTransaction((connection, events) -> {
+            final AccountEntity entity = lockExisting(connection, accountNumber);
+            checkVersion(entity, expectedVersion);
+
+            depositInternal(entity, amount);
+            update(connection, List.of(entity));
+            events.balanceChanged(accountNumber, entity.getBalance(), amount);
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public TransferResult transfer(@NonNull final String fromAccountNumber, @NonNull final String toAccountNumber,
+        @NonNull final BigDecimal amount, final Long expectedFromVersion, final Long expectedToVersion) {
+        if (fromAccountNumber.equalsIgnoreCase(toAccountNumber)) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Can not transfer between same accounts");
+        }
+
+        if (amount.equals(BigDecimal.ZERO)) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Amount should not be zero");
+        }
+        checkAmountGreaterThanZero(amount);
+
+        return inTransaction((connection, events) -> {
+            final Map<String, AccountEntity> entities = lock(connection, List.of(fromAccountNumber, toAccountNumber));
+            final AccountEntity fromEntity = existing(entities, fromAccountNumber);
+            final AccountEntity toEntity = existing(entities, toAccountNumber);
+            checkVersion(fromEntity, expectedFromVersion);
+            checkVersion(toEntity, expectedToVersion);
+
+            withdrawInternal(fromEntity, amount);
+            depositInternal(toEntity, amount);
+            update(connection, List.of(fromEntity, toEntity));
+
+            events.transferApplied(fromAccountNumber, fromEntity.getBalance(), toAccountNumber,
+                toEntity.getBalance(), amount);
+
+            return TransferResult.builder()
+                .fromAccount(convertToAccount(fromEntity))
+                .toAccount(convertToAccount(toEntity))
+                .build();
+        });
+    }
+
+    /**
+     * Every leg is checked before anything is written, and a failure rolls the transaction back, so either all legs
+     * are applied or none. Each leg is published as a balance change.
+     */
+    @Override
+    public MultiTransferResult multiTransfer(@NonNull final List<TransferLeg> debits,
+        @NonNull final List<TransferLeg> credits) {
+        validateTransferLegs(debits, credits, InMemoryAccountService.MAX_TRANSFER_LEGS);
+
+        final List<String> accountNumbers = new ArrayList<>(debits.size() + credits.size());
+        debits.forEach(debit -> accountNumbers.add(debit.getAccountNumber()));
+        credits.forEach(credit -> accountNumbers.add(credit.getAccountNumber()));
+
+        return inTransaction((connection, events) -> {
+            final Map<String, AccountEntity> entities = lock(connection, accountNumbers);
+            final List<AccountEntity> changed = new ArrayList<>(accountNumbers.size());
+            for (final TransferLeg debit : debits) {
+                final AccountEntity entity = existing(entities, debit.getAccountNumber());
+                if (entity.getAvailableBalance().compareTo(debit.getAmount()) < 0) {
+                    throw new Problem(HttpStatus.BAD_REQUEST_400,
+                        String.format("Account %s does not have enough balance.", debit.getAccountNumber()));
+                }
+                withdrawInternal(entity, debit.getAmount());
+                changed.add(entity);
+            }
+            for (final TransferLeg credit : credits) {
+                final AccountEntity entity = existing(entities, credit.getAccountNumber());
+                depositInternal(entity, credit.getAmount());
+                changed.add(entity);
+            }
+            update(connection, changed);
+
+            final List<Account> accounts = new ArrayList<>(changed.size());
+            for (int i = 0; i < changed.size(); i++) {
+                final AccountEntity entity = changed.get(i);
+                final BigDecimal amount = i < debits.size() ? debits.get(i).getAmount().negate()
+                    : credits.get(i - debits.size()).getAmount();
+                events.balanceChanged(entity.getAccountNumber(), entity.getBalance(), amount);
+                accounts.add(convertToAccount(entity));
+            }
+            return MultiTransferResult.builder().accounts(accounts).build();
+        });
+    }
+
+    /**
+     * Inserted with the same statement as imports, so a number that is taken is detected without a failed statement.
+     */
+    @Override
+    public Account openAccount(@NonNull final String accountNumber, @NonNull final BigDecimal balance) {
+        checkOpeningBalance(balance);
+        final AccountEntity entity = new AccountEntity(accountNumber, balance);
+        checkStorable(entity);
+        return insertInTransaction((connection, events) -> {
+            if (insertIfAbsent(connection, List.of(entity), events) == 0) {
+                throw accountAlreadyExists(accountNumber);
+            }
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Account closeAccount(@NonNull final String accountNumber, final Long expectedVersion) {
+        return inTransaction((connection, events) -> {
+            final AccountEntity entity = lockExisting(connection, accountNumber);
+            checkVersion(entity, expectedVersion);
+            checkClosable(entity);
+
+            final long mutateStart = Tracer.phaseStart();
+            try (PreparedStatement delete = connection.prepareStatement(DELETE)) {
+                delete.setString(1, accountNumber);
+                delete.executeUpdate();
+            }
+            Tracer.phaseEnd(TracePhase.MUTATE, mutateStart);
+            events.accountClosed(accountNumber, entity.getBalance());
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Hold authorize(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final long expiresAt) {
+        checkAmountGreaterThanZero(amount);
+        checkBalance(amount);
+        return inTransaction((connection, events) -> {
+            final AccountEntity entity = lockExisting(connection, accountNumber);
+            if (entity.getAvailableBalance().compareTo(amount) < 0) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, "Account does not have enough balance.");
+            }
+
+            setBalance(entity, entity.getBalance(), entity.getHeld().add(amount));
+            update(connection, List.of(entity));
+            final long holdId;
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_HOLD,
+                Statement.RETURN_GENERATED_KEYS)) {
+                insert.setString(1, accountNumber);
+                insert.setBigDecimal(2, amount);
+                insert.setInt(3, amount.scale());
+                insert.setLong(4, expiresAt);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                    holdId = keys.getLong(1);
+                }
+            }
+            events.holdChanged(accountNumber, entity.getBalance(), amount);
+
+            return Hold.builder()
+                .id(holdId)
+                .accountNumber(accountNumber)
+                .amount(amount)
+                .expiresAt(expiresAt)
+                .build();
+        });
+    }
+
+    @Override
+    public Account capture(final long holdId, final BigDecimal amount) {
+        if (amount != null) {
+            checkAmountGreaterThanZero(amount);
+        }
+        return inTransaction((connection, events) -> {
+            final HoldRow hold = lockHold(connection, holdId);
+            final BigDecimal captured = amount != null ? amount : hold.amount;
+            if (captured.compareTo(hold.amount) > 0) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("Hold %d is for %s, can not capture %s.",
+                    holdId, hold.amount.toPlainString(), captured.toPlainString()));
+            }
+
+            setBalance(hold.account, hold.account.getBalance().subtract(captured),
+                hold.account.getHeld().subtract(hold.amount));
+            update(connection, List.of(hold.account));
+            events.balanceChanged(hold.account.getAccountNumber(), hold.account.getBalance(),
+                captured.negate());
+
+            return convertToAccount(hold.account);
+        });
+    }
+
+    @Override
+    public Account release(final long holdId) {
+        return inTransaction((connection, events) -> {
+            final HoldRow hold = lockHold(connection, holdId);
+            setBalance(hold.account, hold.account.getBalance(), hold.account.getHeld().subtract(hold.amount));
+            update(connection, List.of(hold.account));
+            events.holdChanged(hold.account.getAccountNumber(), hold.account.getBalance(),
+                hold.amount.negate());
+
+            return convertToAccount(hold.account);
+        });
+    }
+
+    /**
+     * Due holds are read from the expiry index in batches of {@link #EXPIRY_BATCH_SIZE} and each one is released in a
+     * transaction of its own. Holds captured or released in the meantime are skipped.
+     */
+    @Override
+    public int expireHolds(final long now) {
+        int expired = 0;
+        while (true) {
+            final List<Long> due = withConnection(connection -> {
+                final List<Long> holdIds = new ArrayList<>();
+                try (PreparedStatement select = connection.prepareStatement(SELECT_DUE_HOLDS)) {
+                    select.setLong(1, now);
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        while (resultSet.next()) {
+                            holdIds.add(resultSet.getLong(1));
+                        }
+                    }
+                }
+                return holdIds;
+            });
+
+            for (final Long holdId : due) {
+                try {
+                    release(holdId);
+                    expired++;
+                } catch (Problem problem) {
+                    if (problem.getHttpCode() != HttpStatus.NOT_FOUND_404) {
+                        throw problem;
+                    }
+                }
+            }
+            if (due.size() < EXPIRY_BATCH_SIZE) {
+                return expired;
+            }
+        }
+    }
+
+    /**
+     * Inserted in batches of {@link #IMPORT_BATCH_SIZE} rows, each batch in its own transaction. Rows that exist are
+     * skipped by the insert itself, so a batch never fails because of a duplicate that was there before it started.
+     */
+    @Override
+    public int importAccounts(@NonNull final List<AccountEntity> accountEntities) {
+        int inserted = 0;
+        for (int from = 0; from < accountEntities.size(); from += IMPORT_BATCH_SIZE) {
+            final List<AccountEntity> batch = accountEntities.subList(from,
+                Math.min(from + IMPORT_BATCH_SIZE, accountEntities.size()));
+            batch.forEach(JdbcAccountService::checkStorable);
+            inserted += insertInTransaction((connection, events) -> insertIfAbsent(connection, batch, events));
+        }
+        return inserted;
+    }
+
+    @Override
+    public List<String> getAccountNumbers(final int partition) {
+        if (partition != 0) {
+            throw new IllegalArgumentException("Partition should be 0, got " + partition);
+        }
+        return withConnection(connection -> {
+            final List<String> accountNumbers = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT account_number FROM account")) {
+                while (resultSet.next()) {
+                    accountNumbers.add(resultSet.getString(1));
+                }
+            }
+            return accountNumbers;
+        });
+    }
+
+    /**
+     * All given accounts are locked and adjusted in one transaction and written with one batch. Each change is
+     * published as a balance change.
+     */
+    @Override
+    public int adjustBalances(@NonNull final List<String> accountNumbers,
+        @NonNull final UnaryOperator<BigDecimal> adjustment) {
+        return inTransaction((connection, events) -> {
+            final Map<String, AccountEntity> entities = lock(connection, accountNumbers);
+            final List<AccountEntity> changed = new ArrayList<>();
+            final List<BigDecimal> amounts = new ArrayList<>();
+            for (final String accountNumber : accountNumbers) {
+                final AccountEntity entity = entities.get(accountNumber);
+                if (entity == null) {
+                    continue;
+                }
+
+                final BigDecimal amount = adjustment.apply(entity.getBalance())
+                    .max(entity.getAvailableBalance().negate());
+                if (amount.signum() > 0) {
+                    depositInternal(entity, amount);
+                } else if (amount.signum() < 0) {
+                    withdrawInternal(entity, amount.negate());
+                } else {
+                    continue;
+                }
+                changed.add(entity);
+                amounts.add(amount);
+            }
+            update(connection, changed);
+
+            for (int i = 0; i < changed.size(); i++) {
+                events.balanceChanged(changed.get(i).getAccountNumber(), changed.get(i).getBalance(),
+                    amounts.get(i));
+            }
+            return changed.size();
+        });
+    }
+
+    /**
+     * Reads all accounts with one query, which sees the table as of one point in time, and passes them on in batches
+     * while the result is streamed. A connection is held until the consumer has taken the last batch.
+     */
+    @Override
+    public void exportSnapshot(@NonNull final Consumer<List<AccountEntity>> consumer) {
+        withConnection(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.setFetchSize(EXPORT_BATCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery(SELECT_ALL)) {
+                    List<AccountEntity> batch = new ArrayList<>(EXPORT_BATCH_SIZE);
+                    while (resultSet.next()) {
+                        batch.add(readEntity(resultSet));
+                        if (batch.size() == EXPORT_BATCH_SIZE) {
+                            consumer.accept(batch);
+                            batch = new ArrayList<>(EXPORT_BATCH_SIZE);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        consumer.accept(batch);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private void createSchema() {
+        withConnection(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS account ("
+                    + "account_number VARCHAR(" + MAX_ACCOUNT_NUMBER_LENGTH + ") PRIMARY KEY, "
+                    + "balance " + decimalType() + " NOT NULL, "
+                    + "balance_scale SMALLINT NOT NULL, "
+                    + "version BIGINT NOT NULL)");
+                // Databases created before holds existed get the columns on the first start
+                statement.execute("ALTER TABLE account ADD COLUMN IF NOT EXISTS held " + decimalType()
+                    + " DEFAULT 0 NOT NULL");
+                statement.execute("ALTER TABLE account ADD COLUMN IF NOT EXISTS held_scale SMALLINT "
+                    + "DEFAULT 0 NOT NULL");
+                statement.execute("CREATE INDEX IF NOT EXISTS account_balance ON account (balance, account_number)");
+                statement.execute("CREATE TABLE IF NOT EXISTS account_hold ("
+                    + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                    + "account_number VARCHAR(" + MAX_ACCOUNT_NUMBER_LENGTH + ") NOT NULL, "
+                    + "amount " + decimalType() + " NOT NULL, "
+                    + "amount_scale SMALLINT NOT NULL, "
+                    + "expires_at BIGINT NOT NULL)");
+                statement.execute("CREATE INDEX IF NOT EXISTS account_hold_expires_at ON account_hold (expires_at)");
+            }
+            return null;
+        });
+    }
+
+    private boolean isEmpty() {
+        return withConnection(connection -> {
+            try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT 1 FROM account LIMIT 1")) {
+                return !resultSet.next();
+            }
+        });
+    }
+
+    private int insertIfAbsent(final Connection connection, final List<AccountEntity> batch,
+        final PendingEvents events) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_IF_ABSENT)) {
+            for (final AccountEntity entity : batch) {
+                insert.setString(1, entity.getAccountNumber());
+                insert.setBigDecimal(2, entity.getBalance());
+                insert.setInt(3, entity.getBalance().scale());
+                insert.setLong(4, entity.getVersion());
+                insert.setString(5, entity.getAccountNumber());
+                insert.addBatch();
+            }
+
+            final int[] counts = insert.executeBatch();
+            int inserted = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    final AccountEntity entity = batch.get(i);
+                    events.accountCreated(entity.getAccountNumber(), entity.getBalance());
+                    inserted++;
+                }
+            }
+            return inserted;
+        }
+    }
+
+    /**
+     * Locks the rows of the given accounts in account number order.
+     *
+     * @return the locked accounts by account number, missing accounts are left out
+     */
+    private Map<String, AccountEntity> lock(final Connection connection, final Collection<String> accountNumbers)
+        throws SQLException {
+        final long lockWaitStart = Tracer.phaseStart();
+        final Map<String, AccountEntity> entities = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(SELECT_FOR_UPDATE)) {
+            for (final String accountNumber : new TreeSet<>(accountNumbers)) {
+                select.setString(1, accountNumber);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    if (resultSet.next()) {
+                        entities.put(accountNumber, readEntity(resultSet));
+                    }
+                }
+            }
+        }
+        Tracer.phaseEnd(TracePhase.LOCK_WAIT, lockWaitStart);
+        return entities;
+    }
+
+    private AccountEntity lockExisting(final Connection connection, final String accountNumber) throws SQLException {
+        return existing(lock(connection, List.of(accountNumber)), accountNumber);
+    }
+
+    /**
+     * Locks the account of the hold and deletes the hold while the account is locked, so only one capture or release
+     * of a hold succeeds.
+     */
+    private HoldRow lockHold(final Connection connection, final long holdId) throws SQLException {
+        final String accountNumber;
+        final BigDecimal amount;
+        try (PreparedStatement select = connection.prepareStatement(SELECT_HOLD)) {
+            select.setLong(1, holdId);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw holdDoesNotExist(holdId);
+                }
+                accountNumber = resultSet.getString(1);
+                amount = resultSet.getBigDecimal(2).setScale(resultSet.getInt(3));
+            }
+        }
+
+        final AccountEntity account = lockExisting(connection, accountNumber);
+        try (PreparedStatement delete = connection.prepareStatement(DELETE_HOLD)) {
+            delete.setLong(1, holdId);
+            if (delete.executeUpdate() == 0) {
+                throw holdDoesNotExist(holdId);
+            }
+        }
+        return new HoldRow(account, amount);
+    }
+
+    private void update(final Connection connection, final List<AccountEntity> entities) throws SQLException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        final long mutateStart = Tracer.phaseStart();
+        try (PreparedStatement update = connection.prepareStatement(UPDATE)) {
+            for (final AccountEntity entity : entities) {
+                update.setBigDecimal(1, entity.getBalance());
+                update.setInt(2, entity.getBalance().scale());
+                update.setLong(3, entity.getVersion());
+                update.setBigDecimal(4, entity.getHeld());
+                update.setInt(5, entity.getHeld().scale());
+                update.setString(6, entity.getAccountNumber());
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+        Tracer.phaseEnd(TracePhase.MUTATE, mutateStart);
+    }
+
+    /**
+     * Only changes the entity read in the current transaction, {@link #update} writes it.
+     */
+    private static void withdrawInternal(final AccountEntity entity, final BigDecimal amount) {
+        checkAmountGreaterThanZero(amount);
+
+        final BigDecimal newBalance = entity.getBalance().subtract(amount);
+
+        if (newBalance.compareTo(entity.getHeld()) < 0) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Account does not have enough balance.");
+        }
+
+        setBalance(entity, newBalance, entity.getHeld());
+    }
+
+    private static void depositInternal(final AccountEntity entity, final BigDecimal amount) {
+        checkAmountGreaterThanZero(amount);
+        setBalance(entity, entity.getBalance().add(amount), entity.getHeld());
+    }
+
+    private static void setBalance(final AccountEntity entity, final BigDecimal newBalance,
+        final BigDecimal newHeld) {
+        checkBalance(newBalance);
+        checkBalance(newHeld);
+        entity.setBalance(newBalance);
+        entity.setHeld(newHeld);
+        entity.setVersion(entity.getVersion() + 1);
+    }
+
+    private static void checkStorable(final AccountEntity entity) {
+        if (entity.getAccountNumber().length() > MAX_ACCOUNT_NUMBER_LENGTH) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("Account number %s is longer than %d "
+                + "characters", entity.getAccountNumber(), MAX_ACCOUNT_NUMBER_LENGTH));
+        }
+        checkBalance(entity.getBalance());
+    }
+
+    private static void checkBalance(final BigDecimal balance) {
+        if (balance.scale() > MAX_SCALE || balance.precision() - balance.scale() > MAX_INTEGER_DIGITS) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("Balance %s can not be stored", balance));
+        }
+    }
+
+    private static AccountEntity existing(final Map<String, AccountEntity> entities, final String accountNumber) {
+        final AccountEntity entity = entities.get(accountNumber);
+        if (entity == null) {
+            throw accountDoesNotExist(accountNumber);
+        }
+        return entity;
+    }
+
+    private static Problem accountDoesNotExist(final String accountNumber) {
+        return new Problem(HttpStatus.BAD_REQUEST_400, String.format("Account %s does not exist.", accountNumber));
+    }
+
+    private static Problem holdDoesNotExist(final long holdId) {
+        return new Problem(HttpStatus.NOT_FOUND_404, String.format("Hold %d does not exist.", holdId));
+    }
+
+    private static String decimalType() {
+        return "DECIMAL(" + (MAX_INTEGER_DIGITS + MAX_SCALE) + ", " + MAX_SCALE + ")";
+    }
+
+    private static AccountEntity readEntity(final ResultSet resultSet) throws SQLException {
+        return new AccountEntity(resultSet.getString(1), resultSet.getBigDecimal(2).setScale(resultSet.getInt(3)),
+            resultSet.getLong(4), resultSet.getBigDecimal(5).setScale(resultSet.getInt(6)));
+    }
+
+    /**
+     * Two transactions inserting the same number both pass the insert's existence check, the one committing second
+     * then fails on the primary key. Such a transaction is run again, and the check skips the row it now sees.
+     */
+    private <T> T insertInTransaction(final TransactionWork<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return inTransaction(work);
+            } catch (Problem problem) {
+                if (attempt == MAX_INSERT_ATTEMPTS || !(problem.getCause() instanceof SQLException)
+                    || !isUniqueViolation((SQLException) problem.getCause())) {
+                    throw problem;
+                }
+            }
+        }
+    }
+
+    private <T> T withConnection(final SqlFunction<T> work) {
+        try (Connection connection = dataSource.getConnection()) {
+            return work.apply(connection);
+        } catch (SQLException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * Rolls back when the work or the commit throws, a {@link Problem} thrown by the work is passed on as it is. The
+     * events the work collected are published after the commit and dropped on rollback.
+     */
+    private <T> T inTransaction(final TransactionWork<T> work) {
+        return withConnection(connection -> {
+            connection.setAutoCommit(false);
+            try {
+                final PendingEvents events = new PendingEvents();
+                final T result = work.apply(connection, events);
+                commitAndPublish(connection, events);
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        });
+    }
+
+    /**
+     * The stripes of the changed accounts are locked, in ascending order, from before the commit until the events are
+     * published. A later transaction on the same account can only commit once the rows are unlocked by this commit, and
+     * then waits for the stripe, so it publishes after this one. Nothing waits for a row lock while holding a stripe.
+     */
+    private void commitAndPublish(final Connection connection, final PendingEvents events) throws SQLException {
+        if (events.publications.isEmpty()) {
+            connection.commit();
+            return;
+        }
+
+        final int[] stripes = new int[events.accountNumbers.size()];
+        for (int i = 0; i < stripes.length; i++) {
+            final int hash = events.accountNumbers.get(i).hashCode();
+            stripes[i] = (hash ^ (hash >>> 16)) & (publishLocks.length - 1);
+        }
+        Arrays.sort(stripes);
+        int locked = 0;
+        try {
+            for (int i = 0; i < stripes.length; i++) {
+                if (i == 0 || stripes[i] != stripes[i - 1]) {
+                    publishLocks[stripes[i]].lock();
+                    stripes[locked++] = stripes[i];
+                }
+            }
+            connection.commit();
+            events.publications.forEach(publication -> publication.accept(eventBus));
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                publishLocks[stripes[i]].unlock();
+            }
+        }
+    }
+
+    /**
+     * Lock timeouts and serialization failures, deadlocks included, are reported as conflicts the client can retry.
+     */
+    private static RuntimeException translate(final SQLException e) {
+        final String sqlState = e.getSQLState();
+        if (sqlState != null && (sqlState.startsWith("40") || "HYT00".equals(sqlState))) {
+            return new Problem(HttpStatus.CONFLICT_409, "Accounts are locked by other requests, try again");
+        }
+        if (isUniqueViolation(e)) {
+            return new Problem(HttpStatus.CONFLICT_409, "Account was opened by another request, try again", e);
+        }
+        log.error("Database operation failed", e);
+        return new IllegalStateException("Database operation failed", e);
+    }
+
+    /**
+     * A failed batch reports the failure of its statement as the next exception
+     */
+    private static boolean isUniqueViolation(final SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (UNIQUE_VIOLATION.equals(next.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Events of one transaction, kept until it is committed
+     */
+    private static final class PendingEvents {
+
+        private final List<Consumer<AccountEventBus>> publications = new ArrayList<>();
+        private final List<String> accountNumbers = new ArrayList<>();
+
+        private void balanceChanged(final String accountNumber, final BigDecimal balance, final BigDecimal amount) {
+            publications.add(bus -> bus.publishBalanceChanged(accountNumber, balance, amount));
+            accountNumbers.add(accountNumber);
+        }
+
+        private void transferApplied(final String fromAccountNumber, final BigDecimal fromBalance,
+            final String toAccountNumber, final BigDecimal toBalance, final BigDecimal amount) {
+            publications.add(bus -> bus.publishTransferApplied(fromAccountNumber, fromBalance, toAccountNumber,
+                toBalance, amount));
+            accountNumbers.add(fromAccountNumber);
+            accountNumbers.add(toAccountNumber);
+        }
+
+        private void accountCreated(final String accountNumber, final BigDecimal balance) {
+            publications.add(bus -> bus.publishAccountCreated(accountNumber, balance));
+            accountNumbers.add(accountNumber);
+        }
+
+        private void accountClosed(final String accountNumber, final BigDecimal balance) {
+            publications.add(bus -> bus.publishAccountClosed(accountNumber, balance));
+            accountNumbers.add(accountNumber);
+        }
+
+        private void holdChanged(final String accountNumber, final BigDecimal balance, final BigDecimal amount) {
+            publications.add(bus -> bus.publishHoldChanged(accountNumber, balance, amount));
+            accountNumbers.add(accountNumber);
+        }
+    }
+
+    private static final class HoldRow {
+
+        private final AccountEntity account;
+        private final BigDecimal amount;
+
+        private HoldRow(final AccountEntity account, final BigDecimal amount) {
+            this.account = account;
+            this.amount = amount;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlFunction<T> {
+
+        T apply(Connection connection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface TransactionWork<T> {
+
+        T apply(Connection connection, PendingEvents events) throws SQLException;
+    }
+}
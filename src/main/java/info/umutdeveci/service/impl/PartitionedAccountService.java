@@ -0,0 +1,915 @@
+package info.umutdeveci.service.impl;
+
+import static info.umutdeveci.service.util.AccountServiceUtil.accountAlreadyExists;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkAmountGreaterThanZero;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkClosable;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkOpeningBalance;
+import static info.umutdeveci.service.util.AccountServiceUtil.checkVersion;
+import static info.umutdeveci.service.util.AccountServiceUtil.convertToAccount;
+import static info.umutdeveci.service.util.AccountServiceUtil.validateTransferLegs;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.model.Hold;
+import info.umutdeveci.service.model.MultiTransferResult;
+import info.umutdeveci.service.model.TransferLeg;
+import info.umutdeveci.service.model.TransferResult;
+import info.umutdeveci.service.scheduler.TimingWheel;
+import info.umutdeveci.service.scheduler.TimingWheel.Timeout;
+import info.umutdeveci.service.store.AccountStore;
+import info.umutdeveci.service.store.HeapAccountStore;
+import info.umutdeveci.trace.TracePhase;
+import info.umutdeveci.trace.Tracer;
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import lombok.NonNull;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Accounts are split into partitions by account number hash, like the segments of {@link InMemoryAccountService}, but
+ * instead of a lock every partition has a thread of its own. Only that thread touches the partition's accounts and
+ * holds, so they are kept in plain HashMaps and a request never waits for a lock: it is queued to the owning thread and
+ * the caller waits for the result. With one partition per core, requests on different partitions run in parallel and
+ * none of them contend on a shared lock, so throughput grows with the number of cores.
+ *
+ * <p>A transfer between two partitions is never applied by one thread. It takes four steps, each a task on the thread
+ * that owns the account:
+ *
+ * <ol>
+ *     <li>check: the target checks that it exists and has the expected version, without changing anything</li>
+ *     <li>debit: the source checks its expected version and available balance, then withdraws the amount and keeps
+ *     it as in flight in its partition</li>
+ *     <li>credit: the target checks its expected version again and deposits the amount</li>
+ *     <li>settle: the source drops the amount from in flight, or deposits it back when the credit failed</li>
+ * </ol>
+ *
+ * Each step hands the next one to the other partition's queue, the caller waits once for the whole transfer. The check
+ * turns away a transfer the target would refuse before the source is touched, so such a failure leaves both accounts as
+ * they were; only when the target changes between check and credit is the source debited and refunded. While it is in
+ * flight, the amount is part of neither balance, and an account with money in flight can not be closed, so the refund
+ * always finds it. Each account's changes are published by its own thread as {@code BALANCE_CHANGED} events, so the
+ * events of an account are in the order its changes were applied; a transfer within one partition is published as one
+ * {@code TRANSFER_APPLIED} event like in {@link InMemoryAccountService}.
+ *
+ * <p>A multi transfer parks the threads of the partitions it involves, one at a time in ascending partition order so
+ * two of them can not wait for each other, then applies every leg on the caller thread and lets them go.
+ *
+ * <p>{@link #getAll()} parks every partition and reads them all at one point in time. An amount in flight at that point
+ * is shown in its source account, in the balance and held like a reservation, so every amount is counted once.
+ * {@link #exportSnapshot} gets the same cut without keeping the partitions parked, see there. Holds live in the
+ * partition of their account, with a {@link TimingWheel} per partition for expiry, and a hold id carries its partition
+ * as the remainder of a division by the partition count.
+ */
+public class PartitionedAccountService implements AccountService, Closeable {
+
+    public static final int MAX_TRANSFER_LEGS = InMemoryAccountService.MAX_TRANSFER_LEGS;
+
+    /**
+     * Pre-image of an account opened after the export cut
+     */
+    private static final AccountEntity ABSENT = new AccountEntity("", BigDecimal.ZERO);
+
+    private final Partition[] partitions;
+    private final AccountEventBus eventBus;
+    private final AtomicLong lastHoldSequence = new AtomicLong();
+    private final AtomicBoolean exporting = new AtomicBoolean();
+
+    /**
+     * Every applied change is published to the given bus by the thread of the account's partition.
+     *
+     * @param partitionCount number of partitions, each with its own thread, e.g. the number of cores
+     */
+    public PartitionedAccountService(@NonNull final List<AccountEntity> accountEntities,
+        @NonNull final AccountEventBus eventBus, final int partitionCount) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("Partition count should be positive, got " + partitionCount);
+        }
+        this.eventBus = eventBus;
+        this.partitions = new Partition[partitionCount];
+        final long holdTick = Math.floorDiv(System.currentTimeMillis(), InMemoryAccountService.HOLD_TICK_MILLIS);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i, new HeapAccountStore(accountEntities.size() / partitionCount + 1),
+                holdTick);
+        }
+        // The threads start with the first task, which makes these writes visible to them
+        accountEntities.forEach(accountEntity -> {
+            final AccountStore accounts = partitionOf(accountEntity.getAccountNumber()).accounts;
+            if (!accounts.insert(accountEntity)) {
+                accounts.update(accounts.get(accountEntity.getAccountNumber()), accountEntity.getBalance(),
+                    accountEntity.getHeld(), accountEntity.getVersion());
+            }
+        });
+    }
+
+    @Override
+    public List<Account> getAll() {
+        final int[] allPartitions = allPartitions();
+        return callParked(allPartitions, allPartitions.length, () -> {
+            final List<Account> accounts = new ArrayList<>();
+            for (final Partition partition : partitions) {
+                final Map<String, BigDecimal> inFlightAmounts = inFlightAmounts(partition);
+                partition.accounts.forEach(entity -> {
+                    final BigDecimal inFlight = inFlightAmounts.get(entity.getAccountNumber());
+                    if (inFlight == null) {
+                        accounts.add(convertToAccount(entity));
+                    } else {
+                        accounts.add(Account.builder()
+                            .accountNumber(entity.getAccountNumber())
+                            .balance(entity.getBalance().add(inFlight))
+                            .version(entity.getVersion())
+                            .availableBalance(entity.getAvailableBalance())
+                            .build());
+                    }
+                });
+            }
+            return accounts;
+        });
+    }
+
+    @Override
+    public Account get(@NonNull final String accountNumber) {
+        final Partition partition = partitionOf(accountNumber);
+        return call(partition, () -> convertToAccount(getInternal(partition, accountNumber)));
+    }
+
+    @Override
+    public Account withdraw(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion) {
+        final Partition partition = partitionOf(accountNumber);
+        return call(partition, () -> {
+            final AccountEntity entity = getInternal(partition, accountNumber);
+            checkVersion(entity, expectedVersion);
+
+            withdrawInternal(partition, entity, amount);
+            eventBus.publishBalanceChanged(accountNumber, entity.getBalance(), amount.negate());
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Account deposit(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final Long expectedVersion) {
+        final Partition partition = partitionOf(accountNumber);
+        return call(partition, () -> {
+            final AccountEntity entity = getInternal(partition, accountNumber);
+            checkVersion(entity, expectedVersion);
+
+            depositInternal(partition, entity, amount);
+            eventBus.publishBalanceChanged(accountNumber, entity.getBalance(), amount);
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public TransferResult transfer(@NonNull final String fromAccountNumber, @NonNull final String toAccountNumber,
+        @NonNull final BigDecimal amount, final Long expectedFromVersion, final Long expectedToVersion) {
+        if (fromAccountNumber.equalsIgnoreCase(toAccountNumber)) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Can not transfer between same accounts");
+        }
+
+        if (amount.equals(BigDecimal.ZERO)) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Amount should not be zero");
+        }
+        checkAmountGreaterThanZero(amount);
+
+        final Partition from = partitionOf(fromAccountNumber);
+        final Partition to = partitionOf(toAccountNumber);
+        if (from == to) {
+            return call(from, () -> {
+                final AccountEntity fromEntity = getInternal(from, fromAccountNumber);
+                final AccountEntity toEntity = getInternal(to, toAccountNumber);
+                checkVersion(fromEntity, expectedFromVersion);
+                checkVersion(toEntity, expectedToVersion);
+
+                withdrawInternal(from, fromEntity, amount);
+                depositInternal(to, toEntity, amount);
+
+                eventBus.publishTransferApplied(fromAccountNumber, fromEntity.getBalance(), toAccountNumber,
+                    toEntity.getBalance(), amount);
+
+                return TransferResult.builder()
+                    .fromAccount(convertToAccount(fromEntity))
+                    .toAccount(convertToAccount(toEntity))
+                    .build();
+            });
+        }
+
+        final InFlightTransfer inFlight = new InFlightTransfer(amount);
+        final long queuedAt = Tracer.phaseStart();
+        final long[] startedAt = new long[1];
+        final CompletableFuture<TransferResult> result = CompletableFuture.runAsync(() -> {
+            startedAt[0] = queuedAt == 0 ? 0 : System.nanoTime();
+            checkVersion(getInternal(to, toAccountNumber), expectedToVersion);
+        }, to.executor).thenApplyAsync(checked -> {
+            final AccountEntity fromEntity = getInternal(from, fromAccountNumber);
+            checkVersion(fromEntity, expectedFromVersion);
+
+            withdrawInternal(from, fromEntity, amount);
+            from.inFlight.computeIfAbsent(fromAccountNumber, key -> new ArrayList<>()).add(inFlight);
+            eventBus.publishBalanceChanged(fromAccountNumber, fromEntity.getBalance(), amount.negate());
+
+            return convertToAccount(fromEntity);
+        }, from.executor).thenCompose(fromAccount -> CompletableFuture.supplyAsync(() -> {
+            final AccountEntity toEntity = getInternal(to, toAccountNumber);
+            checkVersion(toEntity, expectedToVersion);
+
+            depositInternal(to, toEntity, amount);
+            inFlight.credited = true;
+            eventBus.publishBalanceChanged(toAccountNumber, toEntity.getBalance(), amount);
+
+            return convertToAccount(toEntity);
+        }, to.executor).handleAsync((toAccount, failure) -> {
+            final List<InFlightTransfer> sourceInFlight = from.inFlight.get(fromAccountNumber);
+            sourceInFlight.remove(inFlight);
+            if (sourceInFlight.isEmpty()) {
+                from.inFlight.remove(fromAccountNumber);
+            }
+            if (failure != null) {
+                // The target changed after the check. Money in flight keeps the source from being closed.
+                final AccountEntity fromEntity = getInternal(from, fromAccountNumber);
+                depositInternal(from, fromEntity, amount);
+                eventBus.publishBalanceChanged(fromAccountNumber, fromEntity.getBalance(), amount);
+                throw failure instanceof CompletionException ? (CompletionException) failure
+                    : new CompletionException(failure);
+            }
+
+            return TransferResult.builder()
+                .fromAccount(fromAccount)
+                .toAccount(toAccount)
+                .build();
+        }, from.executor));
+        return join(result, queuedAt, startedAt);
+    }
+
+    /**
+     * Every leg is checked before anything is changed, so either all legs are applied or none. Each leg is published
+     * as a balance change.
+     */
+    @Override
+    public MultiTransferResult multiTransfer(@NonNull final List<TransferLeg> debits,
+        @NonNull final List<TransferLeg> credits) {
+        validateTransferLegs(debits, credits, MAX_TRANSFER_LEGS);
+
+        final int legCount = debits.size() + credits.size();
+        final int[] parkOrder = new int[legCount];
+        for (int i = 0; i < debits.size(); i++) {
+            parkOrder[i] = partitionOf(debits.get(i).getAccountNumber()).index;
+        }
+        for (int i = 0; i < credits.size(); i++) {
+            parkOrder[debits.size() + i] = partitionOf(credits.get(i).getAccountNumber()).index;
+        }
+        final int parkCount = sortDistinct(parkOrder);
+
+        return callParked(parkOrder, parkCount, () -> {
+            final AccountEntity[] debitEntities = new AccountEntity[debits.size()];
+            for (int i = 0; i < debits.size(); i++) {
+                final TransferLeg debit = debits.get(i);
+                debitEntities[i] = getInternal(partitionOf(debit.getAccountNumber()), debit.getAccountNumber());
+                if (debitEntities[i].getAvailableBalance().compareTo(debit.getAmount()) < 0) {
+                    throw new Problem(HttpStatus.BAD_REQUEST_400,
+                        String.format("Account %s does not have enough balance.", debit.getAccountNumber()));
+                }
+            }
+            final AccountEntity[] creditEntities = new AccountEntity[credits.size()];
+            for (int i = 0; i < credits.size(); i++) {
+                final String accountNumber = credits.get(i).getAccountNumber();
+                creditEntities[i] = getInternal(partitionOf(accountNumber), accountNumber);
+            }
+
+            final List<Account> accounts = new ArrayList<>(legCount);
+            for (int i = 0; i < debitEntities.length; i++) {
+                final AccountEntity entity = debitEntities[i];
+                final BigDecimal amount = debits.get(i).getAmount();
+                withdrawInternal(partitionOf(entity.getAccountNumber()), entity, amount);
+                eventBus.publishBalanceChanged(entity.getAccountNumber(), entity.getBalance(), amount.negate());
+                accounts.add(convertToAccount(entity));
+            }
+            for (int i = 0; i < creditEntities.length; i++) {
+                final AccountEntity entity = creditEntities[i];
+                final BigDecimal amount = credits.get(i).getAmount();
+                depositInternal(partitionOf(entity.getAccountNumber()), entity, amount);
+                eventBus.publishBalanceChanged(entity.getAccountNumber(), entity.getBalance(), amount);
+                accounts.add(convertToAccount(entity));
+            }
+
+            return MultiTransferResult.builder().accounts(accounts).build();
+        });
+    }
+
+    @Override
+    public Account openAccount(@NonNull final String accountNumber, @NonNull final BigDecimal balance) {
+        checkOpeningBalance(balance);
+        final AccountEntity entity = new AccountEntity(accountNumber, balance);
+        final Partition partition = partitionOf(accountNumber);
+        return call(partition, () -> {
+            if (!insertInternal(partition, entity)) {
+                throw accountAlreadyExists(accountNumber);
+            }
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Account closeAccount(@NonNull final String accountNumber, final Long expectedVersion) {
+        final Partition partition = partitionOf(accountNumber);
+        return call(partition, () -> {
+            final AccountEntity entity = getInternal(partition, accountNumber);
+            checkVersion(entity, expectedVersion);
+            checkClosable(entity);
+            if (partition.inFlight.containsKey(accountNumber)) {
+                throw new Problem(HttpStatus.CONFLICT_409, String.format("Account %s has a transfer in flight, it "
+                    + "can be closed once the transfer is done.", accountNumber));
+            }
+
+            keepPreImage(partition, entity);
+            partition.accounts.remove(accountNumber);
+            eventBus.publishAccountClosed(accountNumber, entity.getBalance());
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Hold authorize(@NonNull final String accountNumber, @NonNull final BigDecimal amount,
+        final long expiresAt) {
+        checkAmountGreaterThanZero(amount);
+        final Partition partition = partitionOf(accountNumber);
+        return call(partition, () -> {
+            final AccountEntity entity = getInternal(partition, accountNumber);
+            if (entity.getAvailableBalance().compareTo(amount) < 0) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, "Account does not have enough balance.");
+            }
+
+            final HoldEntry hold = new HoldEntry(lastHoldSequence.incrementAndGet() * partitions.length
+                + partition.index, accountNumber, amount, expiresAt);
+            setBalance(partition, entity, entity.getBalance(), entity.getHeld().add(amount));
+            partition.holds.put(hold.id, hold);
+            hold.timeout = partition.holdExpiry.schedule(holdDeadlineTick(expiresAt), hold);
+            eventBus.publishHoldChanged(accountNumber, entity.getBalance(), amount);
+
+            return hold.toHold();
+        });
+    }
+
+    @Override
+    public Account capture(final long holdId, final BigDecimal amount) {
+        if (amount != null) {
+            checkAmountGreaterThanZero(amount);
+        }
+        final Partition partition = holdPartition(holdId);
+        return call(partition, () -> {
+            final HoldEntry hold = getHoldInternal(partition, holdId);
+            final BigDecimal captured = amount != null ? amount : hold.amount;
+            if (captured.compareTo(hold.amount) > 0) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("Hold %d is for %s, can not capture %s.",
+                    holdId, hold.amount.toPlainString(), captured.toPlainString()));
+            }
+
+            final AccountEntity entity = getInternal(partition, hold.accountNumber);
+            setBalance(partition, entity, entity.getBalance().subtract(captured),
+                entity.getHeld().subtract(hold.amount));
+            removeHold(partition, hold);
+            eventBus.publishBalanceChanged(hold.accountNumber, entity.getBalance(), captured.negate());
+
+            return convertToAccount(entity);
+        });
+    }
+
+    @Override
+    public Account release(final long holdId) {
+        final Partition partition = holdPartition(holdId);
+        return call(partition, () -> releaseInternal(partition, getHoldInternal(partition, holdId)));
+    }
+
+    /**
+     * Every partition moves its own wheel forward, in parallel.
+     */
+    @Override
+    public int expireHolds(final long now) {
+        final long nowTick = Math.floorDiv(now, InMemoryAccountService.HOLD_TICK_MILLIS);
+        return fold(onEveryPartition(partition -> partition.holdExpiry.advance(nowTick, hold -> {
+            hold.timeout = null;
+            releaseInternal(partition, hold);
+        })), 0, Integer::sum);
+    }
+
+    /**
+     * The batch is split by partition and every partition inserts its share in one task.
+     */
+    @Override
+    public int importAccounts(@NonNull final List<AccountEntity> accountEntities) {
+        final Map<Partition, List<AccountEntity>> byPartition = new HashMap<>();
+        accountEntities.forEach(accountEntity -> byPartition.computeIfAbsent(
+            partitionOf(accountEntity.getAccountNumber()), key -> new ArrayList<>()).add(accountEntity));
+
+        final List<CompletableFuture<Integer>> inserted = new ArrayList<>(byPartition.size());
+        byPartition.forEach((partition, entities) -> inserted.add(submit(partition, () -> {
+            int count = 0;
+            for (final AccountEntity entity : entities) {
+                if (insertInternal(partition, entity)) {
+                    count++;
+                }
+            }
+            return count;
+        })));
+        return fold(inserted, 0, Integer::sum);
+    }
+
+    @Override
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * Partitions are the service's own partitions, the account numbers are copied by the partition's thread.
+     */
+    @Override
+    public List<String> getAccountNumbers(final int partition) {
+        if (partition < 0 || partition >= partitions.length) {
+            throw new IllegalArgumentException("Partition should be between 0 and " + partitions.length + ", got "
+                + partition);
+        }
+        final Partition owner = partitions[partition];
+        return call(owner, () -> {
+            final List<String> accountNumbers = new ArrayList<>(owner.accounts.size());
+            owner.accounts.forEach(entity -> accountNumbers.add(entity.getAccountNumber()));
+            return accountNumbers;
+        });
+    }
+
+    /**
+     * The accounts are split by partition and every partition adjusts its share in one task, so callers bound how long
+     * other requests wait by how many accounts they pass at once. Each change is published as a balance change.
+     */
+    @Override
+    public int adjustBalances(@NonNull final List<String> accountNumbers,
+        @NonNull final UnaryOperator<BigDecimal> adjustment) {
+        final Map<Partition, List<String>> byPartition = new HashMap<>();
+        accountNumbers.forEach(accountNumber -> byPartition.computeIfAbsent(partitionOf(accountNumber),
+            key -> new ArrayList<>()).add(accountNumber));
+
+        final List<CompletableFuture<Integer>> adjusted = new ArrayList<>(byPartition.size());
+        byPartition.forEach((partition, numbers) -> adjusted.add(submit(partition, () -> {
+            int count = 0;
+            for (final String accountNumber : numbers) {
+                final AccountEntity entity = partition.accounts.get(accountNumber);
+                if (entity == null) {
+                    continue;
+                }
+
+                final BigDecimal amount = adjustment.apply(entity.getBalance())
+                    .max(entity.getAvailableBalance().negate());
+                if (amount.signum() > 0) {
+                    depositInternal(partition, entity, amount);
+                } else if (amount.signum() < 0) {
+                    withdrawInternal(partition, entity, amount.negate());
+                } else {
+                    continue;
+                }
+                eventBus.publishBalanceChanged(accountNumber, entity.getBalance(), amount);
+                count++;
+            }
+            return count;
+        })));
+        return fold(adjusted, 0, Integer::sum);
+    }
+
+    /**
+     * Writers are not stopped for longer than one partition is copied. At the cut, every partition is parked, takes a
+     * copy of its amounts in flight and starts keeping the pre-image of each account the first time it changes or is
+     * closed after that. Partitions are then copied one by one on their own threads, with pre-images in place of the
+     * changed accounts and in addition to the remaining ones for the closed accounts, and an amount in flight at the
+     * cut added to its source account. The consumer is called with one batch per partition while the partitions run.
+     * Only one export runs at a time, others get a 409.
+     */
+    @Override
+    public void exportSnapshot(@NonNull final Consumer<List<AccountEntity>> consumer) {
+        if (!exporting.compareAndSet(false, true)) {
+            throw new Problem(HttpStatus.CONFLICT_409, "An export is already running");
+        }
+
+        int copied = 0;
+        try {
+            final int[] allPartitions = allPartitions();
+            callParked(allPartitions, allPartitions.length, () -> {
+                for (final Partition partition : partitions) {
+                    partition.preImages = new HashMap<>();
+                    partition.inFlightAtCut = inFlightAmounts(partition);
+                }
+                return null;
+            });
+
+            for (; copied < partitions.length; copied++) {
+                final Partition partition = partitions[copied];
+                consumer.accept(call(partition, () -> {
+                    final List<AccountEntity> batch = new ArrayList<>(partition.accounts.size());
+                    final Map<String, AccountEntity> closed = new HashMap<>(partition.preImages);
+                    partition.accounts.forEach(entity -> {
+                        final AccountEntity preImage = closed.remove(entity.getAccountNumber());
+                        if (preImage == null) {
+                            batch.add(exportCopy(partition, entity));
+                        } else if (preImage != ABSENT) {
+                            batch.add(exportCopy(partition, preImage));
+                        }
+                    });
+                    closed.values().forEach(preImage -> {
+                        if (preImage != ABSENT) {
+                            batch.add(exportCopy(partition, preImage));
+                        }
+                    });
+                    stopKeepingPreImages(partition);
+                    return batch;
+                }));
+            }
+        } finally {
+            // When the consumer fails, the partitions that were not copied yet should stop keeping pre-images
+            for (int i = copied; i < partitions.length; i++) {
+                final Partition partition = partitions[i];
+                call(partition, () -> {
+                    stopKeepingPreImages(partition);
+                    return null;
+                });
+            }
+            exporting.set(false);
+        }
+    }
+
+    /**
+     * Stops the partition threads once the tasks already queued are done, requests made afterwards are rejected.
+     */
+    @Override
+    public void close() {
+        for (final Partition partition : partitions) {
+            partition.executor.shutdown();
+        }
+    }
+
+    /**
+     * Only called by the thread of the account's partition
+     *
+     * @return false if the account number exists
+     */
+    private boolean insertInternal(final Partition partition, final AccountEntity entity) {
+        if (!partition.accounts.insert(entity)) {
+            return false;
+        }
+        if (partition.preImages != null) {
+            partition.preImages.putIfAbsent(entity.getAccountNumber(), ABSENT);
+        }
+        eventBus.publishAccountCreated(entity.getAccountNumber(), entity.getBalance());
+        return true;
+    }
+
+    /**
+     * Only called by the thread of the hold's partition
+     */
+    private Account releaseInternal(final Partition partition, final HoldEntry hold) {
+        final AccountEntity entity = getInternal(partition, hold.accountNumber);
+        setBalance(partition, entity, entity.getBalance(), entity.getHeld().subtract(hold.amount));
+        removeHold(partition, hold);
+        eventBus.publishHoldChanged(hold.accountNumber, entity.getBalance(), hold.amount.negate());
+        return convertToAccount(entity);
+    }
+
+    private static void removeHold(final Partition partition, final HoldEntry hold) {
+        partition.holds.remove(hold.id);
+        if (hold.timeout != null) {
+            partition.holdExpiry.cancel(hold.timeout);
+            hold.timeout = null;
+        }
+    }
+
+    private static HoldEntry getHoldInternal(final Partition partition, final long holdId) {
+        final HoldEntry hold = partition.holds.get(holdId);
+        if (hold == null) {
+            throw new Problem(HttpStatus.NOT_FOUND_404, String.format("Hold %d does not exist.", holdId));
+        }
+        return hold;
+    }
+
+    private Partition holdPartition(final long holdId) {
+        return partitions[(int) Math.floorMod(holdId, (long) partitions.length)];
+    }
+
+    /**
+     * Rounds up, so a hold never expires before its time
+     */
+    private static long holdDeadlineTick(final long expiresAt) {
+        final long tickMillis = InMemoryAccountService.HOLD_TICK_MILLIS;
+        return Math.floorDiv(expiresAt, tickMillis) + (Math.floorMod(expiresAt, tickMillis) == 0 ? 0 : 1);
+    }
+
+    /**
+     * Only called by the thread of the account's partition, or while it is parked
+     */
+    private static AccountEntity getInternal(final Partition partition, final String accountNumber) {
+        final AccountEntity entity = partition.accounts.get(accountNumber);
+        if (entity == null) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("Account %s does not exist.", accountNumber));
+        }
+
+        return entity;
+    }
+
+    private static void withdrawInternal(final Partition partition, final AccountEntity entity,
+        final BigDecimal amount) {
+        checkAmountGreaterThanZero(amount);
+
+        final BigDecimal newBalance = entity.getBalance().subtract(amount);
+        if (newBalance.compareTo(entity.getHeld()) < 0) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Account does not have enough balance.");
+        }
+
+        setBalance(partition, entity, newBalance, entity.getHeld());
+    }
+
+    private static void depositInternal(final Partition partition, final AccountEntity entity,
+        final BigDecimal amount) {
+        checkAmountGreaterThanZero(amount);
+        setBalance(partition, entity, entity.getBalance().add(amount), entity.getHeld());
+    }
+
+    private static void setBalance(final Partition partition, final AccountEntity entity, final BigDecimal newBalance,
+        final BigDecimal newHeld) {
+        keepPreImage(partition, entity);
+        partition.accounts.update(entity, newBalance, newHeld, entity.getVersion() + 1);
+    }
+
+    /**
+     * Only called by the thread of the account's partition, or while it is parked, before the entity is changed
+     */
+    private static void keepPreImage(final Partition partition, final AccountEntity entity) {
+        if (partition.preImages != null) {
+            partition.preImages.computeIfAbsent(entity.getAccountNumber(),
+                accountNumber -> new AccountEntity(accountNumber, entity.getBalance(), entity.getVersion()));
+        }
+    }
+
+    /**
+     * @return a copy of the entity, with the amount it had in flight at the export cut added to its balance
+     */
+    private static AccountEntity exportCopy(final Partition partition, final AccountEntity entity) {
+        final BigDecimal inFlight = partition.inFlightAtCut.get(entity.getAccountNumber());
+        return new AccountEntity(entity.getAccountNumber(),
+            inFlight == null ? entity.getBalance() : entity.getBalance().add(inFlight), entity.getVersion());
+    }
+
+    /**
+     * Only called while the partitions are parked, a transfer's credit is then visible to the source's reader
+     *
+     * @return amounts debited from the partition's accounts and not credited yet, by account number
+     */
+    private static Map<String, BigDecimal> inFlightAmounts(final Partition partition) {
+        final Map<String, BigDecimal> amounts = new HashMap<>();
+        partition.inFlight.forEach((accountNumber, transfers) -> transfers.forEach(transfer -> {
+            if (!transfer.credited) {
+                amounts.merge(accountNumber, transfer.amount, BigDecimal::add);
+            }
+        }));
+        return amounts;
+    }
+
+    private static void stopKeepingPreImages(final Partition partition) {
+        partition.preImages = null;
+        partition.inFlightAtCut = null;
+    }
+
+    private int[] allPartitions() {
+        final int[] allPartitions = new int[partitions.length];
+        for (int i = 0; i < allPartitions.length; i++) {
+            allPartitions[i] = i;
+        }
+        return allPartitions;
+    }
+
+    /**
+     * Sorts the partition indexes and moves the distinct ones to the front.
+     *
+     * @return number of distinct indexes
+     */
+    private static int sortDistinct(final int[] partitionIndexes) {
+        Arrays.sort(partitionIndexes);
+        int count = 0;
+        for (int i = 0; i < partitionIndexes.length; i++) {
+            if (i == 0 || partitionIndexes[i] != partitionIndexes[i - 1]) {
+                partitionIndexes[count++] = partitionIndexes[i];
+            }
+        }
+        return count;
+    }
+
+    private Partition partitionOf(final String accountNumber) {
+        final int hash = accountNumber.hashCode();
+        // Spreads the higher bits like HashMap does, the partition count is not necessarily a power of two
+        return partitions[Math.floorMod(hash ^ (hash >>> 16), partitions.length)];
+    }
+
+    /**
+     * Runs the work on the partition's thread and waits for it. Time spent in the partition's queue is traced as lock
+     * wait.
+     */
+    private static <T> T call(final Partition partition, final Supplier<T> work) {
+        final long queuedAt = Tracer.phaseStart();
+        final long[] startedAt = new long[1];
+        final CompletableFuture<T> result = CompletableFuture.supplyAsync(() -> {
+            startedAt[0] = queuedAt == 0 ? 0 : System.nanoTime();
+            return work.get();
+        }, partition.executor);
+        return join(result, queuedAt, startedAt);
+    }
+
+    private static <T> CompletableFuture<T> submit(final Partition partition, final Supplier<T> work) {
+        return CompletableFuture.supplyAsync(work, partition.executor);
+    }
+
+    private <T> List<CompletableFuture<T>> onEveryPartition(final Function<Partition, T> work) {
+        final List<CompletableFuture<T>> results = new ArrayList<>(partitions.length);
+        for (final Partition partition : partitions) {
+            results.add(submit(partition, () -> work.apply(partition)));
+        }
+        return results;
+    }
+
+    /**
+     * Waits for every result and folds them, the first failure is thrown after all of them completed.
+     */
+    private static <T, R> R fold(final List<CompletableFuture<T>> results, final R identity,
+        final BiFunction<R, T, R> accumulator) {
+        R folded = identity;
+        RuntimeException failure = null;
+        for (final CompletableFuture<T> result : results) {
+            try {
+                folded = accumulator.apply(folded, join(result, 0, null));
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return folded;
+    }
+
+    /**
+     * Waits for the result and throws what the partition thread threw, e.g. a {@link Problem}, as it is.
+     *
+     * @param startedAt when the first step began on a partition thread, 0 or null if the request is not traced
+     */
+    private static <T> T join(final CompletableFuture<T> result, final long queuedAt, final long[] startedAt) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        } finally {
+            if (queuedAt != 0 && startedAt != null && startedAt[0] != 0) {
+                Tracer.phase(TracePhase.LOCK_WAIT, queuedAt, startedAt[0]);
+                Tracer.phaseEnd(TracePhase.MUTATE, startedAt[0]);
+            }
+        }
+    }
+
+    /**
+     * Parks the threads of the given partitions, one after the other, and runs the work on the calling thread while
+     * they wait. Parking in ascending order means two callers never wait for a partition the other one parked.
+     *
+     * @param parkOrder distinct partition indexes in ascending order, only the first {@code count} are used
+     */
+    private <T> T callParked(final int[] parkOrder, final int count, final Supplier<T> work) {
+        final long parkWaitStart = Tracer.phaseStart();
+        long mutateStart = 0;
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < count; i++) {
+                final CountDownLatch parked = new CountDownLatch(1);
+                partitions[parkOrder[i]].executor.execute(() -> {
+                    parked.countDown();
+                    awaitUninterruptibly(release);
+                });
+                awaitUninterruptibly(parked);
+            }
+            mutateStart = Tracer.phaseEnd(TracePhase.LOCK_WAIT, parkWaitStart);
+            return work.get();
+        } finally {
+            release.countDown();
+            Tracer.phaseEnd(TracePhase.MUTATE, mutateStart);
+        }
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Partition {
+
+        private final int index;
+        /**
+         * Only used by the partition's thread, or by a caller while the thread is parked
+         */
+        private final AccountStore accounts;
+        private final ExecutorService executor;
+        private final Map<Long, HoldEntry> holds = new HashMap<>();
+        private final TimingWheel<HoldEntry> holdExpiry;
+        /**
+         * Transfers debited from the partition's accounts and not settled yet, by source account number
+         */
+        private final Map<String, List<InFlightTransfer>> inFlight = new HashMap<>();
+        /**
+         * Pre-images of the accounts changed since the export cut, null when the partition is not being exported
+         */
+        private Map<String, AccountEntity> preImages;
+        /**
+         * Amounts in flight at the export cut, null when the partition is not being exported
+         */
+        private Map<String, BigDecimal> inFlightAtCut;
+
+        private Partition(final int index, final AccountStore accounts, final long holdTick) {
+            this.index = index;
+            this.accounts = accounts;
+            this.holdExpiry = new TimingWheel<>(holdTick);
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "account-partition-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class InFlightTransfer {
+
+        private final BigDecimal amount;
+        /**
+         * Set by the target's thread together with the deposit, from then on the amount is counted in the target
+         */
+        private boolean credited;
+
+        private InFlightTransfer(final BigDecimal amount) {
+            this.amount = amount;
+        }
+    }
+
+    private static final class HoldEntry {
+
+        private final long id;
+        private final String accountNumber;
+        private final BigDecimal amount;
+        private final long expiresAt;
+        private Timeout<HoldEntry> timeout;
+
+        private HoldEntry(final long id, final String accountNumber, final BigDecimal amount, final long expiresAt) {
+            this.id = id;
+            this.accountNumber = accountNumber;
+            this.amount = amount;
+            this.expiresAt = expiresAt;
+        }
+
+        private Hold toHold() {
+            return Hold.builder()
+                .id(id)
+                .accountNumber(accountNumber)
+                .amount(amount)
+                .expiresAt(expiresAt)
+                .build();
+        }
+    }
+}
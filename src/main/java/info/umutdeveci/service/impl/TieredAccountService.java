@@ -0,0 +1,64 @@
+package info.umutdeveci.service.impl;
+
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.model.StorageStats;
+import info.umutdeveci.service.store.MappedAccountFile;
+import info.umutdeveci.service.store.TierMetrics;
+import info.umutdeveci.service.store.TieredAccountStore;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import lombok.NonNull;
+
+/**
+ * Keeps only the recently used accounts on heap, every account is in a memory-mapped file. Each segment has a
+ * {@link TieredAccountStore} over its own region of the file, so tier lookups happen under the segment lock like every
+ * other access. Heap use is bounded by the hot capacity rather than by the number of accounts, hence the balance index
+ * is not kept and range queries scan all accounts.
+ */
+public class TieredAccountService extends InMemoryAccountService implements Closeable {
+
+    private final MappedAccountFile file;
+    private final TierMetrics metrics;
+
+    /**
+     * @param hotCapacity  accounts kept on heap in total, split evenly between the segments
+     * @param coldCapacity accounts the file can hold in total
+     */
+    public TieredAccountService(@NonNull final List<AccountEntity> accountEntities,
+        @NonNull final AccountEventBus eventBus, final int segmentCount, final int hotCapacity, final long coldCapacity,
+        @NonNull final Path file) throws IOException {
+        this(accountEntities, eventBus, segmentCount, Math.max(1, hotCapacity / segmentCount),
+            new MappedAccountFile(file, segmentCount, Math.max(coldCapacity, accountEntities.size())));
+    }
+
+    private TieredAccountService(final List<AccountEntity> accountEntities, final AccountEventBus eventBus,
+        final int segmentCount, final int hotCapacityPerSegment, final MappedAccountFile file) {
+        this(accountEntities, eventBus, segmentCount, hotCapacityPerSegment, file,
+            new TierMetrics((long) hotCapacityPerSegment * segmentCount));
+    }
+
+    private TieredAccountService(final List<AccountEntity> accountEntities, final AccountEventBus eventBus,
+        final int segmentCount, final int hotCapacityPerSegment, final MappedAccountFile file,
+        final TierMetrics metrics) {
+        super(accountEntities, eventBus, segmentCount,
+            segment -> new TieredAccountStore(file.region(segment), metrics, hotCapacityPerSegment), false);
+        this.file = file;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public StorageStats getStorageStats() {
+        return metrics.toStats();
+    }
+
+    /**
+     * Deletes the file, the service should not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
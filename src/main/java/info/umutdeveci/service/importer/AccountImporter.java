@@ -0,0 +1,242 @@
+package info.umutdeveci.service.importer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.model.ImportResult;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Streams accounts from a CSV or NDJSON source into an {@link AccountService}. The calling thread only splits the
+ * input into batches of lines; parsing, validation and insertion of each batch happen on a worker pool. The number of
+ * batches in flight is bounded, so the memory used by an import does not depend on the size of the input, only on
+ * batch size and parallelism.
+ */
+@Slf4j
+public class AccountImporter {
+
+    private static final int DEFAULT_BATCH_SIZE = 10_000;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final String CSV_HEADER_PREFIX = "account_number";
+
+    private final AccountService accountService;
+    private final ObjectReader recordReader;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int batchSize;
+
+    public AccountImporter(@NonNull final AccountService accountService, @NonNull final ObjectMapper mapper) {
+        this(accountService, mapper, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    public AccountImporter(@NonNull final AccountService accountService, @NonNull final ObjectMapper mapper,
+        final int parallelism, final int batchSize) {
+        this.accountService = accountService;
+        this.recordReader = mapper.readerFor(ImportRecord.class);
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            final Thread thread = new Thread(runnable, "account-import-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ImportResult importAccounts(@NonNull final InputStream inputStream, @NonNull final ImportFormat format) {
+        final ImportProgress progress = new ImportProgress();
+        final int maxBatchesInFlight = parallelism * 2;
+        final Semaphore batchesInFlight = new Semaphore(maxBatchesInFlight);
+
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(inputStream, StandardCharsets.UTF_8), 1 << 16)) {
+
+            long lineNumber = 0;
+            long batchFirstLine = 1;
+            List<String> lines = new ArrayList<>(batchSize);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber == 1 && format == ImportFormat.CSV && line.trim().startsWith(CSV_HEADER_PREFIX)) {
+                    batchFirstLine = 2;
+                    continue;
+                }
+
+                lines.add(line);
+                if (lines.size() == batchSize) {
+                    submitBatch(lines, batchFirstLine, format, progress, batchesInFlight);
+                    lines = new ArrayList<>(batchSize);
+                    batchFirstLine = lineNumber + 1;
+                }
+            }
+
+            if (!lines.isEmpty()) {
+                submitBatch(lines, batchFirstLine, format, progress, batchesInFlight);
+            }
+
+            // Every batch releases its permit when done, so getting all of them back means the import is complete
+            batchesInFlight.acquire(maxBatchesInFlight);
+            batchesInFlight.release(maxBatchesInFlight);
+        } catch (IOException e) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Could not read import source", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Problem(HttpStatus.SERVICE_UNAVAILABLE_503, "Import was interrupted", e);
+        }
+
+        return progress.toResult();
+    }
+
+    private void submitBatch(final List<String> lines, final long firstLineNumber, final ImportFormat format,
+        final ImportProgress progress, final Semaphore batchesInFlight) throws InterruptedException {
+        batchesInFlight.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    processBatch(lines, firstLineNumber, format, progress);
+                } catch (Exception e) {
+                    // The lines of the batch were counted as they were processed, only the error is reported
+                    log.error("Import batch starting at line {} failed", firstLineNumber, e);
+                    progress.reject(firstLineNumber, "batch failed: " + e.getMessage(), 0);
+                } finally {
+                    batchesInFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            batchesInFlight.release();
+            throw e;
+        }
+    }
+
+    private void processBatch(final List<String> lines, final long firstLineNumber, final ImportFormat format,
+        final ImportProgress progress) {
+        final List<AccountEntity> accountEntities = new ArrayList<>(lines.size());
+
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i);
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            final long lineNumber = firstLineNumber + i;
+            try {
+                final AccountEntity accountEntity = format == ImportFormat.CSV ? parseCsv(line) : parseNdjson(line);
+                final String validationError = validate(accountEntity);
+                if (validationError == null) {
+                    accountEntities.add(accountEntity);
+                } else {
+                    progress.reject(lineNumber, validationError, 1);
+                }
+            } catch (IOException | RuntimeException e) {
+                progress.reject(lineNumber, "malformed record", 1);
+            }
+        }
+
+        if (!accountEntities.isEmpty()) {
+            final int inserted;
+            try {
+                inserted = accountService.importAccounts(accountEntities);
+            } catch (RuntimeException e) {
+                // Lines rejected above are already counted, the accounts sent are rejected as a whole
+                log.error("Import batch starting at line {} failed", firstLineNumber, e);
+                progress.reject(firstLineNumber, "batch failed: " + e.getMessage(), accountEntities.size());
+                return;
+            }
+            progress.imported.addAndGet(inserted);
+            progress.duplicates.addAndGet(accountEntities.size() - inserted);
+        }
+    }
+
+    private AccountEntity parseCsv(final String line) {
+        final int separator = line.indexOf(',');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Missing separator");
+        }
+
+        final String accountNumber = unquote(line.substring(0, separator).trim());
+        final String balance = unquote(line.substring(separator + 1).trim());
+        return new AccountEntity(accountNumber, new BigDecimal(balance));
+    }
+
+    private AccountEntity parseNdjson(final String line) throws IOException {
+        final ImportRecord record = recordReader.readValue(line);
+        return new AccountEntity(record.getAccountNumber(), record.getBalance());
+    }
+
+    private String validate(final AccountEntity accountEntity) {
+        if (StringUtils.isBlank(accountEntity.getAccountNumber())) {
+            return "account number is missing";
+        }
+        if (accountEntity.getBalance() == null) {
+            return "balance is missing";
+        }
+        if (accountEntity.getBalance().signum() < 0) {
+            return "balance can not be negative";
+        }
+        return null;
+    }
+
+    private static String unquote(final String value) {
+        if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class ImportRecord {
+
+        private String accountNumber;
+        private BigDecimal balance;
+    }
+
+    private static class ImportProgress {
+
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong duplicates = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicInteger reportedErrors = new AtomicInteger();
+        private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+        private void reject(final long lineNumber, final String reason, final int count) {
+            rejected.addAndGet(count);
+            if (reportedErrors.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+                errors.add(String.format("line %d: %s", lineNumber, reason));
+            }
+        }
+
+        private ImportResult toResult() {
+            return ImportResult.builder()
+                .imported(imported.get())
+                .duplicates(duplicates.get())
+                .rejected(rejected.get())
+                .errors(new ArrayList<>(errors))
+                .build();
+        }
+    }
+}
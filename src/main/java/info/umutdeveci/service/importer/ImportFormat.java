@@ -0,0 +1,43 @@
+package info.umutdeveci.service.importer;
+
+import info.umutdeveci.exception.Problem;
+import java.util.Locale;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Supported formats for bulk account import. Both formats are line oriented, one account per line.
+ * <ul>
+ *     <li>CSV: {@code account_number,balance}, an optional header line is ignored</li>
+ *     <li>NDJSON: {@code {"account_number": "...", "balance": 12.5}}</li>
+ * </ul>
+ */
+public enum ImportFormat {
+    CSV,
+    NDJSON;
+
+    public static ImportFormat fromContentType(final String contentType) {
+        if (contentType != null) {
+            final String normalized = contentType.toLowerCase(Locale.ROOT);
+            if (normalized.startsWith("text/csv")) {
+                return CSV;
+            }
+            if (normalized.startsWith("application/x-ndjson") || normalized.startsWith("application/ndjson")
+                || normalized.startsWith("application/jsonl")) {
+                return NDJSON;
+            }
+        }
+        throw new Problem(HttpStatus.UNSUPPORTED_MEDIA_TYPE_415,
+            "Content type should be either text/csv or application/x-ndjson");
+    }
+
+    public static ImportFormat fromFileName(final String fileName) {
+        final String normalized = fileName.toLowerCase(Locale.ROOT);
+        if (normalized.endsWith(".csv")) {
+            return CSV;
+        }
+        if (normalized.endsWith(".ndjson") || normalized.endsWith(".jsonl")) {
+            return NDJSON;
+        }
+        throw new IllegalArgumentException("Can not determine import format of " + fileName);
+    }
+}
@@ -0,0 +1,29 @@
+package info.umutdeveci.service.model;
+
+import java.math.BigDecimal;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Progress of an interest accrual run. Times are epoch milliseconds, counts include every attempt of a resumed run.
+ */
+@Data
+@Builder
+public class AccrualProgress {
+
+    private long id;
+    private BigDecimal rate;
+    private AccrualState state;
+    private int partitions;
+    private int completedPartitions;
+    private long processedAccounts;
+    private long adjustedAccounts;
+    private long startedAt;
+
+    /**
+     * Null while running
+     */
+    private Long finishedAt;
+
+    private String error;
+}
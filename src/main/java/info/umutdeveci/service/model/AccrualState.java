@@ -0,0 +1,14 @@
+package info.umutdeveci.service.model;
+
+public enum AccrualState {
+    RUNNING,
+    COMPLETED,
+    /**
+     * Stopped on request, can be resumed from its checkpoint
+     */
+    CANCELLED,
+    /**
+     * Stopped by an error, can be resumed from its checkpoint
+     */
+    FAILED
+}
@@ -0,0 +1,26 @@
+package info.umutdeveci.service.model;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Funds of an account reserved by an authorization until they are captured, released or the hold expires.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class Hold {
+
+    private long id;
+    private String accountNumber;
+    private BigDecimal amount;
+
+    /**
+     * Epoch milliseconds after which the funds are given back if the hold was not captured
+     */
+    private long expiresAt;
+}
@@ -0,0 +1,15 @@
+package info.umutdeveci.service.model;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ImportResult {
+
+    private long imported;
+    private long duplicates;
+    private long rejected;
+    private List<String> errors;
+}
@@ -0,0 +1,16 @@
+package info.umutdeveci.service.model;
+
+import info.umutdeveci.model.Account;
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class MultiTransferResult {
+
+    /**
+     * Latest state of every account involved, debited ones first, in the order of the legs
+     */
+    private List<Account> accounts;
+}
@@ -0,0 +1,28 @@
+package info.umutdeveci.service.model;
+
+import java.math.BigDecimal;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * A one-off or recurring transfer executed by the service at its due time. Times are epoch milliseconds.
+ */
+@Data
+@Builder
+public class ScheduledTransfer {
+
+    private long id;
+    private String fromAccountNumber;
+    private String toAccountNumber;
+    private BigDecimal amount;
+    private long nextExecutionAt;
+
+    /**
+     * Null for one-off transfers
+     */
+    private Long intervalSeconds;
+
+    private int executions;
+    private int failures;
+    private String lastError;
+}
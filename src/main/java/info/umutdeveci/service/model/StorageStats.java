@@ -0,0 +1,21 @@
+package info.umutdeveci.service.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Counters of a tiered account storage since it was created. Latencies are averages of the lookups each tier served.
+ */
+@Data
+@Builder
+public class StorageStats {
+
+    private long hotCapacity;
+    private long hotHits;
+    private long coldHits;
+    private long misses;
+    private long evictions;
+    private double hotHitRate;
+    private double hotLatencyMicros;
+    private double coldLatencyMicros;
+}
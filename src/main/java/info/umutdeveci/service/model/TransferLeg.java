@@ -0,0 +1,20 @@
+package info.umutdeveci.service.model;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One debit or credit of a multi-leg transfer
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransferLeg {
+
+    private String accountNumber;
+    private BigDecimal amount;
+}
@@ -0,0 +1,57 @@
+package info.umutdeveci.service.scheduler;
+
+import info.umutdeveci.service.AccountService;
+import java.io.Closeable;
+import java.time.Clock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gives back the funds of expired holds every {@code tickMillis} through {@link AccountService#expireHolds}. The
+ * service only visits the holds that are due, so a tick costs the same with a handful or millions of outstanding holds.
+ */
+@Slf4j
+public class HoldExpirer implements Closeable {
+
+    private final AccountService accountService;
+    private final Clock clock;
+    private final long tickMillis;
+
+    private ScheduledExecutorService ticker;
+
+    public HoldExpirer(@NonNull final AccountService accountService, @NonNull final Clock clock,
+        final long tickMillis) {
+        this.accountService = accountService;
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+    }
+
+    public void start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "hold-expirer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                final int expired = accountService.expireHolds(clock.millis());
+                if (expired > 0) {
+                    log.debug("Released {} expired holds", expired);
+                }
+            } catch (RuntimeException e) {
+                // An exception would cancel the scheduled task
+                log.error("Expiring holds failed", e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package info.umutdeveci.service.scheduler;
+
+import java.util.function.Consumer;
+import lombok.NonNull;
+
+/**
+ * Hierarchical hashed timing wheel. Time is counted in ticks, the unit of a tick is up to the caller.
+ *
+ * <p>Level 0 has one bucket per tick for the next 64 ticks, each further level has 64 buckets covering 64 times the
+ * range of the level below. A timeout goes to the lowest level whose range covers its delay, into the bucket picked by
+ * its absolute deadline. When time reaches the start of a higher level bucket, its timeouts are moved ("cascaded")
+ * down, so a timeout is moved at most once per level and scheduling, cancelling and expiring are all O(1) no matter
+ * how many timeouts are pending. Buckets are intrusive doubly linked lists, nothing is allocated besides the
+ * {@link Timeout} itself.
+ *
+ * <p>Not thread safe, callers synchronize.
+ */
+public class TimingWheel<T> {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    // 6 levels of 64 buckets span 2^36 ticks, e.g. more than 2000 years with 1 second ticks
+    private static final int LEVELS = 6;
+
+    private final Timeout<T>[] buckets;
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(final long startTick) {
+        this.currentTick = startTick;
+        @SuppressWarnings("unchecked")
+        final Timeout<T>[] buckets = (Timeout<T>[]) new Timeout<?>[LEVELS * WHEEL_SIZE];
+        this.buckets = buckets;
+        for (int i = 0; i < buckets.length; i++) {
+            final Timeout<T> sentinel = new Timeout<>(null, 0);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            buckets[i] = sentinel;
+        }
+    }
+
+    /**
+     * Deadlines that are not in the future expire on the next tick.
+     */
+    public Timeout<T> schedule(final long deadlineTick, @NonNull final T value) {
+        final Timeout<T> timeout = new Timeout<>(value, Math.max(deadlineTick, currentTick + 1));
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * @return false if the timeout already expired or was cancelled
+     */
+    public boolean cancel(@NonNull final Timeout<T> timeout) {
+        if (timeout.next == null) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves time forward to the given tick, handing every timeout whose deadline is reached to the consumer in
+     * deadline order. The consumer may schedule new timeouts but must not cancel any.
+     *
+     * @return number of expired timeouts
+     */
+    public int advance(final long toTick, @NonNull final Consumer<T> expired) {
+        int count = 0;
+        while (currentTick < toTick) {
+            if (size == 0) {
+                currentTick = toTick;
+                break;
+            }
+
+            currentTick++;
+            cascade();
+
+            final Timeout<T> sentinel = buckets[(int) (currentTick & WHEEL_MASK)];
+            Timeout<T> timeout = detachAll(sentinel);
+            while (timeout != null) {
+                final Timeout<T> next = timeout.next;
+                timeout.next = null;
+                timeout.prev = null;
+                size--;
+                count++;
+                expired.accept(timeout.value);
+                timeout = next;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            final int shift = WHEEL_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                break;
+            }
+
+            final int index = level * WHEEL_SIZE + (int) ((currentTick >>> shift) & WHEEL_MASK);
+            Timeout<T> timeout = detachAll(buckets[index]);
+            while (timeout != null) {
+                final Timeout<T> next = timeout.next;
+                place(timeout);
+                timeout = next;
+            }
+        }
+    }
+
+    private void place(final Timeout<T> timeout) {
+        // Cascaded timeouts may be due right now, they land in the level 0 bucket that is expired next
+        final long delay = timeout.deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+
+        final int index = level * WHEEL_SIZE + (int) ((timeout.deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        final Timeout<T> sentinel = buckets[index];
+        timeout.prev = sentinel.prev;
+        timeout.next = sentinel;
+        sentinel.prev.next = timeout;
+        sentinel.prev = timeout;
+    }
+
+    /**
+     * Empties a bucket.
+     *
+     * @return first timeout of the bucket, the rest follow through {@code next} up to a null
+     */
+    private Timeout<T> detachAll(final Timeout<T> sentinel) {
+        if (sentinel.next == sentinel) {
+            return null;
+        }
+        final Timeout<T> first = sentinel.next;
+        sentinel.prev.next = null;
+        sentinel.next = sentinel;
+        sentinel.prev = sentinel;
+        return first;
+    }
+
+    private static <T> void unlink(final Timeout<T> timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.next = null;
+        timeout.prev = null;
+    }
+
+    public static final class Timeout<T> {
+
+        private final T value;
+        private final long deadline;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(final T value, final long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+}
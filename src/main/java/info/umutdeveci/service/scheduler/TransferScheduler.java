@@ -0,0 +1,248 @@
+package info.umutdeveci.service.scheduler;
+
+import static info.umutdeveci.service.util.AccountServiceUtil.checkAmountGreaterThanZero;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.model.ScheduledTransfer;
+import info.umutdeveci.service.scheduler.TimingWheel.Timeout;
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Executes one-off and recurring transfers at their due time. Pending transfers are kept in a {@link TimingWheel}
+ * ticking every {@code tickMillis}, so a transfer runs within one tick after it is due, never before.
+ *
+ * <p>Due transfers are taken out of the wheel under the scheduler lock and executed through
+ * {@link AccountService#transfer} in batches outside of it, so scheduling and cancelling never wait for transfers.
+ * A failing execution, e.g. because of insufficient balance, is recorded on the transfer. Recurring transfers are
+ * rescheduled one interval after their previous due time, not after the execution, so they do not drift; a transfer
+ * that fell behind catches up one execution per tick.
+ *
+ * <p>Time comes from the given {@link Clock} and {@link #runDue()} can be called directly, so tests can drive the
+ * scheduler without waiting.
+ */
+@Slf4j
+public class TransferScheduler implements Closeable {
+
+    private final AccountService accountService;
+    private final Clock clock;
+    private final long tickMillis;
+    private final int batchSize;
+
+    private final Lock lock = new ReentrantLock();
+    private final TimingWheel<Entry> wheel;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private long lastId;
+
+    private ScheduledExecutorService ticker;
+
+    public TransferScheduler(@NonNull final AccountService accountService, @NonNull final Clock clock,
+        final long tickMillis, final int batchSize) {
+        this.accountService = accountService;
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+        this.batchSize = batchSize;
+        this.wheel = new TimingWheel<>(Math.floorDiv(clock.millis(), tickMillis));
+    }
+
+    public void start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "transfer-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                runDue();
+            } catch (RuntimeException e) {
+                // An exception would cancel the scheduled task
+                log.error("Running due transfers failed", e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * @param executeAt       epoch millis of the first execution, a time in the past executes on the next tick
+     * @param intervalSeconds interval of a recurring transfer, null for a one-off transfer
+     */
+    public ScheduledTransfer schedule(@NonNull final String fromAccountNumber, @NonNull final String toAccountNumber,
+        @NonNull final BigDecimal amount, final long executeAt, final Long intervalSeconds) {
+        if (StringUtils.isEmpty(fromAccountNumber) || StringUtils.isEmpty(toAccountNumber)) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "From and to accounts are required");
+        }
+        if (fromAccountNumber.equalsIgnoreCase(toAccountNumber)) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Can not transfer between same accounts");
+        }
+        checkAmountGreaterThanZero(amount);
+        if (intervalSeconds != null && intervalSeconds <= 0) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Interval should be at least one second");
+        }
+
+        return doWithLock(() -> {
+            final Entry entry = new Entry(++lastId, fromAccountNumber, toAccountNumber, amount, executeAt,
+                intervalSeconds);
+            entries.put(entry.id, entry);
+            entry.timeout = wheel.schedule(deadlineTick(executeAt), entry);
+            return entry.toScheduledTransfer();
+        });
+    }
+
+    public ScheduledTransfer get(final long id) {
+        return doWithLock(() -> getInternal(id).toScheduledTransfer());
+    }
+
+    /**
+     * A transfer that is already being executed is not stopped, but a recurring one is not rescheduled afterwards.
+     */
+    public void cancel(final long id) {
+        doWithLock(() -> {
+            final Entry entry = getInternal(id);
+            entries.remove(id);
+            if (entry.timeout != null) {
+                wheel.cancel(entry.timeout);
+            }
+            return null;
+        });
+    }
+
+    public int size() {
+        return doWithLock(entries::size);
+    }
+
+    /**
+     * Executes every transfer that is due according to the clock.
+     *
+     * @return number of executed transfers, failed ones included
+     */
+    public int runDue() {
+        final List<Entry> due = new ArrayList<>();
+        doWithLock(() -> wheel.advance(Math.floorDiv(clock.millis(), tickMillis), entry -> {
+            entry.timeout = null;
+            due.add(entry);
+        }));
+
+        for (int start = 0; start < due.size(); start += batchSize) {
+            executeBatch(due.subList(start, Math.min(start + batchSize, due.size())));
+        }
+        return due.size();
+    }
+
+    private void executeBatch(final List<Entry> batch) {
+        final String[] errors = new String[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            final Entry entry = batch.get(i);
+            try {
+                accountService.transfer(entry.fromAccountNumber, entry.toAccountNumber, entry.amount);
+            } catch (Problem problem) {
+                errors[i] = problem.getMessage();
+            } catch (RuntimeException e) {
+                log.error("Scheduled transfer {} failed", entry.id, e);
+                errors[i] = e.toString();
+            }
+        }
+
+        doWithLock(() -> {
+            for (int i = 0; i < batch.size(); i++) {
+                final Entry entry = batch.get(i);
+                entry.executions++;
+                if (errors[i] != null) {
+                    entry.failures++;
+                    entry.lastError = errors[i];
+                }
+
+                if (entry.intervalSeconds == null) {
+                    entries.remove(entry.id);
+                } else if (entries.containsKey(entry.id)) {
+                    entry.nextExecutionAt += TimeUnit.SECONDS.toMillis(entry.intervalSeconds);
+                    entry.timeout = wheel.schedule(deadlineTick(entry.nextExecutionAt), entry);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Rounds up, so a transfer never runs before its time
+     */
+    private long deadlineTick(final long epochMillis) {
+        return Math.floorDiv(epochMillis, tickMillis) + (Math.floorMod(epochMillis, tickMillis) == 0 ? 0 : 1);
+    }
+
+    private Entry getInternal(final long id) {
+        final Entry entry = entries.get(id);
+        if (entry == null) {
+            throw new Problem(HttpStatus.NOT_FOUND_404, String.format("Scheduled transfer %d does not exist.", id));
+        }
+        return entry;
+    }
+
+    private <T> T doWithLock(final Supplier<T> supplier) {
+        try {
+            lock.lock();
+            return supplier.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+
+        private final long id;
+        private final String fromAccountNumber;
+        private final String toAccountNumber;
+        private final BigDecimal amount;
+        private final Long intervalSeconds;
+        private long nextExecutionAt;
+        private int executions;
+        private int failures;
+        private String lastError;
+        private Timeout<Entry> timeout;
+
+        private Entry(final long id, final String fromAccountNumber, final String toAccountNumber,
+            final BigDecimal amount, final long nextExecutionAt, final Long intervalSeconds) {
+            this.id = id;
+            this.fromAccountNumber = fromAccountNumber;
+            this.toAccountNumber = toAccountNumber;
+            this.amount = amount;
+            this.nextExecutionAt = nextExecutionAt;
+            this.intervalSeconds = intervalSeconds;
+        }
+
+        private ScheduledTransfer toScheduledTransfer() {
+            return ScheduledTransfer.builder()
+                .id(id)
+                .fromAccountNumber(fromAccountNumber)
+                .toAccountNumber(toAccountNumber)
+                .amount(amount)
+                .nextExecutionAt(nextExecutionAt)
+                .intervalSeconds(intervalSeconds)
+                .executions(executions)
+                .failures(failures)
+                .lastError(lastError)
+                .build();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package info.umutdeveci.service.store;
+
+import info.umutdeveci.service.entity.AccountEntity;
+import java.math.BigDecimal;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the accounts of one segment of {@link info.umutdeveci.service.impl.InMemoryAccountService}. A store is only
+ * used with the lock of its segment held, so implementations need no synchronization of their own.
+ */
+public interface AccountStore {
+
+    /**
+     * @return the account, null if it does not exist
+     */
+    AccountEntity get(String accountNumber);
+
+    /**
+     * @return false if an account with the same number exists, nothing is changed then
+     */
+    boolean insert(AccountEntity entity);
+
+    /**
+     * Changes the balance, held funds and version of an entity returned by {@link #get}. Nothing is changed if this
+     * throws.
+     */
+    void update(AccountEntity entity, BigDecimal balance, BigDecimal held, long version);
+
+    /**
+     * Removes the account, its number can be inserted again afterwards.
+     *
+     * @return false if the account does not exist
+     */
+    boolean remove(String accountNumber);
+
+    /**
+     * Visits every account. The entities may be transient copies, they should not be changed or kept.
+     */
+    void forEach(Consumer<AccountEntity> action);
+
+    int size();
+}
@@ -0,0 +1,52 @@
+package info.umutdeveci.service.store;
+
+import info.umutdeveci.service.entity.AccountEntity;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps every account on heap in a plain HashMap, the given entities themselves are stored.
+ */
+public class HeapAccountStore implements AccountStore {
+
+    private final Map<String, AccountEntity> accounts;
+
+    public HeapAccountStore(final int expectedSize) {
+        this.accounts = new HashMap<>(expectedSize * 4 / 3 + 1);
+    }
+
+    @Override
+    public AccountEntity get(final String accountNumber) {
+        return accounts.get(accountNumber);
+    }
+
+    @Override
+    public boolean insert(final AccountEntity entity) {
+        return accounts.putIfAbsent(entity.getAccountNumber(), entity) == null;
+    }
+
+    @Override
+    public void update(final AccountEntity entity, final BigDecimal balance, final BigDecimal held,
+        final long version) {
+        entity.setBalance(balance);
+        entity.setHeld(held);
+        entity.setVersion(version);
+    }
+
+    @Override
+    public boolean remove(final String accountNumber) {
+        return accounts.remove(accountNumber) != null;
+    }
+
+    @Override
+    public void forEach(final Consumer<AccountEntity> action) {
+        accounts.values().forEach(action);
+    }
+
+    @Override
+    public int size() {
+        return accounts.size();
+    }
+}
@@ -0,0 +1,297 @@
+package info.umutdeveci.service.store;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.entity.AccountEntity;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Cold tier of {@link TieredAccountStore}: an open addressing hash file, memory-mapped so the operating system decides
+ * which pages stay in RAM. The file is split into one region per segment, each mapped on its own and only used with the
+ * segment lock held. Every slot has a fixed size.
+ *
+ * <pre>
+ * slot := state:int8 keyLength:int8 scale:int8 heldScale:int8 padding:4 unscaled:int64 version:int64
+ *         heldUnscaled:int64 key:bytes(UTF-8, 56)
+ * </pre>
+ *
+ * Regions are sized for the given capacity at a load factor of 0.75 and do not grow, inserting beyond that is rejected
+ * with 507. A removed account leaves a tombstone, so the probe sequences running over its slot stay intact; inserts
+ * reuse tombstones, and when accounts and tombstones together fill seven eighths of a region it is rehashed in place,
+ * which holds up one segment for as long as it takes to rewrite one region. The file is a spill area rather than durable
+ * storage: it is truncated when opened and deleted when closed.
+ */
+public class MappedAccountFile implements Closeable {
+
+    public static final int SLOT_SIZE = 88;
+    public static final int MAX_KEY_BYTES = 56;
+
+    private static final double LOAD_FACTOR = 0.75;
+    private static final int MIN_SLOTS = 8;
+    private static final int STATE = 0;
+    private static final int KEY_LENGTH = 1;
+    private static final int SCALE = 2;
+    private static final int HELD_SCALE = 3;
+    private static final int UNSCALED = 8;
+    private static final int VERSION = 16;
+    private static final int HELD_UNSCALED = 24;
+    private static final int KEY = 32;
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte REMOVED = 2;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Region[] regions;
+
+    /**
+     * @param capacity number of accounts the file should hold in total
+     */
+    public MappedAccountFile(final Path path, final int regionCount, final long capacity) throws IOException {
+        final long minSlots = Math.max(MIN_SLOTS, (long) Math.ceil(capacity / (double) regionCount / LOAD_FACTOR));
+        final long slots = Long.highestOneBit(minSlots - 1) << 1;
+        if (slots * SLOT_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A region of " + slots + " slots does not fit one mapping, use more "
+                + "segments for a capacity of " + capacity);
+        }
+
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.regions = new Region[regionCount];
+        final long regionBytes = slots * SLOT_SIZE;
+        for (int i = 0; i < regionCount; i++) {
+            regions[i] = new Region(channel.map(MapMode.READ_WRITE, i * regionBytes, regionBytes), (int) slots);
+        }
+    }
+
+    public Region region(final int index) {
+        return regions[index];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * The slots of one segment. Slot numbers are stable until the region is rehashed, so callers can remember where an
+     * account is as long as {@link #getRehashes()} does not change.
+     */
+    public static final class Region {
+
+        private final MappedByteBuffer buffer;
+        private final int slots;
+        private final int shift;
+        private final int maxSize;
+        /**
+         * Half of the slots above the load factor are left for tombstones, so a rehash drops at least that many
+         */
+        private final int maxOccupied;
+        private int size;
+        /**
+         * Used slots and tombstones, at least one slot is always empty so every probe sequence ends
+         */
+        private int occupied;
+        private int rehashes;
+
+        private Region(final MappedByteBuffer buffer, final int slots) {
+            this.buffer = buffer;
+            this.slots = slots;
+            this.shift = Integer.SIZE - Integer.numberOfTrailingZeros(slots);
+            this.maxSize = (int) (slots * LOAD_FACTOR);
+            this.maxOccupied = maxSize + (slots - maxSize) / 2;
+        }
+
+        /**
+         * @return slot of the account, -1 if it is not in the file
+         */
+        public int find(final String accountNumber) {
+            final byte[] key = accountNumber.getBytes(StandardCharsets.UTF_8);
+            if (key.length > MAX_KEY_BYTES) {
+                return -1;
+            }
+            for (int slot = home(accountNumber); ; slot = (slot + 1) & (slots - 1)) {
+                final int offset = slot * SLOT_SIZE;
+                final byte state = buffer.get(offset + STATE);
+                if (state == EMPTY) {
+                    return -1;
+                }
+                if (state == USED && keyEquals(offset, key)) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * The account should not be in the file yet. The first free slot of its probe sequence is taken, a tombstone
+         * included; the region is rehashed first when that slot is empty and the region is too full to give it up.
+         *
+         * @return slot the account is written to
+         */
+        public int insert(final AccountEntity entity) {
+            final byte[] key = encodeKey(entity.getAccountNumber());
+            if (size >= maxSize) {
+                throw new Problem(HttpStatus.INSUFFICIENT_STORAGE_507, "Account file is full");
+            }
+            checkStorable(entity.getBalance());
+            checkStorable(entity.getHeld());
+
+            int slot = freeSlot(entity.getAccountNumber());
+            if (buffer.get(slot * SLOT_SIZE + STATE) == EMPTY && occupied >= maxOccupied) {
+                rehash();
+                slot = freeSlot(entity.getAccountNumber());
+            }
+            place(slot, key, entity);
+            return slot;
+        }
+
+        /**
+         * Leaves a tombstone in the slot. Tombstones right before an empty slot are not on the way to any account, so
+         * they are emptied at once.
+         */
+        public void remove(final int slot) {
+            buffer.put(slot * SLOT_SIZE + STATE, REMOVED);
+            size--;
+            if (buffer.get(((slot + 1) & (slots - 1)) * SLOT_SIZE + STATE) != EMPTY) {
+                return;
+            }
+            for (int current = slot; buffer.get(current * SLOT_SIZE + STATE) == REMOVED;
+                current = (current - 1) & (slots - 1)) {
+                buffer.put(current * SLOT_SIZE + STATE, EMPTY);
+                occupied--;
+            }
+        }
+
+        private int freeSlot(final String accountNumber) {
+            int slot = home(accountNumber);
+            while (buffer.get(slot * SLOT_SIZE + STATE) == USED) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            return slot;
+        }
+
+        /**
+         * Drops the tombstones by inserting every account again, slot numbers change
+         */
+        private void rehash() {
+            final List<AccountEntity> accounts = new ArrayList<>(size);
+            forEach(accounts::add);
+            for (int slot = 0; slot < slots; slot++) {
+                buffer.put(slot * SLOT_SIZE + STATE, EMPTY);
+            }
+            size = 0;
+            occupied = 0;
+            for (final AccountEntity account : accounts) {
+                place(freeSlot(account.getAccountNumber()), encodeKey(account.getAccountNumber()), account);
+            }
+            rehashes++;
+        }
+
+        private void place(final int slot, final byte[] key, final AccountEntity entity) {
+            final int offset = slot * SLOT_SIZE;
+            buffer.put(offset + KEY_LENGTH, (byte) key.length);
+            for (int i = 0; i < key.length; i++) {
+                buffer.put(offset + KEY + i, key[i]);
+            }
+            write(slot, entity.getBalance(), entity.getHeld(), entity.getVersion());
+            if (buffer.get(offset + STATE) == EMPTY) {
+                occupied++;
+            }
+            buffer.put(offset + STATE, USED);
+            size++;
+        }
+
+        public void write(final int slot, final BigDecimal balance, final BigDecimal held, final long version) {
+            checkStorable(balance);
+            checkStorable(held);
+            final int offset = slot * SLOT_SIZE;
+            buffer.put(offset + SCALE, (byte) balance.scale());
+            buffer.putLong(offset + UNSCALED, balance.unscaledValue().longValue());
+            buffer.putLong(offset + VERSION, version);
+            buffer.put(offset + HELD_SCALE, (byte) held.scale());
+            buffer.putLong(offset + HELD_UNSCALED, held.unscaledValue().longValue());
+        }
+
+        public AccountEntity read(final int slot) {
+            final int offset = slot * SLOT_SIZE;
+            final byte[] key = new byte[buffer.get(offset + KEY_LENGTH)];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = buffer.get(offset + KEY + i);
+            }
+            return new AccountEntity(new String(key, StandardCharsets.UTF_8),
+                BigDecimal.valueOf(buffer.getLong(offset + UNSCALED), buffer.get(offset + SCALE)),
+                buffer.getLong(offset + VERSION),
+                BigDecimal.valueOf(buffer.getLong(offset + HELD_UNSCALED), buffer.get(offset + HELD_SCALE)));
+        }
+
+        public void forEach(final Consumer<AccountEntity> action) {
+            for (int slot = 0; slot < slots; slot++) {
+                if (buffer.get(slot * SLOT_SIZE + STATE) == USED) {
+                    action.accept(read(slot));
+                }
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return number of times the region was rehashed, slots found before a change are no longer valid
+         */
+        public int getRehashes() {
+            return rehashes;
+        }
+
+        /**
+         * Fibonacci hashing takes the high bits, the segment was picked with the low bits of the same hash code
+         */
+        private int home(final String accountNumber) {
+            return (accountNumber.hashCode() * 0x9E3779B9) >>> shift;
+        }
+
+        private boolean keyEquals(final int offset, final byte[] key) {
+            if (buffer.get(offset + KEY_LENGTH) != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (buffer.get(offset + KEY + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static byte[] encodeKey(final String accountNumber) {
+            final byte[] key = accountNumber.getBytes(StandardCharsets.UTF_8);
+            if (key.length > MAX_KEY_BYTES) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400,
+                    String.format("Account number %s is longer than %d bytes", accountNumber, MAX_KEY_BYTES));
+            }
+            return key;
+        }
+
+        private static void checkStorable(final BigDecimal balance) {
+            final BigInteger unscaled = balance.unscaledValue();
+            if (unscaled.bitLength() >= Long.SIZE || balance.scale() < Byte.MIN_VALUE
+                || balance.scale() > Byte.MAX_VALUE) {
+                throw new Problem(HttpStatus.BAD_REQUEST_400, String.format("Balance %s can not be stored", balance));
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package info.umutdeveci.service.store;
+
+import info.umutdeveci.service.model.StorageStats;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared by the stores of every segment, so counters are striped instead of being contended by all segments.
+ */
+public class TierMetrics {
+
+    private final long hotCapacity;
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder hotNanos = new LongAdder();
+    private final LongAdder coldHits = new LongAdder();
+    private final LongAdder coldNanos = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TierMetrics(final long hotCapacity) {
+        this.hotCapacity = hotCapacity;
+    }
+
+    void hotHit(final long nanos) {
+        hotHits.increment();
+        hotNanos.add(nanos);
+    }
+
+    void coldHit(final long nanos) {
+        coldHits.increment();
+        coldNanos.add(nanos);
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void eviction() {
+        evictions.increment();
+    }
+
+    public StorageStats toStats() {
+        final long hot = hotHits.sum();
+        final long cold = coldHits.sum();
+        return StorageStats.builder()
+            .hotCapacity(hotCapacity)
+            .hotHits(hot)
+            .coldHits(cold)
+            .misses(misses.sum())
+            .evictions(evictions.sum())
+            .hotHitRate(hot + cold == 0 ? 0 : hot / (double) (hot + cold))
+            .hotLatencyMicros(hot == 0 ? 0 : hotNanos.sum() / 1000.0 / hot)
+            .coldLatencyMicros(cold == 0 ? 0 : coldNanos.sum() / 1000.0 / cold)
+            .build();
+    }
+}
@@ -0,0 +1,158 @@
+package info.umutdeveci.service.store;
+
+import info.umutdeveci.service.entity.AccountEntity;
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps every account in a region of a {@link MappedAccountFile} and the recently used ones on heap as well. Changes
+ * are written through to the file, so the hot tier never holds the only copy of an account and evicting one is free.
+ *
+ * <p>The hot tier is a segmented LRU. An account read from the file enters the probationary part and moves to the
+ * protected part when it is read again; the protected part, four fifths of the hot tier at most, pushes its least recently
+ * used accounts back to probation. Only probation is evicted from, so accounts read once, e.g. by a scan over many
+ * cold accounts, can not push out the ones that are used again and again. Imports and {@link #forEach} go to the
+ * file directly and do not touch the hot tier at all.
+ */
+public class TieredAccountStore implements AccountStore {
+
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final MappedAccountFile.Region cold;
+    private final TierMetrics metrics;
+    private final int capacity;
+    private final int protectedCapacity;
+    private final LinkedHashMap<String, HotEntry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, HotEntry> protectedEntries = new LinkedHashMap<>();
+
+    /**
+     * @param capacity number of accounts kept on heap, at least one
+     */
+    public TieredAccountStore(final MappedAccountFile.Region cold, final TierMetrics metrics, final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Hot tier capacity should be positive, got " + capacity);
+        }
+        this.cold = cold;
+        this.metrics = metrics;
+        this.capacity = capacity;
+        this.protectedCapacity = capacity * PROTECTED_PERCENT / 100;
+    }
+
+    @Override
+    public AccountEntity get(final String accountNumber) {
+        final long start = System.nanoTime();
+        HotEntry entry = protectedEntries.remove(accountNumber);
+        if (entry == null) {
+            entry = probation.remove(accountNumber);
+        }
+        if (entry != null) {
+            promote(accountNumber, entry);
+            metrics.hotHit(System.nanoTime() - start);
+            return entry.entity;
+        }
+
+        final int slot = cold.find(accountNumber);
+        if (slot < 0) {
+            metrics.miss();
+            return null;
+        }
+        entry = new HotEntry(cold.read(slot), slot);
+        probation.put(accountNumber, entry);
+        evictIfFull();
+        metrics.coldHit(System.nanoTime() - start);
+        return entry.entity;
+    }
+
+    /**
+     * The hot tier is dropped when the insert rehashes the region, since the slots it remembers moved.
+     */
+    @Override
+    public boolean insert(final AccountEntity entity) {
+        if (cold.find(entity.getAccountNumber()) >= 0) {
+            return false;
+        }
+        final int rehashes = cold.getRehashes();
+        cold.insert(entity);
+        if (cold.getRehashes() != rehashes) {
+            probation.clear();
+            protectedEntries.clear();
+        }
+        return true;
+    }
+
+    /**
+     * The entity may have been evicted in the meantime, e.g. by loading the other account of a transfer in the same
+     * segment. Its slot is looked up again then.
+     */
+    @Override
+    public void update(final AccountEntity entity, final BigDecimal balance, final BigDecimal held,
+        final long version) {
+        HotEntry entry = protectedEntries.get(entity.getAccountNumber());
+        if (entry == null) {
+            entry = probation.get(entity.getAccountNumber());
+        }
+        final int slot = entry != null ? entry.slot : cold.find(entity.getAccountNumber());
+        cold.write(slot, balance, held, version);
+        entity.setBalance(balance);
+        entity.setHeld(held);
+        entity.setVersion(version);
+    }
+
+    @Override
+    public boolean remove(final String accountNumber) {
+        HotEntry entry = protectedEntries.remove(accountNumber);
+        if (entry == null) {
+            entry = probation.remove(accountNumber);
+        }
+        final int slot = entry != null ? entry.slot : cold.find(accountNumber);
+        if (slot < 0) {
+            return false;
+        }
+        cold.remove(slot);
+        return true;
+    }
+
+    @Override
+    public void forEach(final Consumer<AccountEntity> action) {
+        cold.forEach(action);
+    }
+
+    @Override
+    public int size() {
+        return cold.size();
+    }
+
+    private void promote(final String accountNumber, final HotEntry entry) {
+        protectedEntries.put(accountNumber, entry);
+        if (protectedEntries.size() > protectedCapacity) {
+            final Iterator<Map.Entry<String, HotEntry>> eldest = protectedEntries.entrySet().iterator();
+            final Map.Entry<String, HotEntry> demoted = eldest.next();
+            eldest.remove();
+            probation.put(demoted.getKey(), demoted.getValue());
+            evictIfFull();
+        }
+    }
+
+    private void evictIfFull() {
+        while (probation.size() + protectedEntries.size() > capacity) {
+            final Iterator<HotEntry> eldest = (probation.isEmpty() ? protectedEntries : probation).values().iterator();
+            eldest.next();
+            eldest.remove();
+            metrics.eviction();
+        }
+    }
+
+    private static final class HotEntry {
+
+        private final AccountEntity entity;
+        private final int slot;
+
+        private HotEntry(final AccountEntity entity, final int slot) {
+            this.entity = entity;
+            this.slot = slot;
+        }
+    }
+}
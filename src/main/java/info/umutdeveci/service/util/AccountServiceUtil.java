@@ -3,7 +3,11 @@ package info.umutdeveci.service.util;
 import info.umutdeveci.exception.Problem;
 import info.umutdeveci.model.Account;
 import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.model.TransferLeg;
 import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.eclipse.jetty.http.HttpStatus;
 
 public class AccountServiceUtil {
@@ -16,12 +20,88 @@ public class AccountServiceUtil {
         return Account.builder()
             .accountNumber(entity.getAccountNumber())
             .balance(entity.getBalance()) // BigDecimal is immutable
+            .version(entity.getVersion())
+            .availableBalance(entity.getHeld().signum() == 0 ? null : entity.getAvailableBalance())
             .build();
     }
 
+    /**
+     * Should be called with the lock that guards the entity held, so the check and the following write are one
+     * compare-and-set.
+     */
+    public static void checkVersion(final AccountEntity entity, final Long expectedVersion) {
+        if (expectedVersion != null && entity.getVersion() != expectedVersion) {
+            throw new Problem(HttpStatus.PRECONDITION_FAILED_412,
+                String.format("Account %s has version %d, expected %d.", entity.getAccountNumber(),
+                    entity.getVersion(), expectedVersion));
+        }
+    }
+
     public static void checkAmountGreaterThanZero(final BigDecimal amount) {
         if (amount.compareTo(BigDecimal.ZERO) <= 0) {
             throw new Problem(HttpStatus.BAD_REQUEST_400, "Amount can not be less than or equal to zero.");
         }
     }
+
+    public static void checkOpeningBalance(final BigDecimal balance) {
+        if (balance.signum() < 0) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Opening balance can not be negative.");
+        }
+    }
+
+    /**
+     * Money is never dropped with an account, it has to be moved out first.
+     */
+    public static void checkClosable(final AccountEntity entity) {
+        if (entity.getBalance().signum() != 0) {
+            throw new Problem(HttpStatus.CONFLICT_409, String.format("Account %s has a balance of %s, only empty "
+                + "accounts can be closed.", entity.getAccountNumber(), entity.getBalance().toPlainString()));
+        }
+    }
+
+    public static Problem accountAlreadyExists(final String accountNumber) {
+        return new Problem(HttpStatus.CONFLICT_409, String.format("Account %s already exists.", accountNumber));
+    }
+
+    /**
+     * Checks the legs of a multi transfer before any account is read: both sides are present, no account appears
+     * twice, amounts are positive and debits balance credits.
+     */
+    public static void validateTransferLegs(final List<TransferLeg> debits, final List<TransferLeg> credits,
+        final int maxLegs) {
+        if (debits.isEmpty() || credits.isEmpty()) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "At least one debit and one credit is required");
+        }
+        if (debits.size() + credits.size() > maxLegs) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400,
+                String.format("A transfer can have at most %d legs", maxLegs));
+        }
+
+        final Set<String> accountNumbers = new HashSet<>();
+        BigDecimal debitTotal = BigDecimal.ZERO;
+        BigDecimal creditTotal = BigDecimal.ZERO;
+        for (final TransferLeg debit : debits) {
+            validateLeg(debit, accountNumbers);
+            debitTotal = debitTotal.add(debit.getAmount());
+        }
+        for (final TransferLeg credit : credits) {
+            validateLeg(credit, accountNumbers);
+            creditTotal = creditTotal.add(credit.getAmount());
+        }
+
+        if (debitTotal.compareTo(creditTotal) != 0) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Total of debits should be equal to total of credits");
+        }
+    }
+
+    private static void validateLeg(final TransferLeg leg, final Set<String> accountNumbers) {
+        if (leg == null || leg.getAccountNumber() == null || leg.getAmount() == null) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400, "Every leg needs an account number and an amount");
+        }
+        checkAmountGreaterThanZero(leg.getAmount());
+        if (!accountNumbers.add(leg.getAccountNumber())) {
+            throw new Problem(HttpStatus.BAD_REQUEST_400,
+                String.format("Account %s appears in more than one leg", leg.getAccountNumber()));
+        }
+    }
 }
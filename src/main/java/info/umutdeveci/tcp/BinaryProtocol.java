@@ -0,0 +1,109 @@
+package info.umutdeveci.tcp;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format of the binary account protocol. All numbers are big endian.
+ *
+ * <pre>
+ * request  := length:int32 correlationId:int64 opcode:int8 payload
+ * response := length:int32 correlationId:int64 status:int16 payload
+ *
+ * GET      payload := account
+ * WITHDRAW payload := account amount
+ * DEPOSIT  payload := account amount
+ * TRANSFER payload := fromAccount toAccount amount
+ *
+ * OK response payload    := (account balance:amount)+   one record, two for TRANSFER (from, to)
+ * error response payload := message:string
+ *
+ * account, string := length:int16 bytes(UTF-8)
+ * amount          := unscaled:int64 scale:int8
+ * </pre>
+ *
+ * The length prefix counts the bytes following it. Status codes are the http codes the REST API would return, so the
+ * two APIs report errors the same way. Requests can be pipelined, responses carry the correlation id of their request
+ * and are returned in request order per connection.
+ */
+public final class BinaryProtocol {
+
+    public static final byte OP_GET = 1;
+    public static final byte OP_WITHDRAW = 2;
+    public static final byte OP_DEPOSIT = 3;
+    public static final byte OP_TRANSFER = 4;
+
+    public static final short STATUS_OK = 200;
+
+    public static final int LENGTH_FIELD_SIZE = Integer.BYTES;
+    public static final int REQUEST_HEADER_SIZE = Long.BYTES + Byte.BYTES;
+    public static final int MAX_STRING_LENGTH = 255;
+    public static final int MAX_FRAME_SIZE = 1024;
+    public static final int MAX_RESPONSE_SIZE = 1024;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Account numbers are ASCII in practice, so they are decoded through a reusable scratch array. The only
+     * allocation left is the String itself, which the {@link info.umutdeveci.service.AccountService} API requires.
+     */
+    public static String readString(final ByteBuffer buffer, final byte[] scratch) {
+        final int length = Short.toUnsignedInt(buffer.getShort());
+        if (length > MAX_STRING_LENGTH) {
+            throw new ProtocolException("String is longer than " + MAX_STRING_LENGTH + " bytes");
+        }
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    public static void writeString(final ByteBuffer buffer, final String value) {
+        final int length = value.length();
+        boolean ascii = length <= MAX_STRING_LENGTH;
+        for (int i = 0; ascii && i < length; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+
+        if (ascii) {
+            buffer.putShort((short) length);
+            for (int i = 0; i < length; i++) {
+                buffer.put((byte) value.charAt(i));
+            }
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final int truncatedLength = Math.min(bytes.length, MAX_STRING_LENGTH);
+        buffer.putShort((short) truncatedLength);
+        buffer.put(bytes, 0, truncatedLength);
+    }
+
+    public static BigDecimal readAmount(final ByteBuffer buffer) {
+        final long unscaled = buffer.getLong();
+        final byte scale = buffer.get();
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    public static void writeAmount(final ByteBuffer buffer, final BigDecimal amount) {
+        final BigInteger unscaled = amount.unscaledValue();
+        if (unscaled.bitLength() > 63 || amount.scale() > Byte.MAX_VALUE || amount.scale() < Byte.MIN_VALUE) {
+            throw new ProtocolException("Amount " + amount + " can not be represented");
+        }
+        buffer.putLong(unscaled.longValue());
+        buffer.put((byte) amount.scale());
+    }
+
+    /**
+     * A malformed frame or payload. A frame with an invalid length closes the connection it came from, since the
+     * stream can not be re-synchronized. Anything else wrong inside a frame, like an unknown opcode or a short payload,
+     * is answered with 400 and the connection stays open, the next frame starts at a known offset.
+     */
+    public static class ProtocolException extends RuntimeException {
+
+        public ProtocolException(final String message) {
+            super(message);
+        }
+    }
+}
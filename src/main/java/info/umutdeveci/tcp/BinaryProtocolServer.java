@@ -0,0 +1,388 @@
+package info.umutdeveci.tcp;
+
+import static info.umutdeveci.tcp.BinaryProtocol.LENGTH_FIELD_SIZE;
+import static info.umutdeveci.tcp.BinaryProtocol.MAX_FRAME_SIZE;
+import static info.umutdeveci.tcp.BinaryProtocol.MAX_RESPONSE_SIZE;
+import static info.umutdeveci.tcp.BinaryProtocol.MAX_STRING_LENGTH;
+import static info.umutdeveci.tcp.BinaryProtocol.OP_DEPOSIT;
+import static info.umutdeveci.tcp.BinaryProtocol.OP_GET;
+import static info.umutdeveci.tcp.BinaryProtocol.OP_TRANSFER;
+import static info.umutdeveci.tcp.BinaryProtocol.OP_WITHDRAW;
+import static info.umutdeveci.tcp.BinaryProtocol.REQUEST_HEADER_SIZE;
+import static info.umutdeveci.tcp.BinaryProtocol.STATUS_OK;
+import static info.umutdeveci.tcp.BinaryProtocol.readAmount;
+import static info.umutdeveci.tcp.BinaryProtocol.readString;
+import static info.umutdeveci.tcp.BinaryProtocol.writeAmount;
+import static info.umutdeveci.tcp.BinaryProtocol.writeString;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.model.TransferResult;
+import info.umutdeveci.tcp.BinaryProtocol.ProtocolException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * NIO server for {@link BinaryProtocol}. An acceptor thread hands new connections to a fixed number of event loops in
+ * round robin. Each event loop reads every complete frame available on a connection, executes them against the
+ * {@link AccountService} in order and collects the responses in the connection's write buffer, which is flushed once
+ * per read. Both buffers are direct and allocated once per connection. When a client does not read its responses, the
+ * loop stops reading its requests until the write buffer drains.
+ */
+@Slf4j
+public class BinaryProtocolServer implements Closeable {
+
+    private final AccountService accountService;
+    private final int port;
+    private final int bufferSize;
+    private final EventLoop[] eventLoops;
+
+    private ServerSocketChannel serverChannel;
+    private Thread acceptorThread;
+    private volatile boolean running;
+
+    public BinaryProtocolServer(@NonNull final AccountService accountService, final int port, final int ioThreads,
+        final int bufferSize) {
+        if (bufferSize < MAX_FRAME_SIZE + LENGTH_FIELD_SIZE || bufferSize < MAX_RESPONSE_SIZE) {
+            throw new IllegalArgumentException(
+                "Buffer size should be at least " + (MAX_FRAME_SIZE + LENGTH_FIELD_SIZE));
+        }
+        this.accountService = accountService;
+        this.port = port;
+        this.bufferSize = bufferSize;
+        this.eventLoops = new EventLoop[ioThreads];
+    }
+
+    public void start() throws IOException {
+        running = true;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop("binary-protocol-io-" + i);
+            eventLoops[i].start();
+        }
+
+        acceptorThread = new Thread(this::accept, "binary-protocol-acceptor");
+        acceptorThread.setDaemon(true);
+        acceptorThread.start();
+
+        log.info("Binary protocol listening on port {}", getPort());
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverChannel.close();
+        for (final EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.selector.close();
+            }
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                final SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                eventLoops[next].register(channel);
+                next = (next + 1) % eventLoops.length;
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Could not accept binary protocol connection", e);
+                }
+            }
+        }
+    }
+
+    private final class EventLoop extends Thread {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+        private EventLoop(final String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        private void register(final SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerPending();
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // Server is closed
+            } catch (IOException e) {
+                log.error("Binary protocol event loop {} failed", getName(), e);
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, new Connection(channel, bufferSize));
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void handle(final SelectionKey key) {
+            final Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isWritable() && !connection.flush()) {
+                    return;
+                }
+                if (connection.closing) {
+                    close(key, connection);
+                    return;
+                }
+
+                if (key.isReadable() && connection.channel.read(connection.in) < 0) {
+                    close(key, connection);
+                    return;
+                }
+
+                // Frames may also be left over from a read that stopped because the write buffer was full
+                boolean flushed;
+                do {
+                    processFrames(connection);
+                    flushed = connection.flush();
+                } while (flushed && !connection.closing && connection.hasCompleteFrame());
+                if (connection.closing && flushed) {
+                    close(key, connection);
+                    return;
+                }
+                key.interestOps(connection.out.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException | ProtocolException e) {
+                log.debug("Closing binary protocol connection", e);
+                close(key, connection);
+            }
+        }
+
+        private void close(final SelectionKey key, final Connection connection) {
+            key.cancel();
+            closeQuietly(connection.channel);
+        }
+    }
+
+    private void processFrames(final Connection connection) {
+        final ByteBuffer in = connection.in;
+        in.flip();
+        final int dataLimit = in.limit();
+        try {
+            while (!connection.closing && in.remaining() >= LENGTH_FIELD_SIZE) {
+                final int frameStart = in.position();
+                final int length = in.getInt(frameStart);
+                if (length < REQUEST_HEADER_SIZE || length > MAX_FRAME_SIZE) {
+                    throw new ProtocolException("Invalid frame length " + length);
+                }
+                if (in.remaining() < LENGTH_FIELD_SIZE + length
+                    || connection.out.remaining() < MAX_RESPONSE_SIZE) {
+                    break;
+                }
+
+                final int frameEnd = frameStart + LENGTH_FIELD_SIZE + length;
+                in.position(frameStart + LENGTH_FIELD_SIZE);
+                in.limit(frameEnd);
+                try {
+                    processFrame(connection);
+                } finally {
+                    in.limit(dataLimit);
+                }
+
+                in.position(frameEnd);
+            }
+        } finally {
+            in.compact();
+        }
+    }
+
+    private void processFrame(final Connection connection) {
+        final ByteBuffer in = connection.in;
+        final ByteBuffer out = connection.out;
+
+        final long correlationId = in.getLong();
+        final byte opcode = in.get();
+
+        final int responseStart = out.position();
+        try {
+            out.putInt(0); // Length placeholder
+            out.putLong(correlationId);
+            execute(opcode, connection);
+        } catch (Problem problem) {
+            writeError(out, responseStart, correlationId, problem.getHttpCode(), problem.getMessage());
+        } catch (UnencodableResultException e) {
+            // The change is applied, a 400 would invite the client to retry it. The client has to read the account
+            // again, over a new connection, to find out where it stands.
+            log.error("Binary protocol request {} was applied but its result can not be encoded", correlationId, e);
+            writeError(out, responseStart, correlationId, HttpStatus.INTERNAL_SERVER_ERROR_500,
+                "Applied, but the result can not be encoded: " + e.getMessage());
+            connection.closing = true;
+        } catch (ProtocolException | BufferUnderflowException e) {
+            writeError(out, responseStart, correlationId, HttpStatus.BAD_REQUEST_400, "Malformed request");
+        } catch (RuntimeException e) {
+            log.error("Binary protocol request failed", e);
+            writeError(out, responseStart, correlationId, HttpStatus.INTERNAL_SERVER_ERROR_500, e.toString());
+        }
+        out.putInt(responseStart, out.position() - responseStart - LENGTH_FIELD_SIZE);
+    }
+
+    private void execute(final byte opcode, final Connection connection) {
+        final ByteBuffer in = connection.in;
+        final ByteBuffer out = connection.out;
+        final byte[] scratch = connection.scratch;
+
+        switch (opcode) {
+            case OP_GET: {
+                final Account account = accountService.get(readString(in, scratch));
+                out.putShort(STATUS_OK);
+                writeAccount(out, account);
+                break;
+            }
+            case OP_WITHDRAW: {
+                final String accountNumber = readString(in, scratch);
+                final Account account = accountService.withdraw(accountNumber, readAmount(in));
+                out.putShort(STATUS_OK);
+                writeResult(out, account);
+                break;
+            }
+            case OP_DEPOSIT: {
+                final String accountNumber = readString(in, scratch);
+                final Account account = accountService.deposit(accountNumber, readAmount(in));
+                out.putShort(STATUS_OK);
+                writeResult(out, account);
+                break;
+            }
+            case OP_TRANSFER: {
+                final String fromAccountNumber = readString(in, scratch);
+                final String toAccountNumber = readString(in, scratch);
+                final TransferResult result = accountService
+                    .transfer(fromAccountNumber, toAccountNumber, readAmount(in));
+                out.putShort(STATUS_OK);
+                writeResult(out, result.getFromAccount());
+                writeResult(out, result.getToAccount());
+                break;
+            }
+            default:
+                throw new ProtocolException("Unknown opcode " + opcode);
+        }
+    }
+
+    private static void writeAccount(final ByteBuffer out, final Account account) {
+        writeString(out, account.getAccountNumber());
+        writeAmount(out, account.getBalance());
+    }
+
+    /**
+     * Writes an account changed by the request, an encoding failure is not the client's fault once the change is
+     * applied.
+     */
+    private static void writeResult(final ByteBuffer out, final Account account) {
+        try {
+            writeAccount(out, account);
+        } catch (ProtocolException e) {
+            throw new UnencodableResultException(e.getMessage());
+        }
+    }
+
+    private static void writeError(final ByteBuffer out, final int responseStart, final long correlationId,
+        final int status, final String message) {
+        // Drop whatever part of a successful response was already written
+        out.position(responseStart);
+        out.putInt(0);
+        out.putLong(correlationId);
+        out.putShort((short) status);
+        writeString(out, message == null ? "" : message);
+    }
+
+    private static void closeQuietly(final SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    private static final class Connection {
+
+        private final SocketChannel channel;
+        private final ByteBuffer in;
+        private final ByteBuffer out;
+        private final byte[] scratch = new byte[MAX_STRING_LENGTH];
+        /**
+         * No more requests are read, the connection is closed once the buffered responses are written
+         */
+        private boolean closing;
+
+        private Connection(final SocketChannel channel, final int bufferSize) {
+            this.channel = channel;
+            this.in = ByteBuffer.allocateDirect(bufferSize);
+            this.out = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        private boolean hasCompleteFrame() {
+            // The read buffer is in write mode, buffered bytes are between 0 and position
+            return in.position() >= LENGTH_FIELD_SIZE && in.getInt(0) + LENGTH_FIELD_SIZE <= in.position();
+        }
+
+        /**
+         * @return true if everything buffered was written
+         */
+        private boolean flush() throws IOException {
+            out.flip();
+            try {
+                channel.write(out);
+                return !out.hasRemaining();
+            } finally {
+                out.compact();
+            }
+        }
+    }
+
+    private static final class UnencodableResultException extends RuntimeException {
+
+        private UnencodableResultException(final String message) {
+            super(message);
+        }
+    }
+}
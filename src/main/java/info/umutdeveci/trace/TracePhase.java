@@ -0,0 +1,29 @@
+package info.umutdeveci.trace;
+
+public enum TracePhase {
+
+    /**
+     * Reading the request body into a request object
+     */
+    PARSE,
+
+    /**
+     * Checks on the request object before it reaches the service
+     */
+    VALIDATE,
+
+    /**
+     * Waiting for the locks that guard the accounts involved, or for the partition threads that own them
+     */
+    LOCK_WAIT,
+
+    /**
+     * Work done while the locks are held, or by the partition threads
+     */
+    MUTATE,
+
+    /**
+     * Writing the response object as JSON
+     */
+    SERIALIZE
+}
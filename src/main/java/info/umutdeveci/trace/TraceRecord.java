@@ -0,0 +1,32 @@
+package info.umutdeveci.trace;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A finished, sampled request. Phases that were entered more than once, such as lock waits of several operations,
+ * are summed up.
+ */
+@Getter
+@ToString
+public class TraceRecord {
+
+    private final String name;
+    private final int status;
+    private final long startedAt;
+    private final long totalNanos;
+    private final long[] phaseNanos;
+
+    TraceRecord(final String name, final int status, final long startedAt, final long totalNanos,
+        final long[] phaseNanos) {
+        this.name = name;
+        this.status = status;
+        this.startedAt = startedAt;
+        this.totalNanos = totalNanos;
+        this.phaseNanos = phaseNanos;
+    }
+
+    public long getPhaseNanos(final TracePhase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+}
@@ -0,0 +1,140 @@
+package info.umutdeveci.trace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * Samples requests and records how long they spent in each {@link TracePhase}. The trace of a sampled request is kept
+ * in a thread local from {@link #begin(String)} to {@link #end(int)}, so code deeper in the call chain, like the lock
+ * handling of the service, reports its phases with the static {@link #phaseStart()} and
+ * {@link #phaseEnd(TracePhase, long)} without anything being passed around.
+ *
+ * <p>For a request that is not sampled {@link #phaseStart()} returns 0 after a thread local read and
+ * {@link #phaseEnd(TracePhase, long)} returns right away, nothing else is done and nothing is allocated.
+ *
+ * <p>Finished traces are written to a fixed size ring with a single atomic increment and the oldest ones are
+ * overwritten, so recording never blocks.
+ */
+public class Tracer {
+
+    private static final ThreadLocal<ActiveTrace> CURRENT = new ThreadLocal<>();
+
+    private final double sampleRate;
+    private final AtomicReferenceArray<TraceRecord> ring;
+    private final AtomicLong nextIndex = new AtomicLong();
+
+    /**
+     * @param sampleRate fraction of requests to trace, 0 disables tracing
+     * @param capacity number of finished traces kept
+     */
+    public Tracer(final double sampleRate, final int capacity) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Sample rate should be between 0 and 1, got " + sampleRate);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity should be positive, got " + capacity);
+        }
+        this.sampleRate = sampleRate;
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Starts tracing the current request if it is sampled. A trace left over on this thread, from a request that never
+     * reached {@link #end(int)}, is discarded.
+     */
+    public void begin(final String name) {
+        if (sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            CURRENT.set(new ActiveTrace(name));
+        } else if (CURRENT.get() != null) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Finishes the trace of the current request, if it was sampled, and records it.
+     */
+    public void end(final int status) {
+        final ActiveTrace trace = CURRENT.get();
+        if (trace == null) {
+            return;
+        }
+        CURRENT.remove();
+
+        final TraceRecord record = new TraceRecord(trace.name, status, trace.startedAt,
+            System.nanoTime() - trace.startNanos, trace.phaseNanos);
+        ring.set((int) (nextIndex.getAndIncrement() % ring.length()), record);
+    }
+
+    /**
+     * @return the slowest of the recorded traces, slowest first
+     */
+    public List<TraceRecord> slowest(final int limit) {
+        final List<TraceRecord> records = new ArrayList<>(ring.length());
+        for (int i = 0; i < ring.length(); i++) {
+            final TraceRecord record = ring.get(i);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records.stream()
+            .sorted(Comparator.comparingLong(TraceRecord::getTotalNanos).reversed())
+            .limit(limit)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * @return start of a phase to pass to {@link #phaseEnd(TracePhase, long)}, 0 if the current request is not traced
+     */
+    public static long phaseStart() {
+        return CURRENT.get() == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Adds the time since {@code start} to the phase.
+     *
+     * @return the end of the phase, so it can be used as the start of the next one, or 0 if the request is not traced
+     */
+    public static long phaseEnd(final TracePhase phase, final long start) {
+        if (start == 0) {
+            return 0;
+        }
+        final ActiveTrace trace = CURRENT.get();
+        if (trace == null) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        trace.phaseNanos[phase.ordinal()] += now - start;
+        return now;
+    }
+
+    /**
+     * Adds the time from {@code start} to {@code end} to the phase, for phases that ran on another thread and were
+     * timed there with {@link System#nanoTime()}.
+     */
+    public static void phase(final TracePhase phase, final long start, final long end) {
+        if (start == 0 || end == 0) {
+            return;
+        }
+        final ActiveTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.phaseNanos[phase.ordinal()] += end - start;
+        }
+    }
+
+    private static final class ActiveTrace {
+
+        private final String name;
+        private final long startedAt = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final long[] phaseNanos = new long[TracePhase.values().length];
+
+        private ActiveTrace(final String name) {
+            this.name = name;
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package info.umutdeveci.util;
 
 import info.umutdeveci.service.entity.AccountEntity;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
 
 public class Utils {
 
@@ -20,4 +24,16 @@ public class Utils {
             .collect(Collectors.toList());
     }
 
+    /**
+     * Javalin wraps every request in a body caching wrapper which reads chunked bodies fully into memory. Streaming
+     * endpoints have to read from the original request instead.
+     */
+    public static InputStream rawRequestBody(final ServletRequest request) throws IOException {
+        ServletRequest current = request;
+        while (current instanceof ServletRequestWrapper) {
+            current = ((ServletRequestWrapper) current).getRequest();
+        }
+        return current.getInputStream();
+    }
+
 }
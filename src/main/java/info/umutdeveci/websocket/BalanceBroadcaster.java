@@ -0,0 +1,305 @@
+package info.umutdeveci.websocket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.controller.response.ProblemResponse;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.event.AccountEvent;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.event.AccountEventHandler;
+import info.umutdeveci.service.event.AccountEventType;
+import info.umutdeveci.service.event.EventCursor;
+import io.javalin.websocket.WsHandler;
+import io.javalin.websocket.WsMessageContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * Pushes balance changes to WebSocket subscribers instead of having them poll the REST API.
+ *
+ * <p>A single ticker thread reads the changes from the {@link AccountEventBus} once per tick and sends each subscriber
+ * one message with the latest state of its changed accounts, so a burst of changes on an account costs one update per
+ * tick at most and the mutation path does not know about subscribers at all. If the ticker ever falls behind the bus,
+ * the current state of every subscribed account is sent again.
+ *
+ * <p>Sends are asynchronous. When a subscriber has too many unfinished sends, because it does not read fast enough,
+ * nothing more is sent to it and its updates keep being coalesced per account until it catches up. What is kept for a
+ * slow subscriber is therefore bounded by the number of accounts it subscribed to, and neither the ticker nor the
+ * mutation path ever waits for it.
+ */
+@Slf4j
+public class BalanceBroadcaster implements Closeable {
+
+    private final AccountService accountService;
+    private final AccountEventBus eventBus;
+    private final ObjectMapper mapper;
+    private final long tickMillis;
+    private final int maxInFlight;
+    private final int maxSubscriptions;
+
+    private final Map<String, Subscriber> subscribersBySession = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscriber>> subscribersByAccount = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "balance-broadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AccountEventHandler eventHandler = new ChangeCollector();
+    private EventCursor cursor;
+
+    public BalanceBroadcaster(@NonNull final AccountService accountService, @NonNull final AccountEventBus eventBus,
+        @NonNull final ObjectMapper mapper, final long tickMillis, final int maxInFlight, final int maxSubscriptions) {
+        this.accountService = accountService;
+        this.eventBus = eventBus;
+        this.mapper = mapper;
+        this.tickMillis = tickMillis;
+        this.maxInFlight = maxInFlight;
+        this.maxSubscriptions = maxSubscriptions;
+    }
+
+    public void start() {
+        // Best effort, an overrun only costs a resync of the subscribers
+        cursor = eventBus.newLossyCursor();
+        ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Handlers of the subscription endpoint, see {@link SubscriptionMessage} and {@link BalanceUpdateMessage}.
+     */
+    public void configure(final WsHandler ws) {
+        ws.onConnect(ctx -> subscribersBySession.put(ctx.getSessionId(), new Subscriber(ctx.session)));
+        ws.onMessage(this::onMessage);
+        ws.onClose(ctx -> {
+            final Subscriber subscriber = subscribersBySession.remove(ctx.getSessionId());
+            if (subscriber != null) {
+                subscriber.accountNumbers.forEach(accountNumber -> unsubscribe(subscriber, accountNumber));
+            }
+        });
+    }
+
+    private void onMessage(final WsMessageContext ctx) {
+        final Subscriber subscriber = subscribersBySession.get(ctx.getSessionId());
+        if (subscriber == null) {
+            return;
+        }
+
+        final SubscriptionMessage message;
+        try {
+            message = mapper.readValue(ctx.message(), SubscriptionMessage.class);
+        } catch (IOException e) {
+            subscriber.sendProblem(new Problem(HttpStatus.BAD_REQUEST_400, "Malformed subscription message"));
+            return;
+        }
+
+        if (message.getAction() == null || message.getAccountNumbers() == null) {
+            subscriber.sendProblem(new Problem(HttpStatus.BAD_REQUEST_400, "Action and account numbers are required"));
+            return;
+        }
+
+        if (message.getAction() == SubscriptionMessage.Action.UNSUBSCRIBE) {
+            message.getAccountNumbers().forEach(accountNumber -> unsubscribe(subscriber, accountNumber));
+            return;
+        }
+
+        if (subscriber.accountNumbers.size() + message.getAccountNumbers().size() > maxSubscriptions) {
+            subscriber.sendProblem(new Problem(HttpStatus.BAD_REQUEST_400,
+                String.format("A session can subscribe to at most %d accounts", maxSubscriptions)));
+            return;
+        }
+
+        for (final String accountNumber : message.getAccountNumbers()) {
+            if (accountNumber != null && subscriber.accountNumbers.add(accountNumber)) {
+                subscribersByAccount.compute(accountNumber, (key, subscribers) -> {
+                    final Set<Subscriber> result = subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+                    result.add(subscriber);
+                    return result;
+                });
+                subscriber.snapshotRequests.add(accountNumber);
+            }
+        }
+    }
+
+    private void unsubscribe(final Subscriber subscriber, final String accountNumber) {
+        subscriber.accountNumbers.remove(accountNumber);
+        subscribersByAccount.computeIfPresent(accountNumber, (key, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private void tick() {
+        try {
+            cursor.poll(eventHandler, eventBus.getCapacity());
+
+            for (final Subscriber subscriber : subscribersBySession.values()) {
+                // Snapshots are read after the changes are drained, so a snapshot never overwrites a newer change
+                subscriber.takeSnapshots();
+                subscriber.flush();
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the scheduled task
+            log.error("Balance broadcast failed", e);
+        }
+    }
+
+    private final class ChangeCollector implements AccountEventHandler {
+
+        @Override
+        public void onEvent(final AccountEvent event) {
+            if (event.getType() == AccountEventType.ACCOUNT_CLOSED) {
+                closed(event.getAccountNumber());
+                return;
+            }
+            if (event.getType() == AccountEventType.HOLD_CHANGED) {
+                // Only balances are broadcast and a hold does not change the balance
+                return;
+            }
+            changed(event.getAccountNumber(), event.getBalance());
+            if (event.getType() == AccountEventType.TRANSFER_APPLIED) {
+                changed(event.getToAccountNumber(), event.getToBalance());
+            }
+        }
+
+        @Override
+        public void onOverrun(final long missedEvents) {
+            log.warn("Balance broadcaster missed {} account events, sending all subscribed accounts", missedEvents);
+            for (final Subscriber subscriber : subscribersBySession.values()) {
+                subscriber.snapshotRequests.addAll(subscriber.accountNumbers);
+            }
+        }
+
+        /**
+         * The snapshot taken for the subscribers fails, which unsubscribes them and tells them why
+         */
+        private void closed(final String accountNumber) {
+            final Set<Subscriber> subscribers = subscribersByAccount.get(accountNumber);
+            if (subscribers != null) {
+                subscribers.forEach(subscriber -> {
+                    subscriber.pending.remove(accountNumber);
+                    subscriber.snapshotRequests.add(accountNumber);
+                });
+            }
+        }
+
+        private void changed(final String accountNumber, final BigDecimal balance) {
+            final Set<Subscriber> subscribers = subscribersByAccount.get(accountNumber);
+            if (subscribers != null) {
+                final Account account = new Account(accountNumber, balance);
+                subscribers.forEach(subscriber -> subscriber.pending.put(accountNumber, account));
+            }
+        }
+    }
+
+    private final class Subscriber {
+
+        private final Session session;
+        private final Set<String> accountNumbers = ConcurrentHashMap.newKeySet();
+        private final Queue<String> snapshotRequests = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * Latest state of each changed account not sent yet. Only used by the ticker thread.
+         */
+        private final Map<String, Account> pending = new LinkedHashMap<>();
+
+        private Subscriber(final Session session) {
+            this.session = session;
+        }
+
+        private void takeSnapshots() {
+            String accountNumber;
+            while ((accountNumber = snapshotRequests.poll()) != null) {
+                if (!accountNumbers.contains(accountNumber)) {
+                    continue;
+                }
+                try {
+                    pending.put(accountNumber, accountService.get(accountNumber));
+                } catch (Problem problem) {
+                    unsubscribe(this, accountNumber);
+                    sendProblem(problem);
+                }
+            }
+        }
+
+        private void flush() {
+            if (pending.isEmpty() || inFlight.get() >= maxInFlight) {
+                return;
+            }
+
+            final List<Account> accounts = new ArrayList<>(pending.size());
+            for (final Account account : pending.values()) {
+                if (accountNumbers.contains(account.getAccountNumber())) {
+                    accounts.add(account);
+                }
+            }
+            pending.clear();
+
+            if (!accounts.isEmpty()) {
+                send(new BalanceUpdateMessage(accounts));
+            }
+        }
+
+        private void sendProblem(final Problem problem) {
+            final HttpStatus.Code code = HttpStatus.getCode(problem.getHttpCode());
+            send(ProblemResponse.builder()
+                .status(problem.getHttpCode())
+                .description(code == null ? null : code.getMessage())
+                .message(problem.getMessage())
+                .build());
+        }
+
+        private void send(final Object message) {
+            if (!session.isOpen()) {
+                return;
+            }
+
+            final String json;
+            try {
+                json = mapper.writeValueAsString(message);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            inFlight.incrementAndGet();
+            session.getRemote().sendString(json, new WriteCallback() {
+                @Override
+                public void writeFailed(final Throwable x) {
+                    inFlight.decrementAndGet();
+                    log.debug("Could not send balance update", x);
+                }
+
+                @Override
+                public void writeSuccess() {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package info.umutdeveci.websocket;
+
+import info.umutdeveci.model.Account;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Pushed to a subscriber once per tick with the latest state of each of its accounts that changed since the previous
+ * message. The first message after a subscription holds the current state of the subscribed accounts.
+ */
+@Data
+@AllArgsConstructor
+public class BalanceUpdateMessage {
+
+    private List<Account> accounts;
+}
@@ -0,0 +1,25 @@
+package info.umutdeveci.websocket;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sent by clients to change the accounts they receive updates for, e.g.
+ * {@code {"action": "subscribe", "account_numbers": ["1234"]}}.
+ */
+@Data
+@NoArgsConstructor
+public class SubscriptionMessage {
+
+    private Action action;
+    private List<String> accountNumbers;
+
+    public enum Action {
+        @JsonProperty("subscribe")
+        SUBSCRIBE,
+        @JsonProperty("unsubscribe")
+        UNSUBSCRIBE
+    }
+}
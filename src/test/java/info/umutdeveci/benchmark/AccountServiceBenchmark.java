@@ -0,0 +1,149 @@
+package info.umutdeveci.benchmark;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.impl.JdbcAccountService;
+import info.umutdeveci.service.impl.PartitionedAccountService;
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Runs the same operation mix (70% reads, 20% transfers, 10% deposits) directly against each {@link AccountService}
+ * implementation at increasing thread counts and prints throughput and latency, without HTTP in between.
+ *
+ * <p>Usage: {@code AccountServiceBenchmark [-Dbenchmark.duration=10] [-Dbenchmark.accounts=10000] [threads...]}, also
+ * run by {@code mvn -Pbenchmark verify}.
+ */
+public class AccountServiceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int durationSeconds = Integer.getInteger("benchmark.duration", 10);
+        final int accountCount = Integer.getInteger("benchmark.accounts", 10_000);
+        final int[] threadCounts = args.length == 0 ? new int[]{1, 4, 16, 64}
+            : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        final Path directory = Files.createTempDirectory("account-benchmark");
+
+        final List<String> results = new ArrayList<>();
+        for (final int threads : threadCounts) {
+            results.add(run("in-memory", threads, durationSeconds, accountCount,
+                accounts -> new InMemoryAccountService(accounts, new AccountEventBus(64 * 1024))));
+            results.add(run("partitioned", threads, durationSeconds, accountCount,
+                accounts -> new PartitionedAccountService(accounts, new AccountEventBus(64 * 1024),
+                    Runtime.getRuntime().availableProcessors())));
+            try (HikariDataSource dataSource = dataSource("jdbc:h2:mem:benchmark" + threads, threads)) {
+                results.add(run("jdbc h2 mem", threads, durationSeconds, accountCount,
+                    accounts -> new JdbcAccountService(dataSource, new AccountEventBus(64 * 1024), accounts)));
+            }
+            try (HikariDataSource dataSource = dataSource("jdbc:h2:" + directory.resolve("accounts" + threads),
+                threads)) {
+                results.add(run("jdbc h2 file", threads, durationSeconds, accountCount,
+                    accounts -> new JdbcAccountService(dataSource, new AccountEventBus(64 * 1024), accounts)));
+            }
+        }
+
+        System.out.printf("%n%-16s %8s %12s %10s %10s %10s%n", "service", "threads", "ops/s", "p50 us", "p99 us",
+            "rejected");
+        results.forEach(System.out::println);
+    }
+
+    private static HikariDataSource dataSource(final String url, final int threads) {
+        final HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setMaximumPoolSize(threads);
+        return new HikariDataSource(config);
+    }
+
+    private static String run(final String name, final int threads, final int durationSeconds, final int accountCount,
+        final Function<List<AccountEntity>, AccountService> serviceFactory) throws Exception {
+        final String[] accountNumbers = new String[accountCount];
+        final List<AccountEntity> accounts = new ArrayList<>(accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            accountNumbers[i] = "benchmark-" + i;
+            accounts.add(new AccountEntity(accountNumbers[i], new BigDecimal(1_000_000)));
+        }
+        final AccountService service = serviceFactory.apply(accounts);
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<long[]>> workers = new ArrayList<>();
+        final List<Long> latencies = new ArrayList<>();
+        long rejected = 0;
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> drive(service, accountNumbers, deadline)));
+            }
+            for (final Future<long[]> worker : workers) {
+                final long[] samples = worker.get();
+                rejected += samples[0];
+                for (int i = 1; i < samples.length; i++) {
+                    latencies.add(samples[i]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (service instanceof Closeable) {
+                ((Closeable) service).close();
+            }
+        }
+
+        latencies.sort(null);
+        final String result = String.format("%-16s %8d %12.0f %10d %10d %10d", name, threads,
+            latencies.size() / (double) durationSeconds, percentile(latencies, 0.5), percentile(latencies, 0.99),
+            rejected);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * @return number of rejected operations, followed by the latency of every operation in microseconds
+     */
+    private static long[] drive(final AccountService service, final String[] accountNumbers, final long deadline) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] samples = new long[1024];
+        int count = 1;
+        while (System.nanoTime() < deadline) {
+            final String accountNumber = accountNumbers[random.nextInt(accountNumbers.length)];
+            final int operation = random.nextInt(10);
+            final long start = System.nanoTime();
+            try {
+                if (operation < 7) {
+                    service.get(accountNumber);
+                } else if (operation < 9) {
+                    final String other = accountNumbers[random.nextInt(accountNumbers.length)];
+                    if (!other.equals(accountNumber)) {
+                        service.transfer(accountNumber, other, BigDecimal.ONE);
+                    }
+                } else {
+                    service.deposit(accountNumber, BigDecimal.ONE);
+                }
+            } catch (Problem problem) {
+                samples[0]++;
+            }
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        }
+        return Arrays.copyOf(samples, count);
+    }
+
+    private static long percentile(final List<Long> sorted, final double percentile) {
+        return sorted.isEmpty() ? 0 : sorted.get((int) Math.ceil(sorted.size() * percentile) - 1);
+    }
+}
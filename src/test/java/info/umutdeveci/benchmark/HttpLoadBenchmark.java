@@ -0,0 +1,227 @@
+package info.umutdeveci.benchmark;
+
+import static info.umutdeveci.util.Utils.generateRandomAccounts;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.Application;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.config.Config;
+import info.umutdeveci.config.ServerConfig;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.id.AccountNumberGenerator;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import info.umutdeveci.trace.Tracer;
+import info.umutdeveci.websocket.BalanceBroadcaster;
+import io.javalin.Javalin;
+import io.javalin.plugin.json.JavalinJackson;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the same request mix (80% account reads, 20% transfers) against an in-process server once per configuration
+ * file and prints throughput and latency for each, so the server runtime settings can be compared side by side.
+ *
+ * <p>Usage: {@code HttpLoadBenchmark [-Dbenchmark.duration=20] [-Dbenchmark.clients=64] <config.properties>...},
+ * the configurations under {@code src/test/resources/benchmark} are run by {@code mvn -Pbenchmark verify}.
+ */
+public class HttpLoadBenchmark {
+
+    private static final int ACCOUNT_COUNT = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        final int durationSeconds = Integer.getInteger("benchmark.duration", 20);
+        final int clients = Integer.getInteger("benchmark.clients", 64);
+
+        JavalinJackson.configure(Application.createObjectMapper());
+
+        final List<String> results = new ArrayList<>();
+        for (final String configFile : args) {
+            results.add(run(Paths.get(configFile), durationSeconds, clients));
+        }
+
+        System.out.printf("%n%-28s %12s %10s %10s %10s%n", "configuration", "requests/s", "p50 us", "p99 us", "errors");
+        results.forEach(System.out::println);
+    }
+
+    private static String run(final Path configFile, final int durationSeconds, final int clients)
+        throws Exception {
+        final Properties properties = Config.loadFile(configFile);
+        properties.setProperty("server.port", "0");
+        final ServerConfig serverConfig = ServerConfig.from(new Config(properties, System.getenv(), new Properties()));
+
+        final List<AccountEntity> accounts = generateRandomAccounts(ACCOUNT_COUNT);
+        accounts.forEach(account -> account.setBalance(new BigDecimal(1_000_000)));
+        final AccountEventBus eventBus = new AccountEventBus(64 * 1024);
+        final AccountService accountService = new InMemoryAccountService(accounts, eventBus);
+        final ObjectMapper mapper = Application.createObjectMapper();
+        final BalanceBroadcaster balanceBroadcaster = new BalanceBroadcaster(accountService, eventBus, mapper, 100, 4,
+            1000);
+        balanceBroadcaster.start();
+        final Javalin app = Application
+            .createApp(serverConfig, accountService, new AccountImporter(accountService, mapper),
+                new TransferScheduler(accountService, Clock.systemUTC(), 100, 1000), balanceBroadcaster, new Tracer(0, 1),
+                new AccountListCache(accountService, eventBus, mapper, 64),
+                new InterestAccrualBatch(accountService, Clock.systemUTC(), 1, 256),
+                new AccountNumberGenerator(Clock.systemUTC(), 0))
+            .start();
+
+        final HttpClient client = HttpClient.newBuilder()
+            .version(serverConfig.isHttp2Enabled() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+            .build();
+        final String baseUrl = "http://localhost:" + app.port();
+        final String[] accountNumbers = accounts.stream().map(AccountEntity::getAccountNumber).toArray(String[]::new);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            // Warm up so the JIT and the thread pools settle before measuring
+            drive(executor, clients, client, baseUrl, accountNumbers, TimeUnit.SECONDS.toNanos(3));
+            final List<long[]> latencies = drive(executor, clients, client, baseUrl, accountNumbers,
+                TimeUnit.SECONDS.toNanos(durationSeconds));
+
+            long errors = 0;
+            final List<Long> merged = new ArrayList<>();
+            for (final long[] clientLatencies : latencies) {
+                errors += clientLatencies[0];
+                for (int i = 1; i < clientLatencies.length && clientLatencies[i] > 0; i++) {
+                    merged.add(clientLatencies[i]);
+                }
+            }
+            final long[] sorted = merged.stream().mapToLong(Long::longValue).sorted().toArray();
+
+            return String.format("%-28s %12.0f %10d %10d %10d", configFile.getFileName(),
+                sorted.length / (double) durationSeconds, percentile(sorted, 0.5) / 1000,
+                percentile(sorted, 0.99) / 1000, errors);
+        } finally {
+            executor.shutdownNow();
+            app.stop();
+            balanceBroadcaster.close();
+        }
+    }
+
+    /**
+     * @return one array per client, index 0 holds the error count and the rest the latencies in nanos
+     */
+    private static List<long[]> drive(final ExecutorService executor, final int clients, final HttpClient client,
+        final String baseUrl, final String[] accountNumbers, final long durationNanos) throws Exception {
+        final long deadline = System.nanoTime() + durationNanos;
+        final List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(() -> {
+                long[] latencies = new long[1 << 16];
+                int count = 1;
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    final Call call = random.nextInt(100) < 80
+                        ? getAccount(baseUrl, accountNumbers[random.nextInt(accountNumbers.length)])
+                        : transfer(baseUrl, accountNumbers[random.nextInt(accountNumbers.length)],
+                            accountNumbers[random.nextInt(accountNumbers.length)]);
+
+                    final long start = System.nanoTime();
+                    final int status = send(client, call);
+                    final long latency = System.nanoTime() - start;
+
+                    // A transfer between the same two random accounts is rejected with 400, that is not an error
+                    if (status >= 500) {
+                        latencies[0]++;
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                    }
+                    latencies[count++] = latency;
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+
+        final List<long[]> results = new ArrayList<>();
+        for (final Future<long[]> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    private static int send(final HttpClient client, final Call call) throws Exception {
+        if (client.version() == HttpClient.Version.HTTP_2) {
+            final HttpRequest.Builder request = HttpRequest.newBuilder(call.uri);
+            if (call.body == null) {
+                request.GET();
+            } else {
+                request.header("Content-Type", "application/json").POST(BodyPublishers.ofByteArray(call.body));
+            }
+            return client.send(request.build(), BodyHandlers.discarding()).statusCode();
+        }
+
+        // HttpURLConnection keeps a keep-alive pool per destination and does not funnel every call through a single
+        // selector thread like HttpClient does, which would otherwise make the client the bottleneck over HTTP/1.1
+        final HttpURLConnection connection = (HttpURLConnection) call.uri.toURL().openConnection();
+        if (call.body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(call.body);
+            }
+        }
+
+        final int status = connection.getResponseCode();
+        try (InputStream inputStream = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+            if (inputStream != null) {
+                inputStream.readAllBytes();
+            }
+        }
+        return status;
+    }
+
+    private static Call getAccount(final String baseUrl, final String accountNumber) {
+        return new Call(URI.create(baseUrl + "/account/" + accountNumber), null);
+    }
+
+    private static Call transfer(final String baseUrl, final String from, final String to) {
+        final String body = String.format("{\"from_account_number\":\"%s\",\"to_account_number\":\"%s\",\"amount\":1}",
+            from, to);
+        return new Call(URI.create(baseUrl + "/transfer"), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+
+    private static class Call {
+
+        private final URI uri;
+        private final byte[] body;
+
+        private Call(final URI uri, final byte[] body) {
+            this.uri = uri;
+            this.body = body;
+        }
+    }
+}
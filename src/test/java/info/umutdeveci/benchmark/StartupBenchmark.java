@@ -0,0 +1,86 @@
+package info.umutdeveci.benchmark;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time-to-first-request: the time from launching a new JVM with the application jar until the first
+ * {@code GET /account} is answered. That is the delay a freshly started instance adds when we scale out under load.
+ *
+ * <p>Usage: {@code StartupBenchmark <jar> [iterations] [port]}, or {@code mvn -Pbenchmark verify -DskipTests}.
+ */
+public class StartupBenchmark {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: StartupBenchmark <jar> [iterations] [port]");
+        }
+
+        final String jar = args[0];
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        final List<Long> samples = new ArrayList<>();
+        for (int i = 0; i < iterations; i++) {
+            final long millis = measure(java, jar, port);
+            System.out.printf("run %d: %d ms%n", i + 1, millis);
+            samples.add(millis);
+        }
+
+        Collections.sort(samples);
+        System.out.printf("time-to-first-request over %d runs: min %d ms, median %d ms, p90 %d ms, max %d ms%n",
+            samples.size(), samples.get(0), samples.get(samples.size() / 2),
+            samples.get((int) Math.ceil(samples.size() * 0.9) - 1), samples.get(samples.size() - 1));
+    }
+
+    private static long measure(final String java, final String jar, final int port) throws Exception {
+        final long start = System.nanoTime();
+        final Process process = new ProcessBuilder(java, "-jar", jar)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+
+        try {
+            final URL url = new URL("http://localhost:" + port + "/account");
+            while (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < TIMEOUT_MILLIS) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Application exited with code " + process.exitValue());
+                }
+                if (respondsOk(url)) {
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }
+                Thread.sleep(2);
+            }
+            throw new IllegalStateException("Application did not answer within " + TIMEOUT_MILLIS + " ms");
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static boolean respondsOk(final URL url) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(100);
+            connection.setReadTimeout(1000);
+            try {
+                return connection.getResponseCode() == 200;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
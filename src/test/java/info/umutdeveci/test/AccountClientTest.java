@@ -0,0 +1,155 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.Application;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.client.AccountClient;
+import info.umutdeveci.client.AccountClientException;
+import info.umutdeveci.client.AccountClientOptions;
+import info.umutdeveci.client.ClientStats;
+import info.umutdeveci.config.Config;
+import info.umutdeveci.config.ServerConfig;
+import info.umutdeveci.controller.response.TransferResponse;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.id.AccountNumberGenerator;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.model.TransferLeg;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import info.umutdeveci.trace.Tracer;
+import info.umutdeveci.websocket.BalanceBroadcaster;
+import io.javalin.Javalin;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AccountClientTest {
+
+    private final ObjectMapper mapper = Application.createObjectMapper();
+
+    private InMemoryAccountService service;
+    private BalanceBroadcaster broadcaster;
+    private Javalin app;
+
+    @BeforeEach
+    void setup() {
+        final AccountEventBus eventBus = new AccountEventBus(1024);
+        service = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100.00")),
+            new AccountEntity("a2", new BigDecimal("50.00")),
+            new AccountEntity("a 3", new BigDecimal("10.00"))), eventBus);
+        broadcaster = new BalanceBroadcaster(service, eventBus, mapper, 100, 4, 10);
+
+        final Properties properties = new Properties();
+        properties.setProperty("server.port", "0");
+        final ServerConfig serverConfig = ServerConfig
+            .from(new Config(properties, Collections.emptyMap(), new Properties()));
+        app = Application.createApp(serverConfig, service, new AccountImporter(service, mapper),
+            new TransferScheduler(service, Clock.systemUTC(), 100, 10), broadcaster, new Tracer(0, 1),
+            new AccountListCache(service, eventBus, mapper, 4),
+            new InterestAccrualBatch(service, Clock.systemUTC(), 1, 256),
+            new AccountNumberGenerator(Clock.systemUTC(), 0)).start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        app.stop();
+        broadcaster.close();
+    }
+
+    @Test
+    void typedCallsAndRejections() throws Exception {
+        try (AccountClient client = new AccountClient(options(false))) {
+            assertEquals(3, client.listAccounts().get().size());
+            assertEquals(new BigDecimal("10.00"), client.getAccount("a 3").get().getBalance());
+
+            final Account withdrawn = client.withdraw("a1", new BigDecimal("10")).get();
+            assertEquals(new BigDecimal("90.00"), withdrawn.getBalance());
+            final Account deposited = client.deposit("a1", new BigDecimal("5"), withdrawn.getVersion()).get();
+            assertEquals(new BigDecimal("95.00"), deposited.getBalance());
+
+            final TransferResponse transfer = client.transfer("a1", "a2", new BigDecimal("15")).get();
+            assertEquals(new BigDecimal("80.00"), transfer.getFromAccount().getBalance());
+            assertEquals(new BigDecimal("65.00"), transfer.getToAccount().getBalance());
+
+            assertEquals(3, client.multiTransfer(
+                Collections.singletonList(new TransferLeg("a1", new BigDecimal("20"))),
+                Arrays.asList(new TransferLeg("a2", new BigDecimal("10")), new TransferLeg("a 3", BigDecimal.TEN)))
+                .get().getAccounts().size());
+
+            final AccountClientException missing = rejection(client.getAccount("nope"));
+            assertEquals(HttpStatus.BAD_REQUEST_400, missing.getStatus());
+            assertEquals("Account nope does not exist.", missing.getMessage());
+            assertEquals(HttpStatus.PRECONDITION_FAILED_412,
+                rejection(client.deposit("a1", BigDecimal.ONE, withdrawn.getVersion())).getStatus());
+
+            final ClientStats stats = client.getStats();
+            assertEquals(8, stats.getCalls());
+            assertEquals(2, stats.getFailures());
+            assertEquals(8, stats.getHttpRequests());
+            assertEquals(0, stats.getBatches());
+        }
+    }
+
+    @Test
+    void concurrentTransfersAreBatched() throws Exception {
+        final List<CompletableFuture<TransferResponse>> transfers = new ArrayList<>();
+        final CompletableFuture<TransferResponse> rejected;
+        try (AccountClient client = new AccountClient(options(true))) {
+            for (int i = 0; i < 20; i++) {
+                transfers.add(client.transfer("a1", "a2", BigDecimal.ONE));
+            }
+            rejected = client.transfer("a 3", "a2", new BigDecimal("1000"));
+            for (int i = 0; i < 10; i++) {
+                transfers.add(client.transfer("a2", "a1", new BigDecimal("0.5")));
+            }
+            CompletableFuture.allOf(transfers.toArray(new CompletableFuture<?>[0])).get();
+
+            assertEquals(HttpStatus.BAD_REQUEST_400, rejection(rejected).getStatus());
+
+            final ClientStats stats = client.getStats();
+            assertEquals(31, stats.getCalls());
+            assertEquals(1, stats.getFailures());
+            assertTrue(stats.getHttpRequests() < 31, "Requests: " + stats.getHttpRequests());
+            assertEquals(stats.getHttpRequests(), stats.getBatches());
+        }
+
+        assertEquals(new BigDecimal("85.00"), service.get("a1").getBalance());
+        assertEquals(new BigDecimal("65.00"), service.get("a2").getBalance());
+        assertEquals(new BigDecimal("10.00"), service.get("a 3").getBalance());
+    }
+
+    private AccountClientOptions options(final boolean batching) {
+        return AccountClientOptions.builder()
+            .baseUri(URI.create("http://localhost:" + app.port()))
+            .batching(batching)
+            .batchWindow(Duration.ofMillis(20))
+            .maxBatchSize(8)
+            .build();
+    }
+
+    private static AccountClientException rejection(final CompletableFuture<?> call) {
+        final ExecutionException error = assertThrows(ExecutionException.class, call::get);
+        assertTrue(error.getCause() instanceof AccountClientException, error.getCause().toString());
+        return (AccountClientException) error.getCause();
+    }
+}
@@ -1,12 +1,15 @@
 package info.umutdeveci.test;
 
 import static info.umutdeveci.util.Utils.generateRandomAccounts;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.doReturn;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -58,11 +61,27 @@ class AccountControllerTest {
         verify(ctx).json(eq(accounts));
     }
 
+    @Test
+    void testListAccountsByBalance() {
+        final List<Account> accounts = generateRandomAccounts(3).stream().map(AccountServiceUtil::convertToAccount)
+            .collect(Collectors.toList());
+        when(accountService.findByBalance(isNull(), eq(new BigDecimal("100")), eq(true), eq(3))).thenReturn(accounts);
+        doAnswer(invocation -> "100").when(ctx).queryParam(eq("max_balance"));
+        doAnswer(invocation -> "desc").when(ctx).queryParam(eq("order"));
+        doAnswer(invocation -> "3").when(ctx).queryParam(eq("limit"));
+
+        controller.listAccounts(ctx);
+        verify(ctx).json(eq(accounts));
+
+        doAnswer(invocation -> "sideways").when(ctx).queryParam(eq("order"));
+        assertThrows(Problem.class, () -> controller.listAccounts(ctx));
+    }
+
     @Test
     void testGetAccountDetailSuccess() {
         final Account account = Account.builder().accountNumber("test").balance(BigDecimal.TEN).build();
         when(accountService.get(eq("test"))).thenReturn(account);
-        doReturn("test").when(ctx).pathParam(anyString());
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
 
         controller.getAccountDetail(ctx);
         verify(ctx).json(eq(account));
@@ -71,7 +90,7 @@ class AccountControllerTest {
     @Test
     void testAccountNotFound() {
         when(accountService.get(anyString())).thenThrow(new Problem(HttpStatus.NOT_FOUND_404, "Account not found"));
-        doReturn("test").when(ctx).pathParam(anyString());
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
 
         assertThrows(Problem.class, () -> controller.getAccountDetail(ctx));
     }
@@ -79,9 +98,9 @@ class AccountControllerTest {
     @Test
     void testWithdrawSuccess() throws Exception {
         final Account account = Account.builder().accountNumber("test").balance(BigDecimal.TEN).build();
-        when(accountService.withdraw(eq("test"), eq(BigDecimal.TEN))).thenReturn(account);
+        when(accountService.withdraw(eq("test"), eq(BigDecimal.TEN), isNull())).thenReturn(account);
 
-        doReturn("test").when(ctx).pathParam(anyString());
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
 
         final WithdrawRequest request = new WithdrawRequest(BigDecimal.TEN);
         when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
@@ -90,13 +109,13 @@ class AccountControllerTest {
         controller.withdraw(ctx);
 
         verify(ctx).pathParam(eq("account_number"));
-        verify(accountService).withdraw(eq("test"), eq(BigDecimal.TEN));
+        verify(accountService).withdraw(eq("test"), eq(BigDecimal.TEN), isNull());
         verify(ctx).json(eq(account));
     }
 
     @Test
     void testWithdrawAmountNegative() throws Exception {
-        doReturn("test").when(ctx).pathParam(anyString());
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
 
         final WithdrawRequest request = new WithdrawRequest(new BigDecimal(-2.0));
         when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
@@ -109,24 +128,77 @@ class AccountControllerTest {
 
     @Test
     void testWithdrawServiceException() throws Exception {
-        doReturn("test").when(ctx).pathParam(anyString());
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
 
         final WithdrawRequest request = new WithdrawRequest(BigDecimal.TEN);
         when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
         when(ctx.bodyValidator(eq(WithdrawRequest.class))).thenCallRealMethod(); // followed by another ugly hack
 
-        when(accountService.withdraw(eq("test"), eq(BigDecimal.TEN))).thenThrow(new RuntimeException("generic"));
+        when(accountService.withdraw(eq("test"), eq(BigDecimal.TEN), isNull()))
+            .thenThrow(new RuntimeException("generic"));
 
         assertThrows(RuntimeException.class, () -> controller.withdraw(ctx));
 
         verify(ctx).pathParam(eq("account_number"));
     }
 
+    @Test
+    void testConditionalWithdraw() throws Exception {
+        final Account account = Account.builder().accountNumber("test").balance(BigDecimal.TEN).version(4L).build();
+        when(accountService.withdraw(eq("test"), eq(BigDecimal.TEN), eq(3L))).thenReturn(account);
+
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
+        doAnswer(invocation -> "\"3\"").when(ctx).header(eq("If-Match"));
+
+        final WithdrawRequest request = new WithdrawRequest(BigDecimal.TEN);
+        when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
+        when(ctx.bodyValidator(eq(WithdrawRequest.class))).thenCallRealMethod(); // followed by another ugly hack
+
+        controller.withdraw(ctx);
+
+        verify(accountService).withdraw(eq("test"), eq(BigDecimal.TEN), eq(3L));
+        verify(ctx).header(eq("ETag"), eq("\"4\""));
+        verify(ctx).json(eq(account));
+    }
+
+    @Test
+    void testWithdrawWithWeakETag() throws Exception {
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
+        doAnswer(invocation -> "W/\"3\"").when(ctx).header(eq("If-Match"));
+
+        final WithdrawRequest request = new WithdrawRequest(BigDecimal.TEN);
+        when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
+        when(ctx.bodyValidator(eq(WithdrawRequest.class))).thenCallRealMethod(); // followed by another ugly hack
+
+        final Problem problem = assertThrows(Problem.class, () -> controller.withdraw(ctx));
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED_412, problem.getHttpCode());
+        verifyNoInteractions(accountService);
+    }
+
+    @Test
+    void testWithdrawIfMatchAny() throws Exception {
+        final Account account = Account.builder().accountNumber("test").balance(BigDecimal.TEN).version(4L).build();
+        when(accountService.withdraw(eq("test"), eq(BigDecimal.TEN), isNull())).thenReturn(account);
+
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
+        doAnswer(invocation -> "*").when(ctx).header(eq("If-Match"));
+
+        final WithdrawRequest request = new WithdrawRequest(BigDecimal.TEN);
+        when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
+        when(ctx.bodyValidator(eq(WithdrawRequest.class))).thenCallRealMethod(); // followed by another ugly hack
+
+        controller.withdraw(ctx);
+
+        verify(accountService).withdraw(eq("test"), eq(BigDecimal.TEN), isNull());
+        verify(ctx).json(eq(account));
+    }
+
     @Test
     void testDepositSuccess() throws Exception {
         final Account account = Account.builder().accountNumber("test").balance(BigDecimal.TEN).build();
-        when(accountService.deposit(eq("test"), eq(BigDecimal.TEN))).thenReturn(account);
-        doReturn("test").when(ctx).pathParam(anyString());
+        when(accountService.deposit(eq("test"), eq(BigDecimal.TEN), isNull())).thenReturn(account);
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
 
         final DepositRequest request = new DepositRequest(BigDecimal.TEN);
         when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
@@ -135,13 +207,13 @@ class AccountControllerTest {
         controller.deposit(ctx);
 
         verify(ctx).pathParam(eq("account_number"));
-        verify(accountService).deposit(eq("test"), eq(BigDecimal.TEN));
+        verify(accountService).deposit(eq("test"), eq(BigDecimal.TEN), isNull());
         verify(ctx).json(eq(account));
     }
 
     @Test
     void testDepositAmountNegative() throws Exception {
-        doReturn("test").when(ctx).pathParam(anyString());
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
 
         final DepositRequest request = new DepositRequest(new BigDecimal(-2.0));
         when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
@@ -154,13 +226,14 @@ class AccountControllerTest {
 
     @Test
     void testDepositServiceException() throws Exception {
-        doReturn("test").when(ctx).pathParam(anyString());
+        doAnswer(invocation -> "test").when(ctx).pathParam(anyString()); // doReturn trips over the Validator overload
 
         final DepositRequest request = new DepositRequest(BigDecimal.TEN);
         when(ctx.body()).thenReturn(mapper.writeValueAsString(request)); // Ugly hack
         when(ctx.bodyValidator(eq(DepositRequest.class))).thenCallRealMethod(); // followed by another ugly hack
 
-        when(accountService.deposit(eq("test"), eq(BigDecimal.TEN))).thenThrow(new RuntimeException("generic"));
+        when(accountService.deposit(eq("test"), eq(BigDecimal.TEN), isNull()))
+            .thenThrow(new RuntimeException("generic"));
 
         assertThrows(RuntimeException.class, () -> controller.deposit(ctx));
 
@@ -187,7 +260,8 @@ class AccountControllerTest {
             .build();
 
         when(accountService
-            .transfer(eq(fromAccount.getAccountNumber()), eq(toAccount.getAccountNumber()), eq(request.getAmount())))
+            .transfer(eq(fromAccount.getAccountNumber()), eq(toAccount.getAccountNumber()), eq(request.getAmount()),
+                isNull(), isNull()))
             .thenReturn(transferResult);
 
         controller.transfer(ctx);
@@ -198,7 +272,8 @@ class AccountControllerTest {
             .build();
 
         verify(accountService)
-            .transfer(eq(fromAccount.getAccountNumber()), eq(toAccount.getAccountNumber()), eq(request.getAmount()));
+            .transfer(eq(fromAccount.getAccountNumber()), eq(toAccount.getAccountNumber()), eq(request.getAmount()),
+                isNull(), isNull());
         verify(ctx).json(eq(expected));
     }
 
@@ -303,7 +378,8 @@ class AccountControllerTest {
             .build();
 
         when(accountService
-            .transfer(eq(fromAccount.getAccountNumber()), eq(toAccount.getAccountNumber()), eq(request.getAmount())))
+            .transfer(eq(fromAccount.getAccountNumber()), eq(toAccount.getAccountNumber()), eq(request.getAmount()),
+                isNull(), isNull()))
             .thenThrow(new RuntimeException("generic"));
 
         assertThrows(RuntimeException.class, () ->  controller.transfer(ctx));
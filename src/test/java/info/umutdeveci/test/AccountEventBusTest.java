@@ -0,0 +1,259 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEvent;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.event.AccountEventHandler;
+import info.umutdeveci.service.event.AccountEventType;
+import info.umutdeveci.service.event.EventConsumer;
+import info.umutdeveci.service.event.EventCursor;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class AccountEventBusTest {
+
+    @Test
+    void mutationsArePublishedInOrder() {
+        final AccountEventBus bus = new AccountEventBus(16);
+        final InMemoryAccountService service = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100")),
+            new AccountEntity("a2", new BigDecimal("50"))), bus);
+        final EventCursor cursor = bus.newCursor();
+
+        service.withdraw("a1", new BigDecimal("10"));
+        service.deposit("a2", new BigDecimal("5"));
+        service.transfer("a1", "a2", new BigDecimal("20"));
+        assertThrows(Problem.class, () -> service.withdraw("a2", new BigDecimal("1000")));
+
+        final List<String> events = new ArrayList<>();
+        assertEquals(3, cursor.poll(event -> events.add(describe(event)), 10));
+        assertEquals(Arrays.asList(
+            "0 BALANCE_CHANGED a1 90 -10 null null",
+            "1 BALANCE_CHANGED a2 55 5 null null",
+            "2 TRANSFER_APPLIED a1 70 20 a2 75"), events);
+        assertEquals(0, cursor.getLag());
+        assertEquals(0, cursor.poll(event -> events.add(describe(event)), 10));
+    }
+
+    @Test
+    void slowLossyCursorIsToldAboutMissedEvents() {
+        final AccountEventBus bus = new AccountEventBus(8);
+        final EventCursor cursor = bus.newLossyCursor();
+        for (int i = 0; i < 20; i++) {
+            bus.publishBalanceChanged("a1", BigDecimal.valueOf(i), BigDecimal.ONE);
+        }
+
+        final List<Long> sequences = new ArrayList<>();
+        final AtomicLong missed = new AtomicLong();
+        cursor.poll(new AccountEventHandler() {
+            @Override
+            public void onEvent(final AccountEvent event) {
+                sequences.add(event.getSequence());
+            }
+
+            @Override
+            public void onOverrun(final long missedEvents) {
+                missed.addAndGet(missedEvents);
+            }
+        }, 100);
+
+        assertEquals(16, missed.get());
+        assertEquals(Arrays.asList(16L, 17L, 18L, 19L), sequences);
+    }
+
+    @Test
+    void producersWaitForGatingCursors() throws Exception {
+        final AccountEventBus bus = new AccountEventBus(8, TimeUnit.SECONDS.toMicros(30));
+        final EventCursor cursor = bus.newCursor();
+        final EventCursor lossy = bus.newLossyCursor();
+        for (int i = 0; i < 8; i++) {
+            bus.publishBalanceChanged("a1", BigDecimal.valueOf(i), BigDecimal.ONE);
+        }
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> ninth = executor.submit(() -> bus.publishBalanceChanged("a1", BigDecimal.TEN,
+                BigDecimal.ONE));
+            assertThrows(TimeoutException.class, () -> ninth.get(100, TimeUnit.MILLISECONDS));
+
+            final List<Long> sequences = new ArrayList<>();
+            assertEquals(1, cursor.poll(event -> sequences.add(event.getSequence()), 1));
+            ninth.get(10, TimeUnit.SECONDS);
+            assertEquals(8, cursor.poll(event -> sequences.add(event.getSequence()), 100));
+            assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L), sequences);
+
+            // A closed cursor no longer holds producers back
+            cursor.close();
+            for (int i = 0; i < 16; i++) {
+                bus.publishBalanceChanged("a1", BigDecimal.valueOf(i), BigDecimal.ONE);
+            }
+            assertEquals(25, bus.getNextSequence());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final AtomicLong missed = new AtomicLong();
+        lossy.poll(new AccountEventHandler() {
+            @Override
+            public void onEvent(final AccountEvent event) {
+            }
+
+            @Override
+            public void onOverrun(final long missedEvents) {
+                missed.addAndGet(missedEvents);
+            }
+        }, 100);
+        assertTrue(missed.get() > 0);
+    }
+
+    @Test
+    void producersOverrunAGatingCursorAfterTheMaximumWait() {
+        final long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        final AccountEventBus bus = new AccountEventBus(8, TimeUnit.NANOSECONDS.toMicros(maxWaitNanos));
+        final EventCursor cursor = bus.newCursor();
+
+        // Only the producer that laps the cursor first waits, the cursor stops gating then
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            bus.publishBalanceChanged("a1", BigDecimal.valueOf(i), BigDecimal.ONE);
+        }
+        assertTrue(System.nanoTime() - start >= maxWaitNanos);
+
+        final List<Long> sequences = new ArrayList<>();
+        final AtomicLong missed = new AtomicLong();
+        final AccountEventHandler handler = new AccountEventHandler() {
+            @Override
+            public void onEvent(final AccountEvent event) {
+                sequences.add(event.getSequence());
+            }
+
+            @Override
+            public void onOverrun(final long missedEvents) {
+                missed.addAndGet(missedEvents);
+            }
+        };
+        cursor.poll(handler, 100);
+        assertEquals(16, missed.get());
+        assertEquals(Arrays.asList(16L, 17L, 18L, 19L), sequences);
+
+        // Once overrun, the cursor gates again
+        start = System.nanoTime();
+        for (int i = 0; i < 9; i++) {
+            bus.publishBalanceChanged("a1", BigDecimal.valueOf(i), BigDecimal.ONE);
+        }
+        assertTrue(System.nanoTime() - start >= maxWaitNanos);
+    }
+
+    @Test
+    void consumerThatDiesStopsGating() throws Exception {
+        final AccountEventBus bus = new AccountEventBus(8, TimeUnit.SECONDS.toMicros(30));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (EventConsumer consumer = new EventConsumer("failing", bus, event -> {
+            throw new AssertionError("Handler failed");
+        }, true).start()) {
+            bus.publishBalanceChanged("a1", BigDecimal.ONE, BigDecimal.ONE);
+            // Takes the whole wait unless the consumer's cursor was closed when its thread died
+            executor.submit(() -> {
+                for (int i = 0; i < 20; i++) {
+                    bus.publishBalanceChanged("a1", BigDecimal.valueOf(i), BigDecimal.ONE);
+                }
+            }).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void independentConsumersSeeEveryEventOfConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int transfersPerProducer = 5_000;
+        // Far fewer slots than events, the gating consumers keep up because producers wait for them
+        final AccountEventBus bus = new AccountEventBus(256, TimeUnit.SECONDS.toMicros(10));
+        final InMemoryAccountService service = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("1000000")),
+            new AccountEntity("a2", new BigDecimal("1000000"))), bus);
+
+        final SequenceChecker audit = new SequenceChecker();
+        final SequenceChecker analytics = new SequenceChecker();
+        final ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try (EventConsumer first = new EventConsumer("audit", bus, audit, true).start();
+            EventConsumer second = new EventConsumer("analytics", bus, analytics, true).start()) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < producers; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < transfersPerProducer; j++) {
+                        final boolean forward = ThreadLocalRandom.current().nextBoolean();
+                        service.transfer(forward ? "a1" : "a2", forward ? "a2" : "a1", BigDecimal.ONE);
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while ((first.getLag() > 0 || second.getLag() > 0) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (final SequenceChecker checker : Arrays.asList(audit, analytics)) {
+            assertNull(checker.error);
+            assertEquals(producers * transfersPerProducer, checker.count);
+            // Events are published under the service lock, so the last one holds the final balances
+            assertEquals(service.get("a1").getBalance(), checker.lastA1);
+            assertEquals(service.get("a2").getBalance(), checker.lastA2);
+        }
+    }
+
+    private static String describe(final AccountEvent event) {
+        return String.join(" ", String.valueOf(event.getSequence()), event.getType().name(),
+            event.getAccountNumber(), String.valueOf(event.getBalance()), String.valueOf(event.getAmount()),
+            event.getToAccountNumber(), String.valueOf(event.getToBalance()));
+    }
+
+    private static class SequenceChecker implements AccountEventHandler {
+
+        private long count;
+        private long expectedSequence;
+        private volatile String error;
+        private BigDecimal lastA1;
+        private BigDecimal lastA2;
+
+        @Override
+        public void onEvent(final AccountEvent event) {
+            if (event.getSequence() != expectedSequence || event.getType() != AccountEventType.TRANSFER_APPLIED) {
+                error = "Unexpected event " + event + ", expected sequence " + expectedSequence;
+            }
+            expectedSequence++;
+            count++;
+            final boolean forward = "a1".equals(event.getAccountNumber());
+            lastA1 = forward ? event.getBalance() : event.getToBalance();
+            lastA2 = forward ? event.getToBalance() : event.getBalance();
+        }
+
+        @Override
+        public void onOverrun(final long missedEvents) {
+            error = "Missed " + missedEvents + " events";
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.export.AccountExportReader;
+import info.umutdeveci.export.AccountExportWriter;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+class AccountExportTest {
+
+    private static final int ACCOUNTS = 2000;
+    private static final int SEGMENTS = 64;
+
+    @Test
+    void exportIsReadBack() throws IOException {
+        final List<AccountEntity> accounts = new ArrayList<>();
+        accounts.add(new AccountEntity("TR-0001", new BigDecimal("10.5")));
+        accounts.add(new AccountEntity("TR-0002", new BigDecimal("0.125"), 7));
+        accounts.add(new AccountEntity("TR-0010", new BigDecimal("123456789")));
+        accounts.add(new AccountEntity("hesap-\u00fc", BigDecimal.ZERO, 3));
+        final InMemoryAccountService service = new InMemoryAccountService(accounts, new AccountEventBus(64), 1);
+        service.withdraw("TR-0001", new BigDecimal("0.5"));
+
+        final Map<String, Account> exported = readBack(export(service, 42), 42);
+
+        assertEquals(4, exported.size());
+        assertEquals(new Account("TR-0001", new BigDecimal("10.000"), 1L), exported.get("TR-0001"));
+        assertEquals(new Account("TR-0002", new BigDecimal("0.125"), 7L), exported.get("TR-0002"));
+        assertEquals(0, new BigDecimal("123456789").compareTo(exported.get("TR-0010").getBalance()));
+        assertEquals(3L, exported.get("hesap-\u00fc").getVersion());
+    }
+
+    @Test
+    void exportIsConsistentWhileTransfersRun() throws Exception {
+        final AccountEventBus eventBus = new AccountEventBus(1024);
+        final InMemoryAccountService service = new InMemoryAccountService(accounts(), eventBus, SEGMENTS);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                workers.add(executor.submit(() -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        final int from = random.nextInt(ACCOUNTS);
+                        final int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                        try {
+                            service.transfer("a" + from, "a" + to, new BigDecimal(random.nextInt(1, 50)));
+                        } catch (Problem problem) {
+                            // Not enough balance
+                        }
+                    }
+                }));
+            }
+
+            while (eventBus.getNextSequence() < 1000) {
+                Thread.sleep(1);
+            }
+
+            // A slow consumer leaves time for many transfers between the segment copies
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final AccountExportWriter writer = new AccountExportWriter(out, 0);
+            service.exportSnapshot(batch -> {
+                writer.writeGroup(batch);
+                sleep();
+            });
+            writer.finish();
+            running.set(false);
+            for (final Future<?> worker : workers) {
+                worker.get(10, TimeUnit.SECONDS);
+            }
+
+            final Map<String, Account> exported = readBack(out.toByteArray(), 0);
+            assertEquals(ACCOUNTS, exported.size());
+            final BigDecimal total = exported.values().stream().map(Account::getBalance)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+            assertEquals(0, new BigDecimal(ACCOUNTS * 100).compareTo(total), "Exported total " + total);
+            assertTrue(exported.values().stream().anyMatch(account -> account.getVersion() > 0));
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void accountsCreatedAfterTheCutAreNotExported() throws IOException {
+        final InMemoryAccountService service = new InMemoryAccountService(accounts(), new AccountEventBus(1024),
+            SEGMENTS);
+        final List<AccountEntity> created = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            created.add(new AccountEntity("new" + i, BigDecimal.ONE));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AccountExportWriter writer = new AccountExportWriter(out, 0);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        service.exportSnapshot(batch -> {
+            if (first.getAndSet(false)) {
+                service.importAccounts(created);
+                service.deposit("a1", BigDecimal.TEN);
+            }
+            writer.writeGroup(batch);
+        });
+        writer.finish();
+
+        final Map<String, Account> exported = readBack(out.toByteArray(), 0);
+        assertEquals(ACCOUNTS, exported.size());
+        assertFalse(exported.containsKey("new0"));
+        assertEquals(0, new BigDecimal(100).compareTo(exported.get("a1").getBalance()));
+        // Pre-images are only kept during the export
+        assertEquals(ACCOUNTS + created.size(), readBack(export(service, 0), 0).size());
+    }
+
+    @Test
+    void accountsClosedAfterTheCutAreExported() throws IOException {
+        final InMemoryAccountService service = new InMemoryAccountService(accounts(), new AccountEventBus(1024),
+            SEGMENTS);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AccountExportWriter writer = new AccountExportWriter(out, 0);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        service.exportSnapshot(batch -> {
+            if (first.getAndSet(false)) {
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    service.withdraw("a" + i, new BigDecimal(100));
+                    service.closeAccount("a" + i, null);
+                }
+                service.openAccount("new", BigDecimal.ZERO);
+                service.closeAccount("new", null);
+            }
+            writer.writeGroup(batch);
+        });
+        writer.finish();
+
+        final Map<String, Account> exported = readBack(out.toByteArray(), 0);
+        assertEquals(ACCOUNTS, exported.size());
+        assertTrue(exported.values().stream().allMatch(account -> account.getVersion() == 0
+            && account.getBalance().compareTo(new BigDecimal(100)) == 0));
+        assertFalse(exported.containsKey("new"));
+        assertEquals(0, readBack(export(service, 0), 0).size());
+    }
+
+    @Test
+    void concurrentExportIsRejected() {
+        final InMemoryAccountService service = new InMemoryAccountService(accounts(), new AccountEventBus(1024),
+            SEGMENTS);
+
+        final AtomicBoolean first = new AtomicBoolean(true);
+        service.exportSnapshot(batch -> {
+            if (first.getAndSet(false)) {
+                final Problem problem = assertThrows(Problem.class,
+                    () -> service.exportSnapshot(other -> { }));
+                assertEquals(HttpStatus.CONFLICT_409, problem.getHttpCode());
+            }
+        });
+
+        assertFalse(first.get());
+    }
+
+    private static List<AccountEntity> accounts() {
+        final List<AccountEntity> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(new AccountEntity("a" + i, new BigDecimal(100)));
+        }
+        return accounts;
+    }
+
+    private static byte[] export(final InMemoryAccountService service, final long createdAt) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AccountExportWriter writer = new AccountExportWriter(out, createdAt);
+        service.exportSnapshot(writer::writeGroup);
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    private static Map<String, Account> readBack(final byte[] export, final long createdAt) throws IOException {
+        final AccountExportReader reader = new AccountExportReader(new ByteArrayInputStream(export));
+        assertEquals(createdAt, reader.getCreatedAt());
+
+        final Map<String, Account> accounts = new HashMap<>();
+        List<Account> group;
+        while ((group = reader.readGroup()) != null) {
+            final List<String> numbers = new ArrayList<>();
+            group.forEach(account -> numbers.add(account.getAccountNumber()));
+            final List<String> sorted = new ArrayList<>(numbers);
+            Collections.sort(sorted);
+            assertEquals(sorted, numbers);
+            group.forEach(account -> accounts.put(account.getAccountNumber(), account));
+        }
+        assertNull(reader.readGroup());
+        assertEquals(accounts.size(), reader.getTotalRows());
+        return accounts;
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.importer.ImportFormat;
+import info.umutdeveci.service.model.ImportResult;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AccountImporterTest {
+
+    private InMemoryAccountService service;
+    private AccountImporter importer;
+
+    @BeforeEach
+    void setup() {
+        service = new InMemoryAccountService(Collections.emptyList());
+        final ObjectMapper mapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+        // Small batches so a handful of lines is already spread over several workers
+        importer = new AccountImporter(service, mapper, 4, 3);
+    }
+
+    @Test
+    void importCsv() {
+        final String csv = "account_number,balance\n"
+            + "a1,10.50\n"
+            + "a2,0\n"
+            + "\"a3\",\"7\"\n"
+            + "\n"
+            + "a4,100\n";
+
+        final ImportResult result = importer.importAccounts(stream(csv), ImportFormat.CSV);
+
+        assertEquals(4, result.getImported());
+        assertEquals(0, result.getRejected());
+        assertEquals(4, service.getAll().size());
+        assertEquals(new BigDecimal("10.50"), service.get("a1").getBalance());
+        assertEquals(new BigDecimal("7"), service.get("a3").getBalance());
+    }
+
+    @Test
+    void importNdjson() {
+        final String ndjson = "{\"account_number\": \"a1\", \"balance\": 1.25}\n"
+            + "{\"account_number\": \"a2\", \"balance\": 3}\n";
+
+        final ImportResult result = importer.importAccounts(stream(ndjson), ImportFormat.NDJSON);
+
+        assertEquals(2, result.getImported());
+        assertEquals(new BigDecimal("1.25"), service.get("a1").getBalance());
+    }
+
+    @Test
+    void invalidRecordsAreRejected() {
+        final String csv = "a1,10\n"
+            + "a2,-5\n"
+            + "a3\n"
+            + ",4\n"
+            + "a5,not a number\n"
+            + "a6,1\n";
+
+        final ImportResult result = importer.importAccounts(stream(csv), ImportFormat.CSV);
+
+        assertEquals(2, result.getImported());
+        assertEquals(4, result.getRejected());
+        assertEquals(4, result.getErrors().size());
+        assertThrows(Problem.class, () -> service.get("a2"));
+    }
+
+    @Test
+    void duplicatesAreSkipped() {
+        importer.importAccounts(stream("a1,10\n"), ImportFormat.CSV);
+
+        final ImportResult result = importer.importAccounts(stream("a1,20\na2,20\na2,30\n"), ImportFormat.CSV);
+
+        assertEquals(1, result.getImported());
+        assertEquals(2, result.getDuplicates());
+        assertEquals(new BigDecimal("10"), service.get("a1").getBalance());
+        assertEquals(new BigDecimal("20"), service.get("a2").getBalance());
+    }
+
+    @Test
+    void failedBatchRejectsOnlyTheAccountsItSent() {
+        final InMemoryAccountService failing = new InMemoryAccountService(Collections.emptyList()) {
+            @Override
+            public int importAccounts(final List<AccountEntity> accountEntities) {
+                throw new IllegalStateException("Storage is full");
+            }
+        };
+        final String csv = "a1,10\n"
+            + "a2,-5\n"
+            + "\n"
+            + "a4,1\n";
+
+        final ImportResult result = new AccountImporter(failing,
+            new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE), 1, 4)
+            .importAccounts(stream(csv), ImportFormat.CSV);
+
+        assertEquals(0, result.getImported());
+        assertEquals(3, result.getRejected());
+        assertEquals(2, result.getErrors().size());
+    }
+
+    @Test
+    void largeImport() {
+        final StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            csv.append("acc-").append(i).append(',').append(i).append('\n');
+        }
+
+        final ImportResult result = new AccountImporter(service,
+            new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE), 4, 512)
+            .importAccounts(stream(csv.toString()), ImportFormat.CSV);
+
+        assertEquals(10_000, result.getImported());
+        assertEquals(10_000, service.getAll().size());
+    }
+
+    private InputStream stream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,119 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.Application;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.cache.AccountListCache.Snapshot;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AccountListCacheTest {
+
+    private static final int CHUNKS = 16;
+
+    private final ObjectMapper mapper = Application.createObjectMapper();
+
+    private AccountEventBus eventBus;
+    private InMemoryAccountService service;
+    private AccountListCache cache;
+
+    @BeforeEach
+    void setup() {
+        final List<AccountEntity> accounts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            accounts.add(new AccountEntity("a" + i, new BigDecimal(100)));
+        }
+        eventBus = new AccountEventBus(64);
+        service = new InMemoryAccountService(accounts, eventBus);
+        cache = new AccountListCache(service, eventBus, mapper, CHUNKS);
+    }
+
+    @Test
+    void unchangedListIsServedFromTheSameBytes() throws IOException {
+        final Snapshot first = cache.get();
+        assertEquals(100, balances(first.getJson()).size());
+        assertEquals(CHUNKS, cache.getChunkRebuilds());
+
+        assertSame(first, cache.get());
+        assertEquals(CHUNKS, cache.getChunkRebuilds());
+    }
+
+    @Test
+    void onlyChangedChunksAreSerializedAgain() throws IOException {
+        cache.get();
+
+        service.transfer("a1", "a2", BigDecimal.TEN);
+        final Map<String, BigDecimal> balances = balances(cache.get().getJson());
+
+        assertEquals(0, new BigDecimal(90).compareTo(balances.get("a1")));
+        assertEquals(0, new BigDecimal(110).compareTo(balances.get("a2")));
+        // One or two chunks, depending on where the two accounts fall
+        final long rebuilds = cache.getChunkRebuilds() - CHUNKS;
+        assertTrue(rebuilds >= 1 && rebuilds <= 2, "Rebuilt " + rebuilds + " chunks");
+    }
+
+    @Test
+    void importedAccountsAreListed() throws IOException {
+        cache.get();
+
+        service.importAccounts(Collections.singletonList(new AccountEntity("new", BigDecimal.ONE)));
+
+        final Map<String, BigDecimal> balances = balances(cache.get().getJson());
+        assertEquals(101, balances.size());
+        assertEquals(BigDecimal.ONE, balances.get("new"));
+    }
+
+    @Test
+    void overrunRebuildsEverything() throws IOException {
+        cache.get();
+
+        // More changes than the ring holds
+        for (int i = 0; i < 200; i++) {
+            service.deposit("a" + (i % 100), BigDecimal.ONE);
+        }
+
+        final Map<String, BigDecimal> balances = balances(cache.get().getJson());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, new BigDecimal(102).compareTo(balances.get("a" + i)));
+        }
+        assertEquals(2 * CHUNKS, cache.getChunkRebuilds());
+    }
+
+    @Test
+    void gzipVariantHasTheSameContent() throws IOException {
+        service.withdraw("a5", BigDecimal.ONE);
+        final Snapshot snapshot = cache.get();
+
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(snapshot.getGzip()))) {
+            assertArrayEquals(snapshot.getJson(), inputStream.readAllBytes());
+        }
+        assertSame(snapshot.getGzip(), snapshot.getGzip());
+    }
+
+    private Map<String, BigDecimal> balances(final byte[] json) throws IOException {
+        final Map<String, BigDecimal> balances = new HashMap<>();
+        for (final JsonNode account : mapper.readTree(json)) {
+            balances.put(account.get("account_number").asText(), account.get("balance").decimalValue());
+        }
+        return balances;
+    }
+}
@@ -0,0 +1,103 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import info.umutdeveci.service.id.AccountNumberGenerator;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class AccountNumberGeneratorTest {
+
+    @Test
+    void idsAreMadeOfTimestampNodeAndSequence() {
+        final long now = AccountNumberGenerator.EPOCH_MILLIS + 1000;
+        final AccountNumberGenerator generator = new AccountNumberGenerator(fixedClock(now), 5);
+
+        assertEquals(1000L << 22 | 5L << 12, generator.nextId());
+        assertEquals(1000L << 22 | 5L << 12 | 1, generator.nextId());
+        assertEquals("0000000000000", AccountNumberGenerator.format(0));
+        assertEquals("000000000001Z", AccountNumberGenerator.format(63));
+        assertEquals(13, generator.nextAccountNumber().length());
+        assertThrows(IllegalArgumentException.class, () -> new AccountNumberGenerator(Clock.systemUTC(), 1024));
+    }
+
+    @Test
+    void burstsAndClockSetBackDoNotRepeatIds() {
+        final AtomicLong millis = new AtomicLong(AccountNumberGenerator.EPOCH_MILLIS + 1000);
+        final AccountNumberGenerator generator = new AccountNumberGenerator(new Clock() {
+            @Override
+            public java.time.ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(final java.time.ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(millis.get());
+            }
+        }, 1);
+
+        long previous = -1;
+        for (int i = 0; i < 10_000; i++) {
+            if (i == 5000) {
+                millis.addAndGet(-500);
+            }
+            final long id = generator.nextId();
+            assertTrue(id > previous, "Id " + id + " after " + previous);
+            previous = id;
+        }
+        // More than a millisecond worth of sequence was used up, so ids were taken from the following milliseconds
+        assertTrue(previous >>> 22 > 1000);
+    }
+
+    @Test
+    void concurrentCallersGetDistinctNumbers() throws Exception {
+        final AccountNumberGenerator generator = new AccountNumberGenerator(Clock.systemUTC(), 0);
+        final AccountNumberGenerator otherNode = new AccountNumberGenerator(Clock.systemUTC(), 1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<String>>> results = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                final AccountNumberGenerator used = thread % 2 == 0 ? generator : otherNode;
+                results.add(executor.submit(() -> {
+                    final List<String> numbers = new ArrayList<>();
+                    for (int i = 0; i < 20_000; i++) {
+                        numbers.add(used.nextAccountNumber());
+                    }
+                    return numbers;
+                }));
+            }
+
+            final Set<String> numbers = new HashSet<>();
+            for (final Future<List<String>> result : results) {
+                numbers.addAll(result.get(30, TimeUnit.SECONDS));
+            }
+            assertEquals(8 * 20_000, numbers.size());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertNotEquals(generator.nextAccountNumber(), otherNode.nextAccountNumber());
+    }
+
+    private static Clock fixedClock(final long millis) {
+        return Clock.fixed(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+}
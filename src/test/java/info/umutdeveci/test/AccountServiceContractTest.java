@@ -0,0 +1,276 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.model.Hold;
+import info.umutdeveci.service.model.MultiTransferResult;
+import info.umutdeveci.service.model.TransferLeg;
+import info.umutdeveci.service.model.TransferResult;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Behaviour every {@link AccountService} should have, implementations are tested by extending this class. Balances are
+ * compared with their scale, a service should return them as they were written.
+ */
+abstract class AccountServiceContractTest {
+
+    /**
+     * @return a new service holding the given accounts and nothing else
+     */
+    protected abstract AccountService createService(List<AccountEntity> accounts);
+
+    @Test
+    void contractGetAll() {
+        final AccountService service = createService(accounts());
+
+        final List<Account> accounts = new ArrayList<>(service.getAll());
+        accounts.sort((first, second) -> first.getAccountNumber().compareTo(second.getAccountNumber()));
+
+        assertEquals(Arrays.asList(new Account("a1", new BigDecimal("100.50"), 0L),
+            new Account("a2", new BigDecimal("50"), 3L), new Account("a3", BigDecimal.ZERO, 0L),
+            new Account("a4", new BigDecimal("0.125"), 0L)), accounts);
+        assertEquals(new Account("a2", new BigDecimal("50"), 3L), service.get("a2"));
+        final Problem problem = assertThrows(Problem.class, () -> service.get("does not exist"));
+        assertEquals(HttpStatus.BAD_REQUEST_400, problem.getHttpCode());
+    }
+
+    @Test
+    void contractWithdrawAndDeposit() {
+        final AccountService service = createService(accounts());
+
+        assertEquals(new Account("a1", new BigDecimal("90.25"), 1L),
+            service.withdraw("a1", new BigDecimal("10.25")));
+        assertEquals(new Account("a1", new BigDecimal("91.25"), 2L), service.deposit("a1", BigDecimal.ONE));
+        assertEquals(new Account("a1", new BigDecimal("91.25"), 2L), service.get("a1"));
+
+        assertThrows(Problem.class, () -> service.withdraw("a1", new BigDecimal("91.26")));
+        assertThrows(Problem.class, () -> service.withdraw("a1", BigDecimal.ZERO));
+        assertThrows(Problem.class, () -> service.deposit("a1", BigDecimal.ONE.negate()));
+        assertThrows(Problem.class, () -> service.deposit("does not exist", BigDecimal.ONE));
+        assertEquals(new Account("a1", new BigDecimal("91.25"), 2L), service.get("a1"));
+    }
+
+    @Test
+    void contractConditionalWrites() {
+        final AccountService service = createService(accounts());
+
+        final Problem problem = assertThrows(Problem.class, () -> service.deposit("a2", BigDecimal.ONE, 2L));
+        assertEquals(HttpStatus.PRECONDITION_FAILED_412, problem.getHttpCode());
+        assertEquals(4L, service.deposit("a2", BigDecimal.ONE, 3L).getVersion());
+
+        assertThrows(Problem.class, () -> service.transfer("a1", "a2", BigDecimal.TEN, 0L, 3L));
+        assertEquals(new BigDecimal("100.50"), service.get("a1").getBalance());
+        assertEquals(new BigDecimal("51"), service.get("a2").getBalance());
+
+        final TransferResult result = service.transfer("a1", "a2", BigDecimal.TEN, 0L, 4L);
+        assertEquals(new Account("a1", new BigDecimal("90.50"), 1L), result.getFromAccount());
+        assertEquals(new Account("a2", new BigDecimal("61"), 5L), result.getToAccount());
+    }
+
+    @Test
+    void contractTransfer() {
+        final AccountService service = createService(accounts());
+
+        final TransferResult result = service.transfer("a1", "a3", new BigDecimal("0.50"));
+        assertEquals(new Account("a1", new BigDecimal("100.00"), 1L), result.getFromAccount());
+        assertEquals(new Account("a3", new BigDecimal("0.50"), 1L), result.getToAccount());
+
+        assertThrows(Problem.class, () -> service.transfer("a3", "a1", BigDecimal.ONE));
+        assertThrows(Problem.class, () -> service.transfer("a1", "a1", BigDecimal.ONE));
+        assertThrows(Problem.class, () -> service.transfer("a1", "a3", BigDecimal.ZERO));
+        assertThrows(Problem.class, () -> service.transfer("a1", "does not exist", BigDecimal.ONE));
+        assertThrows(Problem.class, () -> service.transfer("does not exist", "a1", BigDecimal.ONE));
+        assertEquals(new BigDecimal("100.00"), service.get("a1").getBalance());
+        assertEquals(new BigDecimal("0.50"), service.get("a3").getBalance());
+    }
+
+    @Test
+    void contractMultiTransfer() {
+        final AccountService service = createService(accounts());
+
+        // Not enough balance on the second debit, the first one is not applied either
+        assertThrows(Problem.class, () -> service.multiTransfer(
+            Arrays.asList(new TransferLeg("a1", new BigDecimal("60")), new TransferLeg("a2", new BigDecimal("51"))),
+            Collections.singletonList(new TransferLeg("a3", new BigDecimal("111")))));
+        assertEquals(new Account("a1", new BigDecimal("100.50"), 0L), service.get("a1"));
+        assertThrows(Problem.class, () -> service.multiTransfer(
+            Collections.singletonList(new TransferLeg("a1", BigDecimal.ONE)),
+            Collections.singletonList(new TransferLeg("does not exist", BigDecimal.ONE))));
+
+        final MultiTransferResult result = service.multiTransfer(
+            Arrays.asList(new TransferLeg("a1", new BigDecimal("60")), new TransferLeg("a2", new BigDecimal("20"))),
+            Arrays.asList(new TransferLeg("a3", new BigDecimal("30")), new TransferLeg("a4", new BigDecimal("50"))));
+
+        assertEquals(Arrays.asList(new Account("a1", new BigDecimal("40.50"), 1L),
+            new Account("a2", new BigDecimal("30"), 4L), new Account("a3", new BigDecimal("30"), 1L),
+            new Account("a4", new BigDecimal("50.125"), 1L)), result.getAccounts());
+        assertEquals(new Account("a4", new BigDecimal("50.125"), 1L), service.get("a4"));
+    }
+
+    @Test
+    void contractImport() {
+        final AccountService service = createService(accounts());
+
+        assertEquals(1, service.importAccounts(Arrays.asList(new AccountEntity("a1", BigDecimal.ONE),
+            new AccountEntity("a5", new BigDecimal("5.5")))));
+
+        assertEquals(5, service.getAll().size());
+        assertEquals(new Account("a1", new BigDecimal("100.50"), 0L), service.get("a1"));
+        assertEquals(new Account("a5", new BigDecimal("5.5"), 0L), service.get("a5"));
+    }
+
+    @Test
+    void contractOpenAndCloseAccount() {
+        final AccountService service = createService(accounts());
+
+        assertEquals(new Account("a5", new BigDecimal("5.50"), 0L), service.openAccount("a5", new BigDecimal("5.50")));
+        assertEquals(new Account("a5", new BigDecimal("5.50"), 0L), service.get("a5"));
+        assertEquals(HttpStatus.CONFLICT_409,
+            assertThrows(Problem.class, () -> service.openAccount("a1", BigDecimal.ONE)).getHttpCode());
+        assertEquals(HttpStatus.BAD_REQUEST_400,
+            assertThrows(Problem.class, () -> service.openAccount("a6", BigDecimal.ONE.negate())).getHttpCode());
+
+        // Only empty accounts can be closed
+        assertEquals(HttpStatus.CONFLICT_409,
+            assertThrows(Problem.class, () -> service.closeAccount("a5", null)).getHttpCode());
+        service.withdraw("a5", new BigDecimal("5.50"));
+        assertEquals(HttpStatus.PRECONDITION_FAILED_412,
+            assertThrows(Problem.class, () -> service.closeAccount("a5", 0L)).getHttpCode());
+        assertEquals(new Account("a5", new BigDecimal("0.00"), 1L), service.closeAccount("a5", 1L));
+        assertEquals(new Account("a3", BigDecimal.ZERO, 0L), service.closeAccount("a3", null));
+
+        assertThrows(Problem.class, () -> service.get("a5"));
+        assertThrows(Problem.class, () -> service.closeAccount("a5", null));
+        assertThrows(Problem.class, () -> service.deposit("a3", BigDecimal.ONE));
+        assertEquals(Arrays.asList("a4", "a2", "a1"), accountNumbers(service.findByBalance(null, null, false, 10)));
+        assertEquals(3, service.getAll().size());
+
+        // A closed number can be used again
+        assertEquals(new Account("a3", BigDecimal.ONE, 0L), service.openAccount("a3", BigDecimal.ONE));
+    }
+
+    @Test
+    void contractHolds() {
+        final AccountService service = createService(accounts());
+        final long now = System.currentTimeMillis();
+
+        final Hold hold = service.authorize("a1", new BigDecimal("60.50"), now + 60_000);
+        assertEquals("a1", hold.getAccountNumber());
+        assertEquals(new Account("a1", new BigDecimal("100.50"), 1L, new BigDecimal("40.00")), service.get("a1"));
+
+        // Held funds can not be withdrawn, transferred or held again
+        assertThrows(Problem.class, () -> service.withdraw("a1", new BigDecimal("40.01")));
+        assertThrows(Problem.class, () -> service.transfer("a1", "a2", new BigDecimal("40.01")));
+        assertThrows(Problem.class, () -> service.authorize("a1", new BigDecimal("40.01"), now + 60_000));
+        assertEquals(new Account("a1", new BigDecimal("90.50"), 2L, new BigDecimal("30.00")),
+            service.withdraw("a1", BigDecimal.TEN));
+
+        // A partial capture gives the rest back
+        assertEquals(HttpStatus.BAD_REQUEST_400, assertThrows(Problem.class,
+            () -> service.capture(hold.getId(), new BigDecimal("60.51"))).getHttpCode());
+        assertEquals(new Account("a1", new BigDecimal("40.50"), 3L),
+            service.capture(hold.getId(), new BigDecimal("50")));
+        assertEquals(HttpStatus.NOT_FOUND_404,
+            assertThrows(Problem.class, () -> service.capture(hold.getId(), null)).getHttpCode());
+        assertEquals(HttpStatus.NOT_FOUND_404,
+            assertThrows(Problem.class, () -> service.release(hold.getId())).getHttpCode());
+
+        final Hold released = service.authorize("a2", BigDecimal.TEN, now + 60_000);
+        assertEquals(new Account("a2", new BigDecimal("50"), 5L), service.release(released.getId()));
+
+        // Only the holds that are due expire
+        final Hold expiring = service.authorize("a2", new BigDecimal("20"), now + 5_000);
+        final Hold pending = service.authorize("a2", new BigDecimal("30"), now + 60_000);
+        assertEquals(0, service.expireHolds(now + 4_000));
+        assertEquals(1, service.expireHolds(now + 7_000));
+        assertEquals(HttpStatus.NOT_FOUND_404,
+            assertThrows(Problem.class, () -> service.capture(expiring.getId(), null)).getHttpCode());
+        assertEquals(new Account("a2", new BigDecimal("50"), 8L, new BigDecimal("20")), service.get("a2"));
+        assertEquals(new Account("a2", new BigDecimal("20"), 9L), service.capture(pending.getId(), null));
+        assertEquals(0, service.expireHolds(now + 120_000));
+
+        assertThrows(Problem.class, () -> service.authorize("does not exist", BigDecimal.ONE, now + 60_000));
+        assertThrows(Problem.class, () -> service.authorize("a3", BigDecimal.ZERO, now + 60_000));
+    }
+
+    @Test
+    void contractFindByBalance() {
+        final AccountService service = createService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("10")),
+            new AccountEntity("a2", new BigDecimal("50")),
+            new AccountEntity("a3", new BigDecimal("50.00")),
+            new AccountEntity("a4", new BigDecimal("100")),
+            new AccountEntity("a5", new BigDecimal("200"))));
+
+        assertEquals(Arrays.asList("a2", "a3", "a4"), accountNumbers(
+            service.findByBalance(new BigDecimal("50"), new BigDecimal("100"), false, 10)));
+        assertEquals(Arrays.asList("a5", "a4"), accountNumbers(service.findByBalance(null, null, true, 2)));
+
+        service.withdraw("a5", new BigDecimal("190"));
+        assertEquals(Arrays.asList(new Account("a1", new BigDecimal("10"), 0L),
+            new Account("a5", new BigDecimal("10"), 1L)), service.findByBalance(null, new BigDecimal("10"), false, 10));
+        assertTrue(service.findByBalance(new BigDecimal("150"), null, false, 10).isEmpty());
+    }
+
+    @Test
+    void contractAdjustBalances() {
+        final AccountService service = createService(accounts());
+
+        // A fee larger than the balance takes the balance, zero adjustments and missing accounts are skipped
+        final int adjusted = service.adjustBalances(Arrays.asList("a1", "a2", "a3", "does not exist"),
+            balance -> balance.signum() == 0 ? BigDecimal.ZERO : new BigDecimal("-60"));
+
+        assertEquals(2, adjusted);
+        assertEquals(new Account("a1", new BigDecimal("40.50"), 1L), service.get("a1"));
+        assertEquals(new Account("a2", new BigDecimal("0"), 4L), service.get("a2"));
+        assertEquals(new Account("a3", BigDecimal.ZERO, 0L), service.get("a3"));
+    }
+
+    @Test
+    void contractExportSnapshot() {
+        final AccountService service = createService(accounts());
+        service.deposit("a3", BigDecimal.TEN);
+
+        final Map<String, AccountEntity> exported = new HashMap<>();
+        service.exportSnapshot(batch -> batch.forEach(entity -> exported.put(entity.getAccountNumber(), entity)));
+
+        assertEquals(4, exported.size());
+        assertEquals(new AccountEntity("a3", BigDecimal.TEN, 1L), exported.get("a3"));
+        assertEquals(new AccountEntity("a4", new BigDecimal("0.125"), 0L), exported.get("a4"));
+    }
+
+    @Test
+    void contractConcurrentLoad() throws Exception {
+        final AccountServiceStressHarness.Report report = new AccountServiceStressHarness(16, 8, 300)
+            .run(this::createService);
+
+        assertTrue(report.getOperations() > 0);
+        assertEquals(Collections.emptyList(), report.getViolations());
+    }
+
+    private static List<AccountEntity> accounts() {
+        return Arrays.asList(new AccountEntity("a1", new BigDecimal("100.50")),
+            new AccountEntity("a2", new BigDecimal("50"), 3L),
+            new AccountEntity("a3", BigDecimal.ZERO),
+            new AccountEntity("a4", new BigDecimal("0.125")));
+    }
+
+    private static List<String> accountNumbers(final List<Account> accounts) {
+        return accounts.stream().map(Account::getAccountNumber).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,307 @@
+package info.umutdeveci.test;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.model.TransferResult;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Drives randomized concurrent withdraw, deposit and transfer traffic against an {@link AccountService} for a fixed
+ * duration, then checks the invariants every implementation has to keep:
+ *
+ * <ul>
+ *     <li>money is conserved, the final total equals the initial total plus successful deposits minus successful
+ *     withdrawals</li>
+ *     <li>no balance is ever negative, checked on the final state and on snapshots taken while the traffic runs</li>
+ *     <li>the history of every account is linearizable: each successful change produced a distinct version, versions
+ *     are contiguous, replaying the changes in version order gives the balance every response reported, and a change
+ *     that completed before another one started has a lower version</li>
+ * </ul>
+ *
+ * Every successful change is kept in memory until the run ends, so the duration should stay in the seconds range.
+ */
+class AccountServiceStressHarness {
+
+    private static final long INITIAL_BALANCE_CENTS = 1_000_00;
+    private static final int MAX_AMOUNT_CENTS = 500_00;
+
+    private final int accountCount;
+    private final int threads;
+    private final long durationMillis;
+
+    AccountServiceStressHarness(final int accountCount, final int threads, final long durationMillis) {
+        this.accountCount = accountCount;
+        this.threads = threads;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @param serviceFactory creates the service under test from the seed accounts
+     */
+    Report run(final Function<List<AccountEntity>, AccountService> serviceFactory) throws Exception {
+        final String[] accountNumbers = new String[accountCount];
+        final List<AccountEntity> seed = new ArrayList<>(accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            accountNumbers[i] = "stress-" + i;
+            seed.add(new AccountEntity(accountNumbers[i], BigDecimal.valueOf(INITIAL_BALANCE_CENTS, 2)));
+        }
+        final AccountService service = serviceFactory.apply(seed);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Worker>> workers = new ArrayList<>();
+        final List<String> violations = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    final Worker worker = new Worker(service, accountNumbers);
+                    start.await();
+                    worker.drive(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis));
+                    return worker;
+                }));
+            }
+            final Future<List<String>> snapshots = executor.submit(() -> {
+                start.await();
+                return checkSnapshots(service, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis));
+            });
+
+            final long startNanos = System.nanoTime();
+            start.countDown();
+
+            final List<Worker> finished = new ArrayList<>();
+            for (final Future<Worker> future : workers) {
+                finished.add(future.get(durationMillis + 30_000, TimeUnit.MILLISECONDS));
+            }
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            violations.addAll(snapshots.get(30, TimeUnit.SECONDS));
+
+            return verify(service, accountNumbers, finished, elapsedNanos, violations);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<String> checkSnapshots(final AccountService service, final long deadline) {
+        final List<String> violations = new ArrayList<>();
+        while (System.nanoTime() < deadline && violations.isEmpty()) {
+            for (final Account account : service.getAll()) {
+                if (account.getBalance().signum() < 0) {
+                    violations.add("Negative balance in a snapshot: " + account);
+                }
+            }
+        }
+        return violations;
+    }
+
+    private Report verify(final AccountService service, final String[] accountNumbers, final List<Worker> workers,
+        final long elapsedNanos, final List<String> violations) {
+        long operations = 0;
+        long rejected = 0;
+        long netFlowCents = 0;
+        final Map<String, List<Change>> histories = new HashMap<>();
+        for (final Worker worker : workers) {
+            operations += worker.operations;
+            rejected += worker.rejected;
+            netFlowCents += worker.netFlowCents;
+            for (final Change change : worker.changes) {
+                histories.computeIfAbsent(change.accountNumber, key -> new ArrayList<>()).add(change);
+            }
+        }
+
+        final Map<String, Account> finalState = new HashMap<>();
+        service.getAll().forEach(account -> finalState.put(account.getAccountNumber(), account));
+
+        long totalCents = 0;
+        for (final String accountNumber : accountNumbers) {
+            final Account account = finalState.get(accountNumber);
+            if (account == null) {
+                violations.add("Account " + accountNumber + " is missing");
+                continue;
+            }
+            final long balanceCents = cents(account.getBalance());
+            totalCents += balanceCents;
+            if (balanceCents < 0) {
+                violations.add("Negative final balance: " + account);
+            }
+            verifyHistory(account, histories.getOrDefault(accountNumber, new ArrayList<>()), violations);
+        }
+
+        final long expectedTotalCents = INITIAL_BALANCE_CENTS * accountNumbers.length + netFlowCents;
+        if (totalCents != expectedTotalCents) {
+            violations.add(String.format("Total is %s, expected %s", BigDecimal.valueOf(totalCents, 2),
+                BigDecimal.valueOf(expectedTotalCents, 2)));
+        }
+
+        return new Report(operations, rejected, elapsedNanos, violations);
+    }
+
+    private void verifyHistory(final Account finalAccount, final List<Change> history, final List<String> violations) {
+        history.sort(Comparator.comparingLong(change -> change.version));
+
+        long balanceCents = INITIAL_BALANCE_CENTS;
+        long maxStartNanos = Long.MIN_VALUE;
+        for (int i = 0; i < history.size(); i++) {
+            final Change change = history.get(i);
+            if (change.version != i + 1) {
+                violations.add(String.format("Account %s has version %d at position %d of its history",
+                    change.accountNumber, change.version, i + 1));
+                return;
+            }
+            balanceCents += change.deltaCents;
+            if (balanceCents != change.balanceCents) {
+                violations.add(String.format("Account %s reported %s at version %d, replaying its history gives %s",
+                    change.accountNumber, BigDecimal.valueOf(change.balanceCents, 2), change.version,
+                    BigDecimal.valueOf(balanceCents, 2)));
+                return;
+            }
+            if (change.endNanos < maxStartNanos) {
+                violations.add(String.format("Account %s version %d completed before a lower version started",
+                    change.accountNumber, change.version));
+                return;
+            }
+            maxStartNanos = Math.max(maxStartNanos, change.startNanos);
+        }
+
+        if (finalAccount.getVersion() == null || finalAccount.getVersion() != history.size()) {
+            violations.add(String.format("Account %s ended at version %s after %d changes",
+                finalAccount.getAccountNumber(), finalAccount.getVersion(), history.size()));
+        }
+        if (cents(finalAccount.getBalance()) != balanceCents) {
+            violations.add(String.format("Account %s ended with %s, replaying its history gives %s",
+                finalAccount.getAccountNumber(), finalAccount.getBalance(), BigDecimal.valueOf(balanceCents, 2)));
+        }
+    }
+
+    private static long cents(final BigDecimal amount) {
+        return amount.movePointRight(2).longValueExact();
+    }
+
+    private static final class Worker {
+
+        private final AccountService service;
+        private final String[] accountNumbers;
+        private final List<Change> changes = new ArrayList<>();
+        private long operations;
+        private long rejected;
+        private long netFlowCents;
+
+        private Worker(final AccountService service, final String[] accountNumbers) {
+            this.service = service;
+            this.accountNumbers = accountNumbers;
+        }
+
+        private void drive(final long deadline) {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                final String accountNumber = accountNumbers[random.nextInt(accountNumbers.length)];
+                final long amountCents = 1 + random.nextInt(MAX_AMOUNT_CENTS);
+                final BigDecimal amount = BigDecimal.valueOf(amountCents, 2);
+
+                final long startNanos = System.nanoTime();
+                try {
+                    final int operation = random.nextInt(4);
+                    if (operation == 0) {
+                        final Account account = service.withdraw(accountNumber, amount);
+                        record(account, -amountCents, startNanos);
+                        netFlowCents -= amountCents;
+                    } else if (operation == 1) {
+                        final Account account = service.deposit(accountNumber, amount);
+                        record(account, amountCents, startNanos);
+                        netFlowCents += amountCents;
+                    } else {
+                        final String toAccountNumber = otherAccount(accountNumber, random);
+                        final TransferResult result = service.transfer(accountNumber, toAccountNumber, amount);
+                        record(result.getFromAccount(), -amountCents, startNanos);
+                        record(result.getToAccount(), amountCents, startNanos);
+                    }
+                } catch (Problem problem) {
+                    // Not enough balance
+                    rejected++;
+                }
+                operations++;
+            }
+        }
+
+        private String otherAccount(final String accountNumber, final ThreadLocalRandom random) {
+            String other;
+            do {
+                other = accountNumbers[random.nextInt(accountNumbers.length)];
+            } while (other.equals(accountNumber));
+            return other;
+        }
+
+        private void record(final Account account, final long deltaCents, final long startNanos) {
+            final long version = account.getVersion() == null ? -1 : account.getVersion();
+            changes.add(new Change(account.getAccountNumber(), version, deltaCents, cents(account.getBalance()),
+                startNanos, System.nanoTime()));
+        }
+    }
+
+    private static final class Change {
+
+        private final String accountNumber;
+        private final long version;
+        private final long deltaCents;
+        private final long balanceCents;
+        private final long startNanos;
+        private final long endNanos;
+
+        private Change(final String accountNumber, final long version, final long deltaCents, final long balanceCents,
+            final long startNanos, final long endNanos) {
+            this.accountNumber = accountNumber;
+            this.version = version;
+            this.deltaCents = deltaCents;
+            this.balanceCents = balanceCents;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    static final class Report {
+
+        private final long operations;
+        private final long rejected;
+        private final long elapsedNanos;
+        private final List<String> violations;
+
+        private Report(final long operations, final long rejected, final long elapsedNanos,
+            final List<String> violations) {
+            this.operations = operations;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+            this.violations = violations;
+        }
+
+        List<String> getViolations() {
+            return violations;
+        }
+
+        long getOperations() {
+            return operations;
+        }
+
+        double getThroughput() {
+            return operations / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d operations (%d rejected) in %d ms, %.0f ops/s, %d violations", operations,
+                rejected, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getThroughput(), violations.size());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.impl.PartitionedAccountService;
+import info.umutdeveci.service.impl.TieredAccountService;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs {@link AccountServiceStressHarness} for a short while, {@code -Dstress.duration-ms} and
+ * {@code -Dstress.threads} make longer and wider runs possible.
+ */
+@Slf4j
+class AccountServiceStressTest {
+
+    private static final long DURATION_MILLIS = Long.getLong("stress.duration-ms", 1_000);
+    private static final int THREADS = Integer.getInteger("stress.threads", 8);
+
+    @Test
+    void segmentedService() throws Exception {
+        final AccountServiceStressHarness.Report report = new AccountServiceStressHarness(64, THREADS, DURATION_MILLIS)
+            .run(accounts -> new InMemoryAccountService(accounts, new AccountEventBus(1024),
+                InMemoryAccountService.DEFAULT_SEGMENT_COUNT));
+
+        log.info("Segmented: {}", report);
+        assertTrue(report.getOperations() > 0);
+        assertEquals(Collections.emptyList(), report.getViolations());
+    }
+
+    @Test
+    void singleSegmentServiceWithFewAccounts() throws Exception {
+        // Every operation competes for one lock and a handful of accounts, the worst case for contention
+        final AccountServiceStressHarness.Report report = new AccountServiceStressHarness(4, THREADS, DURATION_MILLIS)
+            .run(accounts -> new InMemoryAccountService(accounts, new AccountEventBus(1024), 1));
+
+        log.info("Single segment: {}", report);
+        assertTrue(report.getOperations() > 0);
+        assertEquals(Collections.emptyList(), report.getViolations());
+    }
+
+    @Test
+    void partitionedServiceWithFewAccounts() throws Exception {
+        // Almost every transfer crosses partitions, reservations on the same accounts overlap all the time
+        final AtomicReference<PartitionedAccountService> service = new AtomicReference<>();
+        final AccountServiceStressHarness.Report report = new AccountServiceStressHarness(8, THREADS, DURATION_MILLIS)
+            .run(accounts -> {
+                service.set(new PartitionedAccountService(accounts, new AccountEventBus(1024), 4));
+                return service.get();
+            });
+        service.get().close();
+
+        log.info("Partitioned: {}", report);
+        assertTrue(report.getOperations() > 0);
+        assertEquals(Collections.emptyList(), report.getViolations());
+    }
+
+    @Test
+    void tieredServiceWithSmallHotTier(@TempDir final Path directory) throws Exception {
+        // A quarter of the accounts fit on heap, most operations load an account from the file
+        final AtomicReference<TieredAccountService> service = new AtomicReference<>();
+        final AccountServiceStressHarness.Report report = new AccountServiceStressHarness(64, THREADS, DURATION_MILLIS)
+            .run(accounts -> {
+                try {
+                    service.set(new TieredAccountService(accounts, new AccountEventBus(1024), 4, 16, 64,
+                        directory.resolve("accounts.dat")));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return service.get();
+            });
+        service.get().close();
+
+        log.info("Tiered: {}, {}", report, service.get().getStorageStats());
+        assertTrue(report.getOperations() > 0);
+        assertEquals(Collections.emptyList(), report.getViolations());
+        assertTrue(service.get().getStorageStats().getEvictions() > 0);
+    }
+}
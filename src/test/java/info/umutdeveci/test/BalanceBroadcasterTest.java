@@ -0,0 +1,176 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.Application;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.config.Config;
+import info.umutdeveci.config.ServerConfig;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.id.AccountNumberGenerator;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import info.umutdeveci.trace.Tracer;
+import info.umutdeveci.websocket.BalanceBroadcaster;
+import io.javalin.Javalin;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BalanceBroadcasterTest {
+
+    private final ObjectMapper mapper = Application.createObjectMapper();
+    private final BlockingQueue<JsonNode> messages = new LinkedBlockingQueue<>();
+
+    private InMemoryAccountService service;
+    private BalanceBroadcaster broadcaster;
+    private Javalin app;
+    private WebSocket webSocket;
+
+    @BeforeEach
+    void setup() {
+        final AccountEventBus eventBus = new AccountEventBus(1024);
+        service = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100.00")),
+            new AccountEntity("a2", new BigDecimal("50.00")),
+            new AccountEntity("a3", new BigDecimal("10.00"))), eventBus);
+        broadcaster = new BalanceBroadcaster(service, eventBus, mapper, 50, 4, 2);
+        broadcaster.start();
+
+        final Properties properties = new Properties();
+        properties.setProperty("server.port", "0");
+        final ServerConfig serverConfig = ServerConfig
+            .from(new Config(properties, Collections.emptyMap(), new Properties()));
+        app = Application.createApp(serverConfig, service, new AccountImporter(service, mapper),
+            new TransferScheduler(service, Clock.systemUTC(), 100, 10), broadcaster, new Tracer(0, 1),
+            new AccountListCache(service, eventBus, mapper, 4),
+            new InterestAccrualBatch(service, Clock.systemUTC(), 1, 256),
+            new AccountNumberGenerator(Clock.systemUTC(), 0)).start();
+
+        webSocket = HttpClient.newHttpClient().newWebSocketBuilder()
+            .buildAsync(URI.create("ws://localhost:" + app.port() + Application.SUBSCRIBE_PATH), new Listener())
+            .join();
+    }
+
+    @AfterEach
+    void tearDown() {
+        webSocket.abort();
+        app.stop();
+        broadcaster.close();
+    }
+
+    @Test
+    void subscriberReceivesSnapshotThenCoalescedUpdates() throws Exception {
+        send("{\"action\": \"subscribe\", \"account_numbers\": [\"a1\"]}");
+        assertBalance(nextMessage(), "a1", "100.00");
+
+        for (int i = 0; i < 100; i++) {
+            service.deposit("a1", BigDecimal.ONE);
+            service.transfer("a2", "a3", new BigDecimal("0.10"));
+        }
+
+        int updates = 0;
+        JsonNode message;
+        do {
+            message = nextMessage();
+            assertEquals(1, message.get("accounts").size());
+            updates++;
+        } while (new BigDecimal("200.00").compareTo(balance(message, 0)) != 0);
+
+        assertTrue(updates < 100, "Expected coalesced updates but got " + updates);
+        assertNull(messages.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void unsubscribedAccountsAreNotSent() throws Exception {
+        send("{\"action\": \"subscribe\", \"account_numbers\": [\"a1\", \"a2\"]}");
+        final JsonNode snapshot = nextMessage();
+        assertEquals(2, snapshot.get("accounts").size());
+
+        send("{\"action\": \"unsubscribe\", \"account_numbers\": [\"a1\"]}");
+        // Unsubscribe is asynchronous, a change made right away could still be sent
+        Thread.sleep(100);
+        service.deposit("a1", BigDecimal.ONE);
+        service.deposit("a2", BigDecimal.ONE);
+
+        assertBalance(nextMessage(), "a2", "51.00");
+        assertNull(messages.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void invalidSubscriptionsAreReported() throws Exception {
+        send("{\"action\": \"subscribe\", \"account_numbers\": [\"missing\"]}");
+        JsonNode message = nextMessage();
+        assertEquals(HttpStatus.BAD_REQUEST_400, message.get("status").asInt());
+        assertEquals("Account missing does not exist.", message.get("message").asText());
+
+        send("{\"action\": \"subscribe\", \"account_numbers\": [\"a1\", \"a2\", \"a3\"]}");
+        message = nextMessage();
+        assertEquals(HttpStatus.BAD_REQUEST_400, message.get("status").asInt());
+
+        send("not json");
+        message = nextMessage();
+        assertEquals("Malformed subscription message", message.get("message").asText());
+    }
+
+    private void send(final String message) {
+        webSocket.sendText(message, true).join();
+    }
+
+    private JsonNode nextMessage() throws InterruptedException {
+        final JsonNode message = messages.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message, "No message received");
+        return message;
+    }
+
+    private static void assertBalance(final JsonNode message, final String accountNumber, final String balance) {
+        assertEquals(1, message.get("accounts").size());
+        assertEquals(accountNumber, message.get("accounts").get(0).get("account_number").asText());
+        assertEquals(0, new BigDecimal(balance).compareTo(balance(message, 0)));
+    }
+
+    private static BigDecimal balance(final JsonNode message, final int index) {
+        return message.get("accounts").get(index).get("balance").decimalValue();
+    }
+
+    private class Listener implements WebSocket.Listener {
+
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onText(final WebSocket webSocket, final CharSequence data, final boolean last) {
+            text.append(data);
+            if (last) {
+                try {
+                    messages.add(mapper.readTree(text.toString()));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                text.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package info.umutdeveci.test;
+
+import static info.umutdeveci.tcp.BinaryProtocol.OP_DEPOSIT;
+import static info.umutdeveci.tcp.BinaryProtocol.OP_GET;
+import static info.umutdeveci.tcp.BinaryProtocol.OP_TRANSFER;
+import static info.umutdeveci.tcp.BinaryProtocol.OP_WITHDRAW;
+import static info.umutdeveci.tcp.BinaryProtocol.STATUS_OK;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.tcp.BinaryProtocol;
+import info.umutdeveci.tcp.BinaryProtocolServer;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BinaryProtocolServerTest {
+
+    private InMemoryAccountService service;
+    private BinaryProtocolServer server;
+    private SocketChannel channel;
+    private final byte[] scratch = new byte[BinaryProtocol.MAX_STRING_LENGTH];
+
+    @BeforeEach
+    void setup() throws IOException {
+        service = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100.00")),
+            new AccountEntity("a2", new BigDecimal("50.00"))));
+        server = new BinaryProtocolServer(service, 0, 1, 8 * 1024);
+        server.start();
+        channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        channel.close();
+        server.close();
+    }
+
+    @Test
+    void pipelinedRequests() throws IOException {
+        final ByteBuffer requests = ByteBuffer.allocate(1024);
+        request(requests, 1, OP_GET, "a1", null, null);
+        request(requests, 2, OP_WITHDRAW, "a1", null, new BigDecimal("10.50"));
+        request(requests, 3, OP_DEPOSIT, "a2", null, new BigDecimal("1"));
+        request(requests, 4, OP_TRANSFER, "a1", "a2", new BigDecimal("20"));
+        send(requests);
+
+        ByteBuffer response = readResponse();
+        assertEquals(1, response.getLong());
+        assertEquals(STATUS_OK, response.getShort());
+        assertAccount(response, "a1", "100.00");
+
+        response = readResponse();
+        assertEquals(2, response.getLong());
+        assertEquals(STATUS_OK, response.getShort());
+        assertAccount(response, "a1", "89.50");
+
+        response = readResponse();
+        assertEquals(3, response.getLong());
+        assertEquals(STATUS_OK, response.getShort());
+        assertAccount(response, "a2", "51.00");
+
+        response = readResponse();
+        assertEquals(4, response.getLong());
+        assertEquals(STATUS_OK, response.getShort());
+        assertAccount(response, "a1", "69.50");
+        assertAccount(response, "a2", "71.00");
+
+        assertEquals(new BigDecimal("69.50"), service.get("a1").getBalance());
+    }
+
+    @Test
+    void errorsAreReportedWithHttpStatus() throws IOException {
+        final ByteBuffer requests = ByteBuffer.allocate(1024);
+        request(requests, 7, OP_WITHDRAW, "a2", null, new BigDecimal("1000"));
+        request(requests, 8, OP_GET, "missing", null, null);
+        request(requests, 9, OP_GET, "a2", null, null);
+        send(requests);
+
+        ByteBuffer response = readResponse();
+        assertEquals(7, response.getLong());
+        assertEquals(HttpStatus.BAD_REQUEST_400, response.getShort());
+        assertEquals("Account does not have enough balance.", BinaryProtocol.readString(response, scratch));
+
+        response = readResponse();
+        assertEquals(8, response.getLong());
+        assertEquals(HttpStatus.BAD_REQUEST_400, response.getShort());
+
+        response = readResponse();
+        assertEquals(9, response.getLong());
+        assertEquals(STATUS_OK, response.getShort());
+        assertAccount(response, "a2", "50.00");
+    }
+
+    @Test
+    void unknownOpcodeKeepsTheConnectionOpen() throws IOException {
+        final ByteBuffer requests = ByteBuffer.allocate(1024);
+        request(requests, 10, (byte) 99, "a1", null, null);
+        request(requests, 11, OP_GET, "a1", null, null);
+        send(requests);
+
+        ByteBuffer response = readResponse();
+        assertEquals(10, response.getLong());
+        assertEquals(HttpStatus.BAD_REQUEST_400, response.getShort());
+
+        response = readResponse();
+        assertEquals(11, response.getLong());
+        assertEquals(STATUS_OK, response.getShort());
+    }
+
+    @Test
+    void appliedChangeWithUnencodableResultIsAServerError() throws IOException {
+        final ByteBuffer requests = ByteBuffer.allocate(1024);
+        request(requests, 12, OP_DEPOSIT, "a1", null, BigDecimal.valueOf(Long.MAX_VALUE, 2));
+        request(requests, 13, OP_GET, "a2", null, null);
+        send(requests);
+
+        final ByteBuffer response = readResponse();
+        assertEquals(12, response.getLong());
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR_500, response.getShort());
+        assertEquals(BigDecimal.valueOf(Long.MAX_VALUE, 2).add(new BigDecimal("100.00")),
+            service.get("a1").getBalance());
+
+        // Nothing after the failed request is executed, the connection is closed
+        assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void manyPipelinedRequestsExceedingBufferSize() throws IOException {
+        final int count = 2_000;
+        final ByteBuffer requests = ByteBuffer.allocate(count * 32);
+        for (int i = 0; i < count; i++) {
+            request(requests, i, OP_DEPOSIT, "a1", null, new BigDecimal("0.01"));
+        }
+        send(requests);
+
+        for (int i = 0; i < count; i++) {
+            final ByteBuffer response = readResponse();
+            assertEquals(i, response.getLong());
+            assertEquals(STATUS_OK, response.getShort());
+        }
+        assertEquals(new BigDecimal("120.00"), service.get("a1").getBalance());
+    }
+
+    private void request(final ByteBuffer buffer, final long correlationId, final byte opcode, final String account,
+        final String secondAccount, final BigDecimal amount) {
+        final int start = buffer.position();
+        buffer.putInt(0);
+        buffer.putLong(correlationId);
+        buffer.put(opcode);
+        BinaryProtocol.writeString(buffer, account);
+        if (secondAccount != null) {
+            BinaryProtocol.writeString(buffer, secondAccount);
+        }
+        if (amount != null) {
+            BinaryProtocol.writeAmount(buffer, amount);
+        }
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    private void send(final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private ByteBuffer readResponse() throws IOException {
+        final ByteBuffer length = readFully(Integer.BYTES);
+        return readFully(length.getInt());
+    }
+
+    private ByteBuffer readFully(final int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Connection closed");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void assertAccount(final ByteBuffer response, final String accountNumber, final String balance) {
+        assertEquals(accountNumber, BinaryProtocol.readString(response, scratch));
+        assertEquals(new BigDecimal(balance), BinaryProtocol.readAmount(response));
+    }
+}
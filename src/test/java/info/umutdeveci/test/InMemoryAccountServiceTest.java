@@ -8,18 +8,33 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import info.umutdeveci.exception.Problem;
 import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
 import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
 import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.model.Hold;
+import info.umutdeveci.service.model.MultiTransferResult;
+import info.umutdeveci.service.model.TransferLeg;
 import info.umutdeveci.service.model.TransferResult;
 import info.umutdeveci.service.util.AccountServiceUtil;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.eclipse.jetty.http.HttpStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-class InMemoryAccountServiceTest {
+class InMemoryAccountServiceTest extends AccountServiceContractTest {
 
     private InMemoryAccountService service;
     private List<AccountEntity> accountEntities;
@@ -30,6 +45,11 @@ class InMemoryAccountServiceTest {
         service = new InMemoryAccountService(accountEntities);
     }
 
+    @Override
+    protected AccountService createService(final List<AccountEntity> accounts) {
+        return new InMemoryAccountService(accounts, new AccountEventBus(1024), 4);
+    }
+
     @Test
     void accountsShouldBeEqual() {
         final List<Account> accounts = service.getAll();
@@ -220,4 +240,210 @@ class InMemoryAccountServiceTest {
         assertThrows(Problem.class,
             () -> service.transfer(fromEntity.getAccountNumber(), toEntity.getAccountNumber(), BigDecimal.ZERO));
     }
+
+    @Test
+    void conditionalWithdrawAndDeposit() {
+        final AccountEntity entity = accountEntities.get(0);
+        final String accountNumber = entity.getAccountNumber();
+        entity.setBalance(new BigDecimal("100"));
+
+        final Account read = service.get(accountNumber);
+        assertEquals(0L, read.getVersion());
+
+        final Account withdrawn = service.withdraw(accountNumber, BigDecimal.ONE, read.getVersion());
+        assertEquals(1L, withdrawn.getVersion());
+
+        // A write based on the first read is stale now
+        final Problem problem = assertThrows(Problem.class,
+            () -> service.deposit(accountNumber, BigDecimal.ONE, read.getVersion()));
+        assertEquals(HttpStatus.PRECONDITION_FAILED_412, problem.getHttpCode());
+        assertEquals(new BigDecimal("99"), service.get(accountNumber).getBalance());
+
+        assertEquals(2L, service.deposit(accountNumber, BigDecimal.ONE, withdrawn.getVersion()).getVersion());
+        assertEquals(3L, service.deposit(accountNumber, BigDecimal.ONE).getVersion());
+    }
+
+    @Test
+    void conditionalTransferWithStaleVersionChangesNothing() {
+        final AccountEntity fromEntity = accountEntities.get(0);
+        final AccountEntity toEntity = accountEntities.get(1);
+        fromEntity.setBalance(new BigDecimal("100"));
+        toEntity.setBalance(BigDecimal.ZERO);
+        service.deposit(toEntity.getAccountNumber(), BigDecimal.ONE);
+
+        assertThrows(Problem.class, () -> service.transfer(fromEntity.getAccountNumber(), toEntity.getAccountNumber(),
+            BigDecimal.TEN, 0L, 0L));
+        assertEquals(new BigDecimal("100"), service.get(fromEntity.getAccountNumber()).getBalance());
+
+        final TransferResult result = service.transfer(fromEntity.getAccountNumber(), toEntity.getAccountNumber(),
+            BigDecimal.TEN, 0L, 1L);
+        assertEquals(1L, result.getFromAccount().getVersion());
+        assertEquals(2L, result.getToAccount().getVersion());
+    }
+
+    @Test
+    void multiTransferSuccess() {
+        final InMemoryAccountService multiService = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100")),
+            new AccountEntity("a2", new BigDecimal("50")),
+            new AccountEntity("a3", BigDecimal.ZERO),
+            new AccountEntity("a4", BigDecimal.ZERO)));
+
+        final MultiTransferResult result = multiService.multiTransfer(
+            Arrays.asList(new TransferLeg("a1", new BigDecimal("60")), new TransferLeg("a2", new BigDecimal("20"))),
+            Arrays.asList(new TransferLeg("a3", new BigDecimal("30")), new TransferLeg("a4", new BigDecimal("50"))));
+
+        assertEquals(Arrays.asList(new Account("a1", new BigDecimal("40"), 1L),
+            new Account("a2", new BigDecimal("30"), 1L), new Account("a3", new BigDecimal("30"), 1L),
+            new Account("a4", new BigDecimal("50"), 1L)), result.getAccounts());
+        assertEquals(new BigDecimal("50"), multiService.get("a4").getBalance());
+    }
+
+    @Test
+    void multiTransferNotEnoughBalanceChangesNothing() {
+        final InMemoryAccountService multiService = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100")),
+            new AccountEntity("a2", new BigDecimal("10")),
+            new AccountEntity("a3", BigDecimal.ZERO)));
+
+        assertThrows(Problem.class, () -> multiService.multiTransfer(
+            Arrays.asList(new TransferLeg("a1", new BigDecimal("60")), new TransferLeg("a2", new BigDecimal("20"))),
+            Collections.singletonList(new TransferLeg("a3", new BigDecimal("80")))));
+
+        assertEquals(new BigDecimal("100"), multiService.get("a1").getBalance());
+        assertEquals(new BigDecimal("10"), multiService.get("a2").getBalance());
+        assertEquals(BigDecimal.ZERO, multiService.get("a3").getBalance());
+    }
+
+    @Test
+    void multiTransferInvalidLegs() {
+        final String from = accountEntities.get(0).getAccountNumber();
+        final String to = accountEntities.get(1).getAccountNumber();
+
+        // Unbalanced
+        assertThrows(Problem.class, () -> service.multiTransfer(
+            Collections.singletonList(new TransferLeg(from, BigDecimal.ONE)),
+            Collections.singletonList(new TransferLeg(to, BigDecimal.TEN))));
+        // Same account twice
+        assertThrows(Problem.class, () -> service.multiTransfer(
+            Collections.singletonList(new TransferLeg(from, BigDecimal.ONE)),
+            Collections.singletonList(new TransferLeg(from, BigDecimal.ONE))));
+        // No credit
+        assertThrows(Problem.class, () -> service.multiTransfer(
+            Collections.singletonList(new TransferLeg(from, BigDecimal.ONE)), Collections.emptyList()));
+        // Missing account
+        assertThrows(Problem.class, () -> service.multiTransfer(
+            Collections.singletonList(new TransferLeg(from, BigDecimal.ONE)),
+            Collections.singletonList(new TransferLeg("does not exist", BigDecimal.ONE))));
+    }
+
+    @Test
+    void concurrentTransfersDoNotDeadlockAndKeepTotal() throws Exception {
+        final List<AccountEntity> entities = generateRandomAccounts(20);
+        entities.forEach(entity -> entity.setBalance(new BigDecimal(1_000)));
+        // Few segments so that transfers keep competing for the same locks in different orders
+        final InMemoryAccountService concurrentService = new InMemoryAccountService(entities,
+            new AccountEventBus(1024), 4);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 2_000; i++) {
+                        final int first = random.nextInt(entities.size());
+                        // Second is never right before first, so the three of them are distinct
+                        final int second = (first + 1 + random.nextInt(entities.size() - 2)) % entities.size();
+                        final int third = (second + 1) % entities.size();
+                        try {
+                            if (random.nextBoolean()) {
+                                concurrentService.transfer(entities.get(first).getAccountNumber(),
+                                    entities.get(second).getAccountNumber(), BigDecimal.ONE);
+                            } else {
+                                concurrentService.multiTransfer(
+                                    Collections.singletonList(
+                                        new TransferLeg(entities.get(first).getAccountNumber(), BigDecimal.TEN)),
+                                    Arrays.asList(new TransferLeg(entities.get(second).getAccountNumber(),
+                                        new BigDecimal(4)), new TransferLeg(entities.get(third).getAccountNumber(),
+                                        new BigDecimal(6))));
+                            }
+                        } catch (Problem e) {
+                            // Not enough balance
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final BigDecimal total = concurrentService.getAll().stream()
+            .map(Account::getBalance)
+            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(new BigDecimal(20_000), total);
+
+        // The balance index moved with every change
+        final List<Account> expected = new ArrayList<>(concurrentService.getAll());
+        expected.sort(Comparator.comparing(Account::getBalance).thenComparing(Account::getAccountNumber));
+        assertEquals(expected, concurrentService.findByBalance(null, null, false, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void findByBalanceFollowsRangeOrderAndLimit() {
+        final InMemoryAccountService indexedService = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("10")),
+            new AccountEntity("a2", new BigDecimal("50")),
+            new AccountEntity("a3", new BigDecimal("50.00")),
+            new AccountEntity("a4", new BigDecimal("100")),
+            new AccountEntity("a5", new BigDecimal("200"))));
+
+        assertEquals(Arrays.asList("a2", "a3", "a4"), accountNumbers(
+            indexedService.findByBalance(new BigDecimal("50"), new BigDecimal("100"), false, 10)));
+        assertEquals(Arrays.asList("a5", "a4"), accountNumbers(indexedService.findByBalance(null, null, true, 2)));
+
+        indexedService.withdraw("a5", new BigDecimal("190"));
+        final List<Account> lowBalances = indexedService.findByBalance(null, new BigDecimal("10"), false, 10);
+        assertEquals(Arrays.asList(new Account("a1", new BigDecimal("10"), 0L),
+            new Account("a5", new BigDecimal("10"), 1L)), lowBalances);
+        assertTrue(indexedService.findByBalance(new BigDecimal("150"), null, false, 10).isEmpty());
+    }
+
+    private static List<String> accountNumbers(final List<Account> accounts) {
+        return accounts.stream().map(Account::getAccountNumber).collect(Collectors.toList());
+    }
+
+    @Test
+    void holdsExpireInTheSecondTheyAreDue() {
+        final List<AccountEntity> entities = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            entities.add(new AccountEntity("h" + i, new BigDecimal(1000)));
+        }
+        final InMemoryAccountService holdService = new InMemoryAccountService(entities, new AccountEventBus(1024), 16);
+        // Whole seconds, so every hold is due at the start of a tick
+        final long now = System.currentTimeMillis() / 1000 * 1000;
+
+        final List<Hold> holds = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            holds.add(holdService.authorize("h" + i % 64, BigDecimal.ONE, now + (i % 100 + 1) * 1000L));
+        }
+        assertTrue(holdService.get("h0").getAvailableBalance().compareTo(new BigDecimal(1000)) < 0);
+
+        assertEquals(0, holdService.expireHolds(now));
+        assertEquals(5_000, holdService.expireHolds(now + 50_000));
+        assertEquals(0, holdService.expireHolds(now + 50_999));
+        // Ids lead to the segment of the account, whichever it is
+        holdService.capture(holds.get(99).getId(), null);
+        holdService.release(holds.get(98).getId());
+        assertEquals(4_998, holdService.expireHolds(now + 100_000));
+
+        final BigDecimal total = holdService.getAll().stream().map(Account::getBalance)
+            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(0, new BigDecimal(64 * 1000 - 1).compareTo(total));
+        assertTrue(holdService.getAll().stream().allMatch(account -> account.getAvailableBalance() == null));
+    }
+
 }
@@ -0,0 +1,134 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.model.AccrualProgress;
+import info.umutdeveci.service.model.AccrualState;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import lombok.NonNull;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class InterestAccrualBatchTest {
+
+    private static final int ACCOUNTS = 1000;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private InterestAccrualBatch batch;
+
+    @AfterEach
+    void tearDown() {
+        if (batch != null) {
+            batch.close();
+        }
+    }
+
+    @Test
+    void interestIsAppliedToEveryAccount() throws Exception {
+        final FailingAccountService service = new FailingAccountService(accounts("100.00"), Integer.MAX_VALUE);
+        batch = new InterestAccrualBatch(service, Clock.systemUTC(), 4, 10);
+
+        batch.start(new BigDecimal("0.015"));
+        final AccrualProgress progress = batch.awaitCurrent(TIMEOUT_MILLIS);
+
+        assertEquals(AccrualState.COMPLETED, progress.getState());
+        assertEquals(16, progress.getCompletedPartitions());
+        assertEquals(ACCOUNTS, progress.getProcessedAccounts());
+        assertEquals(ACCOUNTS, progress.getAdjustedAccounts());
+        for (final Account account : service.getAll()) {
+            assertEquals(new BigDecimal("101.50"), account.getBalance());
+            assertEquals(1L, account.getVersion());
+        }
+    }
+
+    @Test
+    void failedRunIsResumedWithoutApplyingTwice() throws Exception {
+        final FailingAccountService service = new FailingAccountService(accounts("100.00"), 20);
+        batch = new InterestAccrualBatch(service, Clock.systemUTC(), 4, 10);
+
+        batch.start(new BigDecimal("0.01"));
+        final AccrualProgress failed = batch.awaitCurrent(TIMEOUT_MILLIS);
+        assertEquals(AccrualState.FAILED, failed.getState());
+        assertTrue(failed.getProcessedAccounts() < ACCOUNTS);
+
+        service.failAfter.set(Integer.MAX_VALUE);
+        batch.resume();
+        final AccrualProgress resumed = batch.awaitCurrent(TIMEOUT_MILLIS);
+
+        assertEquals(AccrualState.COMPLETED, resumed.getState());
+        assertEquals(ACCOUNTS, resumed.getProcessedAccounts());
+        for (final Account account : service.getAll()) {
+            assertEquals(new BigDecimal("101.00"), account.getBalance());
+            assertEquals(1L, account.getVersion());
+        }
+        assertThrows(Problem.class, batch::resume);
+    }
+
+    @Test
+    void feesRoundHalfEven() throws Exception {
+        final FailingAccountService service = new FailingAccountService(accounts("0.50"), Integer.MAX_VALUE);
+        batch = new InterestAccrualBatch(service, Clock.systemUTC(), 2, 64);
+
+        batch.start(new BigDecimal("-0.05"));
+        batch.awaitCurrent(TIMEOUT_MILLIS);
+
+        // 0.025 rounds to 0.02
+        for (final Account account : service.getAll()) {
+            assertEquals(new BigDecimal("0.48"), account.getBalance());
+        }
+    }
+
+    @Test
+    void invalidRateIsRejected() {
+        batch = new InterestAccrualBatch(new FailingAccountService(accounts("1"), 0), Clock.systemUTC(), 1, 1);
+
+        final Problem problem = assertThrows(Problem.class, () -> batch.start(new BigDecimal("-1")));
+        assertEquals(HttpStatus.BAD_REQUEST_400, problem.getHttpCode());
+        assertEquals(HttpStatus.NOT_FOUND_404,
+            assertThrows(Problem.class, () -> batch.getProgress()).getHttpCode());
+    }
+
+    private static List<AccountEntity> accounts(final String balance) {
+        final List<AccountEntity> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(new AccountEntity("a" + i, new BigDecimal(balance)));
+        }
+        return accounts;
+    }
+
+    /**
+     * Fails every chunk after the first {@code failAfter} ones, before changing anything
+     */
+    private static final class FailingAccountService extends InMemoryAccountService {
+
+        private final AtomicInteger failAfter;
+
+        private FailingAccountService(final List<AccountEntity> accounts, final int failAfter) {
+            super(accounts, new AccountEventBus(1024), 16);
+            this.failAfter = new AtomicInteger(failAfter);
+        }
+
+        @Override
+        public int adjustBalances(@NonNull final List<String> accountNumbers,
+            @NonNull final UnaryOperator<BigDecimal> adjustment) {
+            if (failAfter.getAndDecrement() <= 0) {
+                throw new IllegalStateException("Storage is not available");
+            }
+            return super.adjustBalances(accountNumbers, adjustment);
+        }
+    }
+}
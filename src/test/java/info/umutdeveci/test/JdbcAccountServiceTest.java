@@ -0,0 +1,222 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import info.umutdeveci.Application;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.impl.JdbcAccountService;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JdbcAccountServiceTest extends AccountServiceContractTest {
+
+    private final List<HikariDataSource> dataSources = new ArrayList<>();
+
+    @AfterEach
+    void closeDataSources() {
+        dataSources.forEach(HikariDataSource::close);
+    }
+
+    @Override
+    protected AccountService createService(final List<AccountEntity> accounts) {
+        return new JdbcAccountService(dataSource("jdbc:h2:mem:" + UUID.randomUUID()), new AccountEventBus(1024),
+            accounts);
+    }
+
+    @Test
+    void accountsAreKeptAcrossRestarts(@TempDir final Path directory) {
+        final String url = "jdbc:h2:" + directory.resolve("accounts");
+        final HikariDataSource first = dataSource(url);
+        new JdbcAccountService(first, new AccountEventBus(64),
+            Collections.singletonList(new AccountEntity("a1", new BigDecimal("10.00")))).deposit("a1", BigDecimal.ONE);
+        first.close();
+
+        // Seed accounts are only imported into an empty table
+        final JdbcAccountService restarted = new JdbcAccountService(dataSource(url), new AccountEventBus(64),
+            Collections.singletonList(new AccountEntity("a2", BigDecimal.ONE)));
+
+        assertEquals(Collections.singletonList(new Account("a1", new BigDecimal("11.00"), 1L)), restarted.getAll());
+    }
+
+    @Test
+    void balancesTheColumnCanNotHoldAreRejected() {
+        final AccountService service = createService(Collections.singletonList(
+            new AccountEntity("a1", BigDecimal.ONE)));
+
+        final Problem problem = assertThrows(Problem.class, () -> service.deposit("a1", new BigDecimal("1E-11")));
+        assertEquals(HttpStatus.BAD_REQUEST_400, problem.getHttpCode());
+        assertThrows(Problem.class, () -> service.importAccounts(Collections.singletonList(
+            new AccountEntity("a2", new BigDecimal("1E+28")))));
+        assertEquals(new Account("a1", BigDecimal.ONE, 0L), service.get("a1"));
+    }
+
+    @Test
+    void cacheSeesChangesWhoseCommitWasDelayed() throws Exception {
+        final AtomicBoolean delayed = new AtomicBoolean();
+        final CountDownLatch committing = new CountDownLatch(1);
+        final CountDownLatch commit = new CountDownLatch(1);
+        final DataSource dataSource = interceptCommits(dataSource("jdbc:h2:mem:" + UUID.randomUUID()), () -> {
+            if (delayed.get()) {
+                committing.countDown();
+                commit.await(10, TimeUnit.SECONDS);
+            }
+        });
+        final AccountEventBus eventBus = new AccountEventBus(64);
+        final JdbcAccountService service = new JdbcAccountService(dataSource, eventBus,
+            Collections.singletonList(new AccountEntity("a1", new BigDecimal("10.00"))));
+        final ObjectMapper mapper = Application.createObjectMapper();
+        final AccountListCache cache = new AccountListCache(service, eventBus, mapper, 4);
+        cache.get();
+        final long published = eventBus.getNextSequence();
+        delayed.set(true);
+
+        final CompletableFuture<Account> deposit = CompletableFuture.supplyAsync(
+            () -> service.deposit("a1", new BigDecimal("5.00")));
+        assertTrue(committing.await(10, TimeUnit.SECONDS));
+        // Nothing is published while the commit is pending, so the cache can not read the old row back on an event
+        assertEquals(published, eventBus.getNextSequence());
+        assertEquals(0, new BigDecimal("10.00").compareTo(balance(mapper, cache.get().getJson())));
+
+        commit.countDown();
+        assertEquals(new Account("a1", new BigDecimal("15.00"), 1L), deposit.get(10, TimeUnit.SECONDS));
+        assertEquals(0, new BigDecimal("15.00").compareTo(balance(mapper, cache.get().getJson())));
+    }
+
+    @Test
+    void failedCommitPublishesNothing() {
+        final AtomicBoolean failing = new AtomicBoolean();
+        final AccountEventBus eventBus = new AccountEventBus(64);
+        final JdbcAccountService service = new JdbcAccountService(
+            interceptCommits(dataSource("jdbc:h2:mem:" + UUID.randomUUID()), () -> {
+                if (failing.get()) {
+                    throw new SQLException("Commit failed");
+                }
+            }), eventBus, Collections.emptyList());
+        failing.set(true);
+
+        assertThrows(RuntimeException.class, () -> service.openAccount("a1", BigDecimal.ONE));
+        assertEquals(0, eventBus.getNextSequence());
+        assertThrows(Problem.class, () -> service.get("a1"));
+    }
+
+    @Test
+    void concurrentOpeningsOfOneNumberConflict() throws Exception {
+        final JdbcAccountService service = (JdbcAccountService) createService(Collections.emptyList());
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 50; round++) {
+                final String accountNumber = "a" + round;
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<Integer>> openings = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    openings.add(executor.submit(() -> {
+                        start.await();
+                        try {
+                            service.openAccount(accountNumber, BigDecimal.ONE);
+                            return HttpStatus.OK_200;
+                        } catch (Problem problem) {
+                            return problem.getHttpCode();
+                        }
+                    }));
+                }
+                start.countDown();
+
+                int opened = 0;
+                for (final Future<Integer> opening : openings) {
+                    final int status = opening.get(10, TimeUnit.SECONDS);
+                    if (status == HttpStatus.OK_200) {
+                        opened++;
+                    } else {
+                        assertEquals(HttpStatus.CONFLICT_409, status);
+                    }
+                }
+                assertEquals(1, opened);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static BigDecimal balance(final ObjectMapper mapper, final byte[] json) throws IOException {
+        final JsonNode accounts = mapper.readTree(json);
+        assertEquals(1, accounts.size());
+        return accounts.get(0).get("balance").decimalValue();
+    }
+
+    /**
+     * Runs the interceptor before each commit of the connections the data source hands out
+     */
+    private static DataSource interceptCommits(final DataSource dataSource, final CommitInterceptor interceptor) {
+        return proxy(DataSource.class, (proxy, method, args) -> {
+            final Object result = method.invoke(dataSource, args);
+            if (!"getConnection".equals(method.getName())) {
+                return result;
+            }
+            final Connection connection = (Connection) result;
+            return proxy(Connection.class, (connectionProxy, connectionMethod, connectionArgs) -> {
+                if ("commit".equals(connectionMethod.getName())) {
+                    interceptor.beforeCommit();
+                }
+                return connectionMethod.invoke(connection, connectionArgs);
+            });
+        });
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            try {
+                return handler.invoke(proxy, method, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+
+    @FunctionalInterface
+    private interface CommitInterceptor {
+
+        void beforeCommit() throws SQLException, InterruptedException;
+    }
+
+    private HikariDataSource dataSource(final String url) {
+        final HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setMaximumPoolSize(8);
+        final HikariDataSource dataSource = new HikariDataSource(config);
+        dataSources.add(dataSource);
+        return dataSource;
+    }
+}
@@ -0,0 +1,41 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.openapi.OpenApiGenerator;
+import org.junit.jupiter.api.Test;
+
+class OpenApiGeneratorTest {
+
+    @Test
+    void documentContainsAllRoutes() throws Exception {
+        final JsonNode document = new ObjectMapper().readTree(OpenApiGenerator.generate());
+
+        assertEquals("Account API", document.path("info").path("title").asText());
+
+        final JsonNode paths = document.path("paths");
+        assertTrue(paths.has("/account"));
+        assertTrue(paths.has("/account/import"));
+        assertTrue(paths.has("/account/export"));
+        assertTrue(paths.has("/account/{account_number}/withdraw"));
+        assertTrue(paths.has("/transfer"));
+        assertTrue(paths.has("/transfer/multi"));
+        assertTrue(paths.has("/debug/traces"));
+        assertTrue(paths.has("/debug/storage"));
+        assertTrue(paths.has("/batch/interest"));
+        assertTrue(paths.has("/batch/interest/resume"));
+        assertTrue(paths.has("/transfer/stream"));
+        assertTrue(paths.has("/transfer/scheduled/{id}"));
+        assertEquals("transfer", paths.path("/transfer").path("post").path("operationId").asText());
+        assertEquals("openAccount", paths.path("/account").path("post").path("operationId").asText());
+        assertEquals("closeAccount", paths.path("/account/{account_number}").path("delete").path("operationId")
+            .asText());
+        assertEquals("authorize", paths.path("/account/{account_number}/hold").path("post").path("operationId")
+            .asText());
+        assertEquals("capture", paths.path("/hold/{id}/capture").path("post").path("operationId").asText());
+        assertEquals("release", paths.path("/hold/{id}").path("delete").path("operationId").asText());
+    }
+}
@@ -0,0 +1,164 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.AccountService;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.impl.PartitionedAccountService;
+import info.umutdeveci.service.model.TransferLeg;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class PartitionedAccountServiceTest extends AccountServiceContractTest {
+
+    private final List<PartitionedAccountService> services = new ArrayList<>();
+
+    @AfterEach
+    void closeServices() {
+        services.forEach(PartitionedAccountService::close);
+    }
+
+    @Override
+    protected AccountService createService(final List<AccountEntity> accounts) {
+        return service(accounts, 4);
+    }
+
+    @Test
+    void failedCreditLeavesTheSourceAsItWas() {
+        final PartitionedAccountService service = service(accounts(20), 2);
+        final String from = service.getAccountNumbers(0).get(0);
+        final String to = service.getAccountNumbers(1).get(0);
+
+        final Problem problem = assertThrows(Problem.class, () -> service.transfer(from, to, BigDecimal.TEN, 0L, 1L));
+        assertEquals(HttpStatus.PRECONDITION_FAILED_412, problem.getHttpCode());
+        assertEquals(new Account(from, new BigDecimal(100), 0L), service.get(from));
+
+        service.withdraw(to, new BigDecimal(100));
+        service.closeAccount(to, null);
+        assertEquals(HttpStatus.BAD_REQUEST_400,
+            assertThrows(Problem.class, () -> service.transfer(from, to, BigDecimal.TEN)).getHttpCode());
+        assertEquals(new Account(from, new BigDecimal(100), 0L), service.get(from));
+
+        // The whole balance is available again
+        assertEquals(new Account(from, BigDecimal.ZERO, 1L), service.withdraw(from, new BigDecimal(100)));
+    }
+
+    @Test
+    void multiTransfersInOppositeOrderDoNotDeadlock() throws Exception {
+        final PartitionedAccountService service = service(accounts(40), 4);
+        final List<String> numbers = new ArrayList<>();
+        for (int partition = 0; partition < service.getPartitionCount(); partition++) {
+            numbers.add(service.getAccountNumbers(partition).get(0));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int worker = 0; worker < 4; worker++) {
+                final boolean reversed = worker % 2 == 1;
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        final String first = numbers.get(reversed ? 3 : 0);
+                        final String last = numbers.get(reversed ? 0 : 3);
+                        try {
+                            service.multiTransfer(Arrays.asList(new TransferLeg(first, BigDecimal.ONE),
+                                new TransferLeg(numbers.get(1), BigDecimal.ONE)),
+                                Arrays.asList(new TransferLeg(numbers.get(2), BigDecimal.ONE),
+                                    new TransferLeg(last, BigDecimal.ONE)));
+                            service.transfer(numbers.get(2), reversed ? first : numbers.get(1), BigDecimal.ONE);
+                        } catch (Problem problem) {
+                            // Not enough balance
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final BigDecimal total = service.getAll().stream().map(Account::getBalance)
+            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(0, new BigDecimal(40 * 100).compareTo(total));
+        service.getAll().forEach(account -> assertNull(account.getAvailableBalance()));
+    }
+
+    @Test
+    void exportsWhileTransfersRunConserveTheTotal() throws Exception {
+        final PartitionedAccountService service = service(accounts(40), 4);
+        final BigDecimal total = new BigDecimal(40 * 100);
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int worker = 0; worker < 4; worker++) {
+                final Random random = new Random(worker);
+                workers.add(executor.submit(() -> {
+                    while (running.get()) {
+                        final String to = "a" + random.nextInt(40);
+                        try {
+                            // The target's version is read early, so some credits fail after the debit and are refunded
+                            service.transfer("a" + random.nextInt(40), to, BigDecimal.ONE, null,
+                                service.get(to).getVersion());
+                        } catch (Problem problem) {
+                            // Same account, not enough balance or the target changed
+                        }
+                    }
+                }));
+            }
+
+            for (int i = 0; i < 50; i++) {
+                final List<AccountEntity> exported = new ArrayList<>();
+                service.exportSnapshot(exported::addAll);
+                assertEquals(40, exported.size());
+                assertEquals(0, total.compareTo(exported.stream().map(AccountEntity::getBalance)
+                    .reduce(BigDecimal.ZERO, BigDecimal::add)));
+                assertEquals(0, total.compareTo(service.getAll().stream().map(Account::getBalance)
+                    .reduce(BigDecimal.ZERO, BigDecimal::add)));
+            }
+            running.set(false);
+            for (final Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+
+        service.getAll().forEach(account -> assertNull(account.getAvailableBalance()));
+    }
+
+    private PartitionedAccountService service(final List<AccountEntity> accounts, final int partitionCount) {
+        final PartitionedAccountService service = new PartitionedAccountService(accounts, new AccountEventBus(1024),
+            partitionCount);
+        services.add(service);
+        return service;
+    }
+
+    private static List<AccountEntity> accounts(final int count) {
+        final List<AccountEntity> accounts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            accounts.add(new AccountEntity("a" + i, new BigDecimal(100)));
+        }
+        return accounts;
+    }
+}
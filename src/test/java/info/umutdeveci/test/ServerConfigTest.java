@@ -0,0 +1,92 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import info.umutdeveci.config.Config;
+import info.umutdeveci.config.ServerConfig;
+import info.umutdeveci.config.ThreadPoolModel;
+import info.umutdeveci.server.JettyServerFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.Test;
+
+class ServerConfigTest {
+
+    @Test
+    void environmentOverridesFileAndSystemPropertyOverridesEnvironment() {
+        final Properties file = new Properties();
+        file.setProperty("server.port", "9000");
+        file.setProperty("server.thread-pool.max-threads", "50");
+        file.setProperty("server.thread-pool.model", "executor");
+
+        final Properties systemProperties = new Properties();
+        systemProperties.setProperty("server.port", "9200");
+
+        final Map<String, String> environment = Map.of("SERVER_PORT", "9100", "SERVER_THREAD_POOL_MAX_THREADS", "75");
+
+        final ServerConfig config = ServerConfig.from(new Config(file, environment, systemProperties));
+
+        assertEquals(9200, config.getPort());
+        assertEquals(75, config.getMaxThreads());
+        assertEquals(ThreadPoolModel.EXECUTOR, config.getThreadPoolModel());
+        assertEquals(30_000, config.getIdleTimeoutMillis());
+    }
+
+    @Test
+    void invalidValueIsReported() {
+        final Properties file = new Properties();
+        file.setProperty("server.thread-pool.model", "forkjoin");
+
+        final Config config = new Config(file, Collections.emptyMap(), new Properties());
+        assertThrows(IllegalArgumentException.class, () -> ServerConfig.from(config));
+    }
+
+    @Test
+    void queuedServer() {
+        final Server server = JettyServerFactory.createServer(config(ThreadPoolModel.QUEUED, false));
+
+        assertTrue(server.getThreadPool() instanceof QueuedThreadPool);
+        assertEquals(100, ((QueuedThreadPool) server.getThreadPool()).getMaxThreads());
+
+        final ServerConnector connector = (ServerConnector) server.getConnectors()[0];
+        assertEquals(1234, connector.getPort());
+        assertEquals(1, connector.getAcceptors());
+        assertEquals(Collections.singletonList("http/1.1"), connector.getProtocols());
+    }
+
+    @Test
+    void executorServerWithHttp2() {
+        final Server server = JettyServerFactory.createServer(config(ThreadPoolModel.EXECUTOR, true));
+
+        assertTrue(server.getThreadPool() instanceof ExecutorThreadPool);
+        assertEquals(Arrays.asList("http/1.1", "h2c"), server.getConnectors()[0].getProtocols());
+    }
+
+    @Test
+    void virtualServerFallsBackWhenUnsupported() {
+        final Server server = JettyServerFactory.createServer(config(ThreadPoolModel.VIRTUAL, false));
+
+        final boolean virtualThreadsAvailable = Runtime.version().feature() >= 21;
+        assertEquals(!virtualThreadsAvailable, server.getThreadPool() instanceof QueuedThreadPool);
+        assertFalse(server.getThreadPool().isLowOnThreads());
+    }
+
+    private ServerConfig config(final ThreadPoolModel threadPoolModel, final boolean http2Enabled) {
+        final Properties file = new Properties();
+        file.setProperty("server.port", "1234");
+        file.setProperty("server.thread-pool.model", threadPoolModel.name());
+        file.setProperty("server.thread-pool.max-threads", "100");
+        file.setProperty("server.connector.acceptors", "1");
+        file.setProperty("server.http2.enabled", String.valueOf(http2Enabled));
+        return ServerConfig.from(new Config(file, Collections.emptyMap(), new Properties()));
+    }
+}
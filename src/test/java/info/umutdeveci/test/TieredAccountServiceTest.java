@@ -0,0 +1,174 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.model.Account;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.impl.TieredAccountService;
+import info.umutdeveci.service.model.StorageStats;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TieredAccountServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private TieredAccountService service;
+
+    @AfterEach
+    void close() throws IOException {
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    @Test
+    void scanDoesNotEvictAccountsUsedAgain() throws IOException {
+        service = service(accounts(200), 10, 200);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 4; i++) {
+                service.get("a" + i);
+            }
+        }
+
+        // Every other account is read once, far more than the hot tier holds
+        for (int i = 4; i < 200; i++) {
+            service.get("a" + i);
+        }
+        final StorageStats beforeReadingAgain = service.getStorageStats();
+        for (int i = 0; i < 4; i++) {
+            service.get("a" + i);
+        }
+
+        final StorageStats stats = service.getStorageStats();
+        assertEquals(beforeReadingAgain.getHotHits() + 4, stats.getHotHits());
+        assertEquals(beforeReadingAgain.getColdHits(), stats.getColdHits());
+        assertEquals(200, stats.getColdHits());
+        assertEquals(200 - 10, stats.getEvictions());
+    }
+
+    @Test
+    void changesAreWrittenThroughToTheFile() throws IOException {
+        service = service(accounts(100), 1, 100);
+
+        service.transfer("a1", "a2", BigDecimal.TEN);
+        // Loads other accounts, so the changed ones are evicted
+        service.deposit("a3", BigDecimal.ONE);
+        service.get("a4");
+
+        assertEquals(new Account("a1", new BigDecimal(90), 1L), service.get("a1"));
+        assertEquals(new Account("a2", new BigDecimal(110), 1L), service.get("a2"));
+        assertEquals(new Account("a3", new BigDecimal(101), 1L), service.get("a3"));
+        final BigDecimal total = service.getAll().stream().map(Account::getBalance)
+            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(0, new BigDecimal(100 * 100 + 1).compareTo(total));
+        assertEquals(Arrays.asList("a3", "a2"), accountNumbers(service.findByBalance(new BigDecimal(101), null,
+            false, 10)));
+        assertEquals(0, service.getStorageStats().getMisses());
+    }
+
+    @Test
+    void balanceTheFileCanNotHoldChangesNothing() throws IOException {
+        service = service(accounts(2), 2, 2);
+
+        final BigDecimal tooLarge = BigDecimal.valueOf(Long.MAX_VALUE);
+        final Problem problem = assertThrows(Problem.class, () -> service.deposit("a0", tooLarge));
+
+        assertEquals(HttpStatus.BAD_REQUEST_400, problem.getHttpCode());
+        assertEquals(new Account("a0", new BigDecimal(100), 0L), service.get("a0"));
+    }
+
+    @Test
+    void fullFileRejectsNewAccounts() throws IOException {
+        service = service(Collections.emptyList(), 2, 6);
+        final List<AccountEntity> created = accounts(6);
+        assertEquals(6, service.importAccounts(created));
+        assertEquals(0, service.importAccounts(created));
+
+        final Problem problem = assertThrows(Problem.class, () -> service.importAccounts(
+            Collections.singletonList(new AccountEntity("one-too-many", BigDecimal.ONE))));
+
+        assertEquals(HttpStatus.INSUFFICIENT_STORAGE_507, problem.getHttpCode());
+        assertEquals(6, service.getAll().size());
+        assertThrows(Problem.class, () -> service.get("one-too-many"));
+    }
+
+    @Test
+    void closedAccountsMakeRoomInTheFile() throws IOException {
+        service = service(accounts(5), 2, 6);
+
+        // Far more accounts than the file holds pass through it, each closing one leaves a tombstone behind
+        for (int i = 0; i < 200; i++) {
+            service.openAccount("short-lived" + i, BigDecimal.ZERO);
+            service.deposit("a" + (i % 5), BigDecimal.ONE);
+            service.closeAccount("short-lived" + i, null);
+        }
+
+        assertEquals(5, service.getAll().size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(new Account("a" + i, new BigDecimal(140), 40L), service.get("a" + i));
+        }
+        service.openAccount("a5", BigDecimal.ZERO);
+        final Problem problem = assertThrows(Problem.class, () -> service.openAccount("a6", BigDecimal.ZERO));
+        assertEquals(HttpStatus.INSUFFICIENT_STORAGE_507, problem.getHttpCode());
+    }
+
+    @Test
+    void heldFundsAreWrittenToTheFile() throws IOException {
+        service = service(accounts(10), 1, 10);
+
+        final long holdId = service.authorize("a1", new BigDecimal("12.5"), System.currentTimeMillis() + 60_000)
+            .getId();
+        service.get("a2");
+
+        assertEquals(new Account("a1", new BigDecimal(100), 1L, new BigDecimal("87.5")), service.get("a1"));
+        service.get("a2");
+        assertEquals(new Account("a1", new BigDecimal("87.5"), 2L), service.capture(holdId, null));
+    }
+
+    @Test
+    void fileIsDeletedOnClose() throws IOException {
+        service = service(accounts(10), 2, 10);
+        final Path file = directory.resolve("accounts.dat");
+
+        service.close();
+        service = null;
+
+        assertFalse(Files.exists(file));
+    }
+
+    private TieredAccountService service(final List<AccountEntity> accounts, final int hotCapacity,
+        final int coldCapacity) throws IOException {
+        return new TieredAccountService(accounts, new AccountEventBus(1024), 1, hotCapacity, coldCapacity,
+            directory.resolve("accounts.dat"));
+    }
+
+    private static List<AccountEntity> accounts(final int count) {
+        final List<AccountEntity> accounts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            accounts.add(new AccountEntity("a" + i, new BigDecimal(100)));
+        }
+        return accounts;
+    }
+
+    private static List<String> accountNumbers(final List<Account> accounts) {
+        final List<String> accountNumbers = new ArrayList<>();
+        accounts.forEach(account -> accountNumbers.add(account.getAccountNumber()));
+        return accountNumbers;
+    }
+}
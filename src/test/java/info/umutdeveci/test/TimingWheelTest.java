@@ -0,0 +1,88 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import info.umutdeveci.service.scheduler.TimingWheel;
+import info.umutdeveci.service.scheduler.TimingWheel.Timeout;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+    @Test
+    void timeoutsExpireExactlyAtTheirDeadline() {
+        final long start = 1_000_003;
+        final TimingWheel<Long> wheel = new TimingWheel<>(start);
+        final Random random = new Random(42);
+        final List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            // Spread over several levels of the wheel
+            final long deadline = start + 1 + (long) Math.pow(random.nextDouble(), 3) * 5_000_000L;
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+        assertEquals(deadlines.size(), wheel.size());
+
+        final List<Long> expired = new ArrayList<>();
+        long tick = start;
+        while (wheel.size() > 0) {
+            tick += 1 + random.nextInt(5_000);
+            final long now = tick;
+            wheel.advance(now, deadline -> {
+                assertTrue(deadline <= now);
+                assertEquals(deadline.longValue(), wheel.getCurrentTick());
+                expired.add(deadline);
+            });
+        }
+
+        Collections.sort(deadlines);
+        assertEquals(deadlines, expired);
+    }
+
+    @Test
+    void expiresOnTheTickOfTheDeadline() {
+        final TimingWheel<String> wheel = new TimingWheel<>(0);
+        wheel.schedule(64, "a");
+        wheel.schedule(4096, "b");
+        wheel.schedule(4097, "c");
+        wheel.schedule(-5, "past");
+
+        final List<String> expired = new ArrayList<>();
+        wheel.advance(1, expired::add);
+        assertEquals(Collections.singletonList("past"), expired);
+
+        wheel.advance(63, expired::add);
+        assertEquals(1, expired.size());
+        wheel.advance(64, expired::add);
+        assertEquals(Arrays.asList("past", "a"), expired);
+
+        wheel.advance(4095, expired::add);
+        assertEquals(2, expired.size());
+        wheel.advance(4096, expired::add);
+        assertEquals(Arrays.asList("past", "a", "b"), expired);
+        wheel.advance(4097, expired::add);
+        assertEquals(Arrays.asList("past", "a", "b", "c"), expired);
+    }
+
+    @Test
+    void cancelledTimeoutsDoNotExpire() {
+        final TimingWheel<String> wheel = new TimingWheel<>(0);
+        final Timeout<String> cancelled = wheel.schedule(100, "cancelled");
+        wheel.schedule(100, "kept");
+
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        assertEquals(1, wheel.size());
+
+        final List<String> expired = new ArrayList<>();
+        wheel.advance(200, expired::add);
+        assertEquals(Collections.singletonList("kept"), expired);
+        assertEquals(0, wheel.size());
+    }
+}
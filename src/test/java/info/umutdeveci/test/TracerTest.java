@@ -0,0 +1,148 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.Application;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.config.Config;
+import info.umutdeveci.config.ServerConfig;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.id.AccountNumberGenerator;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import info.umutdeveci.trace.TracePhase;
+import info.umutdeveci.trace.TraceRecord;
+import info.umutdeveci.trace.Tracer;
+import info.umutdeveci.websocket.BalanceBroadcaster;
+import io.javalin.Javalin;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+class TracerTest {
+
+    @Test
+    void unsampledRequestIsNotRecorded() {
+        final Tracer tracer = new Tracer(0, 16);
+
+        tracer.begin("GET /account");
+        assertEquals(0, Tracer.phaseStart());
+        assertEquals(0, Tracer.phaseEnd(TracePhase.PARSE, 0));
+        tracer.end(HttpStatus.OK_200);
+
+        assertTrue(tracer.slowest(10).isEmpty());
+    }
+
+    @Test
+    void sampledRequestRecordsPhases() throws InterruptedException {
+        final Tracer tracer = new Tracer(1, 16);
+
+        tracer.begin("POST /transfer");
+        final long parseStart = Tracer.phaseStart();
+        Thread.sleep(5);
+        final long lockWaitStart = Tracer.phaseEnd(TracePhase.PARSE, parseStart);
+        Tracer.phaseEnd(TracePhase.LOCK_WAIT, lockWaitStart);
+        tracer.end(HttpStatus.OK_200);
+
+        // Phases reported after the request ended are ignored
+        Tracer.phaseEnd(TracePhase.MUTATE, System.nanoTime());
+
+        final List<TraceRecord> traces = tracer.slowest(10);
+        assertEquals(1, traces.size());
+        final TraceRecord trace = traces.get(0);
+        assertEquals("POST /transfer", trace.getName());
+        assertEquals(HttpStatus.OK_200, trace.getStatus());
+        assertTrue(trace.getPhaseNanos(TracePhase.PARSE) >= 5_000_000);
+        assertEquals(0, trace.getPhaseNanos(TracePhase.MUTATE));
+        assertTrue(trace.getTotalNanos() >= trace.getPhaseNanos(TracePhase.PARSE));
+    }
+
+    @Test
+    void slowestOfTheMostRecentAreReturned() throws InterruptedException {
+        final Tracer tracer = new Tracer(1, 2);
+
+        // The slowest one is overwritten by the two that follow it
+        trace(tracer, "first", 20);
+        trace(tracer, "second", 1);
+        trace(tracer, "third", 5);
+
+        final List<TraceRecord> traces = tracer.slowest(10);
+        assertEquals(2, traces.size());
+        assertEquals("third", traces.get(0).getName());
+        assertEquals("second", traces.get(1).getName());
+        assertEquals(1, tracer.slowest(1).size());
+    }
+
+    @Test
+    void transferIsTracedThroughTheApplication() throws Exception {
+        final ObjectMapper mapper = Application.createObjectMapper();
+        final AccountEventBus eventBus = new AccountEventBus(1024);
+        final InMemoryAccountService service = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100.00")),
+            new AccountEntity("a2", new BigDecimal("50.00"))), eventBus);
+        final BalanceBroadcaster broadcaster = new BalanceBroadcaster(service, eventBus, mapper, 100, 4, 10);
+
+        final Properties properties = new Properties();
+        properties.setProperty("server.port", "0");
+        final ServerConfig serverConfig = ServerConfig
+            .from(new Config(properties, Collections.emptyMap(), new Properties()));
+        final Javalin app = Application.createApp(serverConfig, service, new AccountImporter(service, mapper),
+            new TransferScheduler(service, Clock.systemUTC(), 100, 10), broadcaster, new Tracer(1, 16),
+            new AccountListCache(service, eventBus, mapper, 4),
+            new InterestAccrualBatch(service, Clock.systemUTC(), 1, 256),
+            new AccountNumberGenerator(Clock.systemUTC(), 0)).start();
+        try {
+            final HttpClient client = HttpClient.newHttpClient();
+            final String baseUrl = "http://localhost:" + app.port();
+
+            final HttpResponse<String> transfer = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/transfer"))
+                .POST(BodyPublishers.ofString(
+                    "{\"from_account_number\": \"a1\", \"to_account_number\": \"a2\", \"amount\": 10}"))
+                .build(), BodyHandlers.ofString());
+            assertEquals(HttpStatus.OK_200, transfer.statusCode());
+
+            final HttpResponse<String> traces = client.send(
+                HttpRequest.newBuilder(URI.create(baseUrl + "/debug/traces?limit=5")).GET().build(),
+                BodyHandlers.ofString());
+            assertEquals(HttpStatus.OK_200, traces.statusCode());
+
+            JsonNode transferTrace = null;
+            for (final JsonNode trace : mapper.readTree(traces.body())) {
+                if ("POST /transfer".equals(trace.get("name").asText())) {
+                    transferTrace = trace;
+                }
+            }
+            assertTrue(transferTrace != null, traces.body());
+            assertEquals(HttpStatus.OK_200, transferTrace.get("status").asInt());
+            for (final String phase : Arrays.asList("parse", "validate", "lock_wait", "mutate", "serialize")) {
+                assertTrue(transferTrace.get("phase_micros").has(phase), phase);
+            }
+        } finally {
+            app.stop();
+            broadcaster.close();
+        }
+    }
+
+    private static void trace(final Tracer tracer, final String name, final long millis) throws InterruptedException {
+        tracer.begin(name);
+        Thread.sleep(millis);
+        tracer.end(HttpStatus.OK_200);
+    }
+}
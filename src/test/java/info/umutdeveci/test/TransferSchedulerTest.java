@@ -0,0 +1,137 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import info.umutdeveci.exception.Problem;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.model.ScheduledTransfer;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TransferSchedulerTest {
+
+    private static final long START = 1_600_000_000_000L;
+
+    private ManualClock clock;
+    private InMemoryAccountService service;
+    private TransferScheduler scheduler;
+
+    @BeforeEach
+    void setup() {
+        clock = new ManualClock(START);
+        service = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100")),
+            new AccountEntity("a2", new BigDecimal("0"))));
+        scheduler = new TransferScheduler(service, clock, 100, 2);
+    }
+
+    @Test
+    void oneOffTransferRunsOnceWhenDue() {
+        final ScheduledTransfer scheduled = scheduler.schedule("a1", "a2", new BigDecimal("10"), START + 1_050, null);
+
+        clock.advance(1_000);
+        assertEquals(0, scheduler.runDue());
+        // Due at 1050, the tick at 1100 is the first one after it
+        clock.advance(50);
+        assertEquals(0, scheduler.runDue());
+        clock.advance(50);
+        assertEquals(1, scheduler.runDue());
+
+        assertEquals(new BigDecimal("90"), service.get("a1").getBalance());
+        assertEquals(0, scheduler.size());
+        final Problem problem = assertThrows(Problem.class, () -> scheduler.get(scheduled.getId()));
+        assertEquals(HttpStatus.NOT_FOUND_404, problem.getHttpCode());
+
+        clock.advance(100_000);
+        assertEquals(0, scheduler.runDue());
+    }
+
+    @Test
+    void recurringTransferKeepsItsScheduleAndRecordsFailures() {
+        final ScheduledTransfer scheduled = scheduler.schedule("a1", "a2", new BigDecimal("40"), START, 60L);
+
+        clock.advance(100);
+        assertEquals(1, scheduler.runDue());
+        clock.advance(60_000);
+        assertEquals(1, scheduler.runDue());
+        // Only 20 left, the third execution fails but the transfer stays scheduled
+        clock.advance(60_000);
+        assertEquals(1, scheduler.runDue());
+
+        final ScheduledTransfer state = scheduler.get(scheduled.getId());
+        assertEquals(3, state.getExecutions());
+        assertEquals(1, state.getFailures());
+        assertEquals("Account does not have enough balance.", state.getLastError());
+        assertEquals(START + 180_000, state.getNextExecutionAt());
+        assertEquals(new BigDecimal("20"), service.get("a1").getBalance());
+        assertEquals(new BigDecimal("80"), service.get("a2").getBalance());
+
+        scheduler.cancel(scheduled.getId());
+        clock.advance(600_000);
+        assertEquals(0, scheduler.runDue());
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    void dueTransfersAreExecutedInBatches() {
+        for (int i = 0; i < 25; i++) {
+            scheduler.schedule(i % 2 == 0 ? "a1" : "a2", i % 2 == 0 ? "a2" : "a1", BigDecimal.ONE, START + i * 10, null);
+        }
+
+        clock.advance(1_000);
+        assertEquals(25, scheduler.runDue());
+        assertEquals(new BigDecimal("99"), service.get("a1").getBalance());
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    void invalidTransfersAreRejected() {
+        assertThrows(Problem.class, () -> scheduler.schedule("a1", "a1", BigDecimal.ONE, START, null));
+        assertThrows(Problem.class, () -> scheduler.schedule("a1", "a2", BigDecimal.ZERO, START, null));
+        assertThrows(Problem.class, () -> scheduler.schedule("a1", "a2", BigDecimal.ONE, START, 0L));
+        assertEquals(0, scheduler.size());
+    }
+
+    private static class ManualClock extends Clock {
+
+        private long millis;
+
+        private ManualClock(final long millis) {
+            this.millis = millis;
+        }
+
+        private void advance(final long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package info.umutdeveci.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import info.umutdeveci.Application;
+import info.umutdeveci.cache.AccountListCache;
+import info.umutdeveci.config.Config;
+import info.umutdeveci.config.ServerConfig;
+import info.umutdeveci.service.batch.InterestAccrualBatch;
+import info.umutdeveci.service.entity.AccountEntity;
+import info.umutdeveci.service.event.AccountEventBus;
+import info.umutdeveci.service.id.AccountNumberGenerator;
+import info.umutdeveci.service.impl.InMemoryAccountService;
+import info.umutdeveci.service.importer.AccountImporter;
+import info.umutdeveci.service.scheduler.TransferScheduler;
+import info.umutdeveci.trace.Tracer;
+import info.umutdeveci.websocket.BalanceBroadcaster;
+import io.javalin.Javalin;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TransferStreamControllerTest {
+
+    private final ObjectMapper mapper = Application.createObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private InMemoryAccountService service;
+    private BalanceBroadcaster broadcaster;
+    private Javalin app;
+
+    @BeforeEach
+    void setup() {
+        final AccountEventBus eventBus = new AccountEventBus(1024);
+        service = new InMemoryAccountService(Arrays.asList(
+            new AccountEntity("a1", new BigDecimal("100.00")),
+            new AccountEntity("a2", new BigDecimal("50.00"))), eventBus);
+        broadcaster = new BalanceBroadcaster(service, eventBus, mapper, 100, 4, 10);
+
+        final Properties properties = new Properties();
+        properties.setProperty("server.port", "0");
+        final ServerConfig serverConfig = ServerConfig
+            .from(new Config(properties, Collections.emptyMap(), new Properties()));
+        app = Application.createApp(serverConfig, service, new AccountImporter(service, mapper),
+            new TransferScheduler(service, Clock.systemUTC(), 100, 10), broadcaster, new Tracer(0, 1),
+            new AccountListCache(service, eventBus, mapper, 4),
+            new InterestAccrualBatch(service, Clock.systemUTC(), 1, 256),
+            new AccountNumberGenerator(Clock.systemUTC(), 0)).start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        app.stop();
+        broadcaster.close();
+    }
+
+    @Test
+    void everyRecordGetsAResultInOrder() throws Exception {
+        final String body = String.join("\n",
+            "{\"from_account_number\": \"a1\", \"to_account_number\": \"a2\", \"amount\": 10}",
+            "",
+            "{\"from_account_number\": \"a1\", \"to_account_number\": \"a2\", \"amount\": 1000}",
+            "not json",
+            "{\"from_account_number\": \"a1\", \"amount\": 1}",
+            "{\"from_account_number\": \"a2\", \"to_account_number\": \"a1\", \"amount\": 5.5}");
+
+        final HttpResponse<String> response = client.send(request(BodyPublishers.ofString(body)),
+            BodyHandlers.ofString());
+
+        assertEquals(HttpStatus.OK_200, response.statusCode());
+        assertEquals("application/x-ndjson", response.headers().firstValue("Content-Type").orElse(""));
+
+        final List<JsonNode> results = response.body().lines().map(this::readTree).collect(Collectors.toList());
+        assertEquals(5, results.size());
+        assertResult(results.get(0), 1, HttpStatus.OK_200);
+        assertEquals(0, new BigDecimal("90").compareTo(results.get(0).path("from_account").path("balance")
+            .decimalValue()));
+        assertResult(results.get(1), 3, HttpStatus.BAD_REQUEST_400);
+        assertEquals("Account does not have enough balance.", results.get(1).path("message").asText());
+        assertResult(results.get(2), 4, HttpStatus.BAD_REQUEST_400);
+        assertResult(results.get(3), 5, HttpStatus.BAD_REQUEST_400);
+        assertResult(results.get(4), 6, HttpStatus.OK_200);
+        assertFalse(results.get(4).has("message"));
+
+        assertEquals(new BigDecimal("95.50"), service.get("a1").getBalance());
+        assertEquals(new BigDecimal("54.50"), service.get("a2").getBalance());
+    }
+
+    /**
+     * HttpClient only reads the response of an HTTP/1.1 request once the request body is sent, so this test talks
+     * chunked HTTP over a plain socket.
+     */
+    @Test
+    void resultsAreStreamedBeforeTheRequestEnds() throws Exception {
+        try (Socket socket = new Socket("localhost", app.port())) {
+            socket.setSoTimeout(5_000);
+            final OutputStream requestStream = socket.getOutputStream();
+            final BufferedReader responseReader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            requestStream.write(("POST /transfer/stream HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Type: application/x-ndjson\r\nTransfer-Encoding: chunked\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+            writeChunk(requestStream, "{\"from_account_number\": \"a1\", \"to_account_number\": \"a2\", \"amount\": 1}\n");
+
+            assertEquals("HTTP/1.1 200 OK", responseReader.readLine());
+            while (!responseReader.readLine().isEmpty()) {
+                // Skip headers
+            }
+            assertResult(readTree(readChunk(responseReader)), 1, HttpStatus.OK_200);
+
+            // The first result arrived while the request is still open, the second one is sent only now
+            writeChunk(requestStream, "{\"from_account_number\": \"a1\", \"to_account_number\": \"a2\", \"amount\": 2}\n");
+            assertResult(readTree(readChunk(responseReader)), 2, HttpStatus.OK_200);
+
+            writeChunk(requestStream, "");
+            assertEquals("", readChunk(responseReader));
+        }
+        assertEquals(new BigDecimal("97.00"), service.get("a1").getBalance());
+    }
+
+    private HttpRequest request(final HttpRequest.BodyPublisher body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + "/transfer/stream"))
+            .header("Content-Type", "application/x-ndjson")
+            .POST(body)
+            .build();
+    }
+
+    private static void writeChunk(final OutputStream outputStream, final String data) throws IOException {
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        outputStream.write((Integer.toHexString(bytes.length) + "\r\n").getBytes(StandardCharsets.UTF_8));
+        outputStream.write(bytes);
+        outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        outputStream.flush();
+    }
+
+    /**
+     * Reads one chunk of an ASCII response, which has to be a single line. Jetty sends the CRLF ending a chunk together
+     * with the next one, so it is skipped before the size instead of after the data.
+     */
+    private static String readChunk(final BufferedReader reader) throws IOException {
+        String sizeLine;
+        while ((sizeLine = reader.readLine()).isEmpty()) {
+            // End of the previous chunk
+        }
+        final int size = Integer.parseInt(sizeLine.trim(), 16);
+        if (size == 0) {
+            return "";
+        }
+        final String line = reader.readLine();
+        assertEquals(size, line.length() + 1);
+        return line;
+    }
+
+    private static void assertResult(final JsonNode result, final long line, final int status) {
+        assertEquals(line, result.path("line").asLong());
+        assertEquals(status, result.path("status").asInt());
+    }
+
+    private JsonNode readTree(final String json) {
+        try {
+            return mapper.readTree(json);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}